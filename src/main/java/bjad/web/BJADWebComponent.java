@@ -1,40 +1,45 @@
 package bjad.web;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
-import java.util.LinkedHashMap;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.Map;
-import java.util.Map.Entry;
-
-import javax.net.ssl.SSLContext;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.http.Header;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpEntityEnclosingRequest;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpDelete;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpHead;
-import org.apache.http.client.methods.HttpOptions;
-import org.apache.http.client.methods.HttpPatch;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpPut;
-import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.client.methods.HttpTrace;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
+import org.apache.http.HttpHeaders;
+import org.apache.http.entity.ContentType;
 import org.apache.http.util.TextUtils;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 
 import bjad.web.body.AbstractBodyModel;
 import bjad.web.body.ObjectJSONStringBody;
+import bjad.web.body.StreamingJSONBody;
+import bjad.web.cache.CachePolicy;
+import bjad.web.cache.RequestCoalescer;
+import bjad.web.cache.ResponseCache;
+import bjad.web.cache.ResponseCacheHandler;
+import bjad.web.cache.ResultCache;
+import bjad.web.download.BJADDownloadResponse;
+import bjad.web.download.FileDownloader;
+import bjad.web.download.ResumableDownloader;
+import bjad.web.download.SegmentedDownloader;
+import bjad.web.logging.AsyncWireLogger;
+import bjad.web.logging.WireLogEvent;
+import bjad.web.resilience.ResiliencePipeline;
+import bjad.web.transport.TransportResponse;
 
 /**
  * The main component class for the web component.  
@@ -55,6 +60,13 @@ public class BJADWebComponent
     */
    protected Log logger;
    
+   /**
+    * The logger for the request and response bodies, named after 
+    * the component's logger with the ".Payload" suffix so the 
+    * bodies can be turned off while the calls are still logged.
+    */
+   protected Log payloadLogger;
+   
    /**
     * Creates a component with a blank request. 
     */
@@ -80,6 +92,7 @@ public class BJADWebComponent
          }
       }
       this.logger = LogFactory.getLog(loggerName);
+      this.payloadLogger = LogFactory.getLog(loggerName + BJADWebConstants.PAYLOAD_LOGGER_SUFFIX);
    }
 
    /**
@@ -182,23 +195,498 @@ public class BJADWebComponent
     *    Any exceptions while attempt to get data 
     *    from the web resource will be thrown.    
     */
-   @SuppressWarnings("unchecked") // We test the class, so this warning is moot.
    private <T> BJADWebResponse<T> internalPerformWebCall(String charset, Class<T> clazz, Object body) throws BJADWebException
+   {
+      final BJADWebRequest REQUEST = operationRequest;
+      final boolean SAMPLED = isWireLogSampled(REQUEST);
+      HttpEntity entity = prepareBody(REQUEST, SAMPLED, body);
+      
+      // Serve the cacheable operations through the result cache if a
+      // TTL is set, otherwise the response cache if set, coalescing 
+      // the identical operations in flight if enabled.
+      final ResponseCache CACHE = REQUEST.getResponseCache();
+      if (entity == null && CachePolicy.isCacheableMethod(REQUEST.getMethod()))
+      {
+         final boolean CACHEABLE = CachePolicy.isCacheableRequest(REQUEST);
+         if (CACHEABLE && REQUEST.getResultCacheTtl() > 0)
+         {
+            return convertResponse(REQUEST, SAMPLED, charset, clazz, 
+                  ResultCache.getSharedInstance().fetch(REQUEST, BJADWebComponent::fetchCacheableResponse));
+         }
+         if ((CACHEABLE && CACHE != null) || REQUEST.isCoalesceRequests())
+         {
+            return convertResponse(REQUEST, SAMPLED, charset, clazz, fetchCacheableResponse(REQUEST));
+         }
+      }
+      
+      // Read the body before the response is closed, closing the 
+      // response releases the connection for the next operation.
+      BJADWebResponse<byte[]> bytes = null;
+      try (TransportResponse response = ResiliencePipeline.send(REQUEST, entity))
+      {
+         // Successful unsafe operations invalidate the cached responses for the URL.
+         if (!CachePolicy.isCacheableMethod(REQUEST.getMethod()) && response.getStatusCode() < 400)
+         {
+            if (CACHE != null)
+            {
+               ResponseCacheHandler.invalidate(CACHE, REQUEST.getUrl());
+            }
+            ResultCache.invalidateShared(REQUEST.getUrl());
+         }
+         
+         // Typed operations stream the body straight into the JSON 
+         // converter unless the body needs to be logged.
+         if (isStreamedType(REQUEST, clazz))
+         {
+            BJADWebResponse<T> returnVal = response.toWebResponse();
+            returnVal.setData(readJson(REQUEST, charset, clazz, response.getHeaders(), response.getContent()));
+            logSendorRecv(REQUEST, SAMPLED, "RECV", "Streamed into " + clazz.getCanonicalName(), null);
+            return returnVal;
+         }
+         bytes = response.readFully();
+      }
+      catch (IOException ex)
+      {
+         throw new BJADWebException(ex);
+      }
+      return convertResponse(REQUEST, SAMPLED, charset, clazz, bytes);
+   }
+   
+   /**
+    * Completes the safe operation, coalesced with the identical 
+    * operations in flight if enabled, returning the full response.
+    * Used to load and refresh the results within the result cache.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @return
+    *    The response object with the content of the response.
+    * @throws BJADWebException
+    *    Any exceptions while attempt to get data 
+    *    from the web resource will be thrown.
+    */
+   private static BJADWebResponse<byte[]> fetchCacheableResponse(BJADWebRequest request) throws BJADWebException
+   {
+      if (request.isCoalesceRequests())
+      {
+         return RequestCoalescer.getSharedInstance().execute(request, BJADWebComponent::loadCacheableResponse);
+      }
+      return loadCacheableResponse(request);
+   }
+   
+   /**
+    * Completes the safe operation, through the response cache if 
+    * set and the request is cacheable, returning the full response.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @return
+    *    The response object with the content of the response.
+    * @throws BJADWebException
+    *    Any exceptions while attempt to get data 
+    *    from the web resource will be thrown.
+    */
+   private static BJADWebResponse<byte[]> loadCacheableResponse(BJADWebRequest request) throws BJADWebException
+   {
+      if (request.getResponseCache() != null && CachePolicy.isCacheableRequest(request))
+      {
+         return ResponseCacheHandler.fetch(request, request.getResponseCache(), ResiliencePipeline::send);
+      }
+      try (TransportResponse response = ResiliencePipeline.send(request, null))
+      {
+         return response.readFully();
+      }
+      catch (IOException ex)
+      {
+         throw new BJADWebException(ex);
+      }
+   }
+   
+   /**
+    * Downloads the content from the web server straight into the 
+    * file passed, without holding the content in memory. 
+    * 
+    * @param target
+    *    The file to write the content to, replaced if it exists.
+    * @return
+    *    The response object containing the status code, headers, 
+    *    duration, bytes written, and the path to the file, or a 
+    *    null path if the server did not return a good response.
+    * @throws BJADWebException
+    *    Any exceptions while attempt to download the data 
+    *    from the web resource will be thrown.
+    */
+   public BJADDownloadResponse performDownload(Path target) throws BJADWebException
+   {
+      return new FileDownloader(operationRequest).download(target);
+   }
+   
+   /**
+    * Downloads the content from the web server into the file passed 
+    * by fetching byte ranges of the content concurrently, falling 
+    * back to a single stream if the server does not support ranges.
+    * 
+    * @param target
+    *    The file to write the content to, replaced if it exists.
+    * @param segments
+    *    The number of byte ranges to download concurrently.
+    * @return
+    *    The response object containing the status code, headers, 
+    *    duration, bytes written, and the path to the file, or a 
+    *    null path if the server did not return a good response.
+    * @throws BJADWebException
+    *    Any exceptions while attempt to download the data 
+    *    from the web resource will be thrown.
+    */
+   public BJADDownloadResponse performSegmentedDownload(Path target, int segments) throws BJADWebException
+   {
+      return new SegmentedDownloader(operationRequest, segments).download(target);
+   }
+   
+   /**
+    * Downloads the content from the web server into the file passed,
+    * resuming from the checkpoint left by a previous attempt, and 
+    * retrying from the checkpoint if the transfer times out. 
+    * 
+    * @param target
+    *    The file to write the content to.
+    * @return
+    *    The response object containing the status code, headers, 
+    *    duration, bytes written, and the path to the file, or a 
+    *    null path if the server did not return a good response.
+    * @throws BJADWebException
+    *    Any exceptions while attempt to download the data 
+    *    from the web resource will be thrown.
+    */
+   public BJADDownloadResponse performResumableDownload(Path target) throws BJADWebException
+   {
+      return new ResumableDownloader(operationRequest).download(target);
+   }
+   
+   /**
+    * Gathers the JSON array returned by the web server as an iterator, 
+    * binding each element as it is pulled from the response stream 
+    * rather than loading the full array into memory. The root of the 
+    * JSON returned must be the array.
+    * 
+    * @param elementType
+    *    The data type of the elements within the array.
+    * @param <T>
+    *    The type of the elements to retrieve.
+    * @return
+    *    The response object containing the status code, headers, 
+    *    duration, and the iterator over the array. The iterator holds
+    *    the connection until it is closed or fully consumed. If the 
+    *    status code is not a good response, the data will be null.
+    * @throws BJADWebException
+    *    Any exceptions while attempt to get data 
+    *    from the web resource will be thrown.
+    */
+   public <T> BJADWebResponse<JsonArrayIterator<T>> performWebCallForArray(Class<T> elementType) throws BJADWebException
+   {
+      return internalPerformWebCallForArray(elementType, null, null);
+   }
+   
+   /**
+    * Gathers the JSON array within the field of the root JSON object 
+    * returned by the web server as an iterator, binding each element 
+    * as it is pulled from the response stream.
+    * 
+    * @param elementType
+    *    The data type of the elements within the array.
+    * @param arrayFieldName
+    *    The name of the field within the root object containing 
+    *    the array, or null if the root of the JSON is the array.
+    * @param <T>
+    *    The type of the elements to retrieve.
+    * @return
+    *    The response object containing the status code, headers, 
+    *    duration, and the iterator over the array. The iterator holds
+    *    the connection until it is closed or fully consumed. If the 
+    *    status code is not a good response, the data will be null.
+    * @throws BJADWebException
+    *    Any exceptions while attempt to get data 
+    *    from the web resource will be thrown.
+    */
+   public <T> BJADWebResponse<JsonArrayIterator<T>> performWebCallForArray(Class<T> elementType, String arrayFieldName) throws BJADWebException
+   {
+      return internalPerformWebCallForArray(elementType, arrayFieldName, null);
+   }
+   
+   /**
+    * Gathers the JSON array within the field of the root JSON object 
+    * returned by the web server as an iterator, binding each element 
+    * as it is pulled from the response stream.
+    * 
+    * @param elementType
+    *    The data type of the elements within the array.
+    * @param arrayFieldName
+    *    The name of the field within the root object containing 
+    *    the array, or null if the root of the JSON is the array.
+    * @param body
+    *    The body for the request.
+    * @param <T>
+    *    The type of the elements to retrieve.
+    * @return
+    *    The response object containing the status code, headers, 
+    *    duration, and the iterator over the array. The iterator holds
+    *    the connection until it is closed or fully consumed. If the 
+    *    status code is not a good response, the data will be null.
+    * @throws BJADWebException
+    *    Any exceptions while attempt to get data 
+    *    from the web resource will be thrown.
+    */
+   public <T> BJADWebResponse<JsonArrayIterator<T>> performWebCallForArray(Class<T> elementType, String arrayFieldName, AbstractBodyModel body) throws BJADWebException
+   {
+      return internalPerformWebCallForArray(elementType, arrayFieldName, body);
+   }
+   
+   /**
+    * Completes the web operation, returning the iterator over the 
+    * array within the live response stream.
+    * 
+    * @param elementType
+    *    The data type of the elements within the array.
+    * @param arrayFieldName
+    *    The name of the field within the root object containing 
+    *    the array, or null if the root of the JSON is the array.
+    * @param body
+    *    The body for the request.
+    * @param <T>
+    *    The type of the elements to retrieve.
+    * @return
+    *    The response object containing the iterator.
+    * @throws BJADWebException
+    *    Any exceptions while attempt to get data 
+    *    from the web resource will be thrown.
+    */
+   private <T> BJADWebResponse<JsonArrayIterator<T>> internalPerformWebCallForArray(Class<T> elementType, String arrayFieldName, Object body) throws BJADWebException
+   {
+      final BJADWebRequest REQUEST = operationRequest;
+      final boolean SAMPLED = isWireLogSampled(REQUEST);
+      HttpEntity entity = prepareBody(REQUEST, SAMPLED, body);
+      
+      // The response is closed by the iterator, unless the 
+      // iterator cannot be created. Not hedged, as the hedges 
+      // hold the full body in memory.
+      TransportResponse response = ResiliencePipeline.send(REQUEST, entity, false);
+      try
+      {
+         BJADWebResponse<JsonArrayIterator<T>> returnVal = response.toWebResponse();
+         if (!returnVal.isGoodResponse())
+         {
+            response.close();
+            logSendorRecv(REQUEST, SAMPLED, "RECV", "No array returned with status " + returnVal.getStatusCode(), null);
+            return returnVal;
+         }
+         
+         String streamCharset = getStreamCharset(REQUEST.getCharacterSetForResponse(), response.getHeaders());
+         JsonFactory factory = REQUEST.getJsonObjectMapper().getFactory();
+         JsonParser parser = streamCharset == null ? 
+               factory.createParser(response.getContent()) : 
+               factory.createParser(new InputStreamReader(response.getContent(), streamCharset));
+         returnVal.setData(new JsonArrayIterator<>(parser, REQUEST.getJsonObjectMapper(), elementType, arrayFieldName, response));
+         logSendorRecv(REQUEST, SAMPLED, "RECV", "Streaming array of " + elementType.getCanonicalName(), null);
+         return returnVal;
+      }
+      catch (IOException ex)
+      {
+         closeQuietly(response);
+         throw new BJADWebException(ex);
+      }
+      catch (BJADWebException ex)
+      {
+         closeQuietly(response);
+         throw ex;
+      }
+   }
+   
+   /**
+    * Gathers the content from the web server asynchronously using 
+    * the URL and other properties within the request added to the 
+    * object. The operation is completed on the non-blocking I/O 
+    * threads of the shared asynchronous client, so the calling 
+    * thread is not blocked while the operation is in flight.
+    * 
+    * @param clazz
+    *    The data type to return in the response object.
+    * @param <T>
+    *    The type of object to retrieve.
+    * @return
+    *    The future that will be completed with the response object, 
+    *    containing the status code, headers, duration, and the data 
+    *    from the operation, or completed exceptionally with a 
+    *    BJADWebException if the operation fails.
+    */
+   public <T> CompletableFuture<BJADWebResponse<T>> performWebCallAsync(Class<T> clazz)
+   {
+      return internalPerformWebCallAsync(clazz, null);
+   }
+   
+   /**
+    * Gathers the content from the web server asynchronously using 
+    * the URL and other properties within the request added to the 
+    * object. 
+    * 
+    * @param clazz
+    *    The data type to return in the response object.
+    * @param body
+    *    The body for the request.
+    * @param <T>
+    *    The type of object to retrieve.
+    * @return
+    *    The future that will be completed with the response object, 
+    *    or completed exceptionally with a BJADWebException if the 
+    *    operation fails.
+    */
+   public <T> CompletableFuture<BJADWebResponse<T>> performWebCallAsync(Class<T> clazz, AbstractBodyModel body)
+   {
+      return internalPerformWebCallAsync(clazz, body);
+   }
+   
+   /**
+    * Gathers the content from the web server asynchronously using 
+    * the URL and other properties within the request added to the 
+    * object. 
+    * 
+    * @param clazz
+    *    The data type to return in the response object.
+    * @param body
+    *    The body for the request.
+    * @param <T>
+    *    The type of object to retrieve.
+    * @return
+    *    The future that will be completed with the response object, 
+    *    or completed exceptionally with a BJADWebException if the 
+    *    operation fails.
+    */
+   public <T> CompletableFuture<BJADWebResponse<T>> performWebCallAsync(Class<T> clazz, HttpEntity body)
+   {
+      return internalPerformWebCallAsync(clazz, body);
+   }
+   
+   /**
+    * Completes the web operation asynchronously using the request 
+    * set within the component at the time of the call, through the
+    * resilience policies of the request. Cancelling the returned 
+    * future aborts the HTTP operation, unless the request has a 
+    * policy, in which case the operation already started completes
+    * in the background.
+    * 
+    * @param clazz
+    *    The data type to return in the response object.
+    * @param body
+    *    The body for the request.
+    * @param <T>
+    *    The type of object to retrieve.
+    * @return
+    *    The future for the response object.
+    */
+   private <T> CompletableFuture<BJADWebResponse<T>> internalPerformWebCallAsync(Class<T> clazz, Object body)
+   {
+      // Capture the request so changes to the component after the 
+      // call do not affect the operation in flight.
+      final BJADWebRequest REQUEST = operationRequest;
+      final boolean SAMPLED = isWireLogSampled(REQUEST);
+      final CompletableFuture<BJADWebResponse<T>> RESULT = new CompletableFuture<>();
+      try
+      {
+         final CompletableFuture<BJADWebResponse<byte[]>> OPERATION = 
+               ResiliencePipeline.sendAsync(REQUEST, prepareBody(REQUEST, SAMPLED, body));
+         OPERATION.whenComplete((bytes, ex) -> 
+         {
+            if (ex != null)
+            {
+               if (OPERATION.isCancelled())
+               {
+                  RESULT.cancel(false);
+               }
+               else
+               {
+                  Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                  RESULT.completeExceptionally(cause instanceof BJADWebException ? cause : new BJADWebException(cause));
+               }
+               return;
+            }
+            try
+            {
+               RESULT.complete(convertResponse(REQUEST, SAMPLED, REQUEST.getCharacterSetForResponse(), clazz, bytes));
+            }
+            catch (Exception convertEx)
+            {
+               RESULT.completeExceptionally(convertEx instanceof BJADWebException ? convertEx : new BJADWebException(convertEx));
+            }
+         });
+         
+         // Cancelling the returned future aborts the transport's operation.
+         RESULT.whenComplete((response, ex) -> 
+         {
+            if (RESULT.isCancelled())
+            {
+               OPERATION.cancel(true);
+            }
+         });
+      }
+      catch (Exception ex)
+      {
+         RESULT.completeExceptionally(ex instanceof BJADWebException ? ex : new BJADWebException(ex));
+      }
+      return RESULT;
+   }
+   
+   /**
+    * Converts the byte content returned from the web server into 
+    * the data type requested, logging the data received.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param sampled
+    *    True if the operation was sampled for the wire log.
+    * @param charset
+    *    The character set name for the string returned by 
+    *    http server
+    * @param clazz
+    *    The data type to return in the response object.
+    * @param bytes
+    *    The response containing the byte content from the server.
+    * @param <T>
+    *    The type of object to retrieve.
+    * @return
+    *    The response object containing the converted data.
+    * @throws BJADWebException
+    *    Any exceptions converting the data will be thrown.
+    */
+   @SuppressWarnings("unchecked") // We test the class, so this warning is moot.
+   private <T> BJADWebResponse<T> convertResponse(BJADWebRequest request, boolean sampled, String charset, Class<T> clazz, BJADWebResponse<byte[]> bytes) throws BJADWebException
    {
       // If we are trying to get the bytes from the web operation,
       // simply return the result of getByteContent, but log as
       // we cannot log the output. 
       if (clazz.equals(byte[].class))
       {
-         BJADWebResponse<byte[]> bytes = (BJADWebResponse<byte[]>)getByteContent(body);
-         logSendorRecv("RECV", operationRequest.getUrl(), operationRequest.getMethod(), operationRequest.getHeaders(),
-               (bytes.getData() == null || bytes.getData().length == 0 ? "n/a" : bytes.getData().length + " bytes."));
+         // Cached and coalesced bodies are shared, so hand out a copy.
+         if ((bytes.isCacheHit() || bytes.isCoalesced()) && bytes.getData() != null)
+         {
+            bytes.setData(bytes.getData().clone());
+         }
+         logSendorRecv(request, sampled, "RECV", 
+               (bytes.getData() == null || bytes.getData().length == 0 ? "n/a" : bytes.getData().length + " bytes."), null);
          return (BJADWebResponse<T>)bytes;
       }
       
+      // Typed operations that are not logged are converted from the 
+      // bytes directly, skipping the copy into a string.
+      if (isStreamedType(request, clazz))
+      {
+         BJADWebResponse<T> returnVal = new BJADWebResponse<>();
+         returnVal.copyNonDataValues(bytes);
+         returnVal.setData(readJson(request, charset, clazz, bytes.getHeaders(), new ByteArrayInputStream(bytes.getData())));
+         logSendorRecv(request, sampled, "RECV", bytes.getData().length + " bytes into " + clazz.getCanonicalName(), null);
+         return returnVal;
+      }
+      
       // Not getting the byte content explictly, so get the content
       // but don't log the byte count returned.
-      BJADWebResponse<byte[]> bytes = getByteContent(body);
       String content = "";
       try
       {
@@ -212,7 +700,8 @@ public class BJADWebComponent
          throw new BJADWebException(ex);
       }
          
-      logSendorRecv("RECV", operationRequest.getUrl(), operationRequest.getMethod(), operationRequest.getHeaders(), content);
+      final String CONTENT = content;
+      logSendorRecv(request, sampled, "RECV", content.length() + " characters.", () -> CONTENT);
       
       // If looking for the string, just return it explictly in 
       // a response object 
@@ -232,7 +721,7 @@ public class BJADWebComponent
          returnVal.copyNonDataValues(bytes);
          try
          {
-            returnVal.setData(operationRequest.getJsonObjectMapper().readValue(content, clazz));
+            returnVal.setData(request.getJsonObjectMapper().readValue(content, clazz));
          }
          catch (JsonProcessingException ex)
          {
@@ -243,165 +732,167 @@ public class BJADWebComponent
       }
    }
    
-   private BJADWebResponse<byte[]> getByteContent(Object body) throws BJADWebException
+   /**
+    * Returns if the response for the type requested is converted 
+    * from the response stream, rather than buffered into a string
+    * and logged.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param clazz
+    *    The data type to return in the response object.
+    * @return
+    *    True if the response is streamed into the JSON converter.
+    */
+   private boolean isStreamedType(BJADWebRequest request, Class<?> clazz)
    {
-      // Build out the HTTP client
-      try (final CloseableHttpClient HTTPCLIENT = initializeClientBuilder(operationRequest).build())
+      return !request.isLogResponseBody() && !clazz.equals(byte[].class) && !clazz.equals(String.class);
+   }
+   
+   /**
+    * Converts the JSON from the response stream into the data type 
+    * requested. The character set configured in the request is used
+    * to read the stream, then the character set from the response's
+    * Content-Type header, and if neither are set, the stream is 
+    * passed to the JSON converter to detect the encoding itself.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param charset
+    *    The character set name configured for the response, or null.
+    * @param clazz
+    *    The data type to return in the response object.
+    * @param headers
+    *    The headers returned by the HTTP server.
+    * @param content
+    *    The stream of the response body.
+    * @param <T>
+    *    The type of object to retrieve.
+    * @return
+    *    The converted data.
+    * @throws BJADWebException
+    *    Any exceptions reading or converting the data will be thrown.
+    */
+   private <T> T readJson(BJADWebRequest request, String charset, Class<T> clazz, Map<String, String> headers, InputStream content) throws BJADWebException
+   {
+      String streamCharset = getStreamCharset(charset, headers);
+      try
       {
-         // Create the request base (GET, POST, etc...)
-         HttpRequestBase httpRequest = getRequestBaseForMethod(operationRequest);
-         
-         // Apply the headers to the request.
-         httpRequest = applyHTTPHeadersToRequest(httpRequest, operationRequest);
-         
-         // Apply any body information to the request if applicable
-         httpRequest = applyBodyToRequest(httpRequest, operationRequest, body);
-      
-         long duration = System.currentTimeMillis();
-         // Return the byte array gathered by the http client.
-         try (final CloseableHttpResponse RESPONSE = HTTPCLIENT.execute(httpRequest))
-         {
-            duration = System.currentTimeMillis() - duration;
-            
-            HttpEntity entity = RESPONSE.getEntity();            
-            byte[] returnedData = new byte[0];
-            
-            if (entity != null)
-            {
-               returnedData = EntityUtils.toByteArray(entity);              
-            }
-                        
-            BJADWebResponse<byte[]> fullResponse = new BJADWebResponse<>();
-            fullResponse.setDuration(duration);
-            fullResponse.setData(returnedData);
-            fullResponse.setStatusCode(RESPONSE.getStatusLine().getStatusCode());
-            fullResponse.setHeaders(new LinkedHashMap<>());
-            
-            Header[] headers = RESPONSE.getAllHeaders();
-            for (Header header : headers)
-            {
-               fullResponse.getHeaders().put(header.getName(), header.getValue());
-            }
-            return fullResponse;
-         }
+         return streamCharset == null ? 
+               request.getJsonObjectMapper().readValue(content, clazz) : 
+               request.getJsonObjectMapper().readValue(new InputStreamReader(content, streamCharset), clazz);
       }
-      catch (Exception ex)
+      catch (UnsupportedEncodingException ex)
       {
          throw new BJADWebException(ex);
       }
+      catch (IOException ex)
+      {
+         throw new BJADWebException("Failed to convert data include JSON", ex);
+      }
    }
-
-   private HttpClientBuilder initializeClientBuilder(BJADWebRequest request) throws Exception
+   
+   /**
+    * Returns the character set to read the response stream with, 
+    * being the character set configured for the response, or the
+    * character set from the response's Content-Type header.
+    * 
+    * @param charset
+    *    The character set name configured for the response, or null.
+    * @param headers
+    *    The headers returned by the HTTP server.
+    * @return
+    *    The character set name, or null if neither are set.
+    */
+   private String getStreamCharset(String charset, Map<String, String> headers)
    {
-      int connectTimeout = request.getConnectionTimeout() > -1 ? request.getConnectionTimeout() : 15000;
-      int connectReqTimeout = request.getConnectionTimeout() > -1 ? request.getConnectionTimeout() : 15000;
-      int readTimeout = request.getReadTimeout() > -1 ? request.getReadTimeout()  : 15000;
-      RequestConfig config = RequestConfig.custom()
-            .setConnectTimeout(connectTimeout)
-            .setConnectionRequestTimeout(connectReqTimeout)
-            .setSocketTimeout(readTimeout > -1 ? readTimeout : 15000)
-            .build();
-      
-     HttpClientBuilder clientBuilder = HttpClients.custom().setDefaultRequestConfig(config);
-     if (request.getUrl().toLowerCase().startsWith("https:"))
-     {
-        SSLContext sslContext = request.getSslContext();
-        if (sslContext == null)
-        {
-           sslContext = SSLContext.getDefault();
-        }
-        
-        clientBuilder.setSSLSocketFactory(new SSLConnectionSocketFactory(sslContext, new NoopHostnameVerifier()));
-     }
-     
-     return clientBuilder;
+      return TextUtils.isBlank(charset) ? getResponseCharset(headers) : charset;
    }
    
-   private HttpRequestBase getRequestBaseForMethod(BJADWebRequest request)
+   /**
+    * Closes the response after a failed operation, logging any 
+    * failure rather than hiding the operation's failure.
+    * 
+    * @param response
+    *    The response to close.
+    */
+   private void closeQuietly(TransportResponse response)
    {
-      HttpRequestBase obj = null;
-      switch (request.getMethod())
+      try
       {
-      case DELETE:
-         obj = new HttpDelete(request.getUrl());
-         break;
-      case GET:
-         obj = new HttpGet(request.getUrl());
-         break;
-      case HEAD:
-         obj = new HttpHead(request.getUrl());
-         break;
-      case OPTIONS:
-         obj = new HttpOptions(request.getUrl());
-         break;
-      case PATCH:
-         obj = new HttpPatch(request.getUrl());
-         break;
-      case POST:
-         obj = new HttpPost(request.getUrl());
-         break;
-      case PUT:
-         obj = new HttpPut(request.getUrl());
-         break;
-      default:
-         obj = new HttpTrace(request.getUrl());
-         break;
+         response.close();
+      }
+      catch (IOException ex)
+      {
+         logger.warn("Failed to close the response", ex);
       }
-      return obj;
    }
-      
+   
    /**
-    * Applies the headers from the operation request to the 
-    * HTTP request being built.
+    * Gets the character set from the Content-Type header returned 
+    * by the HTTP server.
     * 
-    * @param httpRequest
-    *    The http request being built.
-    * @param opRequest
-    *    The operation request, containing the headers to add.
+    * @param headers
+    *    The headers returned by the HTTP server.
     * @return
-    *    The http request being built, but with the HTTP headers
-    *    applied to it. 
+    *    The character set name, or null if the header or its 
+    *    character set are not found or cannot be parsed.
     */
-   private HttpRequestBase applyHTTPHeadersToRequest(HttpRequestBase httpRequest, BJADWebRequest opRequest)
+   private String getResponseCharset(Map<String, String> headers)
    {
-      if (opRequest.getHeaders() != null)
+      for (Map.Entry<String, String> header : headers.entrySet())
       {
-         for (Entry<String, String> header : opRequest.getHeaders().entrySet())
+         if (HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(header.getKey()) && !TextUtils.isBlank(header.getValue()))
          {
-            httpRequest.addHeader(header.getKey(), header.getValue());
+            try
+            {
+               Charset charset = ContentType.parse(header.getValue()).getCharset();
+               return charset == null ? null : charset.name();
+            }
+            catch (RuntimeException ex)
+            {
+               logger.debug("Ignoring the unparsable Content-Type " + header.getValue());
+            }
          }
       }
-      return httpRequest;
+      return null;
    }
    
    /**
-    * Places the body from the request object into the HTTP 
-    * request being built. 
+    * Validates the body against the request's method and converts 
+    * it into the entity to send, logging the operation being sent. 
     * 
     * @param opRequest
     *    The request for the operation containing the body to send and 
-    *    potentially the BodyToString converter for unknown types.
+    *    potentially the JSON converter for the JSON bodies.
+    * @param sampled
+    *    True if the operation was sampled for the wire log.
     * @param body
-    *    The body bean to apply to the rwequest being built.
+    *    The body bean to convert into the entity.
     * @return
-    *    The http request base with the body added to it if the 
-    *    conditions were correct.
+    *    The entity to send with the request, or null if the 
+    *    request has no body.
+    * @throws BJADWebException
+    *    Thrown if the body is missing for a method requiring one, the 
+    *    body is passed for a method that cannot have one, or the body 
+    *    cannot be converted into an entity.
     */
-   private HttpRequestBase applyBodyToRequest(HttpRequestBase request, BJADWebRequest opRequest, Object body) throws Exception
+   private HttpEntity prepareBody(BJADWebRequest opRequest, boolean sampled, Object body) throws BJADWebException
    {
       String bodyMessage = "";
+      Supplier<String> payload = null;
+      HttpEntity entity = null;
       
-      if (request instanceof HttpEntityEnclosingRequest)
+      if (opRequest.getMethod().requiresBody())
       {
          if (body == null)
          {
-            throw new IllegalArgumentException(
-                  "Cannot complete a " + opRequest.getMethod().name() + " operation without some form of body.");
+            throw new BJADWebException(new IllegalArgumentException(
+                  "Cannot complete a " + opRequest.getMethod().name() + " operation without some form of body."));
          }
-         HttpEntityEnclosingRequest entityRequest = (HttpEntityEnclosingRequest)request;
          if (body instanceof HttpEntity)
          {
-            entityRequest.setEntity((HttpEntity)body);
+            entity = (HttpEntity)body;
             bodyMessage = "Externally constructed " + body.getClass().getCanonicalName() + " instance";
          }
          else if (body instanceof ObjectJSONStringBody)
@@ -413,41 +904,112 @@ public class BJADWebComponent
             {
                model.setObjectToJsonConverter(opRequest.getJsonObjectMapper());
             }
-            entityRequest.setEntity(model.getEntity());
-            bodyMessage = model.getLogString();
+            entity = model.getEntity();
+            bodyMessage = model.getClass().getSimpleName() + " of " + 
+                  (model.getBody() == null ? "null" : model.getBody().getClass().getCanonicalName());
+            payload = model::getLogString;
          }   
+         else if (body instanceof StreamingJSONBody)
+         {
+            StreamingJSONBody model = (StreamingJSONBody)body;
+            // Set the JSON converter to match the converter in the request if the 
+            // model is set to do so. 
+            if (model.useConverterFromRequest())
+            {
+               model.setObjectToJsonConverter(opRequest.getJsonObjectMapper());
+            }
+            entity = model.getEntity();
+            bodyMessage = model.getLogString();
+         }
          else if (body instanceof AbstractBodyModel)
          {
             AbstractBodyModel model = (AbstractBodyModel)body;
-            entityRequest.setEntity(model.getEntity());
-            bodyMessage = model.getLogString();
+            try
+            {
+               entity = model.getEntity();
+            }
+            catch (IllegalArgumentException ex)
+            {
+               throw new BJADWebException(ex);
+            }
+            bodyMessage = model.getClass().getSimpleName();
+            payload = model::getLogString;
          }         
       }
       else
       {
          if (body != null)
          {
-            throw new IllegalArgumentException(
-                  "Cannot complete a " + opRequest.getMethod().name() + " operation with a body.");
+            throw new BJADWebException(new IllegalArgumentException(
+                  "Cannot complete a " + opRequest.getMethod().name() + " operation with a body."));
          }
       }
       
-      logSendorRecv("SEND", opRequest.getUrl(), opRequest.getMethod(), opRequest.getHeaders(), bodyMessage);
+      logSendorRecv(opRequest, sampled, "SEND", bodyMessage, payload);
       
-      return request;
+      return entity;
    }
    
-   private void logSendorRecv(String direction, String url, HTTPMethodType method,  Map<String, String> headers, String bodyMessage) throws BJADWebException
+   /**
+    * Decides if the operation is sampled for the wire log, using the
+    * sample rate of the request. Made once for each operation so its
+    * SEND and RECV events follow the same decision, even when the 
+    * component runs several operations at once.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @return
+    *    True if the operation's events are logged.
+    */
+   private static boolean isWireLogSampled(BJADWebRequest request)
    {
-      try
+      double rate = request.getWireLogSampleRate();
+      return rate >= 1 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+   }
+   
+   /**
+    * Logs the SEND or RECV event for the operation. The URL, method, 
+    * headers, and summary of the body are logged at the info level 
+    * of the component's logger, and the body itself at the info level
+    * of the payload logger. Nothing is built for a logger that is not
+    * enabled, the body is only built if the payload logger is enabled.
+    * <p>
+    * The SEND and RECV events of an operation are logged together or
+    * not at all, following the sampling decision of the operation. The
+    * event is handed to the asynchronous wire logger if enabled within
+    * the request.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param sampled
+    *    True if the operation was sampled for the wire log.
+    * @param direction
+    *    The direction of the event, SEND or RECV.
+    * @param summary
+    *    The summary of the body, such as its size or type.
+    * @param payload
+    *    Supplies the body to log, may be null.
+    * @throws BJADWebException
+    *    Any exceptions converting the headers will be thrown.
+    */
+   private void logSendorRecv(BJADWebRequest request, boolean sampled, String direction, String summary, Supplier<String> payload) throws BJADWebException
+   {
+      boolean logMetadata = logger.isInfoEnabled();
+      boolean logPayload = payload != null && payloadLogger.isInfoEnabled();
+      if (!sampled || (!logMetadata && !logPayload))
       {
-         logger.info(direction + " :: " + url + " (" + method.name() + ")" +
-            " :: " + (headers == null ? "<n/a>" : operationRequest.getJsonObjectMapper().writeValueAsString(headers)) + 
-            " :: " + (TextUtils.isBlank(bodyMessage) ? "" : bodyMessage));
+         return;
       }
-      catch (JsonProcessingException ex)
+      
+      WireLogEvent event = new WireLogEvent(request, direction, summary, payload, 
+            logMetadata ? logger : null, logPayload ? payloadLogger : null);
+      if (request.isAsyncWireLog())
       {
-         throw new BJADWebException(ex);
+         AsyncWireLogger.getSharedInstance().log(event);
+      }
+      else
+      {
+         event.write();
       }
    }
 }
@@ -57,12 +57,60 @@ public final class BJADWebConstants
     */
    public static final String PROPERTY_READ_TIMEOUT = "ReadTimeout";
    
+   /**
+    * The property name to set to false in order to 
+    * create a new connection for each operation instead 
+    * of using the shared, pooled connections (default true).
+    */
+   public static final String PROPERTY_POOLED_CONNECTIONS = "PooledConnections";
+   
+   /**
+    * The property name to set for the maximum number 
+    * of pooled connections kept open in total.
+    */
+   public static final String PROPERTY_POOL_MAX_TOTAL = "PoolMaxTotal";
+   
+   /**
+    * The property name to set for the maximum number 
+    * of pooled connections kept open for a single route.
+    */
+   public static final String PROPERTY_POOL_MAX_PER_ROUTE = "PoolMaxPerRoute";
+   
+   /**
+    * The property name to set for the maximum duration 
+    * (value in milliseconds) a pooled connection is kept 
+    * alive between operations.
+    */
+   public static final String PROPERTY_KEEP_ALIVE_DURATION = "KeepAliveDuration";
+   
+   /**
+    * The property name to set for the duration (value 
+    * in milliseconds) a pooled connection can be idle before 
+    * it is validated prior to being reused.
+    */
+   public static final String PROPERTY_VALIDATE_AFTER_INACTIVITY = "ValidateAfterInactivity";
+   
+   /**
+    * The property name to set for the duration (value in 
+    * milliseconds) a pooled connection can be idle before the 
+    * idle connection evictor closes it. Setting this property 
+    * starts the evictor thread for the pool.
+    */
+   public static final String PROPERTY_IDLE_CONNECTION_TIMEOUT = "IdleConnectionTimeout";
+   
    /**
     * The property name for the character set to 
     * apply to the request. 
     */
    public static final String PROPERTY_CHARACTER_SET = "CharacterSet";
    
+   /**
+    * The property name for the flag to buffer and log the 
+    * response body of typed operations rather than streaming
+    * the body straight into the JSON converter.
+    */
+   public static final String PROPERTY_LOG_RESPONSE_BODY = "LogResponseBody";
+   
    /**
     * The property name to look for in order to 
     * load header values for the upcoming HTTP operation. 
@@ -86,6 +134,314 @@ public final class BJADWebConstants
     */
    public static final String PROPERTY_OBJECT_TO_JSON_PROVIDER = "ObjectToJSONProvider";
    
+   /**
+    * The property to use in order to specify the 
+    * class that implements the bjad.web.transport.WebTransport
+    * interface to complete the HTTP operation. When not set, 
+    * the bjad.web.transport.ApacheHttpClientTransport is used.
+    */
+   public static final String PROPERTY_TRANSPORT = "Transport";
+   
+   /**
+    * The property to use in order to cache the responses of 
+    * the GET and HEAD operations. The value "memory" uses the 
+    * size bounded in memory cache shared within the process, 
+    * holding up to 64MB of responses, the value "disk" uses the
+    * disk cache shared within the process for the directory 
+    * within the DiskCacheDirectory property, otherwise the 
+    * value is the class that implements the 
+    * bjad.web.provider.ResponseCacheProvider interface.
+    */
+   public static final String PROPERTY_RESPONSE_CACHE = "ResponseCache";
+   
+   /**
+    * The value of the response cache property to use the 
+    * in memory cache shared within the process.
+    */
+   public static final String RESPONSE_CACHE_MEMORY = "memory";
+   
+   /**
+    * The value of the response cache property to use the 
+    * disk cache, which keeps the responses over restarts.
+    */
+   public static final String RESPONSE_CACHE_DISK = "disk";
+   
+   /**
+    * The property to use in order to set the directory of the 
+    * disk response cache. When not set, the bjad-web-cache 
+    * directory within the temporary directory is used.
+    */
+   public static final String PROPERTY_DISK_CACHE_DIRECTORY = "DiskCacheDirectory";
+   
+   /**
+    * The property to use in order to set the maximum size (in 
+    * bytes) of the disk response cache, only used when the cache
+    * for the directory is first opened. Defaults to 256MB.
+    */
+   public static final String PROPERTY_DISK_CACHE_MAX_SIZE = "DiskCacheMaxSize";
+   
+   /**
+    * The property to use in order to keep the results of the GET
+    * and HEAD operations within the result cache for the number
+    * of milliseconds set, regardless of the caching headers of 
+    * the response. Defaults to 0, not caching the results.
+    */
+   public static final String PROPERTY_RESULT_CACHE_TTL = "ResultCacheTTL";
+   
+   /**
+    * The property to use in order to set the number of milliseconds
+    * past the result cache TTL an expired result is still returned 
+    * while it is refreshed in the background. Defaults to 0.
+    */
+   public static final String PROPERTY_RESULT_CACHE_GRACE_PERIOD = "ResultCacheGracePeriod";
+   
+   /**
+    * The property to use in order to coalesce the identical GET and
+    * HEAD operations in flight at the same time (same method, URL, 
+    * and headers) into a single call to the server. Defaults to false.
+    */
+   public static final String PROPERTY_COALESCE_REQUESTS = "CoalesceRequests";
+   
+   /**
+    * The property to use in order to write the SEND and RECV log 
+    * events on the background thread of the asynchronous wire 
+    * logger, dropping the events if it falls behind. Defaults to 
+    * false.
+    */
+   public static final String PROPERTY_ASYNC_WIRE_LOG = "AsyncWireLog";
+   
+   /**
+    * The property to use in order to set the maximum number of 
+    * UTF-8 bytes of the request and response bodies to log. 
+    * Defaults to 0, logging the full bodies.
+    */
+   public static final String PROPERTY_WIRE_LOG_MAX_BODY_LENGTH = "WireLogMaxBodyLength";
+   
+   /**
+    * The property to use in order to set the fraction (between 0 
+    * and 1) of the operations to log the SEND and RECV events for.
+    * Defaults to 1, logging every operation.
+    */
+   public static final String PROPERTY_WIRE_LOG_SAMPLE_RATE = "WireLogSampleRate";
+   
+   /**
+    * The property to use in order to set the maximum number of 
+    * attempts (including the first attempt) of the operations. 
+    * Setting the property above 1 enables the retry policy, 
+    * configured by the other Retry properties.
+    */
+   public static final String PROPERTY_RETRY_MAX_ATTEMPTS = "RetryMaxAttempts";
+   
+   /**
+    * The property to use in order to set the backoff (in 
+    * milliseconds) before the first retry, doubled for each 
+    * retry after. Defaults to 100.
+    */
+   public static final String PROPERTY_RETRY_BASE_BACKOFF = "RetryBaseBackoff";
+   
+   /**
+    * The property to use in order to set the maximum backoff 
+    * (in milliseconds) between attempts. Defaults to 10000.
+    */
+   public static final String PROPERTY_RETRY_MAX_BACKOFF = "RetryMaxBackoff";
+   
+   /**
+    * The property to use in order to set the comma separated 
+    * status codes that are retried. Defaults to 429,502,503,504.
+    */
+   public static final String PROPERTY_RETRY_STATUS_CODES = "RetryStatusCodes";
+   
+   /**
+    * The property to use in order to set the comma separated 
+    * exception classes that are retried when found within the 
+    * causes of a failure. Timeouts are always retried. Defaults 
+    * to java.net.ConnectException,org.apache.http.NoHttpResponseException.
+    */
+   public static final String PROPERTY_RETRY_EXCEPTIONS = "RetryExceptions";
+   
+   /**
+    * The property to use in order to retry the non-idempotent 
+    * methods (POST and PATCH). Defaults to false.
+    */
+   public static final String PROPERTY_RETRY_NON_IDEMPOTENT = "RetryNonIdempotent";
+   
+   /**
+    * The property to use in order to set the percentage of the 
+    * operations to a host that can be retried. Defaults to 20.
+    */
+   public static final String PROPERTY_RETRY_BUDGET_PERCENT = "RetryBudgetPercent";
+   
+   /**
+    * The property to use in order to hedge the GET, HEAD, and 
+    * OPTIONS operations, sending a second identical request when 
+    * the first has not answered within the hedge delay and using
+    * the first response received. Defaults to false.
+    */
+   public static final String PROPERTY_HEDGE_REQUESTS = "HedgeRequests";
+   
+   /**
+    * The property to use in order to set the number of milliseconds
+    * to wait for the first request before hedging. Defaults to 0, 
+    * using the 95th percentile of the recent durations of the endpoint.
+    */
+   public static final String PROPERTY_HEDGE_DELAY = "HedgeDelay";
+   
+   /**
+    * The property to use in order to set the percentage of the 
+    * operations to a host that can be hedged. Defaults to 10.
+    */
+   public static final String PROPERTY_HEDGE_BUDGET_PERCENT = "HedgeBudgetPercent";
+   
+   /**
+    * The property to use in order to reject the operations to a 
+    * failing server through a circuit breaker, the value being 
+    * the scope of the breakers, "host" for a breaker for each 
+    * host or "endpoint" for a breaker for each method and URL 
+    * (without the query). Defaults to no circuit breaker.
+    */
+   public static final String PROPERTY_CIRCUIT_BREAKER = "CircuitBreaker";
+   
+   /**
+    * The property to use in order to set the percentage of failed
+    * calls (exceptions and 5xx status codes) within the window that 
+    * opens the circuit breaker. Defaults to 50.
+    */
+   public static final String PROPERTY_CIRCUIT_BREAKER_FAILURE_RATE = "CircuitBreakerFailureRate";
+   
+   /**
+    * The property to use in order to set the percentage of slow 
+    * calls within the window that opens the circuit breaker. 
+    * Defaults to 100.
+    */
+   public static final String PROPERTY_CIRCUIT_BREAKER_SLOW_CALL_RATE = "CircuitBreakerSlowCallRate";
+   
+   /**
+    * The property to use in order to set the duration (in 
+    * milliseconds) at which a call counts as slow. Defaults to 5000.
+    */
+   public static final String PROPERTY_CIRCUIT_BREAKER_SLOW_CALL_DURATION = "CircuitBreakerSlowCallDuration";
+   
+   /**
+    * The property to use in order to set the number of recent 
+    * calls within the sliding window of the circuit breaker. 
+    * Defaults to 100.
+    */
+   public static final String PROPERTY_CIRCUIT_BREAKER_WINDOW_SIZE = "CircuitBreakerWindowSize";
+   
+   /**
+    * The property to use in order to set the number of calls 
+    * needed within the window before the circuit breaker can 
+    * open. Defaults to 10.
+    */
+   public static final String PROPERTY_CIRCUIT_BREAKER_MINIMUM_CALLS = "CircuitBreakerMinimumCalls";
+   
+   /**
+    * The property to use in order to set the duration (in 
+    * milliseconds) the circuit breaker stays open before 
+    * allowing probe calls. Defaults to 30000.
+    */
+   public static final String PROPERTY_CIRCUIT_BREAKER_OPEN_DURATION = "CircuitBreakerOpenDuration";
+   
+   /**
+    * The property to use in order to set the number of probe 
+    * calls allowed while the circuit breaker is half-open, all 
+    * of which must succeed to close it. Defaults to 3.
+    */
+   public static final String PROPERTY_CIRCUIT_BREAKER_HALF_OPEN_CALLS = "CircuitBreakerHalfOpenCalls";
+   
+   /**
+    * The property to use in order to limit the rate of the 
+    * operations to the number of calls per second set, shared 
+    * by the operations to the host or the limit group. Defaults 
+    * to 0, not limiting the rate.
+    */
+   public static final String PROPERTY_RATE_LIMIT_PER_SECOND = "RateLimitPerSecond";
+   
+   /**
+    * The property to use in order to set the number of calls 
+    * allowed at once by the rate limiter after a quiet period. 
+    * Defaults to 1, spacing every call.
+    */
+   public static final String PROPERTY_RATE_LIMIT_BURST = "RateLimitBurst";
+   
+   /**
+    * The property to use in order to set the maximum number of 
+    * milliseconds an operation waits for its rate limit permit.
+    * Defaults to 0, waiting as long as needed.
+    */
+   public static final String PROPERTY_RATE_LIMIT_MAX_WAIT = "RateLimitMaxWait";
+   
+   /**
+    * The property to use in order to set if an operation waits 
+    * for its rate limit permit (true) or fails right away when 
+    * none is available (false). Defaults to true.
+    */
+   public static final String PROPERTY_RATE_LIMIT_BLOCKING = "RateLimitBlocking";
+   
+   /**
+    * The property to use in order to set the name of the limit 
+    * group sharing the rate limiter, rather than the host of the 
+    * operation.
+    */
+   public static final String PROPERTY_RATE_LIMIT_GROUP = "RateLimitGroup";
+   
+   /**
+    * The property to use in order to set the starting limit on 
+    * the operations in flight to a host, adjusted from the 
+    * latency and failures of the operations. Defaults to 0, not
+    * limiting the operations in flight.
+    */
+   public static final String PROPERTY_CONCURRENCY_LIMIT = "ConcurrencyLimit";
+   
+   /**
+    * The property to use in order to set the lowest limit the 
+    * concurrency limit can shrink to. Defaults to 1.
+    */
+   public static final String PROPERTY_CONCURRENCY_LIMIT_MIN = "ConcurrencyLimitMin";
+   
+   /**
+    * The property to use in order to set the highest limit the 
+    * concurrency limit can grow to. Defaults to 200.
+    */
+   public static final String PROPERTY_CONCURRENCY_LIMIT_MAX = "ConcurrencyLimitMax";
+   
+   /**
+    * The property to use in order to set the ratio the 
+    * concurrency limit is multiplied by when the host is 
+    * overloaded. Defaults to 0.9.
+    */
+   public static final String PROPERTY_CONCURRENCY_LIMIT_BACKOFF_RATIO = "ConcurrencyLimitBackoffRatio";
+   
+   /**
+    * The property to use in order to set the multiple of the 
+    * baseline round-trip time above which an operation counts 
+    * as a sign of overload. Defaults to 2.
+    */
+   public static final String PROPERTY_CONCURRENCY_LIMIT_LATENCY_TOLERANCE = "ConcurrencyLimitLatencyTolerance";
+   
+   /**
+    * The property to use in order to set the maximum number of 
+    * milliseconds an operation waits for a slot under the 
+    * concurrency limit. Defaults to 0, rejecting the operation
+    * right away.
+    */
+   public static final String PROPERTY_CONCURRENCY_LIMIT_QUEUE_WAIT = "ConcurrencyLimitQueueWait";
+   
+   /**
+    * The property to use in order to set the maximum number of 
+    * operations waiting for a slot under the concurrency limit. 
+    * Defaults to 100.
+    */
+   public static final String PROPERTY_CONCURRENCY_LIMIT_QUEUE_DEPTH = "ConcurrencyLimitQueueDepth";
+   
+   /**
+    * The suffix added to the logger name of the component to name 
+    * the logger for the request and response bodies. Setting the 
+    * level of that logger above info keeps the calls logged without
+    * building the bodies for the log.
+    */
+   public static final String PAYLOAD_LOGGER_SUFFIX = ".Payload";
+   
    /**
     * The prefix to use if additional property/
     * properties file needs to be loaded from a 
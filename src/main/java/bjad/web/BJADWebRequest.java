@@ -1,5 +1,6 @@
 package bjad.web;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import javax.net.ssl.SSLContext;
@@ -7,6 +8,16 @@ import javax.net.ssl.SSLContext;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import bjad.web.cache.ResponseCache;
+import bjad.web.connection.ConnectionPoolSettings;
+import bjad.web.resilience.CircuitBreakerPolicy;
+import bjad.web.resilience.ConcurrencyLimitPolicy;
+import bjad.web.resilience.HedgingPolicy;
+import bjad.web.resilience.RateLimitPolicy;
+import bjad.web.resilience.RetryPolicy;
+import bjad.web.transport.ApacheHttpClientTransport;
+import bjad.web.transport.WebTransport;
+
 /**
  * Request object containing all the information 
  * needed by the BjadWebComponent to gather data
@@ -56,6 +67,12 @@ public class BJADWebRequest
     */
    protected int readTimeout = 15000;
    
+   /**
+    * The settings for the pooled connections used 
+    * for the HTTP operation.
+    */
+   protected ConnectionPoolSettings connectionPoolSettings = new ConnectionPoolSettings();
+   
    /**
     * The SSL context to use for the HTTP
     * operation.
@@ -77,11 +94,150 @@ public class BJADWebRequest
     */
    protected String characterSetForResponse = null;
    
+   /**
+    * Flag to buffer the response body of typed operations so 
+    * it can be logged before it is converted. Default is false, 
+    * streaming the body straight into the JSON converter without
+    * logging its content.
+    */
+   protected boolean logResponseBody = false;
+   
+   /**
+    * The transport that completes the HTTP operation. 
+    * Default will be the shared Apache HTTP client 
+    * transport.
+    */
+   protected WebTransport transport = null;
+   
+   /**
+    * The cache for the responses of the GET and HEAD 
+    * operations. Default will be no cache.
+    */
+   protected ResponseCache responseCache = null;
+   
+   /**
+    * The number of milliseconds the results of the GET and HEAD
+    * operations are kept within the result cache. Default will 
+    * be 0, not caching the results.
+    */
+   protected long resultCacheTtl = 0;
+   
+   /**
+    * The number of milliseconds past the result cache TTL an 
+    * expired result is still returned while it is refreshed in 
+    * the background. Default will be 0, refreshing expired 
+    * results while the caller waits.
+    */
+   protected long resultCacheGracePeriod = 0;
+   
+   /**
+    * Flag to coalesce the identical GET and HEAD operations in 
+    * flight at the same time into a single call to the server,
+    * sharing its response. Default is false.
+    */
+   protected boolean coalesceRequests = false;
+   
+   /**
+    * Flag to write the SEND and RECV log events on the background 
+    * thread of the asynchronous wire logger. Default is false, 
+    * writing them on the calling thread.
+    */
+   protected boolean asyncWireLog = false;
+   
+   /**
+    * The maximum number of UTF-8 bytes of the request and response 
+    * bodies to log. Default will be 0, logging the full bodies.
+    */
+   protected int wireLogMaxBodyLength = 0;
+   
+   /**
+    * The fraction (between 0 and 1) of the operations to log the 
+    * SEND and RECV events for. Default will be 1, logging every 
+    * operation.
+    */
+   protected double wireLogSampleRate = 1.0;
+   
+   /**
+    * The policy retrying the failed operations. Default will 
+    * be null, not retrying the operations.
+    */
+   protected RetryPolicy retryPolicy = null;
+   
+   /**
+    * The policy hedging the slow GET, HEAD, and OPTIONS 
+    * operations. Default will be null, not hedging the 
+    * operations.
+    */
+   protected HedgingPolicy hedgingPolicy = null;
+   
+   /**
+    * The policy of the circuit breakers rejecting the operations
+    * to a failing host or endpoint. Default will be null, not 
+    * using circuit breakers.
+    */
+   protected CircuitBreakerPolicy circuitBreakerPolicy = null;
+   
+   /**
+    * The policy of the rate limiters spacing the operations to 
+    * a host or limit group. Default will be null, not limiting 
+    * the rate of the operations.
+    */
+   protected RateLimitPolicy rateLimitPolicy = null;
+   
+   /**
+    * The policy of the adaptive limits on the operations in 
+    * flight to a host. Default will be null, not limiting the 
+    * operations in flight.
+    */
+   protected ConcurrencyLimitPolicy concurrencyLimitPolicy = null;
+   
    static
    {
       DEFAULT_OBJECT_MAPPER.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);      
    }
    
+   /**
+    * Creates a copy of the request, with its own header map and 
+    * connection pool settings and resilience policies so they 
+    * can be changed without affecting this request. The SSL context, JSON object mapper,
+    * and transport are shared with this request.
+    * 
+    * @return
+    *    The copy of the request.
+    */
+   public BJADWebRequest copy()
+   {
+      BJADWebRequest copy = new BJADWebRequest();
+      copy.loggerName = this.loggerName;
+      copy.url = this.url;
+      copy.headers = this.headers == null ? null : new LinkedHashMap<>(this.headers);
+      copy.method = this.method;
+      copy.connectionTimeout = this.connectionTimeout;
+      copy.readTimeout = this.readTimeout;
+      copy.connectionPoolSettings = this.connectionPoolSettings == null ? null : 
+         new ConnectionPoolSettings(this.connectionPoolSettings);
+      copy.sslContext = this.sslContext;
+      copy.jsonObjectMapper = this.jsonObjectMapper;
+      copy.characterSetForResponse = this.characterSetForResponse;
+      copy.logResponseBody = this.logResponseBody;
+      copy.transport = this.transport;
+      copy.responseCache = this.responseCache;
+      copy.resultCacheTtl = this.resultCacheTtl;
+      copy.resultCacheGracePeriod = this.resultCacheGracePeriod;
+      copy.coalesceRequests = this.coalesceRequests;
+      copy.asyncWireLog = this.asyncWireLog;
+      copy.wireLogMaxBodyLength = this.wireLogMaxBodyLength;
+      copy.wireLogSampleRate = this.wireLogSampleRate;
+      copy.retryPolicy = this.retryPolicy == null ? null : new RetryPolicy(this.retryPolicy);
+      copy.hedgingPolicy = this.hedgingPolicy == null ? null : new HedgingPolicy(this.hedgingPolicy);
+      copy.circuitBreakerPolicy = this.circuitBreakerPolicy == null ? null : 
+         new CircuitBreakerPolicy(this.circuitBreakerPolicy);
+      copy.rateLimitPolicy = this.rateLimitPolicy == null ? null : new RateLimitPolicy(this.rateLimitPolicy);
+      copy.concurrencyLimitPolicy = this.concurrencyLimitPolicy == null ? null : 
+         new ConcurrencyLimitPolicy(this.concurrencyLimitPolicy);
+      return copy;
+   }
+   
    /**
     * @return 
     *   The loggerName property within the WebOperationRequest instance
@@ -193,6 +349,28 @@ public class BJADWebRequest
       this.readTimeout = readTimeout;
    }
 
+   /**
+    * @return 
+    *   The connectionPoolSettings property within the BJADWebRequest instance
+    */
+   public ConnectionPoolSettings getConnectionPoolSettings()
+   {
+      if (this.connectionPoolSettings == null)
+      {
+         this.connectionPoolSettings = new ConnectionPoolSettings();
+      }
+      return this.connectionPoolSettings;
+   }
+
+   /**
+    * @param connectionPoolSettings 
+    *   The connectionPoolSettings to set within the BJADWebRequest instance
+    */
+   public void setConnectionPoolSettings(ConnectionPoolSettings connectionPoolSettings)
+   {
+      this.connectionPoolSettings = connectionPoolSettings;
+   }
+
    /**
     * @return 
     *   The sslContext property within the WebOperationRequest instance
@@ -246,4 +424,257 @@ public class BJADWebRequest
    {
       this.characterSetForResponse = characterSetForResponse;
    }
+
+   /**
+    * @return 
+    *   The logResponseBody property within the BJADWebRequest instance
+    */
+   public boolean isLogResponseBody()
+   {
+      return this.logResponseBody;
+   }
+
+   /**
+    * @param logResponseBody 
+    *   The logResponseBody to set within the BJADWebRequest instance
+    */
+   public void setLogResponseBody(boolean logResponseBody)
+   {
+      this.logResponseBody = logResponseBody;
+   }
+
+   /**
+    * @return 
+    *   The transport property within the BJADWebRequest instance, 
+    *   or the Apache HTTP client transport if not set.
+    */
+   public WebTransport getTransport()
+   {
+      return this.transport == null ? ApacheHttpClientTransport.INSTANCE : this.transport;
+   }
+
+   /**
+    * @param transport 
+    *   The transport to set within the BJADWebRequest instance
+    */
+   public void setTransport(WebTransport transport)
+   {
+      this.transport = transport;
+   }
+
+   /**
+    * @return 
+    *   The responseCache property within the BJADWebRequest instance
+    */
+   public ResponseCache getResponseCache()
+   {
+      return this.responseCache;
+   }
+
+   /**
+    * @param responseCache 
+    *   The responseCache to set within the BJADWebRequest instance
+    */
+   public void setResponseCache(ResponseCache responseCache)
+   {
+      this.responseCache = responseCache;
+   }
+
+   /**
+    * @return 
+    *   The resultCacheTtl property within the BJADWebRequest instance
+    */
+   public long getResultCacheTtl()
+   {
+      return this.resultCacheTtl;
+   }
+
+   /**
+    * @param resultCacheTtl 
+    *   The resultCacheTtl to set within the BJADWebRequest instance
+    */
+   public void setResultCacheTtl(long resultCacheTtl)
+   {
+      this.resultCacheTtl = resultCacheTtl;
+   }
+
+   /**
+    * @return 
+    *   The resultCacheGracePeriod property within the BJADWebRequest instance
+    */
+   public long getResultCacheGracePeriod()
+   {
+      return this.resultCacheGracePeriod;
+   }
+
+   /**
+    * @param resultCacheGracePeriod 
+    *   The resultCacheGracePeriod to set within the BJADWebRequest instance
+    */
+   public void setResultCacheGracePeriod(long resultCacheGracePeriod)
+   {
+      this.resultCacheGracePeriod = resultCacheGracePeriod;
+   }
+
+   /**
+    * @return 
+    *   The coalesceRequests property within the BJADWebRequest instance
+    */
+   public boolean isCoalesceRequests()
+   {
+      return this.coalesceRequests;
+   }
+
+   /**
+    * @param coalesceRequests 
+    *   The coalesceRequests to set within the BJADWebRequest instance
+    */
+   public void setCoalesceRequests(boolean coalesceRequests)
+   {
+      this.coalesceRequests = coalesceRequests;
+   }
+
+   /**
+    * @return 
+    *   The asyncWireLog property within the BJADWebRequest instance
+    */
+   public boolean isAsyncWireLog()
+   {
+      return this.asyncWireLog;
+   }
+
+   /**
+    * @param asyncWireLog 
+    *   The asyncWireLog to set within the BJADWebRequest instance
+    */
+   public void setAsyncWireLog(boolean asyncWireLog)
+   {
+      this.asyncWireLog = asyncWireLog;
+   }
+
+   /**
+    * @return 
+    *   The wireLogMaxBodyLength property within the BJADWebRequest instance
+    */
+   public int getWireLogMaxBodyLength()
+   {
+      return this.wireLogMaxBodyLength;
+   }
+
+   /**
+    * @param wireLogMaxBodyLength 
+    *   The wireLogMaxBodyLength to set within the BJADWebRequest instance
+    */
+   public void setWireLogMaxBodyLength(int wireLogMaxBodyLength)
+   {
+      this.wireLogMaxBodyLength = wireLogMaxBodyLength;
+   }
+
+   /**
+    * @return 
+    *   The wireLogSampleRate property within the BJADWebRequest instance
+    */
+   public double getWireLogSampleRate()
+   {
+      return this.wireLogSampleRate;
+   }
+
+   /**
+    * @param wireLogSampleRate 
+    *   The wireLogSampleRate to set within the BJADWebRequest instance
+    */
+   public void setWireLogSampleRate(double wireLogSampleRate)
+   {
+      this.wireLogSampleRate = wireLogSampleRate;
+   }
+
+   /**
+    * @return 
+    *   The retryPolicy property within the BJADWebRequest instance
+    */
+   public RetryPolicy getRetryPolicy()
+   {
+      return this.retryPolicy;
+   }
+
+   /**
+    * @param retryPolicy 
+    *   The retryPolicy to set within the BJADWebRequest instance
+    */
+   public void setRetryPolicy(RetryPolicy retryPolicy)
+   {
+      this.retryPolicy = retryPolicy;
+   }
+
+   /**
+    * @return 
+    *   The hedgingPolicy property within the BJADWebRequest instance
+    */
+   public HedgingPolicy getHedgingPolicy()
+   {
+      return this.hedgingPolicy;
+   }
+
+   /**
+    * @param hedgingPolicy 
+    *   The hedgingPolicy to set within the BJADWebRequest instance
+    */
+   public void setHedgingPolicy(HedgingPolicy hedgingPolicy)
+   {
+      this.hedgingPolicy = hedgingPolicy;
+   }
+
+   /**
+    * @return 
+    *   The circuitBreakerPolicy property within the BJADWebRequest instance
+    */
+   public CircuitBreakerPolicy getCircuitBreakerPolicy()
+   {
+      return this.circuitBreakerPolicy;
+   }
+
+   /**
+    * @param circuitBreakerPolicy 
+    *   The circuitBreakerPolicy to set within the BJADWebRequest instance
+    */
+   public void setCircuitBreakerPolicy(CircuitBreakerPolicy circuitBreakerPolicy)
+   {
+      this.circuitBreakerPolicy = circuitBreakerPolicy;
+   }
+
+   /**
+    * @return 
+    *   The rateLimitPolicy property within the BJADWebRequest instance
+    */
+   public RateLimitPolicy getRateLimitPolicy()
+   {
+      return this.rateLimitPolicy;
+   }
+
+   /**
+    * @param rateLimitPolicy 
+    *   The rateLimitPolicy to set within the BJADWebRequest instance
+    */
+   public void setRateLimitPolicy(RateLimitPolicy rateLimitPolicy)
+   {
+      this.rateLimitPolicy = rateLimitPolicy;
+   }
+
+   /**
+    * @return 
+    *   The concurrencyLimitPolicy property within the BJADWebRequest instance
+    */
+   public ConcurrencyLimitPolicy getConcurrencyLimitPolicy()
+   {
+      return this.concurrencyLimitPolicy;
+   }
+
+   /**
+    * @param concurrencyLimitPolicy 
+    *   The concurrencyLimitPolicy to set within the BJADWebRequest instance
+    */
+   public void setConcurrencyLimitPolicy(ConcurrencyLimitPolicy concurrencyLimitPolicy)
+   {
+      this.concurrencyLimitPolicy = concurrencyLimitPolicy;
+   }
 }
@@ -1,14 +1,28 @@
 package bjad.web;
 
 import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.logging.LogFactory;
 
+import bjad.web.connection.ConnectionPoolSettings;
 import bjad.web.properties.EnhancedPropertyHelper;
+import bjad.web.cache.DiskResponseCache;
+import bjad.web.cache.WTinyLfuResponseCache;
 import bjad.web.provider.ObjectToJSONProvider;
+import bjad.web.provider.ResponseCacheProvider;
 import bjad.web.provider.SSLContextProvider;
+import bjad.web.resilience.CircuitBreakerPolicy;
+import bjad.web.resilience.ConcurrencyLimitPolicy;
+import bjad.web.resilience.HedgingPolicy;
+import bjad.web.resilience.RateLimitPolicy;
+import bjad.web.resilience.RetryPolicy;
+import bjad.web.transport.WebTransport;
 
 /**
  * Factory for web requests being made from
@@ -49,8 +63,12 @@ public class BJADWebRequestFactory
       request.setConnectionTimeout(propertyHelper.getNumericValue(BJADWebConstants.PROPERTY_CONNECTION_TIMEOUT, new BigDecimal("15000")).intValue());
       // Gather the read timeout
       request.setReadTimeout(propertyHelper.getNumericValue(BJADWebConstants.PROPERTY_READ_TIMEOUT, new BigDecimal("15000")).intValue());
+      // Gather the connection pool settings
+      request = populateConnectionPoolSettings(request, propertyHelper);
       // Set the response type character set if found.
       request.setCharacterSetForResponse(propertyHelper.getPropertyValue(BJADWebConstants.PROPERTY_CHARACTER_SET, ""));
+      // Set if the response body is logged for typed operations.
+      request.setLogResponseBody(propertyHelper.getBooleanValue(BJADWebConstants.PROPERTY_LOG_RESPONSE_BODY, false));
       // Set the HTTP Method
       request = populateHttpMethod(request, propertyHelper);
       // Build the headers. 
@@ -59,6 +77,29 @@ public class BJADWebRequestFactory
       request = populateSSLProvider(request, propertyHelper.getPropertyValue(BJADWebConstants.PROPERTY_SSLCONTEXT_PROVIDER));
       // Build the Object to JSON mapper if the provider is defined
       request = populateObjectToJSONProvider(request, propertyHelper.getPropertyValue(BJADWebConstants.PROPERTY_OBJECT_TO_JSON_PROVIDER));
+      // Build the transport if the class is defined
+      request = populateTransport(request, propertyHelper.getPropertyValue(BJADWebConstants.PROPERTY_TRANSPORT));
+      // Build the response cache if defined
+      request = populateResponseCache(request, propertyHelper);
+      // Gather the result cache TTL and grace period
+      request.setResultCacheTtl(propertyHelper.getNumericValue(BJADWebConstants.PROPERTY_RESULT_CACHE_TTL, BigDecimal.ZERO).longValue());
+      request.setResultCacheGracePeriod(propertyHelper.getNumericValue(BJADWebConstants.PROPERTY_RESULT_CACHE_GRACE_PERIOD, BigDecimal.ZERO).longValue());
+      // Set if the identical operations in flight are coalesced.
+      request.setCoalesceRequests(propertyHelper.getBooleanValue(BJADWebConstants.PROPERTY_COALESCE_REQUESTS, false));
+      // Gather the wire logging settings
+      request.setAsyncWireLog(propertyHelper.getBooleanValue(BJADWebConstants.PROPERTY_ASYNC_WIRE_LOG, false));
+      request.setWireLogMaxBodyLength(propertyHelper.getNumericValue(BJADWebConstants.PROPERTY_WIRE_LOG_MAX_BODY_LENGTH, BigDecimal.ZERO).intValue());
+      request.setWireLogSampleRate(propertyHelper.getNumericValue(BJADWebConstants.PROPERTY_WIRE_LOG_SAMPLE_RATE, BigDecimal.ONE).doubleValue());
+      // Build the retry policy if enabled
+      request = populateRetryPolicy(request, propertyHelper);
+      // Build the hedging policy if enabled
+      request = populateHedgingPolicy(request, propertyHelper);
+      // Build the circuit breaker policy if enabled
+      request = populateCircuitBreakerPolicy(request, propertyHelper);
+      // Build the rate limit policy if a rate is set
+      request = populateRateLimitPolicy(request, propertyHelper);
+      // Build the concurrency limit policy if enabled
+      request = populateConcurrencyLimitPolicy(request, propertyHelper);
       
       return request;
    }
@@ -91,6 +132,35 @@ public class BJADWebRequestFactory
       return request;
    }
    
+   /**
+    * Builds the connection pool settings for the request from the 
+    * pool related properties, leaving the defaults in place for any
+    * properties not found.
+    * 
+    * @param request
+    *    The request being built.
+    * @param propHelper
+    *    The property helper containing the properties to use
+    * @return
+    *    The request object with the connection pool settings set.
+    */
+   private static BJADWebRequest populateConnectionPoolSettings(BJADWebRequest request, EnhancedPropertyHelper propHelper)
+   {
+      ConnectionPoolSettings settings = request.getConnectionPoolSettings();
+      settings.setPooled(propHelper.getBooleanValue(BJADWebConstants.PROPERTY_POOLED_CONNECTIONS, settings.isPooled()));
+      settings.setMaxTotal(propHelper.getNumericValue(BJADWebConstants.PROPERTY_POOL_MAX_TOTAL, 
+            new BigDecimal(settings.getMaxTotal())).intValue());
+      settings.setMaxPerRoute(propHelper.getNumericValue(BJADWebConstants.PROPERTY_POOL_MAX_PER_ROUTE, 
+            new BigDecimal(settings.getMaxPerRoute())).intValue());
+      settings.setKeepAliveDuration(propHelper.getNumericValue(BJADWebConstants.PROPERTY_KEEP_ALIVE_DURATION, 
+            new BigDecimal(settings.getKeepAliveDuration())).longValue());
+      settings.setValidateAfterInactivity(propHelper.getNumericValue(BJADWebConstants.PROPERTY_VALIDATE_AFTER_INACTIVITY, 
+            new BigDecimal(settings.getValidateAfterInactivity())).intValue());
+      settings.setIdleConnectionTimeout(propHelper.getNumericValue(BJADWebConstants.PROPERTY_IDLE_CONNECTION_TIMEOUT, 
+            new BigDecimal(settings.getIdleConnectionTimeout())).longValue());
+      return request;
+   }
+   
    /**
     * Builds the header values for the request from the 
     * Header.[headerName] properties in the collection.
@@ -199,4 +269,329 @@ public class BJADWebRequestFactory
       }
       return request;
    }
+   
+   /**
+    * Builds the transport property for the request if the 
+    * transport class is defined within the properties.
+    * 
+    * @param request
+    *    The request being built.
+    * @param className
+    *    The name of the transport class.
+    * @return
+    *    The request object with the transport set within it 
+    *    if the class was set and could be instantiated.
+    */
+   private static BJADWebRequest populateTransport(BJADWebRequest request, String className)
+   {
+      if (className != null && !className.trim().isEmpty())
+      {
+         try
+         {            
+            Object o = Class.forName(className.trim()).getDeclaredConstructor().newInstance();
+            request.setTransport((WebTransport)o); 
+         }
+         catch (ClassCastException ex)
+         {
+            LogFactory.getLog(request.getLoggerName()).warn("Class " + className + " is not a WebTransport");
+         }
+         catch (ClassNotFoundException ex)
+         {
+            LogFactory.getLog(request.getLoggerName()).warn("Cannot find " + className + " in classpath.");
+         }
+         catch (ReflectiveOperationException | RuntimeException ex)
+         {
+            LogFactory.getLog(request.getLoggerName()).warn("Could not create the transport from " + className, ex);
+         }
+      }
+      return request;
+   }
+   
+   /**
+    * Builds the response cache property for the request if the 
+    * response cache is defined within the properties, either as 
+    * the shared in memory cache, the shared disk cache for the 
+    * directory property, or a provider class.
+    * 
+    * @param request
+    *    The request being built.
+    * @param propHelper
+    *    The property helper containing the properties to use
+    * @return
+    *    The request object with the response cache set within it 
+    *    if the property was set and the cache could be created.
+    */
+   private static BJADWebRequest populateResponseCache(BJADWebRequest request, EnhancedPropertyHelper propHelper)
+   {
+      String value = propHelper.getPropertyValue(BJADWebConstants.PROPERTY_RESPONSE_CACHE);
+      if (value == null || value.trim().isEmpty())
+      {
+         return request;
+      }
+      value = value.trim();
+      if (value.equalsIgnoreCase(BJADWebConstants.RESPONSE_CACHE_MEMORY))
+      {
+         request.setResponseCache(WTinyLfuResponseCache.getSharedInstance());
+         return request;
+      }
+      if (value.equalsIgnoreCase(BJADWebConstants.RESPONSE_CACHE_DISK))
+      {
+         String directory = propHelper.getPropertyValue(BJADWebConstants.PROPERTY_DISK_CACHE_DIRECTORY, 
+               DiskResponseCache.DEFAULT_DIRECTORY);
+         long maxSize = propHelper.getNumericValue(BJADWebConstants.PROPERTY_DISK_CACHE_MAX_SIZE, 
+               new BigDecimal(DiskResponseCache.DEFAULT_MAX_SIZE)).longValue();
+         try
+         {
+            request.setResponseCache(DiskResponseCache.getSharedInstance(Paths.get(directory), maxSize));
+         }
+         catch (Exception ex)
+         {
+            LogFactory.getLog(request.getLoggerName()).warn("Could not open the disk response cache within " + directory, ex);
+         }
+         return request;
+      }
+      
+      try
+      {            
+         Object o = Class.forName(value).getDeclaredConstructor().newInstance();
+         request.setResponseCache(((ResponseCacheProvider)o).getResponseCache()); 
+      }
+      catch (ClassCastException ex)
+      {
+         LogFactory.getLog(request.getLoggerName()).warn("Class " + value + " is not a ResponseCacheProvider");
+      }
+      catch (ClassNotFoundException ex)
+      {
+         LogFactory.getLog(request.getLoggerName()).warn("Cannot find " + value + " in classpath.");
+      }
+      catch (ReflectiveOperationException | BJADWebException | RuntimeException ex)
+      {
+         LogFactory.getLog(request.getLoggerName()).warn("Could not create the response cache from " + value, ex);
+      }
+      return request;
+   }
+   
+   /**
+    * Builds the retry policy for the request from the Retry 
+    * properties if the maximum attempts property is above 1.
+    * 
+    * @param request
+    *    The request being built.
+    * @param propHelper
+    *    The property helper containing the properties to use
+    * @return
+    *    The request object with the retry policy set within it 
+    *    if retries are enabled.
+    */
+   @SuppressWarnings("unchecked")
+   private static BJADWebRequest populateRetryPolicy(BJADWebRequest request, EnhancedPropertyHelper propHelper)
+   {
+      int maxAttempts = propHelper.getNumericValue(BJADWebConstants.PROPERTY_RETRY_MAX_ATTEMPTS, BigDecimal.ONE).intValue();
+      if (maxAttempts <= 1)
+      {
+         return request;
+      }
+      
+      RetryPolicy policy = new RetryPolicy();
+      policy.setMaxAttempts(maxAttempts);
+      policy.setBaseBackoff(propHelper.getNumericValue(BJADWebConstants.PROPERTY_RETRY_BASE_BACKOFF, 
+            new BigDecimal(policy.getBaseBackoff())).longValue());
+      policy.setMaxBackoff(propHelper.getNumericValue(BJADWebConstants.PROPERTY_RETRY_MAX_BACKOFF, 
+            new BigDecimal(policy.getMaxBackoff())).longValue());
+      policy.setRetryNonIdempotent(propHelper.getBooleanValue(BJADWebConstants.PROPERTY_RETRY_NON_IDEMPOTENT, 
+            policy.isRetryNonIdempotent()));
+      policy.setBudgetPercent(propHelper.getNumericValue(BJADWebConstants.PROPERTY_RETRY_BUDGET_PERCENT, 
+            new BigDecimal(policy.getBudgetPercent())).doubleValue());
+      
+      String codes = propHelper.getPropertyValue(BJADWebConstants.PROPERTY_RETRY_STATUS_CODES);
+      if (codes != null && !codes.trim().isEmpty())
+      {
+         Set<Integer> statusCodes = new LinkedHashSet<>();
+         for (String code : codes.split(","))
+         {
+            try
+            {
+               statusCodes.add(Integer.parseInt(code.trim()));
+            }
+            catch (NumberFormatException ex)
+            {
+               LogFactory.getLog(request.getLoggerName()).warn("Could not convert \"" + code + "\" into a status code.");
+            }
+         }
+         policy.setRetryStatusCodes(statusCodes);
+      }
+      
+      String classNames = propHelper.getPropertyValue(BJADWebConstants.PROPERTY_RETRY_EXCEPTIONS);
+      if (classNames != null && !classNames.trim().isEmpty())
+      {
+         List<Class<? extends Throwable>> exceptions = new ArrayList<>();
+         for (String className : classNames.split(","))
+         {
+            try
+            {
+               Class<?> c = Class.forName(className.trim());
+               if (Throwable.class.isAssignableFrom(c))
+               {
+                  exceptions.add((Class<? extends Throwable>)c);
+               }
+               else
+               {
+                  LogFactory.getLog(request.getLoggerName()).warn("Class " + className + " is not a Throwable");
+               }
+            }
+            catch (ClassNotFoundException ex)
+            {
+               LogFactory.getLog(request.getLoggerName()).warn("Cannot find " + className + " in classpath.");
+            }
+         }
+         policy.setRetryExceptions(exceptions);
+      }
+      
+      request.setRetryPolicy(policy);
+      return request;
+   }
+   
+   /**
+    * Builds the hedging policy for the request from the Hedge
+    * properties if the hedging of the requests is enabled.
+    * 
+    * @param request
+    *    The request being built.
+    * @param propHelper
+    *    The property helper containing the properties to use
+    * @return
+    *    The request object with the hedging policy set within 
+    *    it if hedging is enabled.
+    */
+   private static BJADWebRequest populateHedgingPolicy(BJADWebRequest request, EnhancedPropertyHelper propHelper)
+   {
+      if (!propHelper.getBooleanValue(BJADWebConstants.PROPERTY_HEDGE_REQUESTS, false))
+      {
+         return request;
+      }
+      
+      HedgingPolicy policy = new HedgingPolicy();
+      policy.setDelay(propHelper.getNumericValue(BJADWebConstants.PROPERTY_HEDGE_DELAY, 
+            BigDecimal.valueOf(policy.getDelay())).longValue());
+      policy.setBudgetPercent(propHelper.getNumericValue(BJADWebConstants.PROPERTY_HEDGE_BUDGET_PERCENT, 
+            BigDecimal.valueOf(policy.getBudgetPercent())).doubleValue());
+      request.setHedgingPolicy(policy);
+      return request;
+   }
+   
+   /**
+    * Builds the circuit breaker policy for the request from the
+    * CircuitBreaker properties if the scope of the breakers is set.
+    * 
+    * @param request
+    *    The request being built.
+    * @param propHelper
+    *    The property helper containing the properties to use
+    * @return
+    *    The request object with the circuit breaker policy set 
+    *    within it if the breakers are enabled.
+    */
+   private static BJADWebRequest populateCircuitBreakerPolicy(BJADWebRequest request, EnhancedPropertyHelper propHelper)
+   {
+      String val = propHelper.getPropertyValue(BJADWebConstants.PROPERTY_CIRCUIT_BREAKER);
+      if (val == null || val.trim().isEmpty())
+      {
+         return request;
+      }
+      
+      CircuitBreakerPolicy policy = new CircuitBreakerPolicy();
+      try
+      {
+         policy.setScope(CircuitBreakerPolicy.Scope.valueOf(val.trim().toUpperCase()));
+      }
+      catch (Exception ex)
+      {
+         LogFactory.getLog(request.getLoggerName()).warn("Could not convert \"" + val + "\" into a circuit breaker scope, using host.");
+      }
+      policy.setFailureRateThreshold(propHelper.getNumericValue(BJADWebConstants.PROPERTY_CIRCUIT_BREAKER_FAILURE_RATE, 
+            new BigDecimal(policy.getFailureRateThreshold())).doubleValue());
+      policy.setSlowCallRateThreshold(propHelper.getNumericValue(BJADWebConstants.PROPERTY_CIRCUIT_BREAKER_SLOW_CALL_RATE, 
+            new BigDecimal(policy.getSlowCallRateThreshold())).doubleValue());
+      policy.setSlowCallDuration(propHelper.getNumericValue(BJADWebConstants.PROPERTY_CIRCUIT_BREAKER_SLOW_CALL_DURATION, 
+            new BigDecimal(policy.getSlowCallDuration())).longValue());
+      policy.setWindowSize(propHelper.getNumericValue(BJADWebConstants.PROPERTY_CIRCUIT_BREAKER_WINDOW_SIZE, 
+            new BigDecimal(policy.getWindowSize())).intValue());
+      policy.setMinimumCalls(propHelper.getNumericValue(BJADWebConstants.PROPERTY_CIRCUIT_BREAKER_MINIMUM_CALLS, 
+            new BigDecimal(policy.getMinimumCalls())).intValue());
+      policy.setOpenDuration(propHelper.getNumericValue(BJADWebConstants.PROPERTY_CIRCUIT_BREAKER_OPEN_DURATION, 
+            new BigDecimal(policy.getOpenDuration())).longValue());
+      policy.setHalfOpenCalls(propHelper.getNumericValue(BJADWebConstants.PROPERTY_CIRCUIT_BREAKER_HALF_OPEN_CALLS, 
+            new BigDecimal(policy.getHalfOpenCalls())).intValue());
+      request.setCircuitBreakerPolicy(policy);
+      return request;
+   }
+   
+   /**
+    * Builds the rate limit policy for the request from the 
+    * RateLimit properties if the permits per second are set.
+    * 
+    * @param request
+    *    The request being built.
+    * @param propHelper
+    *    The property helper containing the properties to use
+    * @return
+    *    The request object with the rate limit policy set 
+    *    within it if a rate is set.
+    */
+   private static BJADWebRequest populateRateLimitPolicy(BJADWebRequest request, EnhancedPropertyHelper propHelper)
+   {
+      double permitsPerSecond = propHelper.getNumericValue(BJADWebConstants.PROPERTY_RATE_LIMIT_PER_SECOND, BigDecimal.ZERO).doubleValue();
+      if (permitsPerSecond <= 0)
+      {
+         return request;
+      }
+      
+      RateLimitPolicy policy = new RateLimitPolicy(permitsPerSecond);
+      policy.setBurst(propHelper.getNumericValue(BJADWebConstants.PROPERTY_RATE_LIMIT_BURST, 
+            BigDecimal.valueOf(policy.getBurst())).intValue());
+      policy.setMaxWait(propHelper.getNumericValue(BJADWebConstants.PROPERTY_RATE_LIMIT_MAX_WAIT, 
+            BigDecimal.valueOf(policy.getMaxWait())).longValue());
+      policy.setBlocking(propHelper.getBooleanValue(BJADWebConstants.PROPERTY_RATE_LIMIT_BLOCKING, policy.isBlocking()));
+      policy.setGroup(propHelper.getPropertyValue(BJADWebConstants.PROPERTY_RATE_LIMIT_GROUP));
+      request.setRateLimitPolicy(policy);
+      return request;
+   }
+   
+   /**
+    * Builds the adaptive concurrency limit policy for the request
+    * from the ConcurrencyLimit properties if a starting limit is set.
+    * 
+    * @param request
+    *    The request being built.
+    * @param propHelper
+    *    The property helper containing the properties to use
+    * @return
+    *    The request object with the concurrency limit policy set 
+    *    within it if the limit is enabled.
+    */
+   private static BJADWebRequest populateConcurrencyLimitPolicy(BJADWebRequest request, EnhancedPropertyHelper propHelper)
+   {
+      int initialLimit = propHelper.getNumericValue(BJADWebConstants.PROPERTY_CONCURRENCY_LIMIT, BigDecimal.ZERO).intValue();
+      if (initialLimit < 1)
+      {
+         return request;
+      }
+      
+      ConcurrencyLimitPolicy policy = new ConcurrencyLimitPolicy();
+      policy.setInitialLimit(initialLimit);
+      policy.setMinLimit(propHelper.getNumericValue(BJADWebConstants.PROPERTY_CONCURRENCY_LIMIT_MIN, 
+            new BigDecimal(policy.getMinLimit())).intValue());
+      policy.setMaxLimit(propHelper.getNumericValue(BJADWebConstants.PROPERTY_CONCURRENCY_LIMIT_MAX, 
+            new BigDecimal(policy.getMaxLimit())).intValue());
+      policy.setBackoffRatio(propHelper.getNumericValue(BJADWebConstants.PROPERTY_CONCURRENCY_LIMIT_BACKOFF_RATIO, 
+            new BigDecimal(policy.getBackoffRatio())).doubleValue());
+      policy.setLatencyTolerance(propHelper.getNumericValue(BJADWebConstants.PROPERTY_CONCURRENCY_LIMIT_LATENCY_TOLERANCE, 
+            new BigDecimal(policy.getLatencyTolerance())).doubleValue());
+      policy.setMaxQueueWait(propHelper.getNumericValue(BJADWebConstants.PROPERTY_CONCURRENCY_LIMIT_QUEUE_WAIT, 
+            new BigDecimal(policy.getMaxQueueWait())).longValue());
+      policy.setMaxQueueDepth(propHelper.getNumericValue(BJADWebConstants.PROPERTY_CONCURRENCY_LIMIT_QUEUE_DEPTH, 
+            new BigDecimal(policy.getMaxQueueDepth())).intValue());
+      request.setConcurrencyLimitPolicy(policy);
+      return request;
+   }
 }
@@ -36,6 +36,26 @@ public class BJADWebResponse<T>
     * The data/body returned by the body.
     */
    protected T data;
+   /**
+    * Flag set when the response was served from, 
+    * or revalidated against, the response cache.
+    */
+   protected boolean cacheHit;
+   /**
+    * Flag set when the response was shared from an identical 
+    * operation already in flight for another caller.
+    */
+   protected boolean coalesced;
+   /**
+    * Flag set when a hedged request was sent because the
+    * first request did not answer within the hedge delay.
+    */
+   protected boolean hedged;
+   /**
+    * Flag set when the response came from the hedged request
+    * rather than the first request.
+    */
+   protected boolean hedgeWon;
    
    /**
     * @return 
@@ -105,6 +125,70 @@ public class BJADWebResponse<T>
    {
       this.data = data;
    }
+   /**
+    * @return 
+    *   The cacheHit property within the WebOperationResponse instance
+    */
+   public boolean isCacheHit()
+   {
+      return this.cacheHit;
+   }
+   /**
+    * @param cacheHit 
+    *   The cacheHit to set within the WebOperationResponse instance
+    */
+   public void setCacheHit(boolean cacheHit)
+   {
+      this.cacheHit = cacheHit;
+   }
+   /**
+    * @return 
+    *   The coalesced property within the WebOperationResponse instance
+    */
+   public boolean isCoalesced()
+   {
+      return this.coalesced;
+   }
+   /**
+    * @param coalesced 
+    *   The coalesced to set within the WebOperationResponse instance
+    */
+   public void setCoalesced(boolean coalesced)
+   {
+      this.coalesced = coalesced;
+   }
+   /**
+    * @return 
+    *   The hedged property within the WebOperationResponse instance
+    */
+   public boolean isHedged()
+   {
+      return this.hedged;
+   }
+   /**
+    * @param hedged 
+    *   The hedged to set within the WebOperationResponse instance
+    */
+   public void setHedged(boolean hedged)
+   {
+      this.hedged = hedged;
+   }
+   /**
+    * @return 
+    *   The hedgeWon property within the WebOperationResponse instance
+    */
+   public boolean isHedgeWon()
+   {
+      return this.hedgeWon;
+   }
+   /**
+    * @param hedgeWon 
+    *   The hedgeWon to set within the WebOperationResponse instance
+    */
+   public void setHedgeWon(boolean hedgeWon)
+   {
+      this.hedgeWon = hedgeWon;
+   }
    
    /**
     * Copies the non data values from the source response object
@@ -118,6 +202,10 @@ public class BJADWebResponse<T>
       this.duration = source.getDuration();
       this.statusCode = source.getStatusCode();
       this.headers = source.getHeaders();
+      this.cacheHit = source.isCacheHit();
+      this.coalesced = source.isCoalesced();
+      this.hedged = source.isHedged();
+      this.hedgeWon = source.isHedgeWon();
    }
    
    /**
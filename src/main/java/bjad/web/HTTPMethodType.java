@@ -42,4 +42,30 @@ public enum HTTPMethodType
     * The TRACE method performs a message loop-back test along the path to the target resource.
     */
    TRACE;
+   
+   /**
+    * Returns if the method requires a body to be sent 
+    * with the request (POST, PUT, and PATCH).
+    * 
+    * @return
+    *    True if the method requires a body, false if 
+    *    the method cannot have a body.
+    */
+   public boolean requiresBody()
+   {
+      return this == POST || this == PUT || this == PATCH;
+   }
+   
+   /**
+    * Returns if sending the method more than once has the same 
+    * effect on the server as sending it once (GET, HEAD, OPTIONS,
+    * TRACE, PUT, and DELETE), making it safe to retry.
+    * 
+    * @return
+    *    True if the method is idempotent, false for POST and PATCH.
+    */
+   public boolean isIdempotent()
+   {
+      return this != POST && this != PATCH;
+   }
 }
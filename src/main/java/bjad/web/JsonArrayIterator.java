@@ -0,0 +1,308 @@
+package bjad.web;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * Iterator over the elements of a JSON array within a response, 
+ * binding each element to the element type as the caller pulls 
+ * it from the live response stream. Only the current element is
+ * held in memory, whatever the size of the array.
+ * <p>
+ * The iterator holds the connection for the operation until it 
+ * is closed, or until the end of the array is reached, so it 
+ * should be used within a try with resources block. 
+ *
+ * @author 
+ *  Ben Dougall
+ * @param <T>
+ *    The type of the elements within the array.
+ */
+public class JsonArrayIterator<T> implements Iterator<T>, Closeable
+{
+   /**
+    * The parser over the response stream.
+    */
+   private final JsonParser parser;
+   
+   /**
+    * The mapper used to bind the elements.
+    */
+   private final ObjectMapper mapper;
+   
+   /**
+    * The type of the elements within the array.
+    */
+   private final Class<T> elementType;
+   
+   /**
+    * The resource (the response) to close with the parser.
+    */
+   private final Closeable resource;
+   
+   /**
+    * Flag set once the parser is positioned at the start 
+    * of the next element. 
+    */
+   private boolean elementReady = false;
+   
+   /**
+    * Flag set once the end of the array is reached or the 
+    * iterator is closed.
+    */
+   private boolean finished = false;
+   
+   /**
+    * Flag set once the end of the array (or of the content)
+    * is reached, so the rest of the response can be read to 
+    * reuse the connection.
+    */
+   private boolean endReached = false;
+   
+   /**
+    * Flag set once the parser and resource are closed.
+    */
+   private boolean closed = false;
+   
+   /**
+    * Creates the iterator, positioning the parser at the start 
+    * of the array. If the array field name is set, the root of 
+    * the JSON must be an object containing the array within that
+    * field, otherwise the root of the JSON must be the array.
+    * 
+    * @param parser
+    *    The parser over the response stream.
+    * @param mapper
+    *    The mapper used to bind the elements.
+    * @param elementType
+    *    The type of the elements within the array.
+    * @param arrayFieldName
+    *    The name of the field containing the array within the 
+    *    root object, or null if the root is the array.
+    * @param resource
+    *    The resource to close with the parser, or null.
+    * @throws BJADWebException
+    *    Thrown if the array cannot be found within the JSON, or 
+    *    the stream cannot be read.
+    */
+   public JsonArrayIterator(JsonParser parser, ObjectMapper mapper, Class<T> elementType, 
+         String arrayFieldName, Closeable resource) throws BJADWebException
+   {
+      this.parser = parser;
+      this.mapper = mapper;
+      this.elementType = elementType;
+      this.resource = resource;
+      
+      try
+      {
+         JsonToken token = parser.nextToken();
+         if (arrayFieldName != null && !arrayFieldName.trim().isEmpty())
+         {
+            token = moveToField(token, arrayFieldName.trim());
+         }
+         if (token == null)
+         {
+            // No content to iterate over.
+            finished = true;
+            endReached = true;
+         }
+         else if (token != JsonToken.START_ARRAY)
+         {
+            throw new BJADWebException("Expected a JSON array but found " + token);
+         }
+      }
+      catch (IOException ex)
+      {
+         closeQuietly();
+         throw new BJADWebException(ex);
+      }
+      catch (BJADWebException ex)
+      {
+         closeQuietly();
+         throw ex;
+      }
+      
+      if (finished)
+      {
+         closeQuietly();
+      }
+   }
+   
+   /**
+    * Moves the parser within the root object to the value 
+    * of the field passed, skipping the other fields.
+    * 
+    * @param token
+    *    The root token.
+    * @param fieldName
+    *    The name of the field to find.
+    * @return
+    *    The first token of the field's value.
+    * @throws IOException
+    *    Any exceptions reading the stream will be thrown.
+    * @throws BJADWebException
+    *    Thrown if the root is not an object or does not 
+    *    contain the field.
+    */
+   private JsonToken moveToField(JsonToken token, String fieldName) throws IOException, BJADWebException
+   {
+      if (token != JsonToken.START_OBJECT)
+      {
+         throw new BJADWebException("Expected a JSON object containing the \"" + fieldName + "\" array but found " + token);
+      }
+      while ((token = parser.nextToken()) == JsonToken.FIELD_NAME)
+      {
+         String name = parser.currentName();
+         token = parser.nextToken();
+         if (fieldName.equals(name))
+         {
+            return token;
+         }
+         parser.skipChildren();
+      }
+      throw new BJADWebException("The \"" + fieldName + "\" array was not found within the JSON object.");
+   }
+   
+   /**
+    * @see java.util.Iterator#hasNext()
+    */
+   @Override
+   public boolean hasNext()
+   {
+      if (elementReady)
+      {
+         return true;
+      }
+      if (finished)
+      {
+         return false;
+      }
+      try
+      {
+         JsonToken token = parser.nextToken();
+         if (token == null || token == JsonToken.END_ARRAY)
+         {
+            // Release the connection as soon as the array is consumed.
+            endReached = true;
+            close();
+            return false;
+         }
+         elementReady = true;
+         return true;
+      }
+      catch (IOException ex)
+      {
+         closeQuietly();
+         throw new UncheckedIOException(ex);
+      }
+   }
+
+   /**
+    * Binds and returns the next element of the array.
+    * 
+    * @see java.util.Iterator#next()
+    */
+   @Override
+   public T next()
+   {
+      if (!hasNext())
+      {
+         throw new NoSuchElementException();
+      }
+      elementReady = false;
+      try
+      {
+         return mapper.readValue(parser, elementType);
+      }
+      catch (IOException ex)
+      {
+         closeQuietly();
+         throw new UncheckedIOException(ex);
+      }
+   }
+   
+   /**
+    * Returns a sequential stream over the remaining elements. 
+    * Closing the stream closes the iterator.
+    * 
+    * @return
+    *    The stream of the remaining elements.
+    */
+   public Stream<T> stream()
+   {
+      return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+            .onClose(this::closeQuietly);
+   }
+
+   /**
+    * Closes the parser and releases the connection for 
+    * the operation. Closing the iterator before the end of 
+    * the array closes the resource first, aborting the 
+    * connection rather than reading the rest of the array.
+    * 
+    * @see java.io.Closeable#close()
+    */
+   @Override
+   public void close() throws IOException
+   {
+      if (closed)
+      {
+         return;
+      }
+      closed = true;
+      finished = true;
+      elementReady = false;
+      if (endReached || resource == null)
+      {
+         try
+         {
+            parser.close();
+         }
+         finally
+         {
+            if (resource != null)
+            {
+               resource.close();
+            }
+         }
+         return;
+      }
+      
+      try
+      {
+         resource.close();
+      }
+      finally
+      {
+         parser.close();
+      }
+   }
+   
+   /**
+    * Closes the iterator, ignoring any exceptions closing it.
+    */
+   private void closeQuietly()
+   {
+      try
+      {
+         close();
+      }
+      catch (IOException ex)
+      {
+         // Nothing to do, the connection is discarded.
+      }
+   }
+}
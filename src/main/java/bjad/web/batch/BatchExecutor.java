@@ -0,0 +1,231 @@
+package bjad.web.batch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebResponse;
+
+/**
+ * <p>
+ * Executes a batch of web operations concurrently, limiting 
+ * the number of operations in flight at once, and optionally 
+ * limiting the time the batch as a whole can take.
+ * <p>
+ * The operations are completed using the web component's 
+ * asynchronous operations, so the connections to each server
+ * are kept alive and shared across the items in the batch. The 
+ * results are returned in the order the items were passed, with 
+ * the success or failure of each item.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class BatchExecutor
+{
+   /**
+    * The default number of operations to have in flight at once.
+    */
+   public static final int DEFAULT_PARALLELISM = 8;
+   
+   /**
+    * The maximum number of operations in flight at once.
+    */
+   protected final int parallelism;
+   
+   /**
+    * The number of milliseconds the batch can take before the 
+    * operations still in flight are cancelled. Zero or less 
+    * means the batch has no deadline.
+    */
+   protected final long deadline;
+   
+   /**
+    * Creates the executor with the default parallelism and no deadline.
+    */
+   public BatchExecutor()
+   {
+      this(DEFAULT_PARALLELISM, 0);
+   }
+   
+   /**
+    * Creates the executor with the parallelism and deadline passed.
+    * 
+    * @param parallelism
+    *    The maximum number of operations in flight at once. Values
+    *    less than 1 are treated as 1.
+    * @param deadline
+    *    The number of milliseconds the batch can take, zero or 
+    *    less for no deadline.
+    */
+   public BatchExecutor(int parallelism, long deadline)
+   {
+      this.parallelism = Math.max(1, parallelism);
+      this.deadline = deadline;
+   }
+
+   /**
+    * @return 
+    *   The parallelism property within the BatchExecutor instance
+    */
+   public int getParallelism()
+   {
+      return this.parallelism;
+   }
+
+   /**
+    * @return 
+    *   The deadline property within the BatchExecutor instance
+    */
+   public long getDeadline()
+   {
+      return this.deadline;
+   }
+   
+   /**
+    * Executes the items within the batch, waiting for all the 
+    * operations to complete or for the deadline to pass. Items 
+    * that could not be started or completed before the deadline
+    * are failed with a timeout exception.
+    * 
+    * @param items
+    *    The items to execute.
+    * @return
+    *    The results of the items, in the order they were passed.
+    */
+   public BatchResult execute(Collection<? extends BatchItem<?>> items)
+   {
+      final long START = System.currentTimeMillis();
+      final long END = deadline > 0 ? START + deadline : Long.MAX_VALUE;
+      final Semaphore PERMITS = new Semaphore(parallelism);
+      
+      List<BatchItem<?>> itemList = new ArrayList<>(items);
+      List<CompletableFuture<? extends BJADWebResponse<?>>> futures = new ArrayList<>(itemList.size());
+      BJADWebException stopReason = null;
+      
+      // Start the operations, waiting for a permit before each so 
+      // no more than the parallelism limit are in flight at once.
+      for (BatchItem<?> item : itemList)
+      {
+         if (stopReason == null)
+         {
+            try
+            {
+               if (PERMITS.tryAcquire(remaining(END), TimeUnit.MILLISECONDS))
+               {
+                  CompletableFuture<? extends BJADWebResponse<?>> future = item.start();
+                  future.whenComplete((response, ex) -> PERMITS.release());
+                  futures.add(future);
+                  continue;
+               }
+               stopReason = deadlineException();
+            }
+            catch (InterruptedException ex)
+            {
+               Thread.currentThread().interrupt();
+               stopReason = new BJADWebException("Batch was interrupted before the operation started", ex);
+            }
+         }
+         futures.add(failed(stopReason));
+      }
+      
+      // Gather the results in input order.
+      List<BatchItemResult<?>> results = new ArrayList<>(itemList.size());
+      for (int i = 0; i < itemList.size(); i++)
+      {
+         results.add(gatherResult(itemList.get(i), futures.get(i), END));
+      }
+      return new BatchResult(results, System.currentTimeMillis() - START);
+   }
+   
+   /**
+    * Waits for the item's operation to complete, building its result. 
+    * 
+    * @param item
+    *    The item the operation is for.
+    * @param future
+    *    The future for the item's operation.
+    * @param end
+    *    The time the batch must end by.
+    * @param <T>
+    *    The type of object the operation's response contains.
+    * @return
+    *    The result for the item.
+    */
+   @SuppressWarnings("unchecked") // The future was created from the same item.
+   private <T> BatchItemResult<T> gatherResult(BatchItem<T> item, CompletableFuture<?> future, long end)
+   {
+      try
+      {
+         return new BatchItemResult<>(item, (BJADWebResponse<T>)future.get(remaining(end), TimeUnit.MILLISECONDS), null);
+      }
+      catch (TimeoutException ex)
+      {
+         future.cancel(true);
+         return new BatchItemResult<>(item, null, deadlineException());
+      }
+      catch (CancellationException ex)
+      {
+         return new BatchItemResult<>(item, null, new BJADWebException("Batch operation was cancelled", ex));
+      }
+      catch (ExecutionException ex)
+      {
+         Throwable cause = ex.getCause();
+         return new BatchItemResult<>(item, null, 
+               cause instanceof BJADWebException ? (BJADWebException)cause : new BJADWebException(cause));
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+         future.cancel(true);
+         return new BatchItemResult<>(item, null, new BJADWebException("Batch was interrupted before the operation completed", ex));
+      }
+   }
+   
+   /**
+    * Returns the number of milliseconds remaining before the end time.
+    * 
+    * @param end
+    *    The time the batch must end by.
+    * @return
+    *    The milliseconds remaining, never less than zero.
+    */
+   private static long remaining(long end)
+   {
+      return end == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(0, end - System.currentTimeMillis());
+   }
+   
+   /**
+    * Creates the exception used for operations not completed 
+    * before the batch deadline.
+    * 
+    * @return
+    *    The deadline exception.
+    */
+   private BJADWebException deadlineException()
+   {
+      return new BJADWebException("Batch deadline of " + deadline + "ms timed out before the operation completed");
+   }
+   
+   /**
+    * Creates a future already failed with the exception passed.
+    * 
+    * @param ex
+    *    The exception to fail the future with.
+    * @return
+    *    The failed future.
+    */
+   private static CompletableFuture<BJADWebResponse<?>> failed(BJADWebException ex)
+   {
+      CompletableFuture<BJADWebResponse<?>> future = new CompletableFuture<>();
+      future.completeExceptionally(ex);
+      return future;
+   }
+}
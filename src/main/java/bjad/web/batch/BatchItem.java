@@ -0,0 +1,148 @@
+package bjad.web.batch;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.http.HttpEntity;
+
+import bjad.web.BJADWebComponent;
+import bjad.web.BJADWebRequest;
+import bjad.web.BJADWebResponse;
+import bjad.web.body.AbstractBodyModel;
+
+/**
+ * A single operation within a batch, containing the request,
+ * the optional body, and the data type of the response.
+ *
+ * @author 
+ *  Ben Dougall
+ *
+ * @param <T>
+ *    The type of object the operation's response will contain.
+ */
+public class BatchItem<T>
+{
+   /**
+    * The request for the operation.
+    */
+   protected final BJADWebRequest request;
+   /**
+    * The data type to return in the response object.
+    */
+   protected final Class<T> resultType;
+   /**
+    * The body for the operation, either a body model, 
+    * a HTTP entity, or null.
+    */
+   protected final Object body;
+   
+   /**
+    * Creates the item for an operation without a body.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param resultType
+    *    The data type to return in the response object.
+    */
+   public BatchItem(BJADWebRequest request, Class<T> resultType)
+   {
+      this(request, resultType, (Object)null);
+   }
+   
+   /**
+    * Creates the item for an operation with a body model.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param resultType
+    *    The data type to return in the response object.
+    * @param body
+    *    The body for the operation.
+    */
+   public BatchItem(BJADWebRequest request, Class<T> resultType, AbstractBodyModel body)
+   {
+      this(request, resultType, (Object)body);
+   }
+   
+   /**
+    * Creates the item for an operation with a HTTP entity body.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param resultType
+    *    The data type to return in the response object.
+    * @param body
+    *    The body for the operation.
+    */
+   public BatchItem(BJADWebRequest request, Class<T> resultType, HttpEntity body)
+   {
+      this(request, resultType, (Object)body);
+   }
+   
+   /**
+    * Creates the item with the body object passed.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param resultType
+    *    The data type to return in the response object.
+    * @param body
+    *    The body for the operation.
+    */
+   private BatchItem(BJADWebRequest request, Class<T> resultType, Object body)
+   {
+      if (request == null || resultType == null)
+      {
+         throw new IllegalArgumentException("A batch item requires both a request and a result type.");
+      }
+      this.request = request;
+      this.resultType = resultType;
+      this.body = body;
+   }
+
+   /**
+    * @return 
+    *   The request property within the BatchItem instance
+    */
+   public BJADWebRequest getRequest()
+   {
+      return this.request;
+   }
+
+   /**
+    * @return 
+    *   The resultType property within the BatchItem instance
+    */
+   public Class<T> getResultType()
+   {
+      return this.resultType;
+   }
+
+   /**
+    * @return 
+    *   The body property within the BatchItem instance
+    */
+   public Object getBody()
+   {
+      return this.body;
+   }
+   
+   /**
+    * Starts the operation asynchronously.
+    * 
+    * @return
+    *    The future for the operation's response.
+    */
+   CompletableFuture<BJADWebResponse<T>> start()
+   {
+      BJADWebComponent component = new BJADWebComponent(request);
+      if (body instanceof AbstractBodyModel)
+      {
+         return component.performWebCallAsync(resultType, (AbstractBodyModel)body);
+      }
+      else if (body instanceof HttpEntity)
+      {
+         return component.performWebCallAsync(resultType, (HttpEntity)body);
+      }
+      return component.performWebCallAsync(resultType);
+   }
+}
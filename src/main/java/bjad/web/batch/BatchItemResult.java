@@ -0,0 +1,90 @@
+package bjad.web.batch;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebResponse;
+
+/**
+ * The result of a single operation within a batch, 
+ * containing either the response or the exception 
+ * that caused the operation to fail.
+ *
+ * @author 
+ *  Ben Dougall
+ *
+ * @param <T>
+ *    The type of object the operation's response contains.
+ */
+public class BatchItemResult<T>
+{
+   /**
+    * The item the result is for.
+    */
+   protected final BatchItem<T> item;
+   /**
+    * The response from the operation, null if the 
+    * operation failed.
+    */
+   protected final BJADWebResponse<T> response;
+   /**
+    * The exception that caused the operation to fail,
+    * null if the operation completed.
+    */
+   protected final BJADWebException exception;
+   
+   /**
+    * Creates the result for the item passed.
+    * 
+    * @param item
+    *    The item the result is for.
+    * @param response
+    *    The response, or null if the operation failed.
+    * @param exception
+    *    The exception, or null if the operation completed.
+    */
+   BatchItemResult(BatchItem<T> item, BJADWebResponse<T> response, BJADWebException exception)
+   {
+      this.item = item;
+      this.response = response;
+      this.exception = exception;
+   }
+
+   /**
+    * @return 
+    *   The item property within the BatchItemResult instance
+    */
+   public BatchItem<T> getItem()
+   {
+      return this.item;
+   }
+
+   /**
+    * @return 
+    *   The response property within the BatchItemResult instance
+    */
+   public BJADWebResponse<T> getResponse()
+   {
+      return this.response;
+   }
+
+   /**
+    * @return 
+    *   The exception property within the BatchItemResult instance
+    */
+   public BJADWebException getException()
+   {
+      return this.exception;
+   }
+   
+   /**
+    * Returns if the operation completed, regardless of 
+    * the status code returned by the server.
+    * 
+    * @return
+    *    True if a response was received, false if the 
+    *    operation failed.
+    */
+   public boolean isSuccess()
+   {
+      return exception == null;
+   }
+}
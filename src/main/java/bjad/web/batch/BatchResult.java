@@ -0,0 +1,119 @@
+package bjad.web.batch;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The results of a batch of operations, in the same order
+ * as the items passed to the batch, along with the timing
+ * of the batch as a whole.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class BatchResult
+{
+   /**
+    * The result of each item, in the order the items
+    * were passed to the batch.
+    */
+   protected final List<BatchItemResult<?>> results;
+   /**
+    * The number of milliseconds the batch took from 
+    * start to finish.
+    */
+   protected final long wallTime;
+   
+   /**
+    * Creates the batch result.
+    * 
+    * @param results
+    *    The result of each item, in input order.
+    * @param wallTime
+    *    The number of milliseconds the batch took.
+    */
+   BatchResult(List<BatchItemResult<?>> results, long wallTime)
+   {
+      this.results = Collections.unmodifiableList(results);
+      this.wallTime = wallTime;
+   }
+
+   /**
+    * @return 
+    *   The results property within the BatchResult instance
+    */
+   public List<BatchItemResult<?>> getResults()
+   {
+      return this.results;
+   }
+
+   /**
+    * @return 
+    *   The wallTime property within the BatchResult instance
+    */
+   public long getWallTime()
+   {
+      return this.wallTime;
+   }
+   
+   /**
+    * Returns the sum of the durations of the responses within
+    * the batch, which is the time the batch would have taken 
+    * if each operation had been completed one after the other.
+    * 
+    * @return
+    *    The sum of the response durations in milliseconds.
+    */
+   public long getTotalDuration()
+   {
+      long total = 0;
+      for (BatchItemResult<?> result : results)
+      {
+         if (result.getResponse() != null)
+         {
+            total += result.getResponse().getDuration();
+         }
+      }
+      return total;
+   }
+   
+   /**
+    * Returns the number of operations that received a response.
+    * 
+    * @return
+    *    The number of successful operations.
+    */
+   public int getSuccessCount()
+   {
+      int count = 0;
+      for (BatchItemResult<?> result : results)
+      {
+         if (result.isSuccess())
+         {
+            count++;
+         }
+      }
+      return count;
+   }
+   
+   /**
+    * Returns the number of operations that failed.
+    * 
+    * @return
+    *    The number of failed operations.
+    */
+   public int getFailureCount()
+   {
+      return results.size() - getSuccessCount();
+   }
+   
+   /**
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return results.size() + " operations (" + getSuccessCount() + " succeeded, " + getFailureCount() + " failed) in " +
+            wallTime + "ms, versus " + getTotalDuration() + "ms of total operation time";
+   }
+}
@@ -0,0 +1,9 @@
+/**
+ * Package containing the classes used to execute 
+ * batches of web requests concurrently with the 
+ * web component.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+package bjad.web.batch;
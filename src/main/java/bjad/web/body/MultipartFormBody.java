@@ -0,0 +1,638 @@
+package bjad.web.body;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+
+import bjad.web.BJADWebException;
+import bjad.web.MediaType;
+
+/**
+ * Body Model for multipart/form-data operations, mixing
+ * text fields and file parts. The files are not read
+ * until the body is written to the connection, at which 
+ * point each file is streamed from disk through its 
+ * FileChannel, so large uploads do not use up the heap.
+ * The content of the entity is read the same way, one
+ * part at a time, for the clients reading the body 
+ * rather than having it written to them.
+ * <p>
+ * The length of the body is computed from the sizes of 
+ * the files when the entity is created, so the files must
+ * not change between creating the entity and sending it.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class MultipartFormBody extends AbstractBodyModel
+{
+   /**
+    * The line break used within the multipart body.
+    */
+   private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+   
+   /**
+    * The dashes before the boundary string.
+    */
+   private static final byte[] DASHES = "--".getBytes(StandardCharsets.US_ASCII);
+   
+   /**
+    * The characters used to generate the boundary.
+    */
+   private static final char[] BOUNDARY_CHARS = 
+         "-_1234567890abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+   
+   /**
+    * The parts of the body, in the order they are sent.
+    */
+   protected final List<Part> parts = new ArrayList<>();
+   
+   /**
+    * The boundary separating the parts.
+    */
+   protected String boundary;
+   
+   /**
+    * Constructor, generating a random boundary.
+    */
+   public MultipartFormBody()
+   {
+      StringBuilder sb = new StringBuilder("BJADBoundary");
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      for (int i = 0; i < 24; i++)
+      {
+         sb.append(BOUNDARY_CHARS[random.nextInt(BOUNDARY_CHARS.length)]);
+      }
+      this.boundary = sb.toString();
+   }
+   
+   /**
+    * Constructor, setting the boundary to use.
+    * 
+    * @param boundary
+    *    The boundary separating the parts.
+    * @throws IllegalArgumentException
+    *    If the boundary is blank or over 70 characters long.
+    */
+   public MultipartFormBody(String boundary) throws IllegalArgumentException
+   {
+      if (boundary == null || boundary.trim().isEmpty() || boundary.length() > 70)
+      {
+         throw new IllegalArgumentException("Boundary must be between 1 and 70 characters long.");
+      }
+      this.boundary = boundary;
+   }
+   
+   /**
+    * @return 
+    *   The boundary property within the MultipartFormBody instance
+    */
+   public String getBoundary()
+   {
+      return this.boundary;
+   }
+   
+   /**
+    * @return 
+    *   The parts within the MultipartFormBody instance, 
+    *   which cannot be modified.
+    */
+   public List<Part> getParts()
+   {
+      return Collections.unmodifiableList(parts);
+   }
+   
+   /**
+    * Adds a UTF-8 text field to the body.
+    * 
+    * @param name
+    *    The name of the field.
+    * @param value
+    *    The value of the field.
+    * @return
+    *    The body, to chain the calls.
+    */
+   public MultipartFormBody addField(String name, String value)
+   {
+      return addField(name, value, StandardCharsets.UTF_8);
+   }
+   
+   /**
+    * Adds a text field to the body.
+    * 
+    * @param name
+    *    The name of the field.
+    * @param value
+    *    The value of the field.
+    * @param charset
+    *    The character set to encode the value with.
+    * @return
+    *    The body, to chain the calls.
+    */
+   public MultipartFormBody addField(String name, String value, Charset charset)
+   {
+      byte[] data = (value == null ? "" : value).getBytes(charset);
+      parts.add(new Part(name, null, new MediaType("text/plain", charset.name()), data, null));
+      return this;
+   }
+   
+   /**
+    * Adds a file to the body as a binary part, using the file name
+    * as the file name of the part.
+    * 
+    * @param name
+    *    The name of the part.
+    * @param file
+    *    The file to send.
+    * @return
+    *    The body, to chain the calls.
+    */
+   public MultipartFormBody addFile(String name, File file)
+   {
+      return addFile(name, file.toPath(), MediaType.BINARY);
+   }
+   
+   /**
+    * Adds a file to the body, using the file name as the file 
+    * name of the part.
+    * 
+    * @param name
+    *    The name of the part.
+    * @param file
+    *    The file to send.
+    * @param mediaType
+    *    The type of content within the file.
+    * @return
+    *    The body, to chain the calls.
+    */
+   public MultipartFormBody addFile(String name, Path file, MediaType mediaType)
+   {
+      return addFile(name, file, file.getFileName().toString(), mediaType);
+   }
+   
+   /**
+    * Adds a file to the body.
+    * 
+    * @param name
+    *    The name of the part.
+    * @param file
+    *    The file to send.
+    * @param fileName
+    *    The file name to send for the part.
+    * @param mediaType
+    *    The type of content within the file, binary if null.
+    * @return
+    *    The body, to chain the calls.
+    */
+   public MultipartFormBody addFile(String name, Path file, String fileName, MediaType mediaType)
+   {
+      parts.add(new Part(name, fileName, mediaType != null ? mediaType : MediaType.BINARY, null, file));
+      return this;
+   }
+   
+   /**
+    * Adds a byte array to the body as a file part.
+    * 
+    * @param name
+    *    The name of the part.
+    * @param fileName
+    *    The file name to send for the part.
+    * @param mediaType
+    *    The type of content within the data, binary if null.
+    * @param data
+    *    The data to send.
+    * @return
+    *    The body, to chain the calls.
+    */
+   public MultipartFormBody addBytes(String name, String fileName, MediaType mediaType, byte[] data)
+   {
+      parts.add(new Part(name, fileName, mediaType != null ? mediaType : MediaType.BINARY, data, null));
+      return this;
+   }
+
+   /**
+    * @see bjad.web.body.AbstractBodyModel#getEntity()
+    */
+   @Override
+   public HttpEntity getEntity() throws BJADWebException
+   {
+      long length = 0;
+      List<byte[]> headers = new ArrayList<>(parts.size());
+      List<Long> sizes = new ArrayList<>(parts.size());
+      for (Part part : parts)
+      {
+         byte[] header = part.getHeader(boundary);
+         long size;
+         try
+         {
+            size = part.getSize();
+         }
+         catch (IOException ex)
+         {
+            throw new BJADWebException("Unable to read the size of the file for part \"" + part.getName() + "\".", ex);
+         }
+         headers.add(header);
+         sizes.add(size);
+         length += header.length + size + CRLF.length;
+      }
+      length += DASHES.length + boundary.length() + DASHES.length + CRLF.length;
+      return new MultipartEntity(new ArrayList<>(parts), headers, sizes, length);
+   }
+
+   /**
+    * Returns the names, sizes, and media types of the parts 
+    * without the content of the parts.
+    * 
+    * @see bjad.web.body.AbstractBodyModel#getLogString()
+    */
+   @Override
+   public String getLogString()
+   {
+      StringBuilder sb = new StringBuilder();
+      sb.append("Multipart form with ").append(parts.size()).append(" part(s)");
+      for (Part part : parts)
+      {
+         sb.append(", \"").append(part.getName()).append("\" (");
+         if (part.getFileName() != null)
+         {
+            sb.append("file \"").append(part.getFileName()).append("\", ");
+         }
+         long size;
+         try
+         {
+            size = part.getSize();
+         }
+         catch (IOException ex)
+         {
+            size = -1;
+         }
+         sb.append(size < 0 ? "unknown size" : size + " bytes");
+         sb.append(", ").append(part.getMediaType().toString()).append(")");
+      }
+      return sb.toString();
+   }
+   
+   /**
+    * Escapes the quotes and line breaks within a name of a 
+    * part as HTML forms do.
+    * 
+    * @param value
+    *    The value to escape.
+    * @return
+    *    The escaped value.
+    */
+   static String escape(String value)
+   {
+      return value.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+   }
+   
+   /**
+    * A single part of the multipart body.
+    */
+   public static class Part
+   {
+      /** The name of the part. */
+      private final String name;
+      /** The file name of the part, null for fields. */
+      private final String fileName;
+      /** The type of content within the part. */
+      private final MediaType mediaType;
+      /** The content of the part when held in memory. */
+      private final byte[] data;
+      /** The file to stream the content of the part from. */
+      private final Path file;
+      
+      /**
+       * Constructor, setting the values of the part.
+       * 
+       * @param name
+       *    The name of the part.
+       * @param fileName
+       *    The file name of the part, null for fields.
+       * @param mediaType
+       *    The type of content within the part.
+       * @param data
+       *    The content of the part when held in memory.
+       * @param file
+       *    The file to stream the content of the part from.
+       * @throws IllegalArgumentException
+       *    If the name is blank.
+       */
+      Part(String name, String fileName, MediaType mediaType, byte[] data, Path file) throws IllegalArgumentException
+      {
+         if (name == null || name.trim().isEmpty())
+         {
+            throw new IllegalArgumentException("Name of the part cannot be blank.");
+         }
+         this.name = name;
+         this.fileName = fileName;
+         this.mediaType = mediaType;
+         this.data = data;
+         this.file = file;
+      }
+      
+      /**
+       * @return 
+       *   The name property within the Part instance
+       */
+      public String getName()
+      {
+         return this.name;
+      }
+      
+      /**
+       * @return 
+       *   The fileName property within the Part instance
+       */
+      public String getFileName()
+      {
+         return this.fileName;
+      }
+      
+      /**
+       * @return 
+       *   The mediaType property within the Part instance
+       */
+      public MediaType getMediaType()
+      {
+         return this.mediaType;
+      }
+      
+      /**
+       * @return 
+       *   The file property within the Part instance, null
+       *   when the part is held in memory.
+       */
+      public Path getFile()
+      {
+         return this.file;
+      }
+      
+      /**
+       * @return
+       *    The number of bytes of content within the part.
+       * @throws IOException
+       *    If the size of the file cannot be read.
+       */
+      public long getSize() throws IOException
+      {
+         return file != null ? Files.size(file) : data.length;
+      }
+      
+      /**
+       * Builds the boundary and headers written before the 
+       * content of the part.
+       * 
+       * @param boundary
+       *    The boundary of the body.
+       * @return
+       *    The bytes to write before the content.
+       */
+      byte[] getHeader(String boundary)
+      {
+         StringBuilder sb = new StringBuilder();
+         sb.append("--").append(boundary).append("\r\n");
+         sb.append("Content-Disposition: form-data; name=\"").append(escape(name)).append("\"");
+         if (fileName != null)
+         {
+            sb.append("; filename=\"").append(escape(fileName)).append("\"");
+         }
+         sb.append("\r\n");
+         sb.append("Content-Type: ").append(mediaType.toString()).append("\r\n\r\n");
+         return sb.toString().getBytes(StandardCharsets.UTF_8);
+      }
+      
+      /**
+       * Opens a stream over the content of the part. Files are 
+       * not opened until the stream is first read.
+       * 
+       * @param size
+       *    The size of the content used for the length of the body.
+       * @return
+       *    The stream over the content.
+       */
+      InputStream openContent(long size)
+      {
+         return file == null ? new ByteArrayInputStream(data) : new FilePartInputStream(file, size);
+      }
+      
+      /**
+       * Writes the content of the part to the stream, streaming 
+       * files through their channel.
+       * 
+       * @param out
+       *    The stream to write to.
+       * @param size
+       *    The size of the content used for the length of the body.
+       * @throws IOException
+       *    If the content cannot be written or the file size 
+       *    changed since the entity was created.
+       */
+      void writeContent(OutputStream out, long size) throws IOException
+      {
+         if (file == null)
+         {
+            out.write(data);
+            return;
+         }
+         
+         try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+         {
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = 0;
+            while (position < size)
+            {
+               long written = channel.transferTo(position, size - position, target);
+               if (written <= 0)
+               {
+                  break;
+               }
+               position += written;
+            }
+            if (position != size || channel.size() != size)
+            {
+               throw new IOException("File \"" + file + "\" changed size while being sent.");
+            }
+         }
+      }
+   }
+   
+   /**
+    * Stream reading the content of a file part through its 
+    * FileChannel, opening the file on the first read so only 
+    * the file being read is open.
+    */
+   private static class FilePartInputStream extends InputStream
+   {
+      /** The file to read. */
+      private final Path file;
+      /** The size of the content used for the length of the body. */
+      private final long size;
+      /** The number of bytes read. */
+      private long position;
+      /** The channel of the file, null until the first read. */
+      private FileChannel channel;
+      
+      /**
+       * Constructor, setting the file and its expected size.
+       * 
+       * @param file
+       *    The file to read.
+       * @param size
+       *    The size of the content used for the length of the body.
+       */
+      FilePartInputStream(Path file, long size)
+      {
+         this.file = file;
+         this.size = size;
+      }
+      
+      @Override
+      public int read() throws IOException
+      {
+         byte[] single = new byte[1];
+         return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+      }
+      
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException
+      {
+         if (len == 0)
+         {
+            return 0;
+         }
+         if (channel == null)
+         {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+         }
+         if (position >= size)
+         {
+            if (channel.size() != size)
+            {
+               throw new IOException("File \"" + file + "\" changed size while being sent.");
+            }
+            return -1;
+         }
+         int read = channel.read(ByteBuffer.wrap(b, off, (int)Math.min(len, size - position)));
+         if (read < 0)
+         {
+            throw new IOException("File \"" + file + "\" changed size while being sent.");
+         }
+         position += read;
+         return read;
+      }
+      
+      @Override
+      public void close() throws IOException
+      {
+         if (channel != null)
+         {
+            channel.close();
+         }
+      }
+   }
+   
+   /**
+    * Entity writing the parts when the request is sent.
+    */
+   private class MultipartEntity extends AbstractHttpEntity
+   {
+      /** The parts of the body when the entity was created. */
+      private final List<Part> entityParts;
+      /** The headers of each part. */
+      private final List<byte[]> headers;
+      /** The content sizes of each part. */
+      private final List<Long> sizes;
+      /** The total length of the body. */
+      private final long length;
+      
+      /**
+       * Constructor, setting the computed layout of the body.
+       * 
+       * @param entityParts
+       *    The parts of the body.
+       * @param headers
+       *    The headers of each part.
+       * @param sizes
+       *    The content sizes of each part.
+       * @param length
+       *    The total length of the body.
+       */
+      MultipartEntity(List<Part> entityParts, List<byte[]> headers, List<Long> sizes, long length)
+      {
+         this.entityParts = entityParts;
+         this.headers = headers;
+         this.sizes = sizes;
+         this.length = length;
+         setContentType("multipart/form-data; boundary=" + boundary);
+      }
+      
+      @Override
+      public boolean isRepeatable()
+      {
+         return true;
+      }
+
+      @Override
+      public long getContentLength()
+      {
+         return length;
+      }
+
+      @Override
+      public InputStream getContent() throws IOException
+      {
+         // The files are opened in turn as the stream reaches them.
+         List<InputStream> streams = new ArrayList<>(entityParts.size() * 3 + 1);
+         for (int i = 0; i < entityParts.size(); i++)
+         {
+            streams.add(new ByteArrayInputStream(headers.get(i)));
+            streams.add(entityParts.get(i).openContent(sizes.get(i)));
+            streams.add(new ByteArrayInputStream(CRLF));
+         }
+         streams.add(new ByteArrayInputStream(("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII)));
+         return new SequenceInputStream(Collections.enumeration(streams));
+      }
+
+      @Override
+      public void writeTo(OutputStream out) throws IOException
+      {
+         for (int i = 0; i < entityParts.size(); i++)
+         {
+            out.write(headers.get(i));
+            entityParts.get(i).writeContent(out, sizes.get(i));
+            out.write(CRLF);
+         }
+         out.write(DASHES);
+         out.write(boundary.getBytes(StandardCharsets.US_ASCII));
+         out.write(DASHES);
+         out.write(CRLF);
+         out.flush();
+      }
+
+      @Override
+      public boolean isStreaming()
+      {
+         return false;
+      }
+   }
+}
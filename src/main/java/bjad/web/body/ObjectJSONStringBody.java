@@ -1,7 +1,11 @@
 package bjad.web.body;
 
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
 import org.apache.http.HttpEntity;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.util.TextUtils;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -12,6 +16,12 @@ import bjad.web.BJADWebException;
 /**
  * Body Model representing a object that will be converted 
  * into a JSON string.
+ * <p>
+ * The object is serialized straight to bytes in the character 
+ * set of the model each time the entity is created, so changes 
+ * to the object are always sent. The bytes of the entity are kept
+ * for the log string that follows it, so a send serializes the 
+ * object once for both.
  *
  * @author 
  *  Ben Dougall
@@ -44,6 +54,12 @@ public class ObjectJSONStringBody extends AbstractBodyModel
     */
    protected boolean useConverterFromRequest = true;
    
+   /**
+    * The serialized body of the last entity created, kept 
+    * for the log string that follows it and cleared once used.
+    */
+   protected byte[] serializedBody;
+   
    /**
     * Default constructor, setting the properties
     * to a blank string and the default character set.
@@ -137,6 +153,7 @@ public class ObjectJSONStringBody extends AbstractBodyModel
    public void setBody(Object body)
    {    
       this.body = body;
+      this.serializedBody = null;
    }
 
    /**
@@ -159,6 +176,7 @@ public class ObjectJSONStringBody extends AbstractBodyModel
    public void setCharacterSet(String characterSet)
    {
       this.characterSet = characterSet;
+      this.serializedBody = null;
    }
 
    /**
@@ -176,8 +194,37 @@ public class ObjectJSONStringBody extends AbstractBodyModel
     */
    public void setObjectToJsonConverter(ObjectMapper objectToJsonConverter)
    {
+      if (this.objectToJsonConverter != objectToJsonConverter)
+      {
+         this.serializedBody = null;
+      }
       this.objectToJsonConverter = objectToJsonConverter;
    }
+   
+   /**
+    * Returns the body serialized into JSON, in the character set 
+    * of the model. UTF-8 bodies are written straight to bytes, 
+    * skipping the string. The body is serialized on each call.
+    * 
+    * @return
+    *    The serialized body.
+    * @throws BJADWebException
+    *    Any exceptions serializing the body will be thrown.
+    */
+   public byte[] getSerializedBody() throws BJADWebException
+   {
+      try
+      {
+         Charset charset = Charset.forName(getCharacterSet());
+         return StandardCharsets.UTF_8.equals(charset) ? 
+               getObjectToJsonConverter().writeValueAsBytes(this.getBody()) :
+               getObjectToJsonConverter().writeValueAsString(this.getBody()).getBytes(charset);
+      }
+      catch (JsonProcessingException | IllegalArgumentException ex)
+      {
+         throw new BJADWebException(ex);
+      }
+   }
 
    /**
     * @return 
@@ -203,14 +250,10 @@ public class ObjectJSONStringBody extends AbstractBodyModel
    @Override
    public HttpEntity getEntity() throws BJADWebException
    {
-      try
-      {
-         return new StringEntity(getObjectToJsonConverter().writeValueAsString(this.getBody()), this.getCharacterSet());
-      }
-      catch (JsonProcessingException ex)
-      {
-         throw new BJADWebException(ex);
-      }
+      byte[] bytes = getSerializedBody();
+      this.serializedBody = bytes;
+      return new ByteArrayEntity(bytes, 
+            ContentType.create(ContentType.TEXT_PLAIN.getMimeType(), this.getCharacterSet()));
    }
 
    /**
@@ -219,17 +262,21 @@ public class ObjectJSONStringBody extends AbstractBodyModel
    @Override
    public String getLogString()
    {
+      // Use the bytes of the entity just created, if any, only once.
+      byte[] bytes = this.serializedBody;
+      this.serializedBody = null;
       try
       {
          return this.getCharacterSet() + " JSON String of " +
             this.getBody().getClass().getCanonicalName() + 
-            ": " + getObjectToJsonConverter().writeValueAsString(this.getBody());
+            ": " + new String(bytes != null ? bytes : getSerializedBody(), Charset.forName(getCharacterSet()));
       }
-      catch (JsonProcessingException ex)
+      catch (BJADWebException ex)
       {
+         Throwable cause = ex.getCause() == null ? ex : ex.getCause();
          return this.getCharacterSet() + " JSON String of " +
                this.getBody().getClass().getCanonicalName() + 
-               ": !!! failed to make JSON string due to " + ex.getClass().getSimpleName() + ", msg: " + ex.getMessage();
+               ": !!! failed to make JSON string due to " + cause.getClass().getSimpleName() + ", msg: " + cause.getMessage();
       }
    }
 }
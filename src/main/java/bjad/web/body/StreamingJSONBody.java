@@ -0,0 +1,370 @@
+package bjad.web.body;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import bjad.web.BJADWebException;
+
+/**
+ * Body Model streaming a sequence of objects as JSON straight onto
+ * the connection, either as a JSON array or as newline delimited 
+ * JSON (NDJSON), so the memory used is the same whatever the number
+ * of objects. The body is sent with chunked transfer encoding as 
+ * its length is not known up front.
+ * <p>
+ * Bodies built from an Iterable can be sent more than once, bodies
+ * built from an Iterator or a Stream can only be sent once.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class StreamingJSONBody extends AbstractBodyModel
+{
+   /**
+    * The formats the objects can be streamed in.
+    */
+   public enum Format
+   {
+      /**
+       * A single JSON array containing the objects.
+       */
+      JSON_ARRAY("application/json"),
+      /**
+       * One JSON object per line.
+       */
+      NDJSON("application/x-ndjson");
+      
+      /**
+       * The content type of the format.
+       */
+      private final String contentType;
+      
+      /**
+       * @param contentType
+       *    The content type of the format.
+       */
+      Format(String contentType)
+      {
+         this.contentType = contentType;
+      }
+      
+      /**
+       * @return 
+       *   The content type of the format.
+       */
+      public String getContentType()
+      {
+         return this.contentType;
+      }
+   }
+   
+   /**
+    * The objects to stream, when built from an Iterable.
+    */
+   protected Iterable<?> iterable;
+   
+   /**
+    * The objects to stream, when built from an Iterator 
+    * or Stream.
+    */
+   protected Iterator<?> iterator;
+   
+   /**
+    * The format to stream the objects in.
+    */
+   protected Format format;
+   
+   /**
+    * The converter to use to write the objects as JSON.
+    */
+   protected ObjectMapper objectToJsonConverter;
+   
+   /**
+    * Flag used to determine if the JSON converter from the 
+    * request will be used, see ObjectJSONStringBody.
+    */
+   protected boolean useConverterFromRequest = true;
+   
+   /**
+    * The number of objects written by the last send.
+    */
+   protected volatile long writtenCount;
+   
+   /**
+    * Constructor, streaming the objects as a JSON array.
+    * 
+    * @param objects
+    *    The objects to stream.
+    */
+   public StreamingJSONBody(Iterable<?> objects)
+   {
+      this(objects, Format.JSON_ARRAY);
+   }
+   
+   /**
+    * Constructor, streaming the objects in the format passed.
+    * 
+    * @param objects
+    *    The objects to stream.
+    * @param format
+    *    The format to stream the objects in.
+    */
+   public StreamingJSONBody(Iterable<?> objects, Format format)
+   {
+      this.iterable = objects;
+      this.setFormat(format);
+   }
+   
+   /**
+    * Constructor, streaming the objects as a JSON array.
+    * 
+    * @param objects
+    *    The objects to stream.
+    */
+   public StreamingJSONBody(Iterator<?> objects)
+   {
+      this(objects, Format.JSON_ARRAY);
+   }
+   
+   /**
+    * Constructor, streaming the objects in the format passed.
+    * 
+    * @param objects
+    *    The objects to stream.
+    * @param format
+    *    The format to stream the objects in.
+    */
+   public StreamingJSONBody(Iterator<?> objects, Format format)
+   {
+      this.iterator = objects;
+      this.setFormat(format);
+   }
+   
+   /**
+    * Constructor, streaming the objects as a JSON array.
+    * 
+    * @param objects
+    *    The objects to stream.
+    */
+   public StreamingJSONBody(Stream<?> objects)
+   {
+      this(objects, Format.JSON_ARRAY);
+   }
+   
+   /**
+    * Constructor, streaming the objects in the format passed.
+    * 
+    * @param objects
+    *    The objects to stream.
+    * @param format
+    *    The format to stream the objects in.
+    */
+   public StreamingJSONBody(Stream<?> objects, Format format)
+   {
+      this(objects.iterator(), format);
+   }
+   
+   /**
+    * @return 
+    *   The format property within the StreamingJSONBody instance
+    */
+   public Format getFormat()
+   {
+      return this.format;
+   }
+
+   /**
+    * @param format 
+    *   The format to set within the StreamingJSONBody instance, 
+    *   null sets the JSON array format.
+    */
+   public void setFormat(Format format)
+   {
+      this.format = format == null ? Format.JSON_ARRAY : format;
+   }
+
+   /**
+    * @return 
+    *   The objectToJsonConverter property within the StreamingJSONBody instance
+    */
+   public ObjectMapper getObjectToJsonConverter()
+   {
+      return this.objectToJsonConverter;
+   }
+
+   /**
+    * @param objectToJsonConverter 
+    *   The objectToJsonConverter to set within the StreamingJSONBody instance
+    */
+   public void setObjectToJsonConverter(ObjectMapper objectToJsonConverter)
+   {
+      this.objectToJsonConverter = objectToJsonConverter;
+   }
+
+   /**
+    * @return 
+    *   The useConverterFromRequest property within the StreamingJSONBody instance
+    */
+   public boolean useConverterFromRequest()
+   {
+      return this.useConverterFromRequest || objectToJsonConverter == null;
+   }
+
+   /**
+    * @param useConverterFromRequest 
+    *   The useConverterFromRequest to set within the StreamingJSONBody instance
+    */
+   public void setUseConverterFromRequest(boolean useConverterFromRequest)
+   {
+      this.useConverterFromRequest = useConverterFromRequest;
+   }
+   
+   /**
+    * @return 
+    *   The number of objects written by the last send of the body.
+    */
+   public long getWrittenCount()
+   {
+      return this.writtenCount;
+   }
+
+   /**
+    * @see bjad.web.body.AbstractBodyModel#getEntity()
+    */
+   @Override
+   public HttpEntity getEntity() throws BJADWebException
+   {
+      if (objectToJsonConverter == null)
+      {
+         throw new BJADWebException("The JSON converter must be set before the streaming body can be sent.");
+      }
+      return new StreamingEntity();
+   }
+
+   /**
+    * @see bjad.web.body.AbstractBodyModel#getLogString()
+    */
+   @Override
+   public String getLogString()
+   {
+      return "Streaming " + format.name() + " of objects from " + 
+            (iterable != null ? iterable.getClass().getCanonicalName() : "an iterator");
+   }
+   
+   /**
+    * Writes the objects to the output stream in the body's format.
+    * 
+    * @param out
+    *    The stream to write to.
+    * @param objects
+    *    The objects to write.
+    * @throws IOException
+    *    Any exceptions writing the objects will be thrown.
+    */
+   protected void writeObjects(OutputStream out, Iterator<?> objects) throws IOException
+   {
+      // Flushing after each object would send a chunk per object.
+      ObjectWriter writer = objectToJsonConverter.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+      long count = 0;
+      try (JsonGenerator generator = objectToJsonConverter.getFactory().createGenerator(out, JsonEncoding.UTF8))
+      {
+         generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+         generator.setRootValueSeparator(null);
+         if (format == Format.JSON_ARRAY)
+         {
+            generator.writeStartArray();
+         }
+         while (objects.hasNext())
+         {
+            writer.writeValue(generator, objects.next());
+            if (format == Format.NDJSON)
+            {
+               generator.writeRaw('\n');
+            }
+            count++;
+         }
+         if (format == Format.JSON_ARRAY)
+         {
+            generator.writeEndArray();
+         }
+      }
+      finally
+      {
+         writtenCount = count;
+      }
+   }
+   
+   /**
+    * Entity writing the objects when the request is sent.
+    */
+   private class StreamingEntity extends AbstractHttpEntity
+   {
+      /**
+       * Flag set once an iterator source has been consumed.
+       */
+      private boolean consumed;
+      
+      /**
+       * Creates the chunked entity with the content type 
+       * of the format.
+       */
+      StreamingEntity()
+      {
+         setContentType(ContentType.create(format.getContentType(), "UTF-8").toString());
+         setChunked(true);
+      }
+      
+      @Override
+      public boolean isRepeatable()
+      {
+         return iterable != null;
+      }
+
+      @Override
+      public long getContentLength()
+      {
+         return -1;
+      }
+
+      @Override
+      public InputStream getContent() throws IOException
+      {
+         throw new UnsupportedOperationException("The streaming JSON body can only be written to a stream.");
+      }
+
+      @Override
+      public void writeTo(OutputStream outStream) throws IOException
+      {
+         if (iterable != null)
+         {
+            writeObjects(outStream, iterable.iterator());
+            return;
+         }
+         if (consumed)
+         {
+            throw new IOException("The streaming JSON body built from an iterator can only be sent once.");
+         }
+         consumed = true;
+         writeObjects(outStream, iterator);
+      }
+
+      @Override
+      public boolean isStreaming()
+      {
+         return !consumed;
+      }
+   }
+}
@@ -0,0 +1,400 @@
+package bjad.web.cache;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.utils.DateUtils;
+
+import bjad.web.BJADWebRequest;
+import bjad.web.HTTPMethodType;
+
+/**
+ * The caching rules (from RFC 7234) deciding which requests and 
+ * responses can be cached and how long cached responses stay fresh
+ * based on the Cache-Control, Expires, Date, Age, and Last-Modified
+ * headers. As the caches are shared by every request within the 
+ * process, the rules are those of a shared cache: responses marked
+ * private are never stored, the s-maxage directive takes precedence
+ * over max-age, and responses to requests carrying credentials 
+ * follow RFC 7234 section 3.2 so they are not served to requests 
+ * with other credentials.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public final class CachePolicy
+{
+   /**
+    * The longest time (in milliseconds) a response without explicit
+    * freshness is considered fresh using the Last-Modified heuristic.
+    */
+   public static final long MAX_HEURISTIC_FRESHNESS = 24 * 60 * 60 * 1000L;
+   
+   /**
+    * The status codes that can be cached without explicit freshness
+    * information (RFC 7231 section 6.1).
+    */
+   private static final int[] CACHEABLE_STATUS_CODES = new int[] { 200, 203, 204, 300, 301, 404, 405, 410, 414, 501 };
+   
+   /**
+    * Hidden constructor to prevent instances from being created.
+    */
+   private CachePolicy()
+   {
+   }
+   
+   /**
+    * Returns if the method is safe, meaning its responses can 
+    * be cached and it does not invalidate the cached responses.
+    * 
+    * @param method
+    *    The method of the request.
+    * @return
+    *    True for GET and HEAD requests.
+    */
+   public static boolean isCacheableMethod(HTTPMethodType method)
+   {
+      return method == HTTPMethodType.GET || method == HTTPMethodType.HEAD;
+   }
+   
+   /**
+    * Returns if the response for the request can be served from, 
+    * and stored within, the cache.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @return
+    *    True if the request is a GET or HEAD request without 
+    *    the no-store cache directive.
+    */
+   public static boolean isCacheableRequest(BJADWebRequest request)
+   {
+      return isCacheableMethod(request.getMethod()) && 
+            !hasDirective(getHeader(request.getHeaders(), HttpHeaders.CACHE_CONTROL), "no-store");
+   }
+   
+   /**
+    * Returns if the response can be stored within the cache.
+    * 
+    * @param statusCode
+    *    The status code of the response.
+    * @param headers
+    *    The headers of the response.
+    * @return
+    *    True if the status code is cacheable, the response does not
+    *    have the no-store or private directive or vary on all headers,
+    *    and has either explicit freshness or a validator to 
+    *    revalidate with.
+    */
+   public static boolean isCacheableResponse(int statusCode, Map<String, String> headers)
+   {
+      boolean cacheableStatus = false;
+      for (int code : CACHEABLE_STATUS_CODES)
+      {
+         cacheableStatus |= code == statusCode;
+      }
+      String cacheControl = getHeader(headers, HttpHeaders.CACHE_CONTROL);
+      String vary = getHeader(headers, HttpHeaders.VARY);
+      if (!cacheableStatus || hasDirective(cacheControl, "no-store") || hasDirective(cacheControl, "private") || 
+            (vary != null && vary.trim().equals("*")))
+      {
+         return false;
+      }
+      return getDirectiveValue(cacheControl, "s-maxage") != null || 
+             getDirectiveValue(cacheControl, "max-age") != null || 
+             getHeader(headers, HttpHeaders.EXPIRES) != null || 
+             getHeader(headers, HttpHeaders.ETAG) != null || 
+             getHeader(headers, HttpHeaders.LAST_MODIFIED) != null;
+   }
+   
+   /**
+    * Returns if the response to the request can be stored within 
+    * the cache. A response to a request with an Authorization 
+    * header is only stored if the response has the public, 
+    * s-maxage, or must-revalidate directive (RFC 7234 section 3.2).
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param statusCode
+    *    The status code of the response.
+    * @param headers
+    *    The headers of the response.
+    * @return
+    *    True if the response can be stored.
+    */
+   public static boolean isCacheableResponse(BJADWebRequest request, int statusCode, Map<String, String> headers)
+   {
+      if (!isCacheableResponse(statusCode, headers))
+      {
+         return false;
+      }
+      if (getHeader(request.getHeaders(), HttpHeaders.AUTHORIZATION) == null)
+      {
+         return true;
+      }
+      String cacheControl = getHeader(headers, HttpHeaders.CACHE_CONTROL);
+      return hasDirective(cacheControl, "public") || 
+             hasDirective(cacheControl, "s-maxage") || 
+             hasDirective(cacheControl, "must-revalidate");
+   }
+   
+   /**
+    * Returns the freshness lifetime (in milliseconds) of the 
+    * response, from the s-maxage directive, the max-age directive, 
+    * the Expires header, or 10% of the time since the Last-Modified
+    * date.
+    * 
+    * @param response
+    *    The cached response.
+    * @return
+    *    The freshness lifetime, 0 if the response must 
+    *    always be revalidated.
+    */
+   public static long getFreshnessLifetime(CachedResponse response)
+   {
+      String cacheControl = response.getHeader(HttpHeaders.CACHE_CONTROL);
+      if (hasDirective(cacheControl, "no-cache"))
+      {
+         return 0;
+      }
+      // A shared cache uses s-maxage ahead of max-age (RFC 7234 section 4.2.1).
+      Long maxAge = getDirectiveValue(cacheControl, "s-maxage");
+      if (maxAge == null)
+      {
+         maxAge = getDirectiveValue(cacheControl, "max-age");
+      }
+      if (maxAge != null)
+      {
+         return maxAge * 1000;
+      }
+      
+      long date = getDate(response);
+      Date expires = parseDate(response.getHeader(HttpHeaders.EXPIRES));
+      if (response.getHeader(HttpHeaders.EXPIRES) != null)
+      {
+         // Invalid dates (such as 0) represent a time in the past.
+         return expires == null ? 0 : Math.max(0, expires.getTime() - date);
+      }
+      
+      Date lastModified = parseDate(response.getHeader(HttpHeaders.LAST_MODIFIED));
+      if (lastModified != null && lastModified.getTime() < date)
+      {
+         return Math.min(MAX_HEURISTIC_FRESHNESS, (date - lastModified.getTime()) / 10);
+      }
+      return 0;
+   }
+   
+   /**
+    * Returns the current age (in milliseconds) of the response 
+    * (RFC 7234 section 4.2.3).
+    * 
+    * @param response
+    *    The cached response.
+    * @param now
+    *    The current time in milliseconds.
+    * @return
+    *    The current age of the response.
+    */
+   public static long getCurrentAge(CachedResponse response, long now)
+   {
+      long apparentAge = Math.max(0, response.getResponseTime() - getDate(response));
+      Long ageHeader = parseSeconds(response.getHeader(HttpHeaders.AGE));
+      long correctedAge = (ageHeader == null ? 0 : ageHeader * 1000) + 
+            (response.getResponseTime() - response.getRequestTime());
+      return Math.max(apparentAge, correctedAge) + Math.max(0, now - response.getResponseTime());
+   }
+   
+   /**
+    * Returns if the cached response can be served to the request 
+    * without revalidating it with the server.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param response
+    *    The cached response.
+    * @param now
+    *    The current time in milliseconds.
+    * @return
+    *    True if the response is fresh and the request does not 
+    *    require revalidation.
+    */
+   public static boolean isFresh(BJADWebRequest request, CachedResponse response, long now)
+   {
+      String requestCacheControl = getHeader(request.getHeaders(), HttpHeaders.CACHE_CONTROL);
+      if (hasDirective(requestCacheControl, "no-cache"))
+      {
+         return false;
+      }
+      long age = getCurrentAge(response, now);
+      Long requestMaxAge = getDirectiveValue(requestCacheControl, "max-age");
+      if (requestMaxAge != null && age > requestMaxAge * 1000)
+      {
+         return false;
+      }
+      return age < getFreshnessLifetime(response);
+   }
+   
+   /**
+    * Returns the request headers the response varies on.
+    * 
+    * @param headers
+    *    The headers of the response.
+    * @return
+    *    The names of the request headers within the Vary 
+    *    header in lower case, empty if the response does 
+    *    not vary.
+    */
+   public static List<String> getVaryHeaders(Map<String, String> headers)
+   {
+      List<String> names = new ArrayList<>();
+      String vary = getHeader(headers, HttpHeaders.VARY);
+      if (vary != null)
+      {
+         for (String name : vary.split(","))
+         {
+            if (!name.trim().isEmpty())
+            {
+               names.add(name.trim().toLowerCase(Locale.ROOT));
+            }
+         }
+      }
+      return names;
+   }
+   
+   /**
+    * Returns the value of the header passed, ignoring the case 
+    * of the header name.
+    * 
+    * @param headers
+    *    The headers to search, can be null.
+    * @param name
+    *    The header to find.
+    * @return
+    *    The header's value, or null if the header was not found.
+    */
+   public static String getHeader(Map<String, String> headers, String name)
+   {
+      if (headers != null)
+      {
+         for (Map.Entry<String, String> header : headers.entrySet())
+         {
+            if (header.getKey() != null && header.getKey().equalsIgnoreCase(name))
+            {
+               return header.getValue();
+            }
+         }
+      }
+      return null;
+   }
+   
+   /**
+    * Returns if the Cache-Control header contains the directive.
+    * 
+    * @param cacheControl
+    *    The Cache-Control header value, can be null.
+    * @param directive
+    *    The directive to find.
+    * @return
+    *    True if the directive is found.
+    */
+   static boolean hasDirective(String cacheControl, String directive)
+   {
+      if (cacheControl != null)
+      {
+         for (String part : cacheControl.split(","))
+         {
+            String name = part.trim();
+            int equals = name.indexOf('=');
+            if (equals > -1)
+            {
+               name = name.substring(0, equals).trim();
+            }
+            if (name.equalsIgnoreCase(directive))
+            {
+               return true;
+            }
+         }
+      }
+      return false;
+   }
+   
+   /**
+    * Returns the numeric value of the Cache-Control directive.
+    * 
+    * @param cacheControl
+    *    The Cache-Control header value, can be null.
+    * @param directive
+    *    The directive to find.
+    * @return
+    *    The value of the directive, or null if the directive 
+    *    is not found or its value is not a number.
+    */
+   static Long getDirectiveValue(String cacheControl, String directive)
+   {
+      if (cacheControl != null)
+      {
+         for (String part : cacheControl.split(","))
+         {
+            int equals = part.indexOf('=');
+            if (equals > -1 && part.substring(0, equals).trim().equalsIgnoreCase(directive))
+            {
+               return parseSeconds(part.substring(equals + 1).replace("\"", ""));
+            }
+         }
+      }
+      return null;
+   }
+   
+   /**
+    * Returns the time of the response's Date header, or the time 
+    * the response was received if the header is missing or invalid.
+    * 
+    * @param response
+    *    The cached response.
+    * @return
+    *    The date of the response in milliseconds.
+    */
+   private static long getDate(CachedResponse response)
+   {
+      Date date = parseDate(response.getHeader(HttpHeaders.DATE));
+      return date == null ? response.getResponseTime() : date.getTime();
+   }
+   
+   /**
+    * Parses the HTTP date passed.
+    * 
+    * @param value
+    *    The date to parse, can be null.
+    * @return
+    *    The date, or null if the value is null or invalid.
+    */
+   private static Date parseDate(String value)
+   {
+      return value == null ? null : DateUtils.parseDate(value.trim());
+   }
+   
+   /**
+    * Parses the number of seconds passed.
+    * 
+    * @param value
+    *    The seconds to parse, can be null.
+    * @return
+    *    The seconds (negative values become 0), or null if the 
+    *    value is null or not a number.
+    */
+   private static Long parseSeconds(String value)
+   {
+      try
+      {
+         return value == null ? null : Math.max(0, Long.parseLong(value.trim()));
+      }
+      catch (NumberFormatException ex)
+      {
+         return null;
+      }
+   }
+}
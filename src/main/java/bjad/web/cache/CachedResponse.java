@@ -0,0 +1,258 @@
+package bjad.web.cache;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import bjad.web.BJADWebResponse;
+
+/**
+ * A response stored within the response cache, containing the 
+ * status code, headers, and body of the response along with the
+ * times the request was sent and the response received, which 
+ * are used to calculate the age of the response. 
+ * <p>
+ * Responses that vary on request headers are stored under a key 
+ * containing the values of those headers, with a marker entry 
+ * stored under the request's method and URL listing the headers
+ * the response varies on.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class CachedResponse
+{
+   /**
+    * The status code of the response.
+    */
+   protected final int statusCode;
+   /**
+    * The headers of the response.
+    */
+   protected final Map<String, String> headers;
+   /**
+    * The body of the response.
+    */
+   protected final byte[] body;
+   /**
+    * The time (in milliseconds) the request was sent.
+    */
+   protected final long requestTime;
+   /**
+    * The time (in milliseconds) the response was received.
+    */
+   protected final long responseTime;
+   /**
+    * The request headers the response varies on, only 
+    * set for the vary marker entries.
+    */
+   protected final List<String> varyHeaders;
+   /**
+    * The generation of the vary marker, used within the keys 
+    * of the responses stored for the marker so the responses 
+    * of a removed marker are not found by a replacement marker.
+    */
+   protected final long varyGeneration;
+   
+   /**
+    * Creates the cached response.
+    * 
+    * @param statusCode
+    *    The status code of the response.
+    * @param headers
+    *    The headers of the response.
+    * @param body
+    *    The body of the response.
+    * @param requestTime
+    *    The time (in milliseconds) the request was sent.
+    * @param responseTime
+    *    The time (in milliseconds) the response was received.
+    */
+   public CachedResponse(int statusCode, Map<String, String> headers, byte[] body, long requestTime, long responseTime)
+   {
+      this(statusCode, headers, body, requestTime, responseTime, null, 0);
+   }
+   
+   /**
+    * Creates the cached response, or vary marker.
+    * 
+    * @param statusCode
+    *    The status code of the response.
+    * @param headers
+    *    The headers of the response.
+    * @param body
+    *    The body of the response.
+    * @param requestTime
+    *    The time (in milliseconds) the request was sent.
+    * @param responseTime
+    *    The time (in milliseconds) the response was received.
+    * @param varyHeaders
+    *    The request headers the response varies on for a 
+    *    vary marker, or null.
+    * @param varyGeneration
+    *    The generation of the vary marker.
+    */
+   protected CachedResponse(int statusCode, Map<String, String> headers, byte[] body, 
+         long requestTime, long responseTime, List<String> varyHeaders, long varyGeneration)
+   {
+      this.statusCode = statusCode;
+      this.headers = Collections.unmodifiableMap(headers == null ? new LinkedHashMap<>() : new LinkedHashMap<>(headers));
+      this.body = body == null ? new byte[0] : body;
+      this.requestTime = requestTime;
+      this.responseTime = responseTime;
+      this.varyHeaders = varyHeaders == null ? null : Collections.unmodifiableList(varyHeaders);
+      this.varyGeneration = varyGeneration;
+   }
+   
+   /**
+    * Creates a vary marker listing the request headers the 
+    * responses for the key vary on.
+    * 
+    * @param varyHeaders
+    *    The request headers the responses vary on.
+    * @param generation
+    *    The generation of the marker.
+    * @return
+    *    The vary marker.
+    */
+   public static CachedResponse varyMarker(List<String> varyHeaders, long generation)
+   {
+      long now = System.currentTimeMillis();
+      return new CachedResponse(0, null, null, now, now, varyHeaders, generation);
+   }
+
+   /**
+    * @return 
+    *   The statusCode property within the CachedResponse instance
+    */
+   public int getStatusCode()
+   {
+      return this.statusCode;
+   }
+
+   /**
+    * @return 
+    *   The headers property within the CachedResponse instance, 
+    *   which cannot be modified.
+    */
+   public Map<String, String> getHeaders()
+   {
+      return this.headers;
+   }
+
+   /**
+    * @return 
+    *   The body property within the CachedResponse instance. The 
+    *   array is shared with the cache, so must not be modified.
+    */
+   public byte[] getBody()
+   {
+      return this.body;
+   }
+
+   /**
+    * @return 
+    *   The requestTime property within the CachedResponse instance
+    */
+   public long getRequestTime()
+   {
+      return this.requestTime;
+   }
+
+   /**
+    * @return 
+    *   The responseTime property within the CachedResponse instance
+    */
+   public long getResponseTime()
+   {
+      return this.responseTime;
+   }
+
+   /**
+    * @return 
+    *   The varyHeaders property within the CachedResponse instance
+    */
+   public List<String> getVaryHeaders()
+   {
+      return this.varyHeaders;
+   }
+
+   /**
+    * @return 
+    *   The varyGeneration property within the CachedResponse instance
+    */
+   public long getVaryGeneration()
+   {
+      return this.varyGeneration;
+   }
+   
+   /**
+    * Returns if the entry is a vary marker rather than a response.
+    * 
+    * @return
+    *    True if the entry is a vary marker.
+    */
+   public boolean isVaryMarker()
+   {
+      return this.varyHeaders != null;
+   }
+   
+   /**
+    * Returns the value of the header passed, ignoring the case 
+    * of the header name.
+    * 
+    * @param name
+    *    The header to find.
+    * @return
+    *    The header's value, or null if the header was not returned.
+    */
+   public String getHeader(String name)
+   {
+      return CachePolicy.getHeader(headers, name);
+   }
+   
+   /**
+    * Returns the approximate number of bytes the entry 
+    * uses, used to bound the size of the cache stores.
+    * 
+    * @return
+    *    The approximate size of the entry in bytes.
+    */
+   public long getWeight()
+   {
+      long weight = 64 + body.length;
+      for (Map.Entry<String, String> header : headers.entrySet())
+      {
+         weight += 2 * (header.getKey().length() + (header.getValue() == null ? 0 : header.getValue().length()));
+      }
+      if (varyHeaders != null)
+      {
+         for (String header : varyHeaders)
+         {
+            weight += 2 * header.length();
+         }
+      }
+      return weight;
+   }
+   
+   /**
+    * Creates the byte content response object for the cached 
+    * response. The body array is shared with the cache.
+    * 
+    * @param duration
+    *    The duration to set within the response.
+    * @return
+    *    The response object, flagged as a cache hit.
+    */
+   public BJADWebResponse<byte[]> toWebResponse(long duration)
+   {
+      BJADWebResponse<byte[]> response = new BJADWebResponse<>();
+      response.setStatusCode(statusCode);
+      response.setHeaders(new LinkedHashMap<>(headers));
+      response.setData(body);
+      response.setDuration(duration);
+      response.setCacheHit(true);
+      return response;
+   }
+}
@@ -0,0 +1,1073 @@
+package bjad.web.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import bjad.web.BJADWebException;
+
+/**
+ * Response cache keeping the responses on local disk so they 
+ * survive a restart of the process. 
+ * <p>
+ * The responses are appended as records to segment files, each 
+ * record protected by a CRC32 checksum so a record torn by a crash 
+ * is detected and treated as a miss. The location of each key's 
+ * record is appended to an index journal, a memory mapped file 
+ * replayed when the cache is opened, so a restarted process finds
+ * the cached responses without reading the segment files. 
+ * <p>
+ * Once the live records exceed the maximum size, the least recently
+ * used responses are removed, and segments with less than half 
+ * their bytes live are compacted by copying their live records into
+ * the active segment and deleting the segment file. The journal is
+ * rewritten from the live keys once it is mostly removed entries.
+ * <p>
+ * A directory can only be opened by one cache at a time, which is 
+ * enforced with a file lock, so processes sharing a directory should
+ * use the shared instance through getSharedInstance.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class DiskResponseCache implements ResponseCache, Closeable
+{
+   /**
+    * The default maximum size of the live records, 256MB.
+    */
+   public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+   
+   /**
+    * The default directory of the cache, bjad-web-cache within the
+    * temporary directory of the system.
+    */
+   public static final String DEFAULT_DIRECTORY = 
+         Paths.get(System.getProperty("java.io.tmpdir"), "bjad-web-cache").toString();
+   
+   /**
+    * The caches shared within the process, by directory.
+    */
+   private static final Map<Path, DiskResponseCache> SHARED_INSTANCES = new ConcurrentHashMap<>();
+   
+   /**
+    * The marker at the start of each record within the segments.
+    */
+   private static final int RECORD_MAGIC = 0xB7AD0C01;
+   
+   /**
+    * The journal operation storing the location of a key's record.
+    */
+   private static final byte OP_PUT = 1;
+   
+   /**
+    * The journal operation removing a key.
+    */
+   private static final byte OP_REMOVE = 2;
+   
+   /**
+    * The name of the index journal file.
+    */
+   private static final String JOURNAL_FILE = "index.journal";
+   
+   /**
+    * The name of the lock file.
+    */
+   private static final String LOCK_FILE = "cache.lock";
+   
+   /**
+    * The prefix of the segment file names.
+    */
+   private static final String SEGMENT_PREFIX = "segment-";
+   
+   /**
+    * The suffix of the segment file names.
+    */
+   private static final String SEGMENT_SUFFIX = ".dat";
+   
+   /**
+    * The initial size of the memory mapped journal.
+    */
+   private static final int INITIAL_JOURNAL_SIZE = 1024 * 1024;
+   
+   /**
+    * The logger for the cache.
+    */
+   private final Log logger = LogFactory.getLog(DiskResponseCache.class);
+   
+   /**
+    * The directory of the cache.
+    */
+   private final Path directory;
+   
+   /**
+    * The maximum size of the live records.
+    */
+   private final long maxSize;
+   
+   /**
+    * The size a segment is rolled over at.
+    */
+   private final long maxSegmentSize;
+   
+   /**
+    * The location of each key's record, in least recently used order.
+    */
+   private final LinkedHashMap<String, RecordLocation> index = new LinkedHashMap<>(16, 0.75f, true);
+   
+   /**
+    * The open segment files, by segment number.
+    */
+   private final TreeMap<Integer, FileChannel> segments = new TreeMap<>();
+   
+   /**
+    * The live bytes within each segment, by segment number.
+    */
+   private final Map<Integer, Long> liveBytes = new HashMap<>();
+   
+   /**
+    * The channel of the lock file.
+    */
+   private final FileChannel lockChannel;
+   
+   /**
+    * The lock held on the directory.
+    */
+   private final FileLock lock;
+   
+   /**
+    * The channel of the index journal.
+    */
+   private FileChannel journalChannel;
+   
+   /**
+    * The memory mapped index journal.
+    */
+   private MappedByteBuffer journal;
+   
+   /**
+    * The number of entries within the journal.
+    */
+   private int journalEntries;
+   
+   /**
+    * The segment new records are appended to.
+    */
+   private int activeSegment;
+   
+   /**
+    * The total size of the live records.
+    */
+   private long size;
+   
+   /**
+    * Flag set once the cache is closed.
+    */
+   private boolean closed;
+   
+   /**
+    * Opens the cache within the directory passed, with the 
+    * default maximum size.
+    * 
+    * @param directory
+    *    The directory of the cache, created if needed.
+    * @throws BJADWebException
+    *    Any exceptions opening the cache, including the directory
+    *    being used by another cache, will be thrown.
+    */
+   public DiskResponseCache(Path directory) throws BJADWebException
+   {
+      this(directory, DEFAULT_MAX_SIZE);
+   }
+   
+   /**
+    * Opens the cache within the directory passed, replaying the 
+    * index journal to find the records already within the cache.
+    * 
+    * @param directory
+    *    The directory of the cache, created if needed.
+    * @param maxSize
+    *    The maximum size of the live records within the cache.
+    * @throws BJADWebException
+    *    Any exceptions opening the cache, including the directory
+    *    being used by another cache, will be thrown.
+    */
+   public DiskResponseCache(Path directory, long maxSize) throws BJADWebException
+   {
+      if (maxSize < 1)
+      {
+         throw new IllegalArgumentException("The maximum size of the cache must be greater than 0.");
+      }
+      this.directory = directory.toAbsolutePath().normalize();
+      this.maxSize = maxSize;
+      this.maxSegmentSize = Math.max(64 * 1024, Math.min(64L * 1024 * 1024, maxSize / 4));
+      
+      FileChannel channel = null;
+      try
+      {
+         Files.createDirectories(this.directory);
+         channel = FileChannel.open(this.directory.resolve(LOCK_FILE), 
+               StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+         this.lock = channel.tryLock();
+         if (lock == null)
+         {
+            throw new BJADWebException("The response cache directory " + this.directory + " is used by another process.");
+         }
+         this.lockChannel = channel;
+         open();
+      }
+      catch (IOException | RuntimeException ex)
+      {
+         closeQuietly(channel);
+         throw new BJADWebException("Could not open the response cache within " + this.directory, ex);
+      }
+      catch (BJADWebException ex)
+      {
+         closeQuietly(channel);
+         throw ex;
+      }
+   }
+   
+   /**
+    * Returns the cache shared within the process for the directory 
+    * passed, opening it with the maximum size passed if it is not
+    * already open.
+    * 
+    * @param directory
+    *    The directory of the cache.
+    * @param maxSize
+    *    The maximum size of the live records within the cache, only 
+    *    used if the cache is opened by the call.
+    * @return
+    *    The shared cache for the directory.
+    * @throws BJADWebException
+    *    Any exceptions opening the cache will be thrown.
+    */
+   public static DiskResponseCache getSharedInstance(Path directory, long maxSize) throws BJADWebException
+   {
+      Path key = directory.toAbsolutePath().normalize();
+      synchronized (SHARED_INSTANCES)
+      {
+         DiskResponseCache cache = SHARED_INSTANCES.get(key);
+         if (cache == null || cache.isClosed())
+         {
+            cache = new DiskResponseCache(key, maxSize);
+            SHARED_INSTANCES.put(key, cache);
+         }
+         return cache;
+      }
+   }
+
+   @Override
+   public synchronized CachedResponse get(String key)
+   {
+      RecordLocation location = closed ? null : index.get(key);
+      if (location == null)
+      {
+         return null;
+      }
+      try
+      {
+         byte[] payload = readRecord(location);
+         if (payload != null)
+         {
+            CachedResponse response = decode(payload, key);
+            if (response != null)
+            {
+               return response;
+            }
+         }
+         logger.warn("Discarding the corrupt response cache record for " + key);
+      }
+      catch (IOException ex)
+      {
+         logger.warn("Could not read the response cache record for " + key, ex);
+      }
+      removeEntry(key);
+      return null;
+   }
+
+   @Override
+   public synchronized void put(String key, CachedResponse response)
+   {
+      if (closed)
+      {
+         return;
+      }
+      try
+      {
+         byte[] record = encodeRecord(key, response);
+         if (record.length > maxSize)
+         {
+            removeEntry(key);
+            return;
+         }
+         RecordLocation location = append(record);
+         removeLocation(index.put(key, location));
+         addLive(location);
+         writeJournal(OP_PUT, key, location);
+         evict();
+      }
+      catch (IOException ex)
+      {
+         logger.warn("Could not write the response cache record for " + key, ex);
+      }
+   }
+
+   @Override
+   public synchronized void remove(String key)
+   {
+      if (!closed)
+      {
+         removeEntry(key);
+      }
+   }
+
+   @Override
+   public synchronized void clear()
+   {
+      if (closed)
+      {
+         return;
+      }
+      try
+      {
+         index.clear();
+         liveBytes.clear();
+         size = 0;
+         for (Map.Entry<Integer, FileChannel> segment : segments.entrySet())
+         {
+            closeQuietly(segment.getValue());
+            Files.deleteIfExists(segmentPath(segment.getKey()));
+         }
+         segments.clear();
+         openSegment(activeSegment + 1);
+         rewriteJournal();
+      }
+      catch (IOException ex)
+      {
+         logger.warn("Could not clear the response cache within " + directory, ex);
+      }
+   }
+   
+   /**
+    * Closes the files of the cache and releases the lock on its
+    * directory. Calls to the cache after it is closed are misses.
+    */
+   @Override
+   public synchronized void close()
+   {
+      if (closed)
+      {
+         return;
+      }
+      closed = true;
+      journal.force();
+      for (FileChannel channel : segments.values())
+      {
+         try
+         {
+            channel.force(false);
+         }
+         catch (IOException ex)
+         {
+            logger.warn("Could not flush the response cache segment", ex);
+         }
+         closeQuietly(channel);
+      }
+      segments.clear();
+      closeQuietly(journalChannel);
+      try
+      {
+         lock.release();
+      }
+      catch (IOException ex)
+      {
+         logger.warn("Could not release the response cache lock", ex);
+      }
+      closeQuietly(lockChannel);
+      SHARED_INSTANCES.remove(directory, this);
+   }
+   
+   /**
+    * @return 
+    *   True if the cache has been closed.
+    */
+   public synchronized boolean isClosed()
+   {
+      return this.closed;
+   }
+   
+   /**
+    * Returns the number of entries within the cache.
+    * 
+    * @return
+    *    The number of entries.
+    */
+   public synchronized int size()
+   {
+      return index.size();
+   }
+   
+   /**
+    * Returns the total size of the live records within the cache.
+    * 
+    * @return
+    *    The size of the live records in bytes.
+    */
+   public synchronized long getSize()
+   {
+      return size;
+   }
+   
+   /**
+    * @return 
+    *   The directory property within the DiskResponseCache instance
+    */
+   public Path getDirectory()
+   {
+      return this.directory;
+   }
+   
+   /**
+    * @return 
+    *   The maxSize property within the DiskResponseCache instance
+    */
+   public long getMaxSize()
+   {
+      return this.maxSize;
+   }
+   
+   /**
+    * Opens the segments and replays the journal, dropping the 
+    * locations pointing past the end of their segment.
+    * 
+    * @throws IOException
+    *    Any exceptions reading the files will be thrown.
+    */
+   private void open() throws IOException
+   {
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX))
+      {
+         for (Path file : files)
+         {
+            String name = file.getFileName().toString();
+            try
+            {
+               int number = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+               segments.put(number, FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            }
+            catch (NumberFormatException ex)
+            {
+               logger.warn("Ignoring the unknown file " + file + " within the response cache");
+            }
+         }
+      }
+      
+      Path journalPath = directory.resolve(JOURNAL_FILE);
+      journalChannel = FileChannel.open(journalPath, StandardOpenOption.CREATE, 
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+      journal = journalChannel.map(FileChannel.MapMode.READ_WRITE, 0, 
+            Math.max(INITIAL_JOURNAL_SIZE, journalChannel.size()));
+      replayJournal();
+      
+      Iterator<Map.Entry<String, RecordLocation>> it = index.entrySet().iterator();
+      while (it.hasNext())
+      {
+         RecordLocation location = it.next().getValue();
+         FileChannel segment = segments.get(location.segment);
+         if (segment == null || location.offset + location.length > segment.size())
+         {
+            it.remove();
+         }
+      }
+      for (RecordLocation location : index.values())
+      {
+         addLive(location);
+      }
+      
+      activeSegment = segments.isEmpty() ? 0 : segments.lastKey();
+      if (segments.isEmpty() || segments.get(activeSegment).size() >= maxSegmentSize)
+      {
+         openSegment(activeSegment + 1);
+      }
+      compact();
+      rewriteJournal();
+      logger.debug("Opened the response cache within " + directory + " with " + index.size() + " entries.");
+   }
+   
+   /**
+    * Replays the journal into the index, stopping at the end of 
+    * the journal or the first entry failing its checksum.
+    */
+   private void replayJournal()
+   {
+      journal.position(0);
+      while (journal.remaining() >= 8)
+      {
+         int length = journal.getInt();
+         if (length <= 0 || length > journal.remaining() - 4)
+         {
+            break;
+         }
+         byte[] payload = new byte[length];
+         journal.get(payload);
+         if (journal.getInt() != crc(payload))
+         {
+            break;
+         }
+         try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload)))
+         {
+            byte op = in.readByte();
+            String key = in.readUTF();
+            if (op == OP_PUT)
+            {
+               index.put(key, new RecordLocation(in.readInt(), in.readLong(), in.readInt()));
+            }
+            else
+            {
+               index.remove(key);
+            }
+         }
+         catch (IOException ex)
+         {
+            break;
+         }
+      }
+   }
+   
+   /**
+    * Appends an entry to the journal, growing the mapping of the 
+    * journal if needed.
+    * 
+    * @param op
+    *    The operation of the entry.
+    * @param key
+    *    The key of the entry.
+    * @param location
+    *    The location of the key's record for put entries.
+    * @throws IOException
+    *    Any exceptions writing the journal will be thrown.
+    */
+   private void writeJournal(byte op, String key, RecordLocation location) throws IOException
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes))
+      {
+         out.writeByte(op);
+         out.writeUTF(key);
+         if (op == OP_PUT)
+         {
+            out.writeInt(location.segment);
+            out.writeLong(location.offset);
+            out.writeInt(location.length);
+         }
+      }
+      byte[] payload = bytes.toByteArray();
+      if (journal.remaining() < payload.length + 12)
+      {
+         if (journalEntries > 2 * index.size() + 1024)
+         {
+            rewriteJournal();
+         }
+         if (journal.remaining() < payload.length + 12)
+         {
+            int position = journal.position();
+            journal = journalChannel.map(FileChannel.MapMode.READ_WRITE, 0, 
+                  Math.max(journal.capacity() * 2L, journal.capacity() + payload.length + 12L));
+            journal.position(position);
+         }
+      }
+      journal.putInt(payload.length);
+      journal.put(payload);
+      journal.putInt(crc(payload));
+      // Mark the end of the journal for the replay.
+      journal.putInt(journal.position(), 0);
+      journalEntries++;
+   }
+   
+   /**
+    * Rewrites the journal with an entry for each live key, replacing
+    * the journal file atomically so a crash leaves either journal.
+    * 
+    * @throws IOException
+    *    Any exceptions writing the journal will be thrown.
+    */
+   private void rewriteJournal() throws IOException
+   {
+      Path journalPath = directory.resolve(JOURNAL_FILE);
+      Path tempPath = directory.resolve(JOURNAL_FILE + ".tmp");
+      try (FileChannel temp = FileChannel.open(tempPath, StandardOpenOption.CREATE, 
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+      {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         try (DataOutputStream out = new DataOutputStream(bytes))
+         {
+            // Written in least recently used order so the order 
+            // survives a restart.
+            for (Map.Entry<String, RecordLocation> entry : index.entrySet())
+            {
+               ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+               try (DataOutputStream entryOut = new DataOutputStream(entryBytes))
+               {
+                  entryOut.writeByte(OP_PUT);
+                  entryOut.writeUTF(entry.getKey());
+                  entryOut.writeInt(entry.getValue().segment);
+                  entryOut.writeLong(entry.getValue().offset);
+                  entryOut.writeInt(entry.getValue().length);
+               }
+               byte[] payload = entryBytes.toByteArray();
+               out.writeInt(payload.length);
+               out.write(payload);
+               out.writeInt(crc(payload));
+            }
+            out.writeInt(0);
+         }
+         ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+         while (buffer.hasRemaining())
+         {
+            temp.write(buffer);
+         }
+         temp.force(true);
+      }
+      
+      closeQuietly(journalChannel);
+      Files.move(tempPath, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      journalChannel = FileChannel.open(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      long used = journalChannel.size() - 4;
+      journal = journalChannel.map(FileChannel.MapMode.READ_WRITE, 0, 
+            Math.max(INITIAL_JOURNAL_SIZE, Integer.highestOneBit((int)Math.min(Integer.MAX_VALUE / 2, used + 1)) * 2L));
+      journal.position((int)used);
+      journalEntries = index.size();
+   }
+   
+   /**
+    * Appends the record to the active segment, rolling over to a 
+    * new segment once the active segment is full.
+    * 
+    * @param record
+    *    The record to append.
+    * @return
+    *    The location of the record.
+    * @throws IOException
+    *    Any exceptions writing the segment will be thrown.
+    */
+   private RecordLocation append(byte[] record) throws IOException
+   {
+      FileChannel channel = segments.get(activeSegment);
+      if (channel.size() > 0 && channel.size() + record.length > maxSegmentSize)
+      {
+         channel = openSegment(activeSegment + 1);
+      }
+      long offset = channel.size();
+      ByteBuffer buffer = ByteBuffer.wrap(record);
+      long position = offset;
+      while (buffer.hasRemaining())
+      {
+         position += channel.write(buffer, position);
+      }
+      return new RecordLocation(activeSegment, offset, record.length);
+   }
+   
+   /**
+    * Opens a new segment and makes it the active segment.
+    * 
+    * @param number
+    *    The number of the segment.
+    * @return
+    *    The channel of the segment.
+    * @throws IOException
+    *    Any exceptions creating the segment will be thrown.
+    */
+   private FileChannel openSegment(int number) throws IOException
+   {
+      FileChannel channel = FileChannel.open(segmentPath(number), StandardOpenOption.CREATE, 
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      segments.put(number, channel);
+      activeSegment = number;
+      return channel;
+   }
+   
+   /**
+    * Reads the payload of the record, verifying its marker and 
+    * checksum.
+    * 
+    * @param location
+    *    The location of the record.
+    * @return
+    *    The payload of the record, or null if the record is corrupt.
+    * @throws IOException
+    *    Any exceptions reading the segment will be thrown.
+    */
+   private byte[] readRecord(RecordLocation location) throws IOException
+   {
+      byte[] record = readRaw(location);
+      if (record == null || record.length < 12)
+      {
+         return null;
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(record);
+      if (buffer.getInt() != RECORD_MAGIC || buffer.getInt() != record.length - 12)
+      {
+         return null;
+      }
+      byte[] payload = new byte[record.length - 12];
+      buffer.get(payload);
+      return buffer.getInt() == crc(payload) ? payload : null;
+   }
+   
+   /**
+    * Reads the bytes of the record.
+    * 
+    * @param location
+    *    The location of the record.
+    * @return
+    *    The bytes of the record, or null if the segment is missing 
+    *    or shorter than the record.
+    * @throws IOException
+    *    Any exceptions reading the segment will be thrown.
+    */
+   private byte[] readRaw(RecordLocation location) throws IOException
+   {
+      FileChannel channel = segments.get(location.segment);
+      if (channel == null)
+      {
+         return null;
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(location.length);
+      long position = location.offset;
+      while (buffer.hasRemaining())
+      {
+         int read = channel.read(buffer, position);
+         if (read < 0)
+         {
+            return null;
+         }
+         position += read;
+      }
+      return buffer.array();
+   }
+   
+   /**
+    * Removes least recently used entries until the live records are
+    * within the maximum size, then compacts the segments.
+    * 
+    * @throws IOException
+    *    Any exceptions writing the files will be thrown.
+    */
+   private void evict() throws IOException
+   {
+      boolean evicted = false;
+      Iterator<Map.Entry<String, RecordLocation>> it = index.entrySet().iterator();
+      while (size > maxSize && it.hasNext())
+      {
+         Map.Entry<String, RecordLocation> eldest = it.next();
+         it.remove();
+         removeLocation(eldest.getValue());
+         writeJournal(OP_REMOVE, eldest.getKey(), null);
+         evicted = true;
+      }
+      if (evicted)
+      {
+         compact();
+      }
+   }
+   
+   /**
+    * Compacts the segments other than the active segment with less 
+    * than half their bytes live, copying their live records into the
+    * active segment before deleting the segment file.
+    * 
+    * @throws IOException
+    *    Any exceptions writing the files will be thrown.
+    */
+   private void compact() throws IOException
+   {
+      List<Integer> sparse = new ArrayList<>();
+      for (Map.Entry<Integer, FileChannel> segment : segments.entrySet())
+      {
+         long live = liveBytes.getOrDefault(segment.getKey(), 0L);
+         if (segment.getKey() != activeSegment && live * 2 < segment.getValue().size())
+         {
+            sparse.add(segment.getKey());
+         }
+      }
+      if (sparse.isEmpty())
+      {
+         return;
+      }
+      
+      for (Map.Entry<String, RecordLocation> entry : new ArrayList<>(index.entrySet()))
+      {
+         RecordLocation location = entry.getValue();
+         if (sparse.contains(location.segment))
+         {
+            byte[] record = readRaw(location);
+            removeLocation(location);
+            if (record == null)
+            {
+               index.remove(entry.getKey());
+               writeJournal(OP_REMOVE, entry.getKey(), null);
+               continue;
+            }
+            RecordLocation moved = append(record);
+            // Keep the recency of the entry while moving it.
+            entry.setValue(moved);
+            addLive(moved);
+            writeJournal(OP_PUT, entry.getKey(), moved);
+         }
+      }
+      // The journal must reference the new locations before the 
+      // old segments are removed.
+      journal.force();
+      segments.get(activeSegment).force(false);
+      for (Integer number : sparse)
+      {
+         closeQuietly(segments.remove(number));
+         liveBytes.remove(number);
+         Files.deleteIfExists(segmentPath(number));
+      }
+   }
+   
+   /**
+    * Removes the key from the index, recording the removal within 
+    * the journal.
+    * 
+    * @param key
+    *    The key to remove.
+    */
+   private void removeEntry(String key)
+   {
+      RecordLocation location = index.remove(key);
+      if (location != null)
+      {
+         removeLocation(location);
+         try
+         {
+            writeJournal(OP_REMOVE, key, null);
+         }
+         catch (IOException ex)
+         {
+            logger.warn("Could not write the response cache journal for " + key, ex);
+         }
+      }
+   }
+   
+   /**
+    * Adds the record to the live bytes.
+    * 
+    * @param location
+    *    The location of the record.
+    */
+   private void addLive(RecordLocation location)
+   {
+      liveBytes.merge(location.segment, (long)location.length, Long::sum);
+      size += location.length;
+   }
+   
+   /**
+    * Removes the record from the live bytes.
+    * 
+    * @param location
+    *    The location of the record, may be null.
+    */
+   private void removeLocation(RecordLocation location)
+   {
+      if (location != null)
+      {
+         liveBytes.merge(location.segment, (long)-location.length, Long::sum);
+         size -= location.length;
+      }
+   }
+   
+   /**
+    * Returns the path of the segment file.
+    * 
+    * @param number
+    *    The number of the segment.
+    * @return
+    *    The path of the segment file.
+    */
+   private Path segmentPath(int number)
+   {
+      return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+   }
+   
+   /**
+    * Encodes the response as a record: the marker, the payload 
+    * length, the payload, and the CRC32 of the payload.
+    * 
+    * @param key
+    *    The key of the response.
+    * @param response
+    *    The response to encode.
+    * @return
+    *    The record.
+    * @throws IOException
+    *    Any exceptions encoding the response will be thrown.
+    */
+   static byte[] encodeRecord(String key, CachedResponse response) throws IOException
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(response.getBody().length + 512);
+      try (DataOutputStream out = new DataOutputStream(bytes))
+      {
+         out.writeUTF(key);
+         out.writeInt(response.getStatusCode());
+         out.writeLong(response.getRequestTime());
+         out.writeLong(response.getResponseTime());
+         out.writeLong(response.getVaryGeneration());
+         List<String> vary = response.getVaryHeaders();
+         out.writeInt(vary == null ? -1 : vary.size());
+         if (vary != null)
+         {
+            for (String header : vary)
+            {
+               out.writeUTF(header);
+            }
+         }
+         out.writeInt(response.getHeaders().size());
+         for (Map.Entry<String, String> header : response.getHeaders().entrySet())
+         {
+            out.writeUTF(header.getKey());
+            out.writeBoolean(header.getValue() != null);
+            if (header.getValue() != null)
+            {
+               out.writeUTF(header.getValue());
+            }
+         }
+         out.writeInt(response.getBody().length);
+         out.write(response.getBody());
+      }
+      byte[] payload = bytes.toByteArray();
+      ByteBuffer record = ByteBuffer.allocate(payload.length + 12);
+      record.putInt(RECORD_MAGIC);
+      record.putInt(payload.length);
+      record.put(payload);
+      record.putInt(crc(payload));
+      return record.array();
+   }
+   
+   /**
+    * Decodes the payload of a record.
+    * 
+    * @param payload
+    *    The payload of the record.
+    * @param key
+    *    The key the record is expected to be for.
+    * @return
+    *    The response, or null if the record is for another key.
+    * @throws IOException
+    *    Any exceptions decoding the payload will be thrown.
+    */
+   static CachedResponse decode(byte[] payload, String key) throws IOException
+   {
+      try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload)))
+      {
+         if (!in.readUTF().equals(key))
+         {
+            return null;
+         }
+         int statusCode = in.readInt();
+         long requestTime = in.readLong();
+         long responseTime = in.readLong();
+         long varyGeneration = in.readLong();
+         int varyCount = in.readInt();
+         List<String> vary = null;
+         if (varyCount >= 0)
+         {
+            vary = new ArrayList<>(varyCount);
+            for (int i = 0; i < varyCount; i++)
+            {
+               vary.add(in.readUTF());
+            }
+         }
+         int headerCount = in.readInt();
+         Map<String, String> headers = new LinkedHashMap<>();
+         for (int i = 0; i < headerCount; i++)
+         {
+            String name = in.readUTF();
+            headers.put(name, in.readBoolean() ? in.readUTF() : null);
+         }
+         byte[] body = new byte[in.readInt()];
+         in.readFully(body);
+         return new CachedResponse(statusCode, headers, body, requestTime, responseTime, vary, varyGeneration);
+      }
+   }
+   
+   /**
+    * Returns the CRC32 checksum of the bytes.
+    * 
+    * @param bytes
+    *    The bytes to checksum.
+    * @return
+    *    The checksum.
+    */
+   private static int crc(byte[] bytes)
+   {
+      CRC32 crc = new CRC32();
+      crc.update(bytes, 0, bytes.length);
+      return (int)crc.getValue();
+   }
+   
+   /**
+    * Closes the resource, ignoring any exceptions.
+    * 
+    * @param resource
+    *    The resource to close, may be null.
+    */
+   private static void closeQuietly(Closeable resource)
+   {
+      if (resource != null)
+      {
+         try
+         {
+            resource.close();
+         }
+         catch (IOException ex)
+         {
+            // Nothing can be done with the exception.
+         }
+      }
+   }
+   
+   /**
+    * The location of a record within the segments.
+    */
+   private static final class RecordLocation
+   {
+      final int segment;
+      final long offset;
+      final int length;
+      
+      RecordLocation(int segment, long offset, int length)
+      {
+         this.segment = segment;
+         this.offset = offset;
+         this.length = length;
+      }
+   }
+}
@@ -0,0 +1,129 @@
+package bjad.web.cache;
+
+/**
+ * Count-min sketch estimating how often each key has been used, 
+ * in a fixed amount of memory. The counters are halved once the 
+ * number of increments reaches ten times the width of the sketch, 
+ * so the frequencies reflect recent use rather than all time use.
+ * <p>
+ * The sketch is not thread safe, callers synchronize access. 
+ *
+ * @author 
+ *  Ben Dougall
+ */
+final class FrequencySketch
+{
+   /**
+    * The number of rows (hash functions) within the sketch.
+    */
+   private static final int DEPTH = 4;
+   
+   /**
+    * The largest value a counter can reach.
+    */
+   private static final int MAX_COUNT = 15;
+   
+   /**
+    * The seeds used to derive the index within each row.
+    */
+   private static final int[] SEEDS = new int[] { 0x97cb3127, 0xc2b2ae35, 0x85ebca6b, 0x27d4eb2f };
+   
+   /**
+    * The counters, DEPTH rows of width counters each.
+    */
+   private final byte[] counters;
+   
+   /**
+    * The width of each row, a power of two.
+    */
+   private final int width;
+   
+   /**
+    * The number of increments before the counters are halved.
+    */
+   private final int sampleSize;
+   
+   /**
+    * The number of increments since the counters were last halved.
+    */
+   private int additions;
+   
+   /**
+    * Creates the sketch for about the number of entries passed.
+    * 
+    * @param expectedEntries
+    *    The expected number of entries being tracked.
+    */
+   FrequencySketch(int expectedEntries)
+   {
+      int size = Integer.highestOneBit(Math.max(16, Math.min(1 << 24, expectedEntries)) - 1) << 1;
+      this.width = size;
+      this.counters = new byte[DEPTH * size];
+      this.sampleSize = 10 * size;
+   }
+   
+   /**
+    * Returns the estimated frequency of the key.
+    * 
+    * @param hash
+    *    The hash of the key.
+    * @return
+    *    The estimated number of recent uses of the key, 
+    *    between 0 and 15.
+    */
+   int frequency(int hash)
+   {
+      int frequency = MAX_COUNT;
+      for (int row = 0; row < DEPTH; row++)
+      {
+         frequency = Math.min(frequency, counters[indexOf(hash, row)]);
+      }
+      return frequency;
+   }
+   
+   /**
+    * Increments the frequency of the key, halving all the 
+    * counters once the sample size is reached.
+    * 
+    * @param hash
+    *    The hash of the key.
+    */
+   void increment(int hash)
+   {
+      boolean added = false;
+      for (int row = 0; row < DEPTH; row++)
+      {
+         int index = indexOf(hash, row);
+         if (counters[index] < MAX_COUNT)
+         {
+            counters[index]++;
+            added = true;
+         }
+      }
+      if (added && ++additions >= sampleSize)
+      {
+         for (int i = 0; i < counters.length; i++)
+         {
+            counters[i] = (byte)(counters[i] >>> 1);
+         }
+         additions /= 2;
+      }
+   }
+   
+   /**
+    * Returns the index of the key's counter within the row.
+    * 
+    * @param hash
+    *    The hash of the key.
+    * @param row
+    *    The row of the sketch.
+    * @return
+    *    The index within the counters array.
+    */
+   private int indexOf(int hash, int row)
+   {
+      int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+      h ^= h >>> 16;
+      return row * width + (h & (width - 1));
+   }
+}
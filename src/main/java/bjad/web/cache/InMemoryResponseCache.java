@@ -0,0 +1,91 @@
+package bjad.web.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Response cache keeping the responses in memory, bounded by 
+ * the number of entries and evicting the least recently used 
+ * entry once the cache is full. See WTinyLfuResponseCache for 
+ * a cache bounded by the size of the responses.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class InMemoryResponseCache implements ResponseCache
+{
+   /**
+    * The default maximum number of entries within the cache.
+    */
+   public static final int DEFAULT_MAX_ENTRIES = 1000;
+   
+   /**
+    * The entries, in least recently used order.
+    */
+   private final LinkedHashMap<String, CachedResponse> entries;
+   
+   /**
+    * Creates the cache with the default maximum number of entries.
+    */
+   public InMemoryResponseCache()
+   {
+      this(DEFAULT_MAX_ENTRIES);
+   }
+   
+   /**
+    * Creates the cache with the maximum number of entries passed.
+    * 
+    * @param maxEntries
+    *    The maximum number of entries within the cache, values
+    *    less than 1 are treated as 1.
+    */
+   public InMemoryResponseCache(int maxEntries)
+   {
+      final int MAX = Math.max(1, maxEntries);
+      this.entries = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true)
+      {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest)
+         {
+            return size() > MAX;
+         }
+      };
+   }
+   
+   @Override
+   public synchronized CachedResponse get(String key)
+   {
+      return entries.get(key);
+   }
+
+   @Override
+   public synchronized void put(String key, CachedResponse response)
+   {
+      entries.put(key, response);
+   }
+
+   @Override
+   public synchronized void remove(String key)
+   {
+      entries.remove(key);
+   }
+
+   @Override
+   public synchronized void clear()
+   {
+      entries.clear();
+   }
+   
+   /**
+    * Returns the number of entries within the cache.
+    * 
+    * @return
+    *    The number of entries.
+    */
+   public synchronized int size()
+   {
+      return entries.size();
+   }
+}
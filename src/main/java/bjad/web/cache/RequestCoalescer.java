@@ -0,0 +1,211 @@
+package bjad.web.cache;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+import bjad.web.BJADWebResponse;
+
+/**
+ * Coalesces identical concurrent operations into a single call to 
+ * the server (single-flight). The first caller for a key completes
+ * the operation, and the callers arriving while it is in flight wait
+ * for and share its response, so a slow or cold URL is not hit by 
+ * every waiting thread at once.
+ * <p>
+ * The operations are keyed by their method, URL, and request headers,
+ * see ResultCache.getKey. Only safe operations without a body should
+ * be coalesced.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class RequestCoalescer
+{
+   /**
+    * The coalescer shared by the requests with coalescing enabled.
+    */
+   private static volatile RequestCoalescer sharedInstance;
+   
+   /**
+    * The operations in flight, by key.
+    */
+   private final ConcurrentHashMap<String, Flight> inFlight = new ConcurrentHashMap<>();
+   
+   /**
+    * Returns the process wide coalescer shared by the requests 
+    * with coalescing enabled.
+    * 
+    * @return
+    *    The shared coalescer.
+    */
+   public static RequestCoalescer getSharedInstance()
+   {
+      if (sharedInstance == null)
+      {
+         synchronized (RequestCoalescer.class)
+         {
+            if (sharedInstance == null)
+            {
+               sharedInstance = new RequestCoalescer();
+            }
+         }
+      }
+      return sharedInstance;
+   }
+   
+   /**
+    * Completes the operation, or waits for the identical operation 
+    * already in flight and returns a copy of its response.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param loader
+    *    The loader completing the operation.
+    * @return
+    *    The response, flagged as coalesced if it was shared 
+    *    from the operation of another caller.
+    * @throws BJADWebException
+    *    Any exceptions completing the operation will be thrown, 
+    *    to every caller waiting for it.
+    */
+   public BJADWebResponse<byte[]> execute(BJADWebRequest request, ResultCache.Loader loader) throws BJADWebException
+   {
+      final long START = System.currentTimeMillis();
+      final String KEY = ResultCache.getKey(request);
+      final Flight FLIGHT = new Flight();
+      // Joining under the lock of the key means no caller can join
+      // once the flight is removed, so its waiter count is final.
+      Flight joined = inFlight.compute(KEY, (k, f) -> 
+      {
+         if (f == null)
+         {
+            return FLIGHT;
+         }
+         f.waiters.incrementAndGet();
+         return f;
+      });
+      if (joined != FLIGHT)
+      {
+         return await(joined.result, START);
+      }
+      
+      BJADWebResponse<byte[]> response;
+      try
+      {
+         response = loader.load(request);
+      }
+      catch (Throwable ex)
+      {
+         // Any failure, errors included, must release the waiters.
+         inFlight.remove(KEY, FLIGHT);
+         FLIGHT.result.completeExceptionally(ex);
+         throw ex;
+      }
+      
+      inFlight.remove(KEY, FLIGHT);
+      if (FLIGHT.waiters.get() == 0)
+      {
+         FLIGHT.result.complete(response);
+      }
+      else
+      {
+         // The waiting callers share a snapshot, so the caller 
+         // completing the operation is free to change its response.
+         FLIGHT.result.complete(copy(response, response.getData() == null ? null : response.getData().clone(), 0));
+      }
+      return response;
+   }
+   
+   /**
+    * Returns the number of operations in flight.
+    * 
+    * @return
+    *    The number of operations in flight.
+    */
+   public int getInFlightCount()
+   {
+      return inFlight.size();
+   }
+   
+   /**
+    * Waits for the operation in flight, returning a copy of its 
+    * response.
+    * 
+    * @param flight
+    *    The operation in flight.
+    * @param start
+    *    The time the caller started waiting.
+    * @return
+    *    The copy of the response.
+    * @throws BJADWebException
+    *    The exception of the operation, or any exceptions while 
+    *    waiting, will be thrown.
+    */
+   private static BJADWebResponse<byte[]> await(CompletableFuture<BJADWebResponse<byte[]>> flight, long start) throws BJADWebException
+   {
+      try
+      {
+         BJADWebResponse<byte[]> shared = flight.get();
+         return copy(shared, shared.getData(), System.currentTimeMillis() - start);
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+         throw new BJADWebException(ex);
+      }
+      catch (ExecutionException ex)
+      {
+         if (ex.getCause() instanceof BJADWebException)
+         {
+            throw (BJADWebException)ex.getCause();
+         }
+         if (ex.getCause() instanceof Error)
+         {
+            throw (Error)ex.getCause();
+         }
+         throw new BJADWebException(ex.getCause());
+      }
+   }
+   
+   /**
+    * Copies the response with its own headers, flagged as coalesced.
+    * 
+    * @param response
+    *    The response to copy.
+    * @param data
+    *    The data for the copy.
+    * @param duration
+    *    The duration for the copy, or 0 to keep the duration of 
+    *    the response.
+    * @return
+    *    The copy of the response.
+    */
+   private static BJADWebResponse<byte[]> copy(BJADWebResponse<byte[]> response, byte[] data, long duration)
+   {
+      BJADWebResponse<byte[]> copy = new BJADWebResponse<>();
+      copy.copyNonDataValues(response);
+      copy.setHeaders(new LinkedHashMap<>(response.getHeaders()));
+      copy.setData(data);
+      copy.setCoalesced(true);
+      if (duration > 0)
+      {
+         copy.setDuration(duration);
+      }
+      return copy;
+   }
+   
+   /**
+    * An operation in flight, with the number of callers waiting
+    * for its response.
+    */
+   private static final class Flight
+   {
+      final CompletableFuture<BJADWebResponse<byte[]>> result = new CompletableFuture<>();
+      final AtomicInteger waiters = new AtomicInteger();
+   }
+}
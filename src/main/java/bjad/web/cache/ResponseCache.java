@@ -0,0 +1,47 @@
+package bjad.web.cache;
+
+/**
+ * Store for the cached HTTP responses. Implementations must 
+ * be safe to use from multiple threads, and are expected to 
+ * bound their own size by evicting entries as needed.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public interface ResponseCache
+{
+   /**
+    * Gets the cached response stored under the key passed.
+    * 
+    * @param key
+    *    The key of the response.
+    * @return
+    *    The cached response, or null if there is no 
+    *    response cached for the key.
+    */
+   public CachedResponse get(String key);
+   
+   /**
+    * Stores the response under the key passed, replacing 
+    * any response already stored for the key.
+    * 
+    * @param key
+    *    The key of the response.
+    * @param response
+    *    The response to store.
+    */
+   public void put(String key, CachedResponse response);
+   
+   /**
+    * Removes the response stored under the key passed.
+    * 
+    * @param key
+    *    The key of the response.
+    */
+   public void remove(String key);
+   
+   /**
+    * Removes all the responses within the cache.
+    */
+   public void clear();
+}
@@ -0,0 +1,286 @@
+package bjad.web.cache;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpHeaders;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+import bjad.web.BJADWebResponse;
+import bjad.web.resilience.ResiliencePipeline;
+import bjad.web.HTTPMethodType;
+import bjad.web.resilience.TransportCall;
+import bjad.web.transport.TransportResponse;
+
+/**
+ * Completes the cacheable operations through the response cache,
+ * serving fresh responses from the cache, revalidating stale 
+ * responses using the If-None-Match and If-Modified-Since headers
+ * (treating a 304 response as a cache hit), and storing the 
+ * cacheable responses returned by the server.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public final class ResponseCacheHandler
+{
+   /**
+    * The generation counter for the vary markers, started from the 
+    * clock so generations are not reused by a restarted process 
+    * sharing a persistent cache.
+    */
+   private static final AtomicLong VARY_GENERATION = new AtomicLong(System.currentTimeMillis() * 1000);
+   
+   /**
+    * Hidden constructor to prevent instances from being created.
+    */
+   private ResponseCacheHandler()
+   {
+   }
+   
+   /**
+    * Completes the operation for the request through the cache. 
+    * The request must be cacheable (see CachePolicy.isCacheableRequest).
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param cache
+    *    The cache to use.
+    * @return
+    *    The response object, flagged as a cache hit if it was 
+    *    served from the cache or revalidated by the server.
+    * @throws BJADWebException
+    *    Any exceptions completing the operation will be thrown.
+    */
+   public static BJADWebResponse<byte[]> fetch(BJADWebRequest request, ResponseCache cache) throws BJADWebException
+   {
+      return fetch(request, cache, ResiliencePipeline::send);
+   }
+   
+   /**
+    * Completes the operation for the request through the cache, 
+    * sending the network requests through the call passed.
+    * The request must be cacheable (see CachePolicy.isCacheableRequest).
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param cache
+    *    The cache to use.
+    * @param call
+    *    The call sending the network requests.
+    * @return
+    *    The response object, flagged as a cache hit if it was 
+    *    served from the cache or revalidated by the server.
+    * @throws BJADWebException
+    *    Any exceptions completing the operation will be thrown.
+    */
+   public static BJADWebResponse<byte[]> fetch(BJADWebRequest request, ResponseCache cache, TransportCall call) throws BJADWebException
+   {
+      final long START = System.currentTimeMillis();
+      CachedResponse cached = lookup(cache, request);
+      if (cached != null && CachePolicy.isFresh(request, cached, START))
+      {
+         return cached.toWebResponse(System.currentTimeMillis() - START);
+      }
+      
+      // Revalidate the stale response if it has validators.
+      BJADWebRequest networkRequest = request;
+      if (cached != null)
+      {
+         String etag = cached.getHeader(HttpHeaders.ETAG);
+         String lastModified = cached.getHeader(HttpHeaders.LAST_MODIFIED);
+         if (etag != null || lastModified != null)
+         {
+            networkRequest = request.copy();
+            if (networkRequest.getHeaders() == null)
+            {
+               networkRequest.setHeaders(new LinkedHashMap<>());
+            }
+            if (etag != null)
+            {
+               networkRequest.getHeaders().put(HttpHeaders.IF_NONE_MATCH, etag);
+            }
+            if (lastModified != null)
+            {
+               networkRequest.getHeaders().put(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+            }
+         }
+      }
+      
+      final long REQUEST_TIME = System.currentTimeMillis();
+      BJADWebResponse<byte[]> response = null;
+      try (TransportResponse transportResponse = call.send(networkRequest, null))
+      {
+         response = transportResponse.readFully();
+      }
+      catch (IOException ex)
+      {
+         throw new BJADWebException(ex);
+      }
+      final long RESPONSE_TIME = System.currentTimeMillis();
+      
+      if (response.getStatusCode() == 304 && cached != null && networkRequest != request)
+      {
+         CachedResponse refreshed = new CachedResponse(cached.getStatusCode(), 
+               mergeHeaders(cached.getHeaders(), response.getHeaders()), cached.getBody(), REQUEST_TIME, RESPONSE_TIME);
+         if (CachePolicy.isCacheableResponse(request, refreshed.getStatusCode(), refreshed.getHeaders()))
+         {
+            store(cache, request, refreshed);
+         }
+         return refreshed.toWebResponse(response.getDuration());
+      }
+      
+      if (CachePolicy.isCacheableResponse(request, response.getStatusCode(), response.getHeaders()))
+      {
+         store(cache, request, new CachedResponse(response.getStatusCode(), response.getHeaders(), 
+               response.getData(), REQUEST_TIME, RESPONSE_TIME));
+      }
+      return response;
+   }
+   
+   /**
+    * Finds the cached response for the request, following the 
+    * vary marker for the request's method and URL if there is one.
+    * 
+    * @param cache
+    *    The cache to search.
+    * @param request
+    *    The request for the operation.
+    * @return
+    *    The cached response, or null if not found.
+    */
+   public static CachedResponse lookup(ResponseCache cache, BJADWebRequest request)
+   {
+      String primaryKey = getPrimaryKey(request.getMethod(), request.getUrl());
+      CachedResponse entry = cache.get(primaryKey);
+      if (entry != null && entry.isVaryMarker())
+      {
+         entry = cache.get(getVariantKey(primaryKey, entry, request));
+      }
+      return entry == null || entry.isVaryMarker() ? null : entry;
+   }
+   
+   /**
+    * Stores the response for the request, under the request's method
+    * and URL, or under the key containing the request header values
+    * the response varies on.
+    * 
+    * @param cache
+    *    The cache to store the response within.
+    * @param request
+    *    The request for the operation.
+    * @param response
+    *    The response to store.
+    */
+   public static void store(ResponseCache cache, BJADWebRequest request, CachedResponse response)
+   {
+      String primaryKey = getPrimaryKey(request.getMethod(), request.getUrl());
+      List<String> varyHeaders = CachePolicy.getVaryHeaders(response.getHeaders());
+      if (varyHeaders.isEmpty())
+      {
+         cache.put(primaryKey, response);
+         return;
+      }
+      
+      CachedResponse marker = cache.get(primaryKey);
+      if (marker == null || !marker.isVaryMarker() || !marker.getVaryHeaders().equals(varyHeaders))
+      {
+         marker = CachedResponse.varyMarker(varyHeaders, VARY_GENERATION.incrementAndGet());
+         cache.put(primaryKey, marker);
+      }
+      cache.put(getVariantKey(primaryKey, marker, request), response);
+   }
+   
+   /**
+    * Removes the cached responses for the URL, called once an 
+    * unsafe operation (POST, PUT, etc...) succeeds against it.
+    * 
+    * @param cache
+    *    The cache to remove the responses from.
+    * @param url
+    *    The URL of the operation.
+    */
+   public static void invalidate(ResponseCache cache, String url)
+   {
+      cache.remove(getPrimaryKey(HTTPMethodType.GET, url));
+      cache.remove(getPrimaryKey(HTTPMethodType.HEAD, url));
+   }
+   
+   /**
+    * Returns the key for the method and URL.
+    * 
+    * @param method
+    *    The method of the request.
+    * @param url
+    *    The URL of the request.
+    * @return
+    *    The key.
+    */
+   public static String getPrimaryKey(HTTPMethodType method, String url)
+   {
+      return method.name() + " " + url;
+   }
+   
+   /**
+    * Returns the key for the response varying on the request 
+    * headers listed within the marker.
+    * 
+    * @param primaryKey
+    *    The key for the request's method and URL.
+    * @param marker
+    *    The vary marker.
+    * @param request
+    *    The request for the operation.
+    * @return
+    *    The key containing the values of the request headers.
+    */
+   private static String getVariantKey(String primaryKey, CachedResponse marker, BJADWebRequest request)
+   {
+      StringBuilder key = new StringBuilder(primaryKey).append('\n').append(marker.getVaryGeneration());
+      for (String header : marker.getVaryHeaders())
+      {
+         String value = CachePolicy.getHeader(request.getHeaders(), header);
+         key.append('\n').append(header).append('=').append(value == null ? "" : value.trim());
+      }
+      return key.toString();
+   }
+   
+   /**
+    * Merges the headers of the 304 response into the headers of 
+    * the cached response, replacing the headers with the same name.
+    * 
+    * @param cachedHeaders
+    *    The headers of the cached response.
+    * @param updatedHeaders
+    *    The headers of the 304 response.
+    * @return
+    *    The merged headers.
+    */
+   private static Map<String, String> mergeHeaders(Map<String, String> cachedHeaders, Map<String, String> updatedHeaders)
+   {
+      Map<String, String> merged = new LinkedHashMap<>(cachedHeaders);
+      for (Map.Entry<String, String> header : updatedHeaders.entrySet())
+      {
+         if (header.getKey().equalsIgnoreCase(HttpHeaders.CONTENT_LENGTH) || 
+             header.getKey().equalsIgnoreCase(HttpHeaders.TRANSFER_ENCODING))
+         {
+            continue;
+         }
+         Iterator<String> names = merged.keySet().iterator();
+         while (names.hasNext())
+         {
+            if (names.next().equalsIgnoreCase(header.getKey()))
+            {
+               names.remove();
+            }
+         }
+         merged.put(header.getKey(), header.getValue());
+      }
+      return merged;
+   }
+}
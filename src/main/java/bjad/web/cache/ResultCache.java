@@ -0,0 +1,436 @@
+package bjad.web.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.LogFactory;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+import bjad.web.BJADWebResponse;
+
+/**
+ * Cache of the results of the GET and HEAD operations kept for the
+ * TTL set within the request, regardless of the caching headers of
+ * the response, with stale-while-revalidate refreshing.
+ * <p>
+ * Results past their TTL but within the grace period are returned
+ * straight away while one background task refreshes them, so the 
+ * callers do not wait for a round trip at each TTL boundary. Results
+ * used often that are close to their TTL are also refreshed in the
+ * background before they expire. Failed refreshes leave the result 
+ * in place until its grace period ends.
+ * <p>
+ * The refreshes run on a small bounded pool, a refresh that cannot
+ * be queued is skipped and attempted by the next caller. Results
+ * past their grace period are removed when next looked up, and 
+ * swept out every {@link #PURGE_INTERVAL} results stored, so they
+ * do not hold memory until the least recently used ones are 
+ * evicted, without scanning the cache on every store.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class ResultCache
+{
+   /**
+    * The default maximum number of results within the cache.
+    */
+   public static final int DEFAULT_MAX_ENTRIES = 1000;
+   
+   /**
+    * The default number of threads refreshing the results.
+    */
+   public static final int DEFAULT_REFRESH_THREADS = 2;
+   
+   /**
+    * The default number of refreshes that can wait for a thread.
+    */
+   public static final int DEFAULT_REFRESH_QUEUE_SIZE = 100;
+   
+   /**
+    * The percentage of the TTL after which a hot result is 
+    * refreshed ahead of its expiry.
+    */
+   static final int REFRESH_AHEAD_PERCENT = 80;
+   
+   /**
+    * The number of uses since the result was loaded for the 
+    * result to be hot.
+    */
+   static final int HOT_USES = 2;
+   
+   /**
+    * The number of results stored between the removals of the 
+    * results past their grace period.
+    */
+   static final int PURGE_INTERVAL = 100;
+   
+   /**
+    * Counter used to name the refresh threads.
+    */
+   private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+   
+   /**
+    * The cache shared by the requests with a result cache TTL.
+    */
+   private static volatile ResultCache sharedInstance;
+   
+   /**
+    * The results, in least recently used order.
+    */
+   private final LinkedHashMap<String, Entry> entries;
+   
+   /**
+    * The bounded pool refreshing the results.
+    */
+   private final ThreadPoolExecutor refreshExecutor;
+   
+   /**
+    * The number of results stored since the results past their 
+    * grace period were last removed.
+    */
+   private int putsSincePurge;
+   
+   /**
+    * Loads the result of the operation from the server, or the 
+    * response cache.
+    */
+   @FunctionalInterface
+   public interface Loader
+   {
+      /**
+       * Completes the operation for the request.
+       * 
+       * @param request
+       *    The request for the operation.
+       * @return
+       *    The response of the operation.
+       * @throws BJADWebException
+       *    Any exceptions completing the operation.
+       */
+      BJADWebResponse<byte[]> load(BJADWebRequest request) throws BJADWebException;
+   }
+   
+   /**
+    * Creates the cache with the default sizes.
+    */
+   public ResultCache()
+   {
+      this(DEFAULT_MAX_ENTRIES, DEFAULT_REFRESH_THREADS, DEFAULT_REFRESH_QUEUE_SIZE);
+   }
+   
+   /**
+    * Creates the cache with the sizes passed.
+    * 
+    * @param maxEntries
+    *    The maximum number of results within the cache, values
+    *    less than 1 are treated as 1.
+    * @param refreshThreads
+    *    The number of threads refreshing the results, values 
+    *    less than 1 are treated as 1.
+    * @param refreshQueueSize
+    *    The number of refreshes that can wait for a thread, values
+    *    less than 1 are treated as 1.
+    */
+   public ResultCache(int maxEntries, int refreshThreads, int refreshQueueSize)
+   {
+      final int MAX = Math.max(1, maxEntries);
+      this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+      {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+         {
+            return size() > MAX;
+         }
+      };
+      final int THREADS = Math.max(1, refreshThreads);
+      this.refreshExecutor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS, 
+            new ArrayBlockingQueue<>(Math.max(1, refreshQueueSize)), r -> 
+      {
+         Thread t = new Thread(r, "bjad-result-refresh-" + THREAD_COUNT.incrementAndGet());
+         t.setDaemon(true);
+         return t;
+      });
+      this.refreshExecutor.allowCoreThreadTimeOut(true);
+   }
+   
+   /**
+    * Returns the process wide cache shared by the requests 
+    * with a result cache TTL.
+    * 
+    * @return
+    *    The shared cache.
+    */
+   public static ResultCache getSharedInstance()
+   {
+      if (sharedInstance == null)
+      {
+         synchronized (ResultCache.class)
+         {
+            if (sharedInstance == null)
+            {
+               sharedInstance = new ResultCache();
+            }
+         }
+      }
+      return sharedInstance;
+   }
+   
+   /**
+    * Removes the results for the URL from the shared cache, doing
+    * nothing if the shared cache has not been created, so the 
+    * operations not using the result cache do not create it.
+    * 
+    * @param url
+    *    The URL of the results to remove.
+    */
+   public static void invalidateShared(String url)
+   {
+      ResultCache shared = sharedInstance;
+      if (shared != null)
+      {
+         shared.invalidate(url);
+      }
+   }
+   
+   /**
+    * Returns the result for the request, from the cache if it is 
+    * within its TTL or grace period, otherwise from the loader. 
+    * Good results are stored for the TTL of the request.
+    * 
+    * @param request
+    *    The request for the operation, with a result cache TTL.
+    * @param loader
+    *    The loader completing the operation.
+    * @return
+    *    The response, flagged as a cache hit if it was served 
+    *    from the cache.
+    * @throws BJADWebException
+    *    Any exceptions loading the result will be thrown.
+    */
+   public BJADWebResponse<byte[]> fetch(BJADWebRequest request, Loader loader) throws BJADWebException
+   {
+      final long START = System.currentTimeMillis();
+      final String KEY = getKey(request);
+      Entry entry = get(KEY, START);
+      if (entry != null)
+      {
+         long age = START - entry.loadedAt;
+         long ttl = request.getResultCacheTtl();
+         if (age < ttl + Math.max(0, request.getResultCacheGracePeriod()))
+         {
+            int uses = entry.uses.incrementAndGet();
+            if (age >= ttl || (uses >= HOT_USES && age >= ttl * REFRESH_AHEAD_PERCENT / 100))
+            {
+               refresh(KEY, entry, request, loader);
+            }
+            return entry.toWebResponse(System.currentTimeMillis() - START);
+         }
+      }
+      
+      BJADWebResponse<byte[]> response = loader.load(request);
+      if (response.isGoodResponse())
+      {
+         put(KEY, new Entry(request, response));
+      }
+      return response;
+   }
+   
+   /**
+    * Removes the results for the URL, for every method and set 
+    * of request headers.
+    * 
+    * @param url
+    *    The URL of the results to remove.
+    */
+   public synchronized void invalidate(String url)
+   {
+      if (entries.isEmpty())
+      {
+         return;
+      }
+      Iterator<Entry> it = entries.values().iterator();
+      while (it.hasNext())
+      {
+         if (it.next().url.equals(url))
+         {
+            it.remove();
+         }
+      }
+   }
+   
+   /**
+    * Removes all the results from the cache.
+    */
+   public synchronized void clear()
+   {
+      entries.clear();
+   }
+   
+   /**
+    * Returns the number of results within the cache.
+    * 
+    * @return
+    *    The number of results.
+    */
+   public synchronized int size()
+   {
+      return entries.size();
+   }
+   
+   /**
+    * Returns the key of the request's result, made of its method, 
+    * URL, and request headers.
+    * 
+    * @param request
+    *    The request.
+    * @return
+    *    The key of the result.
+    */
+   public static String getKey(BJADWebRequest request)
+   {
+      StringBuilder key = new StringBuilder(ResponseCacheHandler.getPrimaryKey(request.getMethod(), request.getUrl()));
+      if (request.getHeaders() != null)
+      {
+         for (Map.Entry<String, String> header : new TreeMap<>(request.getHeaders()).entrySet())
+         {
+            key.append('\n').append(header.getKey().toLowerCase()).append(": ").append(header.getValue());
+         }
+      }
+      return key.toString();
+   }
+   
+   /**
+    * Refreshes the result in the background unless a refresh of 
+    * the result is already in progress or cannot be queued.
+    * 
+    * @param key
+    *    The key of the result.
+    * @param entry
+    *    The result to refresh.
+    * @param request
+    *    The request for the operation.
+    * @param loader
+    *    The loader completing the operation.
+    */
+   private void refresh(String key, Entry entry, BJADWebRequest request, Loader loader)
+   {
+      if (!entry.refreshing.compareAndSet(false, true))
+      {
+         return;
+      }
+      final BJADWebRequest REFRESH_REQUEST = request.copy();
+      try
+      {
+         refreshExecutor.execute(() -> 
+         {
+            try
+            {
+               BJADWebResponse<byte[]> response = loader.load(REFRESH_REQUEST);
+               if (response.isGoodResponse())
+               {
+                  put(key, new Entry(REFRESH_REQUEST, response));
+               }
+            }
+            catch (BJADWebException | RuntimeException ex)
+            {
+               LogFactory.getLog(REFRESH_REQUEST.getLoggerName()).warn("Could not refresh the cached result for " + 
+                     REFRESH_REQUEST.getUrl(), ex);
+            }
+            finally
+            {
+               entry.refreshing.set(false);
+            }
+         });
+      }
+      catch (RejectedExecutionException ex)
+      {
+         entry.refreshing.set(false);
+      }
+   }
+   
+   /**
+    * @param key
+    *    The key of the result.
+    * @param now
+    *    The current time, in milliseconds.
+    * @return
+    *    The result, or null if not found or past its grace 
+    *    period, in which case it is removed.
+    */
+   private synchronized Entry get(String key, long now)
+   {
+      Entry entry = entries.get(key);
+      if (entry != null && now >= entry.expiresAt)
+      {
+         entries.remove(key);
+         return null;
+      }
+      return entry;
+   }
+   
+   /**
+    * Stores the result, removing the results past their 
+    * grace period every {@link #PURGE_INTERVAL} results stored.
+    * 
+    * @param key
+    *    The key of the result.
+    * @param entry
+    *    The result to store.
+    */
+   private synchronized void put(String key, Entry entry)
+   {
+      if (++putsSincePurge >= PURGE_INTERVAL)
+      {
+         final long NOW = System.currentTimeMillis();
+         entries.values().removeIf(e -> NOW >= e.expiresAt);
+         putsSincePurge = 0;
+      }
+      entries.put(key, entry);
+   }
+   
+   /**
+    * A result within the cache.
+    */
+   private static final class Entry
+   {
+      final String url;
+      final BJADWebResponse<byte[]> response;
+      final long loadedAt = System.currentTimeMillis();
+      final long expiresAt;
+      final AtomicInteger uses = new AtomicInteger();
+      final AtomicBoolean refreshing = new AtomicBoolean();
+      
+      Entry(BJADWebRequest request, BJADWebResponse<byte[]> response)
+      {
+         this.url = request.getUrl();
+         this.response = response;
+         this.expiresAt = loadedAt + request.getResultCacheTtl() + Math.max(0, request.getResultCacheGracePeriod());
+      }
+      
+      /**
+       * Creates a response for the caller, with its own headers.
+       */
+      BJADWebResponse<byte[]> toWebResponse(long duration)
+      {
+         BJADWebResponse<byte[]> copy = new BJADWebResponse<>();
+         copy.setStatusCode(response.getStatusCode());
+         copy.setHeaders(new LinkedHashMap<>(response.getHeaders()));
+         copy.setData(response.getData());
+         copy.setDuration(duration);
+         copy.setCacheHit(true);
+         return copy;
+      }
+   }
+}
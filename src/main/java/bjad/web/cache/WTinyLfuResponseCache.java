@@ -0,0 +1,566 @@
+package bjad.web.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Response cache keeping the responses in memory, bounded by the 
+ * total weight (approximate size in bytes) of the responses rather
+ * than the number of entries, using the W-TinyLFU eviction policy.
+ * <p>
+ * New responses enter a small LRU window, and once pushed out of 
+ * the window compete for a place within the main segmented LRU 
+ * against the main segment's eviction victim. The response used 
+ * more often recently, as estimated by a count-min sketch, is 
+ * kept, so a scan of one-off responses does not push the frequently
+ * used responses out of the cache. Responses used again while in 
+ * the probation part of the main segment move into its protected 
+ * part.
+ * <p>
+ * The keys are spread over lock striped segments, each segment 
+ * owning an equal share of the maximum weight, so concurrent 
+ * requests for different URLs rarely wait on each other.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class WTinyLfuResponseCache implements ResponseCache
+{
+   /**
+    * The default maximum weight of the cache, 64MB.
+    */
+   public static final long DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024;
+   
+   /**
+    * The default number of segments within the cache.
+    */
+   public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+   
+   /**
+    * The cache shared by the requests configured with the 
+    * "memory" response cache property.
+    */
+   private static volatile WTinyLfuResponseCache sharedInstance;
+   
+   /**
+    * The segments of the cache, the length being a power of two.
+    */
+   private final Segment[] segments;
+   
+   /**
+    * The maximum weight of the cache.
+    */
+   private final long maxWeight;
+   
+   /**
+    * The number of lookups that found a response.
+    */
+   private final LongAdder hitCount = new LongAdder();
+   
+   /**
+    * The number of lookups that did not find a response.
+    */
+   private final LongAdder missCount = new LongAdder();
+   
+   /**
+    * The number of responses evicted to keep the cache 
+    * within its maximum weight.
+    */
+   private final LongAdder evictionCount = new LongAdder();
+   
+   /**
+    * Creates the cache with the default maximum weight and 
+    * concurrency level.
+    */
+   public WTinyLfuResponseCache()
+   {
+      this(DEFAULT_MAX_WEIGHT);
+   }
+   
+   /**
+    * Creates the cache with the maximum weight passed and the 
+    * default concurrency level.
+    * 
+    * @param maxWeight
+    *    The maximum total weight of the responses within the cache.
+    */
+   public WTinyLfuResponseCache(long maxWeight)
+   {
+      this(maxWeight, DEFAULT_CONCURRENCY_LEVEL);
+   }
+   
+   /**
+    * Creates the cache with the maximum weight and concurrency 
+    * level passed.
+    * 
+    * @param maxWeight
+    *    The maximum total weight of the responses within the cache.
+    * @param concurrencyLevel
+    *    The number of segments to spread the keys over, rounded 
+    *    up to a power of two.
+    */
+   public WTinyLfuResponseCache(long maxWeight, int concurrencyLevel)
+   {
+      if (maxWeight < 1)
+      {
+         throw new IllegalArgumentException("The maximum weight of the cache must be greater than 0.");
+      }
+      int count = 1;
+      while (count < concurrencyLevel && count < (1 << 16))
+      {
+         count <<= 1;
+      }
+      this.maxWeight = maxWeight;
+      this.segments = new Segment[count];
+      for (int i = 0; i < count; i++)
+      {
+         segments[i] = new Segment(Math.max(1, maxWeight / count));
+      }
+   }
+   
+   /**
+    * Returns the process wide cache shared by the requests 
+    * configured with the "memory" response cache property.
+    * 
+    * @return
+    *    The shared cache.
+    */
+   public static WTinyLfuResponseCache getSharedInstance()
+   {
+      if (sharedInstance == null)
+      {
+         synchronized (WTinyLfuResponseCache.class)
+         {
+            if (sharedInstance == null)
+            {
+               sharedInstance = new WTinyLfuResponseCache();
+            }
+         }
+      }
+      return sharedInstance;
+   }
+
+   @Override
+   public CachedResponse get(String key)
+   {
+      int hash = hash(key);
+      CachedResponse response = segmentFor(hash).get(key, hash);
+      if (response == null)
+      {
+         missCount.increment();
+      }
+      else
+      {
+         hitCount.increment();
+      }
+      return response;
+   }
+
+   @Override
+   public void put(String key, CachedResponse response)
+   {
+      int hash = hash(key);
+      evictionCount.add(segmentFor(hash).put(key, hash, response));
+   }
+
+   @Override
+   public void remove(String key)
+   {
+      int hash = hash(key);
+      segmentFor(hash).remove(key);
+   }
+
+   @Override
+   public void clear()
+   {
+      for (Segment segment : segments)
+      {
+         segment.clear();
+      }
+   }
+   
+   /**
+    * Returns the number of entries within the cache.
+    * 
+    * @return
+    *    The number of entries.
+    */
+   public int size()
+   {
+      int size = 0;
+      for (Segment segment : segments)
+      {
+         size += segment.size();
+      }
+      return size;
+   }
+   
+   /**
+    * Returns the total weight of the entries within the cache.
+    * 
+    * @return
+    *    The total weight of the entries.
+    */
+   public long getWeightedSize()
+   {
+      long weight = 0;
+      for (Segment segment : segments)
+      {
+         weight += segment.getWeight();
+      }
+      return weight;
+   }
+   
+   /**
+    * @return 
+    *   The maxWeight property within the WTinyLfuResponseCache instance
+    */
+   public long getMaxWeight()
+   {
+      return this.maxWeight;
+   }
+   
+   /**
+    * @return 
+    *   The number of lookups that found a response.
+    */
+   public long getHitCount()
+   {
+      return hitCount.sum();
+   }
+   
+   /**
+    * @return 
+    *   The number of lookups that did not find a response.
+    */
+   public long getMissCount()
+   {
+      return missCount.sum();
+   }
+   
+   /**
+    * @return 
+    *   The number of responses evicted to keep the cache 
+    *   within its maximum weight.
+    */
+   public long getEvictionCount()
+   {
+      return evictionCount.sum();
+   }
+   
+   /**
+    * Spreads the hash code of the key so the segments are 
+    * selected using the higher bits as well.
+    * 
+    * @param key
+    *    The key to hash.
+    * @return
+    *    The spread hash of the key.
+    */
+   private static int hash(String key)
+   {
+      int h = key.hashCode();
+      return h ^ (h >>> 16);
+   }
+   
+   /**
+    * Returns the segment owning the hash.
+    * 
+    * @param hash
+    *    The spread hash of the key.
+    * @return
+    *    The segment the key belongs to.
+    */
+   private Segment segmentFor(int hash)
+   {
+      return segments[hash & (segments.length - 1)];
+   }
+   
+   /**
+    * The queue an entry is within.
+    */
+   private enum QueueType
+   {
+      /**
+       * The LRU admission window.
+       */
+      WINDOW,
+      /**
+       * The part of the main segment for entries not 
+       * used again since entering the main segment.
+       */
+      PROBATION,
+      /**
+       * The part of the main segment for entries used 
+       * again while on probation.
+       */
+      PROTECTED
+   }
+   
+   /**
+    * An entry within a segment, linked within the queue 
+    * it belongs to.
+    */
+   private static final class Node
+   {
+      final String key;
+      final int hash;
+      CachedResponse value;
+      long weight;
+      QueueType queue;
+      Node prev;
+      Node next;
+      
+      Node(String key, int hash)
+      {
+         this.key = key;
+         this.hash = hash;
+      }
+   }
+   
+   /**
+    * A doubly linked queue of entries in least recently 
+    * used order, tracking the total weight of the entries.
+    */
+   private static final class AccessQueue
+   {
+      Node first;
+      Node last;
+      long weight;
+      
+      void addLast(Node node)
+      {
+         node.prev = last;
+         node.next = null;
+         if (last == null)
+         {
+            first = node;
+         }
+         else
+         {
+            last.next = node;
+         }
+         last = node;
+         weight += node.weight;
+      }
+      
+      void remove(Node node)
+      {
+         if (node.prev == null)
+         {
+            first = node.next;
+         }
+         else
+         {
+            node.prev.next = node.next;
+         }
+         if (node.next == null)
+         {
+            last = node.prev;
+         }
+         else
+         {
+            node.next.prev = node.prev;
+         }
+         node.prev = null;
+         node.next = null;
+         weight -= node.weight;
+      }
+      
+      void clear()
+      {
+         first = null;
+         last = null;
+         weight = 0;
+      }
+   }
+   
+   /**
+    * A lock striped segment of the cache, owning an equal share 
+    * of the maximum weight and its own frequency sketch.
+    */
+   private static final class Segment
+   {
+      private final Map<String, Node> entries = new HashMap<>();
+      private final AccessQueue window = new AccessQueue();
+      private final AccessQueue probation = new AccessQueue();
+      private final AccessQueue protectedQueue = new AccessQueue();
+      private final FrequencySketch sketch;
+      private final long maxWeight;
+      private final long maxWindowWeight;
+      private final long maxProtectedWeight;
+      
+      Segment(long maxWeight)
+      {
+         this.maxWeight = maxWeight;
+         this.maxWindowWeight = Math.max(1, maxWeight / 100);
+         this.maxProtectedWeight = (maxWeight - maxWindowWeight) * 4 / 5;
+         this.sketch = new FrequencySketch((int)Math.min(Integer.MAX_VALUE, maxWeight / 1024));
+      }
+      
+      synchronized CachedResponse get(String key, int hash)
+      {
+         sketch.increment(hash);
+         Node node = entries.get(key);
+         if (node == null)
+         {
+            return null;
+         }
+         onAccess(node);
+         return node.value;
+      }
+      
+      synchronized long put(String key, int hash, CachedResponse value)
+      {
+         long weight = value.getWeight();
+         Node node = entries.get(key);
+         if (weight > maxWeight)
+         {
+            if (node != null)
+            {
+               unlink(node);
+            }
+            return 0;
+         }
+         
+         sketch.increment(hash);
+         if (node == null)
+         {
+            node = new Node(key, hash);
+            node.value = value;
+            node.weight = weight;
+            node.queue = QueueType.WINDOW;
+            entries.put(key, node);
+            window.addLast(node);
+         }
+         else
+         {
+            AccessQueue queue = queueOf(node);
+            queue.remove(node);
+            node.value = value;
+            node.weight = weight;
+            queue.addLast(node);
+            onAccess(node);
+         }
+         return evict();
+      }
+      
+      synchronized void remove(String key)
+      {
+         Node node = entries.get(key);
+         if (node != null)
+         {
+            unlink(node);
+         }
+      }
+      
+      synchronized void clear()
+      {
+         entries.clear();
+         window.clear();
+         probation.clear();
+         protectedQueue.clear();
+      }
+      
+      synchronized int size()
+      {
+         return entries.size();
+      }
+      
+      synchronized long getWeight()
+      {
+         return window.weight + probation.weight + protectedQueue.weight;
+      }
+      
+      /**
+       * Moves the entry to the most recently used position of its 
+       * queue, promoting entries on probation to protected.
+       */
+      private void onAccess(Node node)
+      {
+         AccessQueue queue = queueOf(node);
+         queue.remove(node);
+         if (node.queue == QueueType.PROBATION)
+         {
+            node.queue = QueueType.PROTECTED;
+            protectedQueue.addLast(node);
+            while (protectedQueue.weight > maxProtectedWeight && protectedQueue.first != node)
+            {
+               Node demoted = protectedQueue.first;
+               protectedQueue.remove(demoted);
+               demoted.queue = QueueType.PROBATION;
+               probation.addLast(demoted);
+            }
+         }
+         else
+         {
+            queue.addLast(node);
+         }
+      }
+      
+      /**
+       * Moves the entries overflowing the window into probation as 
+       * candidates, then evicts until the segment is within its 
+       * maximum weight, keeping whichever of the oldest candidate 
+       * and the main segment's victim is used more frequently.
+       * 
+       * @return
+       *    The number of entries evicted.
+       */
+      private long evict()
+      {
+         Node candidate = null;
+         while (window.weight > maxWindowWeight && window.first != null)
+         {
+            Node node = window.first;
+            window.remove(node);
+            node.queue = QueueType.PROBATION;
+            probation.addLast(node);
+            if (candidate == null)
+            {
+               candidate = node;
+            }
+         }
+         
+         long evicted = 0;
+         while (getWeight() > maxWeight)
+         {
+            Node victim = probation.first != null ? probation.first 
+                  : protectedQueue.first != null ? protectedQueue.first : window.first;
+            Node evict = victim;
+            if (candidate != null && candidate != victim &&
+                  sketch.frequency(candidate.hash) <= sketch.frequency(victim.hash))
+            {
+               evict = candidate;
+            }
+            if (evict == candidate)
+            {
+               candidate = candidate.next;
+            }
+            unlink(evict);
+            evicted++;
+         }
+         return evicted;
+      }
+      
+      private void unlink(Node node)
+      {
+         queueOf(node).remove(node);
+         entries.remove(node.key);
+      }
+      
+      private AccessQueue queueOf(Node node)
+      {
+         switch (node.queue)
+         {
+         case WINDOW:
+            return window;
+         case PROBATION:
+            return probation;
+         default:
+            return protectedQueue;
+         }
+      }
+   }
+}
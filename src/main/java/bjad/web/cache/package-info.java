@@ -0,0 +1,11 @@
+/**
+ * Package containing the HTTP response cache, which 
+ * serves fresh responses from the cache and revalidates 
+ * stale responses with the web server, along with the 
+ * cache stores, the TTL result cache, and the coalescing 
+ * of identical operations in flight.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+package bjad.web.cache;
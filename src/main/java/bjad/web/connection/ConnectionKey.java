@@ -0,0 +1,207 @@
+package bjad.web.connection;
+
+import java.net.URI;
+
+import javax.net.ssl.SSLContext;
+
+import bjad.web.BJADWebRequest;
+
+/**
+ * Key representing the connection relevant portions of 
+ * a web request (scheme, host, port, timeouts and the 
+ * SSL context) so requests that can share connections
+ * are given the same pooled HTTP client.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+final class ConnectionKey
+{
+   /**
+    * The default timeout (in milliseconds) used when the 
+    * request does not define a usable timeout value.
+    */
+   static final int DEFAULT_TIMEOUT = 15000;
+   
+   /** The scheme (http or https) of the URL. */
+   private final String scheme;
+   /** The host of the URL. */
+   private final String host;
+   /** The port of the URL, resolved to the scheme default when not set. */
+   private final int port;
+   /** The connection timeout in milliseconds. */
+   private final int connectionTimeout;
+   /** The read timeout in milliseconds. */
+   private final int readTimeout;
+   /** 
+    * The SSL context for https connections, compared by identity,
+    * null for http connections. 
+    */
+   private final SSLContext sslContext;
+   /** A copy of the pool settings the client is built with. */
+   private final ConnectionPoolSettings poolSettings;
+   
+   /**
+    * Creates the key from the parts of the connection.
+    * 
+    * @param scheme
+    *    The scheme of the URL.
+    * @param host
+    *    The host of the URL.
+    * @param port
+    *    The port of the URL.
+    * @param connectionTimeout
+    *    The connection timeout in milliseconds.
+    * @param readTimeout
+    *    The read timeout in milliseconds.
+    * @param sslContext
+    *    The SSL context for https connections, or null.
+    * @param poolSettings
+    *    The pool settings for the client.
+    */
+   private ConnectionKey(String scheme, String host, int port, int connectionTimeout, int readTimeout, 
+         SSLContext sslContext, ConnectionPoolSettings poolSettings)
+   {
+      this.scheme = scheme;
+      this.host = host;
+      this.port = port;
+      this.connectionTimeout = connectionTimeout;
+      this.readTimeout = readTimeout;
+      this.sslContext = sslContext;
+      this.poolSettings = poolSettings;
+   }
+   
+   /**
+    * Builds the key for the request passed.
+    * 
+    * @param request
+    *    The request to build the key from.
+    * @return
+    *    The key for the request's connection details.
+    * @throws Exception
+    *    Any exceptions parsing the URL or obtaining the 
+    *    default SSL context will be thrown.
+    */
+   static ConnectionKey forRequest(BJADWebRequest request) throws Exception
+   {
+      URI uri = URI.create(request.getUrl());
+      String scheme = uri.getScheme() == null ? "http" : uri.getScheme().toLowerCase();
+      boolean secure = "https".equals(scheme);
+      int port = uri.getPort() > -1 ? uri.getPort() : (secure ? 443 : 80);
+      
+      SSLContext sslContext = null;
+      if (secure)
+      {
+         sslContext = request.getSslContext() != null ? request.getSslContext() : SSLContext.getDefault();
+      }
+      
+      return new ConnectionKey(
+            scheme, 
+            uri.getHost() == null ? "" : uri.getHost().toLowerCase(), 
+            port, 
+            effectiveTimeout(request.getConnectionTimeout()), 
+            effectiveTimeout(request.getReadTimeout()), 
+            sslContext,
+            new ConnectionPoolSettings(request.getConnectionPoolSettings()));
+   }
+   
+   /**
+    * Returns the timeout to use, or the default timeout 
+    * if the value passed is negative.
+    * 
+    * @param value
+    *    The timeout from the request.
+    * @return
+    *    The timeout to use for the connection.
+    */
+   static int effectiveTimeout(int value)
+   {
+      return value > -1 ? value : DEFAULT_TIMEOUT;
+   }
+
+   /**
+    * @return 
+    *   The connectionTimeout property within the ConnectionKey instance
+    */
+   int getConnectionTimeout()
+   {
+      return this.connectionTimeout;
+   }
+
+   /**
+    * @return 
+    *   The readTimeout property within the ConnectionKey instance
+    */
+   int getReadTimeout()
+   {
+      return this.readTimeout;
+   }
+
+   /**
+    * @return 
+    *   The sslContext property within the ConnectionKey instance
+    */
+   SSLContext getSslContext()
+   {
+      return this.sslContext;
+   }
+
+   /**
+    * @return 
+    *   The poolSettings property within the ConnectionKey instance
+    */
+   ConnectionPoolSettings getPoolSettings()
+   {
+      return this.poolSettings;
+   }
+   
+   /**
+    * @see java.lang.Object#hashCode()
+    */
+   @Override
+   public int hashCode()
+   {
+      int result = scheme.hashCode();
+      result = 31 * result + host.hashCode();
+      result = 31 * result + port;
+      result = 31 * result + connectionTimeout;
+      result = 31 * result + readTimeout;
+      result = 31 * result + System.identityHashCode(sslContext);
+      result = 31 * result + poolSettings.hashCode();
+      return result;
+   }
+
+   /**
+    * @see java.lang.Object#equals(java.lang.Object)
+    */
+   @Override
+   public boolean equals(Object obj)
+   {
+      if (this == obj)
+      {
+         return true;
+      }
+      if (!(obj instanceof ConnectionKey))
+      {
+         return false;
+      }
+      ConnectionKey other = (ConnectionKey)obj;
+      return port == other.port &&
+            connectionTimeout == other.connectionTimeout &&
+            readTimeout == other.readTimeout &&
+            sslContext == other.sslContext &&
+            poolSettings.equals(other.poolSettings) &&
+            scheme.equals(other.scheme) &&
+            host.equals(other.host);
+   }
+   
+   /**
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return scheme + "://" + host + ":" + port + 
+            " (connect: " + connectionTimeout + "ms, read: " + readTimeout + "ms, " + poolSettings + ")";
+   }
+}
@@ -0,0 +1,246 @@
+package bjad.web.connection;
+
+/**
+ * Settings bean for the pooled connections used by the web 
+ * component, controlling the pool sizes, how long connections 
+ * are kept alive, when idle connections are validated, and when 
+ * the idle connection evictor closes unused connections.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class ConnectionPoolSettings
+{
+   /**
+    * Flag to determine if pooled (shared, kept alive) connections
+    * are used. If false, a new client is created and closed for 
+    * each operation.
+    */
+   protected boolean pooled = true;
+   
+   /**
+    * The maximum number of connections the pool will 
+    * keep open in total.
+    */
+   protected int maxTotal = HttpClientRegistry.DEFAULT_MAX_TOTAL_CONNECTIONS;
+   
+   /**
+    * The maximum number of connections the pool will 
+    * keep open for a single route.
+    */
+   protected int maxPerRoute = HttpClientRegistry.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+   
+   /**
+    * The number of milliseconds a connection is kept alive 
+    * when the server does not state a shorter duration within
+    * its Keep-Alive header. Zero or less means the server's 
+    * Keep-Alive header (or keep alive indefinitely) is used.
+    */
+   protected long keepAliveDuration = -1;
+   
+   /**
+    * The number of milliseconds a connection can sit idle 
+    * within the pool before it is validated prior to its reuse.
+    * Zero or less disables the validation.
+    */
+   protected int validateAfterInactivity = 2000;
+   
+   /**
+    * The number of milliseconds a connection can sit idle within
+    * the pool before the evictor thread closes it. Zero or less 
+    * disables the evictor thread.
+    */
+   protected long idleConnectionTimeout = -1;
+   
+   /**
+    * Default constructor, using the default pool settings.
+    */
+   public ConnectionPoolSettings()
+   {
+   }
+   
+   /**
+    * Copy constructor, copying the settings from the 
+    * source settings passed.
+    * 
+    * @param source
+    *    The settings to copy.
+    */
+   public ConnectionPoolSettings(ConnectionPoolSettings source)
+   {
+      this.pooled = source.isPooled();
+      this.maxTotal = source.getMaxTotal();
+      this.maxPerRoute = source.getMaxPerRoute();
+      this.keepAliveDuration = source.getKeepAliveDuration();
+      this.validateAfterInactivity = source.getValidateAfterInactivity();
+      this.idleConnectionTimeout = source.getIdleConnectionTimeout();
+   }
+
+   /**
+    * @return 
+    *   The pooled property within the ConnectionPoolSettings instance
+    */
+   public boolean isPooled()
+   {
+      return this.pooled;
+   }
+
+   /**
+    * @param pooled 
+    *   The pooled to set within the ConnectionPoolSettings instance
+    */
+   public void setPooled(boolean pooled)
+   {
+      this.pooled = pooled;
+   }
+
+   /**
+    * @return 
+    *   The maxTotal property within the ConnectionPoolSettings instance
+    */
+   public int getMaxTotal()
+   {
+      return this.maxTotal;
+   }
+
+   /**
+    * @param maxTotal 
+    *   The maxTotal to set within the ConnectionPoolSettings instance.
+    *   Values less than 1 are ignored.
+    */
+   public void setMaxTotal(int maxTotal)
+   {
+      if (maxTotal > 0)
+      {
+         this.maxTotal = maxTotal;
+      }
+   }
+
+   /**
+    * @return 
+    *   The maxPerRoute property within the ConnectionPoolSettings instance
+    */
+   public int getMaxPerRoute()
+   {
+      return this.maxPerRoute;
+   }
+
+   /**
+    * @param maxPerRoute 
+    *   The maxPerRoute to set within the ConnectionPoolSettings instance.
+    *   Values less than 1 are ignored.
+    */
+   public void setMaxPerRoute(int maxPerRoute)
+   {
+      if (maxPerRoute > 0)
+      {
+         this.maxPerRoute = maxPerRoute;
+      }
+   }
+
+   /**
+    * @return 
+    *   The keepAliveDuration property within the ConnectionPoolSettings instance
+    */
+   public long getKeepAliveDuration()
+   {
+      return this.keepAliveDuration;
+   }
+
+   /**
+    * @param keepAliveDuration 
+    *   The keepAliveDuration to set within the ConnectionPoolSettings instance
+    */
+   public void setKeepAliveDuration(long keepAliveDuration)
+   {
+      this.keepAliveDuration = keepAliveDuration;
+   }
+
+   /**
+    * @return 
+    *   The validateAfterInactivity property within the ConnectionPoolSettings instance
+    */
+   public int getValidateAfterInactivity()
+   {
+      return this.validateAfterInactivity;
+   }
+
+   /**
+    * @param validateAfterInactivity 
+    *   The validateAfterInactivity to set within the ConnectionPoolSettings instance
+    */
+   public void setValidateAfterInactivity(int validateAfterInactivity)
+   {
+      this.validateAfterInactivity = validateAfterInactivity;
+   }
+
+   /**
+    * @return 
+    *   The idleConnectionTimeout property within the ConnectionPoolSettings instance
+    */
+   public long getIdleConnectionTimeout()
+   {
+      return this.idleConnectionTimeout;
+   }
+
+   /**
+    * @param idleConnectionTimeout 
+    *   The idleConnectionTimeout to set within the ConnectionPoolSettings instance
+    */
+   public void setIdleConnectionTimeout(long idleConnectionTimeout)
+   {
+      this.idleConnectionTimeout = idleConnectionTimeout;
+   }
+   
+   /**
+    * @see java.lang.Object#hashCode()
+    */
+   @Override
+   public int hashCode()
+   {
+      int result = Boolean.hashCode(pooled);
+      result = 31 * result + maxTotal;
+      result = 31 * result + maxPerRoute;
+      result = 31 * result + Long.hashCode(keepAliveDuration);
+      result = 31 * result + validateAfterInactivity;
+      result = 31 * result + Long.hashCode(idleConnectionTimeout);
+      return result;
+   }
+
+   /**
+    * @see java.lang.Object#equals(java.lang.Object)
+    */
+   @Override
+   public boolean equals(Object obj)
+   {
+      if (this == obj)
+      {
+         return true;
+      }
+      if (!(obj instanceof ConnectionPoolSettings))
+      {
+         return false;
+      }
+      ConnectionPoolSettings other = (ConnectionPoolSettings)obj;
+      return pooled == other.pooled &&
+            maxTotal == other.maxTotal &&
+            maxPerRoute == other.maxPerRoute &&
+            keepAliveDuration == other.keepAliveDuration &&
+            validateAfterInactivity == other.validateAfterInactivity &&
+            idleConnectionTimeout == other.idleConnectionTimeout;
+   }
+   
+   /**
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "pooled: " + pooled + 
+            ", maxTotal: " + maxTotal + 
+            ", maxPerRoute: " + maxPerRoute + 
+            ", keepAlive: " + keepAliveDuration + "ms" +
+            ", validateAfterInactivity: " + validateAfterInactivity + "ms" +
+            ", idleTimeout: " + idleConnectionTimeout + "ms";
+   }
+}
@@ -0,0 +1,575 @@
+package bjad.web.connection;
+
+import java.io.Closeable;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+
+/**
+ * <p>
+ * Process wide registry of pooled HTTP clients, keyed by the 
+ * connection relevant parts of the web request (scheme, host, 
+ * port, timeouts, and the identity of the SSL context). 
+ * <p>
+ * Each client is backed by its own pooling connection manager,
+ * sized and tuned by the request's {@link ConnectionPoolSettings},
+ * so repeated calls to the same server reuse the kept alive 
+ * connections instead of completing a new TCP (and TLS) handshake
+ * for every operation. The clients are shared, so they are never 
+ * closed by the operations using them. Use {@link #closeAll()} 
+ * to release the connections when the application shuts down.
+ * <p>
+ * The registry also holds the pooled asynchronous (non-blocking) 
+ * clients used by the web component's asynchronous operations.
+ * <p>
+ * The registry keeps at most {@link #MAX_CLIENTS} clients of each
+ * kind, closing the least recently used client when a new one is
+ * needed past the limit. As the keys use the identity of the SSL 
+ * context, an {@link bjad.web.provider.SSLContextProvider} must 
+ * return the same SSLContext for every request rather than a new
+ * one each time, otherwise each request creates a new client, 
+ * pool, and eviction thread, only released when it is evicted.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public final class HttpClientRegistry
+{
+   /**
+    * The default maximum number of connections each pooled client 
+    * will keep open in total.
+    */
+   public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 50;
+   
+   /**
+    * The default maximum number of connections each pooled client 
+    * will keep open for a single route.
+    */
+   public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+   
+   /**
+    * The maximum number of clients of each kind (blocking and 
+    * asynchronous) kept within the registry.
+    */
+   public static final int MAX_CLIENTS = 64;
+   
+   /**
+    * The clients created by the registry, keyed by the connection 
+    * details they were built for.
+    */
+   private static final Map<ConnectionKey, RegisteredClient<CloseableHttpClient>> CLIENTS = new ConcurrentHashMap<>();
+   
+   /**
+    * The asynchronous clients created by the registry, keyed by the 
+    * connection details they were built for.
+    */
+   private static final Map<ConnectionKey, RegisteredClient<CloseableHttpAsyncClient>> ASYNC_CLIENTS = new ConcurrentHashMap<>();
+   
+   /**
+    * The scheduler used to close the idle and expired connections 
+    * of the asynchronous clients' pools. Created when first needed.
+    */
+   private static volatile ScheduledExecutorService asyncEvictor;
+   
+   /**
+    * Hidden constructor to prevent instances from being created.
+    */
+   private HttpClientRegistry()
+   {
+   }
+   
+   /**
+    * Returns the shared, pooled HTTP client for the request's 
+    * connection details, creating it if this is the first request
+    * for those details.
+    * 
+    * @param request
+    *    The request the client is needed for.
+    * @return
+    *    The shared client for the request. The client must not 
+    *    be closed by the caller.
+    * @throws BJADWebException
+    *    Any exceptions building the client will be thrown.
+    */
+   public static CloseableHttpClient getClient(BJADWebRequest request) throws BJADWebException
+   {
+      try
+      {
+         return getOrCreate(CLIENTS, ConnectionKey.forRequest(request), HttpClientRegistry::createClient);
+      }
+      catch (Exception ex)
+      {
+         throw new BJADWebException("Failed to create the pooled HTTP client for " + request.getUrl(), ex);
+      }
+   }
+   
+   /**
+    * <p>
+    * Returns the shared, pooled asynchronous HTTP client for the 
+    * request's connection details, creating and starting it if this 
+    * is the first asynchronous request for those details. 
+    * <p>
+    * Asynchronous clients multiplex their connections over a small 
+    * number of non-blocking I/O threads, and are always pooled 
+    * regardless of the pooled flag within the request's 
+    * {@link ConnectionPoolSettings}.
+    * 
+    * @param request
+    *    The request the client is needed for.
+    * @return
+    *    The shared, started asynchronous client for the request. The 
+    *    client must not be closed by the caller.
+    * @throws BJADWebException
+    *    Any exceptions building the client will be thrown.
+    */
+   public static CloseableHttpAsyncClient getAsyncClient(BJADWebRequest request) throws BJADWebException
+   {
+      try
+      {
+         return getOrCreate(ASYNC_CLIENTS, ConnectionKey.forRequest(request), HttpClientRegistry::createAsyncClient);
+      }
+      catch (UncheckedIOException ex)
+      {
+         throw new BJADWebException("Failed to create the asynchronous HTTP client for " + request.getUrl(), ex.getCause());
+      }
+      catch (Exception ex)
+      {
+         throw new BJADWebException("Failed to create the asynchronous HTTP client for " + request.getUrl(), ex);
+      }
+   }
+   
+   /**
+    * Returns the client for the key from the mapping, creating it if
+    * needed, and closing the least recently used client once the 
+    * mapping holds more than {@link #MAX_CLIENTS} clients.
+    * 
+    * @param clients
+    *    The mapping of clients.
+    * @param key
+    *    The connection details of the client.
+    * @param factory
+    *    Creates the client for the key.
+    * @param <T>
+    *    The type of client.
+    * @return
+    *    The client for the key.
+    */
+   private static <T extends Closeable> T getOrCreate(Map<ConnectionKey, RegisteredClient<T>> clients, 
+         ConnectionKey key, Function<ConnectionKey, T> factory)
+   {
+      RegisteredClient<T> registered = clients.get(key);
+      if (registered == null)
+      {
+         registered = clients.computeIfAbsent(key, k -> new RegisteredClient<>(factory.apply(k)));
+         if (clients.size() > MAX_CLIENTS)
+         {
+            evictLeastRecentlyUsed(clients, key);
+         }
+      }
+      registered.lastUsed = System.nanoTime();
+      return registered.client;
+   }
+   
+   /**
+    * Removes and closes the least recently used client within the 
+    * mapping, other than the client just created.
+    * 
+    * @param clients
+    *    The mapping of clients.
+    * @param created
+    *    The key of the client just created.
+    */
+   private static void evictLeastRecentlyUsed(Map<ConnectionKey, ? extends RegisteredClient<?>> clients, ConnectionKey created)
+   {
+      Map.Entry<ConnectionKey, ? extends RegisteredClient<?>> eldest = null;
+      for (Map.Entry<ConnectionKey, ? extends RegisteredClient<?>> entry : clients.entrySet())
+      {
+         if (!entry.getKey().equals(created) && (eldest == null || entry.getValue().lastUsed - eldest.getValue().lastUsed < 0))
+         {
+            eldest = entry;
+         }
+      }
+      if (eldest != null && clients.remove(eldest.getKey(), eldest.getValue()))
+      {
+         LogFactory.getLog(HttpClientRegistry.class).warn("More than " + MAX_CLIENTS + 
+               " pooled clients, closing the least recently used client for " + eldest.getKey());
+         closeClient(eldest.getKey(), eldest.getValue().client);
+      }
+   }
+   
+   /**
+    * Returns the number of pooled clients within the registry.
+    * 
+    * @return
+    *    The number of clients currently registered.
+    */
+   public static int size()
+   {
+      return CLIENTS.size();
+   }
+   
+   /**
+    * Returns the number of pooled asynchronous clients within the registry.
+    * 
+    * @return
+    *    The number of asynchronous clients currently registered.
+    */
+   public static int asyncSize()
+   {
+      return ASYNC_CLIENTS.size();
+   }
+   
+   /**
+    * Closes all the pooled clients within the registry, releasing 
+    * their connections. Subsequent operations will create new clients.
+    */
+   public static void closeAll()
+   {
+      closeClients(CLIENTS);
+      closeClients(ASYNC_CLIENTS);
+   }
+   
+   /**
+    * Removes and closes all the clients within the mapping passed.
+    * 
+    * @param clients
+    *    The mapping of clients to close.
+    */
+   private static void closeClients(Map<ConnectionKey, ? extends RegisteredClient<?>> clients)
+   {
+      for (ConnectionKey key : clients.keySet())
+      {
+         RegisteredClient<?> registered = clients.remove(key);
+         if (registered != null)
+         {
+            closeClient(key, registered.client);
+         }
+      }
+   }
+   
+   /**
+    * Closes the client, logging any failure.
+    * 
+    * @param key
+    *    The connection details of the client.
+    * @param client
+    *    The client to close.
+    */
+   private static void closeClient(ConnectionKey key, Closeable client)
+   {
+      try
+      {
+         client.close();
+      }
+      catch (Exception ex)
+      {
+         LogFactory.getLog(HttpClientRegistry.class).warn("Failed to close the pooled client for " + key, ex);
+      }
+   }
+   
+   /**
+    * Creates a new, unpooled HTTP client for the request passed. 
+    * The client is not registered, so the caller is responsible 
+    * for closing it once the operation completes.
+    * 
+    * @param request
+    *    The request the client is needed for.
+    * @return
+    *    The new client for the request.
+    * @throws BJADWebException
+    *    Any exceptions building the client will be thrown.
+    */
+   public static CloseableHttpClient createUnpooledClient(BJADWebRequest request) throws BJADWebException
+   {
+      try
+      {
+         ConnectionKey key = ConnectionKey.forRequest(request);
+         return buildClient(key, new BasicHttpClientConnectionManager(getSocketFactories(key)));
+      }
+      catch (Exception ex)
+      {
+         throw new BJADWebException("Failed to create the HTTP client for " + request.getUrl(), ex);
+      }
+   }
+   
+   /**
+    * Creates the pooled client for the connection key passed.
+    * 
+    * @param key
+    *    The connection details to build the client for.
+    * @return
+    *    The pooled client.
+    */
+   private static CloseableHttpClient createClient(ConnectionKey key)
+   {
+      ConnectionPoolSettings settings = key.getPoolSettings();
+      
+      PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(getSocketFactories(key));
+      connectionManager.setMaxTotal(settings.getMaxTotal());
+      connectionManager.setDefaultMaxPerRoute(Math.min(settings.getMaxPerRoute(), settings.getMaxTotal()));
+      connectionManager.setValidateAfterInactivity(settings.getValidateAfterInactivity());
+      
+      LogFactory.getLog(HttpClientRegistry.class).debug("Creating pooled HTTP client for " + key);
+      return buildClient(key, connectionManager);
+   }
+   
+   /**
+    * Creates and starts the pooled asynchronous client for the 
+    * connection key passed.
+    * 
+    * @param key
+    *    The connection details to build the client for.
+    * @return
+    *    The started asynchronous client.
+    * @throws UncheckedIOException
+    *    If the I/O reactor for the client cannot be created.
+    */
+   private static CloseableHttpAsyncClient createAsyncClient(ConnectionKey key)
+   {
+      ConnectionPoolSettings settings = key.getPoolSettings();
+      IOReactorConfig reactorConfig = IOReactorConfig.custom()
+            .setConnectTimeout(key.getConnectionTimeout())
+            .setSoTimeout(key.getReadTimeout())
+            .setSoKeepAlive(true)
+            .build();
+      
+      RegistryBuilder<SchemeIOSessionStrategy> sessionStrategies = RegistryBuilder.<SchemeIOSessionStrategy>create()
+            .register("http", NoopIOSessionStrategy.INSTANCE);
+      if (key.getSslContext() != null)
+      {
+         sessionStrategies.register("https", new SSLIOSessionStrategy(key.getSslContext(), NoopHostnameVerifier.INSTANCE));
+      }
+      
+      final PoolingNHttpClientConnectionManager connectionManager;
+      try
+      {
+         connectionManager = new PoolingNHttpClientConnectionManager(
+               new DefaultConnectingIOReactor(reactorConfig), sessionStrategies.build());
+      }
+      catch (IOReactorException ex)
+      {
+         throw new UncheckedIOException(ex);
+      }
+      connectionManager.setMaxTotal(settings.getMaxTotal());
+      connectionManager.setDefaultMaxPerRoute(Math.min(settings.getMaxPerRoute(), settings.getMaxTotal()));
+      
+      RequestConfig config = RequestConfig.custom()
+            .setConnectTimeout(key.getConnectionTimeout())
+            .setConnectionRequestTimeout(key.getConnectionTimeout())
+            .setSocketTimeout(key.getReadTimeout())
+            .build();
+      
+      LogFactory.getLog(HttpClientRegistry.class).debug("Creating pooled asynchronous HTTP client for " + key);
+      CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(config)
+            .setKeepAliveStrategy(new MaxKeepAliveStrategy(settings.getKeepAliveDuration()))
+            .disableConnectionState()
+            .build();
+      client.start();
+      
+      if (settings.getIdleConnectionTimeout() > 0)
+      {
+         scheduleAsyncEviction(client, connectionManager, settings.getIdleConnectionTimeout());
+      }
+      return client;
+   }
+   
+   /**
+    * Schedules the closing of the idle and expired connections within 
+    * the asynchronous client's pool, stopping once the client is no 
+    * longer running.
+    * 
+    * @param client
+    *    The client that owns the connection manager.
+    * @param connectionManager
+    *    The connection manager to evict the connections from.
+    * @param idleTimeout
+    *    The number of milliseconds a connection can be idle before
+    *    it is closed.
+    */
+   private static void scheduleAsyncEviction(CloseableHttpAsyncClient client, 
+         PoolingNHttpClientConnectionManager connectionManager, long idleTimeout)
+   {
+      ScheduledExecutorService evictor = asyncEvictor;
+      if (evictor == null)
+      {
+         synchronized (HttpClientRegistry.class)
+         {
+            if (asyncEvictor == null)
+            {
+               asyncEvictor = Executors.newSingleThreadScheduledExecutor(r -> 
+               {
+                  Thread t = new Thread(r, "bjad-async-connection-evictor");
+                  t.setDaemon(true);
+                  return t;
+               });
+            }
+            evictor = asyncEvictor;
+         }
+      }
+      
+      final long period = Math.max(1000, idleTimeout / 2);
+      final ScheduledFuture<?>[] task = new ScheduledFuture<?>[1];
+      task[0] = evictor.scheduleWithFixedDelay(() -> 
+      {
+         if (!client.isRunning())
+         {
+            task[0].cancel(false);
+            return;
+         }
+         connectionManager.closeExpiredConnections();
+         connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+      }, period, period, TimeUnit.MILLISECONDS);
+   }
+   
+   /**
+    * Builds the socket factory registry for the connection key passed,
+    * adding the https factory if the key has a SSL context.
+    * 
+    * @param key
+    *    The connection details to build the registry for.
+    * @return
+    *    The socket factory registry.
+    */
+   private static Registry<ConnectionSocketFactory> getSocketFactories(ConnectionKey key)
+   {
+      RegistryBuilder<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+            .register("http", PlainConnectionSocketFactory.getSocketFactory());
+      if (key.getSslContext() != null)
+      {
+         socketFactories.register("https", new SSLConnectionSocketFactory(key.getSslContext(), NoopHostnameVerifier.INSTANCE));
+      }
+      return socketFactories.build();
+   }
+   
+   /**
+    * Builds the client using the connection manager passed, applying 
+    * the timeouts, keep alive, and eviction settings from the key.
+    * 
+    * @param key
+    *    The connection details to build the client for.
+    * @param connectionManager
+    *    The connection manager the client will use.
+    * @return
+    *    The client.
+    */
+   private static CloseableHttpClient buildClient(ConnectionKey key, HttpClientConnectionManager connectionManager)
+   {
+      ConnectionPoolSettings settings = key.getPoolSettings();
+      RequestConfig config = RequestConfig.custom()
+            .setConnectTimeout(key.getConnectionTimeout())
+            .setConnectionRequestTimeout(key.getConnectionTimeout())
+            .setSocketTimeout(key.getReadTimeout())
+            .build();
+      
+      // Connection state is disabled as the key already separates clients
+      // by SSL context, allowing client certificate connections to be reused.
+      HttpClientBuilder builder = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(config)
+            .setKeepAliveStrategy(new MaxKeepAliveStrategy(settings.getKeepAliveDuration()))
+            .disableConnectionState();
+      
+      if (settings.isPooled() && settings.getIdleConnectionTimeout() > 0)
+      {
+         builder.evictExpiredConnections()
+            .evictIdleConnections(settings.getIdleConnectionTimeout(), TimeUnit.MILLISECONDS);
+      }
+      return builder.build();
+   }
+   
+   /**
+    * A client within the registry, with the time it was last used.
+    * 
+    * @param <T>
+    *    The type of client.
+    */
+   private static final class RegisteredClient<T extends Closeable>
+   {
+      /** The client. */
+      final T client;
+      /** The time (from System.nanoTime) the client was last used. */
+      volatile long lastUsed = System.nanoTime();
+      
+      /**
+       * @param client
+       *    The client.
+       */
+      RegisteredClient(T client)
+      {
+         this.client = client;
+      }
+   }
+   
+   /**
+    * Keep alive strategy that uses the server's Keep-Alive header value, 
+    * capped by the configured keep alive duration when one is set.
+    */
+   private static final class MaxKeepAliveStrategy implements ConnectionKeepAliveStrategy
+   {
+      /** The configured keep alive duration, zero or less if not set. */
+      private final long maxKeepAlive;
+      
+      /**
+       * Creates the strategy with the maximum keep alive duration.
+       * 
+       * @param maxKeepAlive
+       *    The maximum keep alive duration in milliseconds.
+       */
+      MaxKeepAliveStrategy(long maxKeepAlive)
+      {
+         this.maxKeepAlive = maxKeepAlive;
+      }
+      
+      /**
+       * @see org.apache.http.conn.ConnectionKeepAliveStrategy#getKeepAliveDuration(org.apache.http.HttpResponse, org.apache.http.protocol.HttpContext)
+       */
+      @Override
+      public long getKeepAliveDuration(HttpResponse response, HttpContext context)
+      {
+         long serverDuration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+         if (maxKeepAlive <= 0)
+         {
+            return serverDuration;
+         }
+         return serverDuration > 0 ? Math.min(serverDuration, maxKeepAlive) : maxKeepAlive;
+      }
+   }
+}
@@ -0,0 +1,9 @@
+/**
+ * Package containing the classes that manage the 
+ * pooled HTTP clients and connections shared by 
+ * the web component's operations.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+package bjad.web.connection;
@@ -0,0 +1,59 @@
+package bjad.web.download;
+
+import java.nio.file.Path;
+
+import bjad.web.BJADWebResponse;
+
+/**
+ * Response object for a download operation, containing 
+ * the path of the file the body was written to, along 
+ * with the number of bytes written and the throughput 
+ * of the download. The duration of the response covers 
+ * the full download, not just the time to the response
+ * headers.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class BJADDownloadResponse extends BJADWebResponse<Path>
+{
+   /**
+    * The number of bytes written to the file.
+    */
+   protected long bytesWritten;
+
+   /**
+    * @return 
+    *   The bytesWritten property within the BJADDownloadResponse instance
+    */
+   public long getBytesWritten()
+   {
+      return this.bytesWritten;
+   }
+
+   /**
+    * @param bytesWritten 
+    *   The bytesWritten to set within the BJADDownloadResponse instance
+    */
+   public void setBytesWritten(long bytesWritten)
+   {
+      this.bytesWritten = bytesWritten;
+   }
+   
+   /**
+    * Returns the throughput of the download in bytes per 
+    * second, based on the bytes written and the duration.
+    * 
+    * @return
+    *    The bytes written per second, or 0 if nothing was
+    *    written.
+    */
+   public double getThroughput()
+   {
+      if (bytesWritten <= 0)
+      {
+         return 0;
+      }
+      return bytesWritten * 1000.0 / Math.max(1, duration);
+   }
+}
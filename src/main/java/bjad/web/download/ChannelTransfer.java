@@ -0,0 +1,134 @@
+package bjad.web.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.function.LongConsumer;
+
+/**
+ * Copies response streams into file channels through 
+ * a direct buffer reused by each thread, so the body 
+ * never needs to be held on the heap.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+final class ChannelTransfer
+{
+   /**
+    * The size of the direct buffer used by each thread.
+    */
+   static final int BUFFER_SIZE = 64 * 1024;
+   
+   /**
+    * The direct buffer reused by each thread for its transfers.
+    */
+   private static final ThreadLocal<ByteBuffer> BUFFER = 
+         ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+   
+   /**
+    * Hidden constructor to prevent instances from being created.
+    */
+   private ChannelTransfer()
+   {
+   }
+   
+   /**
+    * Copies the stream into the file channel, starting at the 
+    * position within the file passed, until the end of the stream.
+    * 
+    * @param content
+    *    The stream to copy from.
+    * @param file
+    *    The file channel to write into.
+    * @param position
+    *    The position within the file to start writing at.
+    * @return
+    *    The number of bytes written to the file.
+    * @throws IOException
+    *    Any exceptions reading the stream or writing the 
+    *    file will be thrown.
+    */
+   static long transfer(InputStream content, FileChannel file, long position) throws IOException
+   {
+      return transfer(content, file, position, null);
+   }
+   
+   /**
+    * Copies the stream into the file channel, starting at the 
+    * position within the file passed, until the end of the stream,
+    * reporting the progress after each write.
+    * 
+    * @param content
+    *    The stream to copy from.
+    * @param file
+    *    The file channel to write into.
+    * @param position
+    *    The position within the file to start writing at.
+    * @param progress
+    *    Receives the number of bytes written so far after each 
+    *    write, or null if the progress is not needed.
+    * @return
+    *    The number of bytes written to the file.
+    * @throws IOException
+    *    Any exceptions reading the stream or writing the 
+    *    file will be thrown, the exceptions writing the file 
+    *    wrapped within a WriteFailedException.
+    */
+   static long transfer(InputStream content, FileChannel file, long position, LongConsumer progress) throws IOException
+   {
+      ReadableByteChannel source = Channels.newChannel(content);
+      ByteBuffer buffer = BUFFER.get();
+      buffer.clear();
+      
+      long written = 0;
+      while (source.read(buffer) != -1)
+      {
+         buffer.flip();
+         try
+         {
+            while (buffer.hasRemaining())
+            {
+               written += file.write(buffer, position + written);
+            }
+         }
+         catch (IOException ex)
+         {
+            throw new WriteFailedException(ex);
+         }
+         buffer.clear();
+         if (progress != null)
+         {
+            progress.accept(written);
+         }
+      }
+      return written;
+   }
+   
+   /**
+    * Thrown when the file cannot be written, so the failures 
+    * of the local file can be told apart from the failures 
+    * reading the response.
+    */
+   static final class WriteFailedException extends IOException
+   {
+      /**
+       * Serial number needed for the serialization warning. 
+       */
+      private static final long serialVersionUID = -4518002385174496127L;
+      
+      /**
+       * Creates the exception for the write failure passed.
+       * 
+       * @param cause
+       *    The exception writing the file.
+       */
+      WriteFailedException(IOException cause)
+      {
+         super(cause.getMessage(), cause);
+      }
+   }
+}
@@ -0,0 +1,165 @@
+package bjad.web.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * The sidecar checkpoint of a resumable download, recording 
+ * the number of bytes safely written to the file along with 
+ * the validators of the resource being downloaded. 
+ *
+ * @author 
+ *  Ben Dougall
+ */
+final class DownloadCheckpoint
+{
+   /**
+    * The suffix added to the target file's name for the checkpoint.
+    */
+   static final String SUFFIX = ".checkpoint";
+   
+   /**
+    * The property names within the checkpoint file.
+    */
+   private static final String PROPERTY_URL = "url";
+   private static final String PROPERTY_OFFSET = "offset";
+   private static final String PROPERTY_ETAG = "etag";
+   private static final String PROPERTY_LAST_MODIFIED = "lastModified";
+   
+   /**
+    * The URL being downloaded.
+    */
+   String url;
+   /**
+    * The number of bytes safely written to the file.
+    */
+   long offset;
+   /**
+    * The ETag of the resource, or null.
+    */
+   String etag;
+   /**
+    * The Last-Modified date of the resource, or null.
+    */
+   String lastModified;
+   
+   /**
+    * Returns the path of the checkpoint for the target file.
+    * 
+    * @param target
+    *    The file being downloaded.
+    * @return
+    *    The path of the checkpoint.
+    */
+   static Path pathFor(Path target)
+   {
+      return target.resolveSibling(target.getFileName().toString() + SUFFIX);
+   }
+   
+   /**
+    * Loads the checkpoint for the target file.
+    * 
+    * @param target
+    *    The file being downloaded.
+    * @return
+    *    The checkpoint, or null if there is no checkpoint or 
+    *    it cannot be read.
+    */
+   static DownloadCheckpoint load(Path target)
+   {
+      Path path = pathFor(target);
+      if (!Files.isRegularFile(path))
+      {
+         return null;
+      }
+      try (InputStream in = Files.newInputStream(path))
+      {
+         Properties props = new Properties();
+         props.load(in);
+         DownloadCheckpoint checkpoint = new DownloadCheckpoint();
+         checkpoint.url = props.getProperty(PROPERTY_URL);
+         checkpoint.offset = Long.parseLong(props.getProperty(PROPERTY_OFFSET, "0"));
+         checkpoint.etag = props.getProperty(PROPERTY_ETAG);
+         checkpoint.lastModified = props.getProperty(PROPERTY_LAST_MODIFIED);
+         return checkpoint;
+      }
+      catch (IOException | RuntimeException ex)
+      {
+         return null;
+      }
+   }
+   
+   /**
+    * Returns the validator to send within the If-Range header, 
+    * being the ETag if it is a strong ETag, or the Last-Modified
+    * date otherwise. 
+    * 
+    * @return
+    *    The validator, or null if there is no usable validator.
+    */
+   String getIfRangeValidator()
+   {
+      if (etag != null && !etag.startsWith("W/"))
+      {
+         return etag;
+      }
+      return lastModified;
+   }
+   
+   /**
+    * Saves the checkpoint for the target file, replacing the 
+    * previous checkpoint atomically where the file system allows.
+    * 
+    * @param target
+    *    The file being downloaded.
+    * @throws IOException
+    *    Any exceptions writing the checkpoint will be thrown.
+    */
+   void save(Path target) throws IOException
+   {
+      Properties props = new Properties();
+      props.setProperty(PROPERTY_URL, url);
+      props.setProperty(PROPERTY_OFFSET, Long.toString(offset));
+      if (etag != null)
+      {
+         props.setProperty(PROPERTY_ETAG, etag);
+      }
+      if (lastModified != null)
+      {
+         props.setProperty(PROPERTY_LAST_MODIFIED, lastModified);
+      }
+      
+      Path path = pathFor(target);
+      Path temp = path.resolveSibling(path.getFileName().toString() + ".tmp");
+      try (OutputStream out = Files.newOutputStream(temp))
+      {
+         props.store(out, "Resumable download checkpoint");
+      }
+      try
+      {
+         Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException ex)
+      {
+         Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+   }
+   
+   /**
+    * Removes the checkpoint for the target file.
+    * 
+    * @param target
+    *    The file that was downloaded.
+    * @throws IOException
+    *    Any exceptions removing the checkpoint will be thrown.
+    */
+   static void delete(Path target) throws IOException
+   {
+      Files.deleteIfExists(pathFor(target));
+   }
+}
@@ -0,0 +1,119 @@
+package bjad.web.download;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+import bjad.web.resilience.ResiliencePipeline;
+import bjad.web.transport.TransportResponse;
+
+/**
+ * Downloads the body of a response straight into a file 
+ * through a file channel, so the body is never held in 
+ * memory regardless of its size.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class FileDownloader
+{
+   /**
+    * The request for the download. 
+    */
+   protected final BJADWebRequest request;
+   
+   /**
+    * The logger to use within the download. 
+    */
+   protected final Log logger;
+   
+   /**
+    * Creates the downloader for the request passed.
+    * 
+    * @param request
+    *    The request for the download, containing the URL,
+    *    method, headers and the other configurable items.
+    */
+   public FileDownloader(BJADWebRequest request)
+   {
+      this.request = request;
+      this.logger = LogFactory.getLog(request.getLoggerName() == null || request.getLoggerName().trim().isEmpty() ? 
+            FileDownloader.class.getCanonicalName() : request.getLoggerName().trim());
+   }
+   
+   /**
+    * Downloads the response body into the file passed, replacing 
+    * the file if it already exists. The file is only written if 
+    * the server returns a good response, and is removed if the 
+    * download fails part way through.
+    * 
+    * @param target
+    *    The file to write the response body to.
+    * @return
+    *    The response object containing the status code, headers, 
+    *    duration, bytes written, and the path to the file, or a 
+    *    null path if the server did not return a good response.
+    * @throws BJADWebException
+    *    Any exceptions completing the download will be thrown.
+    */
+   public BJADDownloadResponse download(Path target) throws BJADWebException
+   {
+      final long START = System.currentTimeMillis();
+      BJADDownloadResponse response = new BJADDownloadResponse();
+      try (TransportResponse transportResponse = ResiliencePipeline.send(request, null, false))
+      {
+         response.copyNonDataValues(transportResponse.toWebResponse());
+         if (response.isGoodResponse())
+         {
+            response.setBytesWritten(writeFile(transportResponse, target));
+            response.setData(target);
+         }
+      }
+      catch (IOException ex)
+      {
+         throw new BJADWebException(ex);
+      }
+      response.setDuration(System.currentTimeMillis() - START);
+      
+      if (logger.isInfoEnabled())
+      {
+         logger.info("DOWNLOAD :: " + request.getUrl() + " (" + request.getMethod().name() + ") :: " + 
+               response.getStatusCode() + " :: " + response.getBytesWritten() + " bytes in " + response.getDuration() + "ms");
+      }
+      return response;
+   }
+   
+   /**
+    * Writes the response body into the file, removing the 
+    * partial file if the transfer fails.
+    * 
+    * @param response
+    *    The response containing the body to write.
+    * @param target
+    *    The file to write the body to.
+    * @return
+    *    The number of bytes written.
+    * @throws IOException
+    *    Any exceptions writing the file will be thrown.
+    */
+   private long writeFile(TransportResponse response, Path target) throws IOException
+   {
+      try (FileChannel file = FileChannel.open(target, 
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+      {
+         return ChannelTransfer.transfer(response.getContent(), file, 0);
+      }
+      catch (IOException ex)
+      {
+         Files.deleteIfExists(target);
+         throw ex;
+      }
+   }
+}
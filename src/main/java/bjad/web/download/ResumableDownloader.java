@@ -0,0 +1,454 @@
+package bjad.web.download;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.function.LongConsumer;
+
+import org.apache.http.HttpHeaders;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+import bjad.web.resilience.ResiliencePipeline;
+import bjad.web.transport.TransportResponse;
+
+/**
+ * <p>
+ * Downloads files that can be resumed after a failure, keeping 
+ * a small sidecar checkpoint file (the target's name with a 
+ * .checkpoint suffix) containing the number of bytes safely 
+ * written along with the ETag and Last-Modified headers of the
+ * resource.
+ * <p>
+ * When a checkpoint exists, only the missing tail is requested 
+ * using the Range and If-Range headers, so the server returns 
+ * the full content instead if the resource changed since the 
+ * checkpoint was written. Read timeouts and interrupted transfers
+ * are retried from the checkpoint up to the maximum attempts, and
+ * a checkpoint left by a failed call is resumed by the next call 
+ * for the same file. The checkpoint is removed once the download
+ * completes.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class ResumableDownloader extends FileDownloader
+{
+   /**
+    * The default number of attempts made to complete the download.
+    */
+   public static final int DEFAULT_MAX_ATTEMPTS = 3;
+   
+   /**
+    * The default number of bytes written between saving the checkpoint.
+    */
+   public static final long DEFAULT_CHECKPOINT_INTERVAL = 8 * 1024 * 1024;
+   
+   /**
+    * The number of attempts made to complete the download.
+    */
+   protected final int maxAttempts;
+   
+   /**
+    * The number of bytes written between saving the checkpoint.
+    */
+   protected long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+   
+   /**
+    * Creates the downloader for the request passed using 
+    * the default number of attempts.
+    * 
+    * @param request
+    *    The request for the download.
+    */
+   public ResumableDownloader(BJADWebRequest request)
+   {
+      this(request, DEFAULT_MAX_ATTEMPTS);
+   }
+   
+   /**
+    * Creates the downloader for the request passed.
+    * 
+    * @param request
+    *    The request for the download.
+    * @param maxAttempts
+    *    The number of attempts made to complete the download, 
+    *    values less than 1 are treated as 1.
+    */
+   public ResumableDownloader(BJADWebRequest request, int maxAttempts)
+   {
+      super(request);
+      this.maxAttempts = Math.max(1, maxAttempts);
+   }
+
+   /**
+    * @return 
+    *   The checkpointInterval property within the ResumableDownloader instance
+    */
+   public long getCheckpointInterval()
+   {
+      return this.checkpointInterval;
+   }
+
+   /**
+    * @param checkpointInterval 
+    *   The checkpointInterval to set within the ResumableDownloader instance,
+    *   values less than 1 are ignored.
+    */
+   public void setCheckpointInterval(long checkpointInterval)
+   {
+      if (checkpointInterval > 0)
+      {
+         this.checkpointInterval = checkpointInterval;
+      }
+   }
+   
+   /**
+    * Downloads the content into the file passed, resuming from 
+    * the checkpoint of a previous attempt if one exists.
+    * 
+    * @return
+    *    The response object containing the status code, headers, 
+    *    duration, the bytes written by this call, and the path to
+    *    the file, or a null path if the server did not return a 
+    *    good response.
+    * @see bjad.web.download.FileDownloader#download(java.nio.file.Path)
+    */
+   @Override
+   public BJADDownloadResponse download(Path target) throws BJADWebException
+   {
+      final long START = System.currentTimeMillis();
+      Progress progress = new Progress();
+      BJADDownloadResponse response = null;
+      for (int attempt = 1; response == null; attempt++)
+      {
+         try
+         {
+            response = attemptDownload(target, progress, true);
+         }
+         catch (BJADWebException ex)
+         {
+            boolean retryable = ex instanceof TransferInterruptedException || ex.isTimeoutException();
+            if (!retryable || attempt >= maxAttempts)
+            {
+               throw ex;
+            }
+            logger.warn("Download of " + request.getUrl() + " failed on attempt " + attempt + 
+                  ", resuming from the checkpoint: " + ex.getMessage());
+         }
+      }
+      response.setBytesWritten(progress.total);
+      response.setDuration(System.currentTimeMillis() - START);
+      
+      if (logger.isInfoEnabled())
+      {
+         logger.info("DOWNLOAD :: " + request.getUrl() + " (" + request.getMethod().name() + ") :: " + 
+               response.getStatusCode() + " :: " + response.getBytesWritten() + " bytes in " + response.getDuration() + "ms");
+      }
+      return response;
+   }
+   
+   /**
+    * Makes one attempt at the download, resuming from the 
+    * checkpoint if there is one.
+    * 
+    * @param target
+    *    The file to write the content to.
+    * @param progress
+    *    The progress of the download across the attempts.
+    * @param allowRestart
+    *    True if the download can restart from the beginning when 
+    *    the checkpoint cannot be used.
+    * @return
+    *    The response for the attempt.
+    * @throws BJADWebException
+    *    Any exceptions downloading the content will be thrown.
+    */
+   private BJADDownloadResponse attemptDownload(Path target, Progress progress, boolean allowRestart) throws BJADWebException
+   {
+      try
+      {
+         DownloadCheckpoint checkpoint = DownloadCheckpoint.load(target);
+         long offset = 0;
+         if (checkpoint != null && request.getUrl().equals(checkpoint.url) && 
+             checkpoint.getIfRangeValidator() != null && Files.isRegularFile(target))
+         {
+            offset = Math.min(checkpoint.offset, Files.size(target));
+         }
+         
+         BJADWebRequest rangeRequest = request.copy();
+         if (offset > 0)
+         {
+            if (rangeRequest.getHeaders() == null)
+            {
+               rangeRequest.setHeaders(new LinkedHashMap<>());
+            }
+            rangeRequest.getHeaders().put(HttpHeaders.RANGE, "bytes=" + offset + "-");
+            rangeRequest.getHeaders().put(HttpHeaders.IF_RANGE, checkpoint.getIfRangeValidator());
+         }
+         
+         try (TransportResponse response = ResiliencePipeline.send(rangeRequest, null, false))
+         {
+            BJADDownloadResponse result = new BJADDownloadResponse();
+            result.copyNonDataValues(response.toWebResponse());
+            
+            boolean restart = false;
+            if (offset > 0 && !isMatchingPartial(response, checkpoint, offset))
+            {
+               if (response.getStatusCode() == 200)
+               {
+                  logger.info("Resource " + request.getUrl() + " changed since the checkpoint, restarting the download.");
+                  offset = 0;
+               }
+               else if (allowRestart)
+               {
+                  // The checkpoint cannot be used (range not satisfiable, or the 
+                  // response does not match), so start over without it once 
+                  // this response is closed.
+                  logger.warn("Discarding the checkpoint for " + request.getUrl() + 
+                        " after status " + response.getStatusCode());
+                  DownloadCheckpoint.delete(target);
+                  restart = true;
+               }
+               else
+               {
+                  return result;
+               }
+            }
+            else if (!result.isGoodResponse())
+            {
+               return result;
+            }
+            
+            if (!restart)
+            {
+               writeContent(target, response, offset, progress);
+               DownloadCheckpoint.delete(target);
+               result.setData(target);
+               return result;
+            }
+         }
+         return attemptDownload(target, progress, false);
+      }
+      catch (IOException ex)
+      {
+         throw new BJADWebException(ex);
+      }
+   }
+   
+   /**
+    * Returns if the response is the partial content requested 
+    * from the offset of the resource within the checkpoint.
+    * 
+    * @param response
+    *    The response from the server.
+    * @param checkpoint
+    *    The checkpoint the range was requested from.
+    * @param offset
+    *    The offset the range was requested from.
+    * @return
+    *    True if the response is the partial content requested.
+    */
+   private boolean isMatchingPartial(TransportResponse response, DownloadCheckpoint checkpoint, long offset)
+   {
+      if (response.getStatusCode() != 206)
+      {
+         return false;
+      }
+      String contentRange = response.getHeader(HttpHeaders.CONTENT_RANGE);
+      if (contentRange == null || !contentRange.trim().startsWith("bytes " + offset + "-"))
+      {
+         return false;
+      }
+      String etag = response.getHeader(HttpHeaders.ETAG);
+      if (checkpoint.etag != null && etag != null && !checkpoint.etag.equals(etag))
+      {
+         return false;
+      }
+      String lastModified = response.getHeader(HttpHeaders.LAST_MODIFIED);
+      return checkpoint.lastModified == null || lastModified == null || checkpoint.lastModified.equals(lastModified);
+   }
+   
+   /**
+    * Writes the content of the response into the file from the 
+    * offset passed, saving the checkpoint as the content is written
+    * and when the transfer is interrupted.
+    * 
+    * @param target
+    *    The file to write the content to.
+    * @param response
+    *    The response containing the content.
+    * @param offset
+    *    The offset within the file to write the content at.
+    * @param progress
+    *    The progress of the download across the attempts.
+    * @throws IOException
+    *    Any exceptions writing the file will be thrown.
+    * @throws BJADWebException
+    *    Thrown if the transfer is interrupted while reading the 
+    *    response, or if the file or checkpoint cannot be written,
+    *    which is not retried.
+    */
+   private void writeContent(Path target, TransportResponse response, long offset, Progress progress) throws IOException, BJADWebException
+   {
+      DownloadCheckpoint checkpoint = new DownloadCheckpoint();
+      checkpoint.url = request.getUrl();
+      checkpoint.offset = offset;
+      checkpoint.etag = response.getHeader(HttpHeaders.ETAG);
+      checkpoint.lastModified = response.getHeader(HttpHeaders.LAST_MODIFIED);
+      boolean resumable = checkpoint.getIfRangeValidator() != null;
+      
+      try (FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+      {
+         // Drop anything written past the checkpoint.
+         file.truncate(offset);
+         if (resumable)
+         {
+            checkpoint.save(target);
+         }
+         
+         progress.startTransfer(file, checkpoint, target, resumable);
+         long written = 0;
+         try
+         {
+            written = ChannelTransfer.transfer(response.getContent(), file, offset, progress);
+         }
+         catch (ChannelTransfer.WriteFailedException ex)
+         {
+            // Local failures (such as a full disk) are not interruptions of the transfer.
+            throw new BJADWebException("Could not write the download of " + request.getUrl() + " to " + target, ex.getCause());
+         }
+         catch (UncheckedIOException ex)
+         {
+            throw new BJADWebException("Could not save the checkpoint for " + target, ex.getCause());
+         }
+         catch (IOException ex)
+         {
+            progress.saveCheckpoint();
+            throw new TransferInterruptedException("Download of " + request.getUrl() + " interrupted at " + 
+                  (offset + progress.written) + " bytes", ex);
+         }
+         
+         long expected = response.getContentLength();
+         if (expected > -1 && written != expected)
+         {
+            progress.saveCheckpoint();
+            throw new TransferInterruptedException("Download of " + request.getUrl() + " ended after " + 
+                  written + " of " + expected + " bytes", null);
+         }
+         file.force(false);
+      }
+   }
+   
+   /**
+    * Tracks the bytes written across the attempts, saving the 
+    * checkpoint as the content is written.
+    */
+   private class Progress implements LongConsumer
+   {
+      /**
+       * The bytes written by all the attempts.
+       */
+      long total;
+      /**
+       * The bytes written by the current transfer.
+       */
+      long written;
+      
+      /**
+       * The state of the current transfer.
+       */
+      private FileChannel file;
+      private DownloadCheckpoint checkpoint;
+      private Path target;
+      private boolean resumable;
+      private long startOffset;
+      
+      /**
+       * Starts tracking a new transfer.
+       * 
+       * @param file
+       *    The file being written.
+       * @param checkpoint
+       *    The checkpoint for the transfer.
+       * @param target
+       *    The path of the file being written.
+       * @param resumable
+       *    True if the checkpoint can be used to resume the transfer.
+       */
+      void startTransfer(FileChannel file, DownloadCheckpoint checkpoint, Path target, boolean resumable)
+      {
+         this.file = file;
+         this.checkpoint = checkpoint;
+         this.target = target;
+         this.resumable = resumable;
+         this.startOffset = checkpoint.offset;
+         this.written = 0;
+      }
+
+      @Override
+      public void accept(long transferred)
+      {
+         total += transferred - written;
+         written = transferred;
+         if (resumable && startOffset + written - checkpoint.offset >= checkpointInterval)
+         {
+            try
+            {
+               saveCheckpoint();
+            }
+            catch (IOException ex)
+            {
+               throw new UncheckedIOException(ex);
+            }
+         }
+      }
+      
+      /**
+       * Saves the checkpoint once the bytes written are 
+       * flushed to the file, so the checkpoint is never 
+       * ahead of the file's content.
+       * 
+       * @throws IOException
+       *    Any exceptions saving the checkpoint will be thrown.
+       */
+      void saveCheckpoint() throws IOException
+      {
+         if (resumable)
+         {
+            file.force(false);
+            checkpoint.offset = startOffset + written;
+            checkpoint.save(target);
+         }
+      }
+   }
+   
+   /**
+    * Thrown when the transfer of the content is interrupted, 
+    * allowing the download to be retried from the checkpoint.
+    */
+   private static class TransferInterruptedException extends BJADWebException
+   {
+      /**
+       * Serial number needed for the serialization warning. 
+       */
+      private static final long serialVersionUID = 6180365052818738121L;
+
+      /**
+       * Creates the exception with the message and cause passed.
+       * 
+       * @param message
+       *    The message to include within the exception.
+       * @param cause
+       *    The cause of the exception, or null.
+       */
+      TransferInterruptedException(String message, Throwable cause)
+      {
+         super(message, cause);
+      }
+   }
+}
@@ -0,0 +1,472 @@
+package bjad.web.download;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpHeaders;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+import bjad.web.BJADWebResponse;
+import bjad.web.HTTPMethodType;
+import bjad.web.resilience.ResiliencePipeline;
+import bjad.web.transport.TransportResponse;
+
+/**
+ * <p>
+ * Downloads large files by fetching byte ranges of the content 
+ * concurrently over separate connections, writing each range 
+ * into its offset of the pre-allocated target file.
+ * <p>
+ * A HEAD request is sent first to get the Content-Length and 
+ * Accept-Ranges headers. If the server does not support byte 
+ * ranges, does not return the length, or the content is too 
+ * small to split, the content is downloaded as a single stream.
+ * Each range request carries the ETag (or Last-Modified date) of 
+ * the HEAD response within the If-Range header, so a resource 
+ * changed since the HEAD request is returned in full and 
+ * downloaded as a single stream rather than mixing versions.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class SegmentedDownloader extends FileDownloader
+{
+   /**
+    * The default number of segments to download concurrently.
+    */
+   public static final int DEFAULT_SEGMENTS = 4;
+   
+   /**
+    * The default smallest segment (in bytes) to download, 
+    * content smaller than two segments is downloaded as 
+    * a single stream.
+    */
+   public static final long DEFAULT_MIN_SEGMENT_SIZE = 1024 * 1024;
+   
+   /**
+    * Counter used to name the download threads.
+    */
+   private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+   
+   /**
+    * The number of segments to download concurrently.
+    */
+   protected final int segments;
+   
+   /**
+    * The smallest segment (in bytes) to download.
+    */
+   protected long minSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+   
+   /**
+    * Creates the downloader for the request passed using 
+    * the default number of segments.
+    * 
+    * @param request
+    *    The request for the download.
+    */
+   public SegmentedDownloader(BJADWebRequest request)
+   {
+      this(request, DEFAULT_SEGMENTS);
+   }
+   
+   /**
+    * Creates the downloader for the request passed.
+    * 
+    * @param request
+    *    The request for the download.
+    * @param segments
+    *    The number of segments to download concurrently, 
+    *    values less than 1 are treated as 1.
+    */
+   public SegmentedDownloader(BJADWebRequest request, int segments)
+   {
+      super(request);
+      this.segments = Math.max(1, segments);
+   }
+
+   /**
+    * @return 
+    *   The minSegmentSize property within the SegmentedDownloader instance
+    */
+   public long getMinSegmentSize()
+   {
+      return this.minSegmentSize;
+   }
+
+   /**
+    * @param minSegmentSize 
+    *   The minSegmentSize to set within the SegmentedDownloader instance,
+    *   values less than 1 are ignored.
+    */
+   public void setMinSegmentSize(long minSegmentSize)
+   {
+      if (minSegmentSize > 0)
+      {
+         this.minSegmentSize = minSegmentSize;
+      }
+   }
+   
+   /**
+    * Downloads the content into the file passed, in concurrent
+    * segments if the server supports byte ranges, or as a single
+    * stream if not.
+    * 
+    * @see bjad.web.download.FileDownloader#download(java.nio.file.Path)
+    */
+   @Override
+   public BJADDownloadResponse download(Path target) throws BJADWebException
+   {
+      final long START = System.currentTimeMillis();
+      BJADWebResponse<Void> head = sendHead();
+      long length = parseLength(head.getHeaders().get(findHeader(head, HttpHeaders.CONTENT_LENGTH)));
+      String acceptRanges = head.getHeaders().get(findHeader(head, HttpHeaders.ACCEPT_RANGES));
+      int segmentCount = (int)Math.min(segments, length / minSegmentSize);
+      
+      if (!head.isGoodResponse() || length < 1 || segmentCount < 2 || 
+          acceptRanges == null || !acceptRanges.trim().equalsIgnoreCase("bytes"))
+      {
+         logger.debug("Downloading " + request.getUrl() + " as a single stream.");
+         return super.download(target);
+      }
+      
+      BJADDownloadResponse response = new BJADDownloadResponse();
+      response.copyNonDataValues(head);
+      try
+      {
+         response.setBytesWritten(downloadSegments(target, length, segmentCount, getIfRangeValidator(head)));
+         response.setData(target);
+      }
+      catch (RangeNotSupportedException ex)
+      {
+         logger.warn("Server ignored the byte ranges for " + request.getUrl() + ", downloading as a single stream.");
+         return super.download(target);
+      }
+      response.setDuration(System.currentTimeMillis() - START);
+      
+      if (logger.isInfoEnabled())
+      {
+         logger.info("DOWNLOAD :: " + request.getUrl() + " (" + request.getMethod().name() + ") :: " + 
+               segmentCount + " segments :: " + response.getBytesWritten() + " bytes in " + response.getDuration() + "ms");
+      }
+      return response;
+   }
+   
+   /**
+    * Sends the HEAD request for the content.
+    * 
+    * @return
+    *    The response to the HEAD request.
+    * @throws BJADWebException
+    *    Any exceptions completing the request will be thrown.
+    */
+   private BJADWebResponse<Void> sendHead() throws BJADWebException
+   {
+      BJADWebRequest headRequest = request.copy();
+      headRequest.setMethod(HTTPMethodType.HEAD);
+      try (TransportResponse response = ResiliencePipeline.send(headRequest, null))
+      {
+         return response.toWebResponse();
+      }
+      catch (IOException ex)
+      {
+         throw new BJADWebException(ex);
+      }
+   }
+   
+   /**
+    * Returns the validator for the If-Range header of the range 
+    * requests, the strong ETag of the HEAD response if it has one,
+    * or its Last-Modified date otherwise.
+    * 
+    * @param head
+    *    The response to the HEAD request.
+    * @return
+    *    The validator, or null if the response has neither.
+    */
+   private String getIfRangeValidator(BJADWebResponse<Void> head)
+   {
+      String etag = head.getHeaders().get(findHeader(head, HttpHeaders.ETAG));
+      if (etag != null && !etag.startsWith("W/"))
+      {
+         return etag;
+      }
+      return head.getHeaders().get(findHeader(head, HttpHeaders.LAST_MODIFIED));
+   }
+   
+   /**
+    * Downloads the segments of the content concurrently into the 
+    * pre-allocated file, removing the file if any segment fails.
+    * The first segment to fail cancels the others.
+    * 
+    * @param target
+    *    The file to write the content to.
+    * @param length
+    *    The length of the content.
+    * @param segmentCount
+    *    The number of segments to split the content into.
+    * @param validator
+    *    The validator for the If-Range header, or null.
+    * @return
+    *    The number of bytes written.
+    * @throws BJADWebException
+    *    Any exceptions downloading the segments will be thrown.
+    * @throws RangeNotSupportedException
+    *    Thrown if the server does not return a partial response 
+    *    for a segment.
+    */
+   private long downloadSegments(Path target, long length, int segmentCount, String validator) throws BJADWebException, RangeNotSupportedException
+   {
+      ExecutorService executor = Executors.newFixedThreadPool(segmentCount, r -> 
+      {
+         Thread t = new Thread(r, "bjad-download-" + THREAD_COUNT.incrementAndGet());
+         t.setDaemon(true);
+         return t;
+      });
+      CompletionService<Long> completion = new ExecutorCompletionService<>(executor);
+      List<Future<Long>> futures = new ArrayList<>();
+      boolean complete = false;
+      try
+      {
+         preallocate(target, length);
+         try (FileChannel file = FileChannel.open(target, StandardOpenOption.WRITE))
+         {
+            long segmentSize = length / segmentCount;
+            for (int i = 0; i < segmentCount; i++)
+            {
+               final long FIRST = i * segmentSize;
+               final long LAST = i == segmentCount - 1 ? length - 1 : FIRST + segmentSize - 1;
+               futures.add(completion.submit(() -> downloadSegment(file, FIRST, LAST, length, validator)));
+            }
+            
+            // Take the segments as they finish, so the first failure
+            // cancels the others without waiting for them.
+            long written = 0;
+            for (int i = 0; i < segmentCount; i++)
+            {
+               written += completion.take().get();
+            }
+            complete = true;
+            return written;
+         }
+      }
+      catch (ExecutionException ex)
+      {
+         if (ex.getCause() instanceof RangeNotSupportedException)
+         {
+            throw (RangeNotSupportedException)ex.getCause();
+         }
+         throw ex.getCause() instanceof BJADWebException ? 
+               (BJADWebException)ex.getCause() : new BJADWebException(ex.getCause());
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+         throw new BJADWebException(ex);
+      }
+      catch (IOException ex)
+      {
+         throw new BJADWebException(ex);
+      }
+      finally
+      {
+         for (Future<Long> future : futures)
+         {
+            future.cancel(true);
+         }
+         executor.shutdownNow();
+         if (!complete)
+         {
+            deleteQuietly(target);
+         }
+      }
+   }
+   
+   /**
+    * Downloads a single segment of the content, writing it into 
+    * its offset within the file.
+    * 
+    * @param file
+    *    The file channel, shared by the segments.
+    * @param first
+    *    The position of the first byte of the segment.
+    * @param last
+    *    The position of the last byte of the segment.
+    * @param length
+    *    The length of the content.
+    * @param validator
+    *    The validator for the If-Range header, or null.
+    * @return
+    *    The number of bytes written.
+    * @throws Exception
+    *    Any exceptions downloading the segment will be thrown.
+    */
+   private long downloadSegment(FileChannel file, long first, long last, long length, String validator) throws Exception
+   {
+      BJADWebRequest rangeRequest = request.copy();
+      if (rangeRequest.getHeaders() == null)
+      {
+         rangeRequest.setHeaders(new LinkedHashMap<>());
+      }
+      rangeRequest.getHeaders().put(HttpHeaders.RANGE, "bytes=" + first + "-" + last);
+      if (validator != null)
+      {
+         rangeRequest.getHeaders().put(HttpHeaders.IF_RANGE, validator);
+      }
+      
+      // Closing the response without reading the body (such as the 
+      // full content returned for a 200) aborts the connection.
+      try (TransportResponse response = ResiliencePipeline.send(rangeRequest, null, false))
+      {
+         String contentRange = response.getHeader(HttpHeaders.CONTENT_RANGE);
+         if (response.getStatusCode() != 206 || !isExpectedRange(contentRange, first, last, length))
+         {
+            if (response.getStatusCode() == 200)
+            {
+               throw new RangeNotSupportedException();
+            }
+            throw new BJADWebException("Segment " + first + "-" + last + " of " + request.getUrl() + 
+                  " returned status " + response.getStatusCode() + " (" + contentRange + ")");
+         }
+         
+         long written = ChannelTransfer.transfer(response.getContent(), file, first);
+         if (written != last - first + 1)
+         {
+            throw new BJADWebException("Segment " + first + "-" + last + " of " + request.getUrl() + 
+                  " returned " + written + " bytes.");
+         }
+         return written;
+      }
+   }
+   
+   /**
+    * Checks the Content-Range header of a partial response covers 
+    * exactly the segment requested, of content of the length 
+    * returned by the HEAD request.
+    * 
+    * @param contentRange
+    *    The Content-Range header value.
+    * @param first
+    *    The position of the first byte of the segment.
+    * @param last
+    *    The position of the last byte of the segment.
+    * @param length
+    *    The length of the content.
+    * @return
+    *    True if the header matches the segment and length.
+    */
+   private boolean isExpectedRange(String contentRange, long first, long last, long length)
+   {
+      return contentRange != null && 
+            contentRange.trim().equalsIgnoreCase("bytes " + first + "-" + last + "/" + length);
+   }
+   
+   /**
+    * Creates (or truncates) the file and sets its length 
+    * to the length of the content.
+    * 
+    * @param target
+    *    The file to create.
+    * @param length
+    *    The length of the content.
+    * @throws IOException
+    *    Any exceptions creating the file will be thrown.
+    */
+   private void preallocate(Path target, long length) throws IOException
+   {
+      try (RandomAccessFile file = new RandomAccessFile(target.toFile(), "rw"))
+      {
+         file.setLength(0);
+         file.setLength(length);
+      }
+   }
+   
+   /**
+    * Finds the name of the header within the response, 
+    * ignoring the case of the name.
+    * 
+    * @param response
+    *    The response containing the headers.
+    * @param name
+    *    The name of the header to find.
+    * @return
+    *    The name of the header as returned by the server, 
+    *    or the name passed if not found.
+    */
+   private String findHeader(BJADWebResponse<?> response, String name)
+   {
+      for (String key : response.getHeaders().keySet())
+      {
+         if (key.equalsIgnoreCase(name))
+         {
+            return key;
+         }
+      }
+      return name;
+   }
+   
+   /**
+    * Parses the content length header value.
+    * 
+    * @param value
+    *    The header value.
+    * @return
+    *    The length, or -1 if the value is missing or invalid.
+    */
+   private long parseLength(String value)
+   {
+      try
+      {
+         return value == null ? -1 : Long.parseLong(value.trim());
+      }
+      catch (NumberFormatException ex)
+      {
+         return -1;
+      }
+   }
+   
+   /**
+    * Removes the partial file after a failed download.
+    * 
+    * @param target
+    *    The file to remove.
+    */
+   private void deleteQuietly(Path target)
+   {
+      try
+      {
+         Files.deleteIfExists(target);
+      }
+      catch (IOException ex)
+      {
+         logger.warn("Could not remove the partial download " + target, ex);
+      }
+   }
+   
+   /**
+    * Thrown when the server returns the full content 
+    * for a range request.
+    */
+   private static class RangeNotSupportedException extends Exception
+   {
+      /**
+       * Serial number needed for the serialization warning. 
+       */
+      private static final long serialVersionUID = -2158617025733201398L;
+   }
+}
@@ -0,0 +1,9 @@
+/**
+ * Package containing the classes used to download 
+ * response bodies straight into files, without 
+ * holding the body in memory.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+package bjad.web.download;
@@ -0,0 +1,320 @@
+package bjad.web.logging;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Writes the wire log events on a background thread so the calling
+ * threads do not pay for building and writing the log messages, 
+ * including the serialising of the bodies. 
+ * <p>
+ * The events are handed over through a bounded lock-free ring 
+ * buffer. When the buffer is full the event is dropped and counted 
+ * rather than blocking the caller, so a slow log appender can cost 
+ * log lines but never latency. The writer thread sleeps while the
+ * buffer is empty and is woken by the next event, and stops once 
+ * the logger is closed and its accepted events are written.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class AsyncWireLogger implements AutoCloseable
+{
+   /**
+    * The default capacity of the ring buffer.
+    */
+   public static final int DEFAULT_CAPACITY = 8192;
+   
+   /**
+    * The longest time (in nanoseconds) the writer parks when the 
+    * buffer is empty before checking it again, in case a wake up
+    * is missed.
+    */
+   private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+   
+   /**
+    * The time (in milliseconds) close waits for the accepted events
+    * to be written.
+    */
+   private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+   
+   /**
+    * Counter used to name the writer threads.
+    */
+   private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+   
+   /**
+    * The logger shared by the requests with asynchronous wire 
+    * logging enabled.
+    */
+   private static volatile AsyncWireLogger sharedInstance;
+   
+   /**
+    * The buffer of events waiting to be written.
+    */
+   private final MpmcRingBuffer<WireLogEvent> buffer;
+   
+   /**
+    * The number of events accepted into the buffer.
+    */
+   private final LongAdder acceptedCount = new LongAdder();
+   
+   /**
+    * The number of events written, or failed to write.
+    */
+   private final LongAdder writtenCount = new LongAdder();
+   
+   /**
+    * The number of events dropped as the buffer was full.
+    */
+   private final LongAdder droppedCount = new LongAdder();
+   
+   /**
+    * The thread writing the events.
+    */
+   private final Thread writer;
+   
+   /**
+    * Flag set while the writer is parked, or about to park, waiting
+    * for events.
+    */
+   private volatile boolean idle;
+   
+   /**
+    * Flag set once the logger is closed.
+    */
+   private volatile boolean closed;
+   
+   /**
+    * Creates the logger with the default capacity.
+    */
+   public AsyncWireLogger()
+   {
+      this(DEFAULT_CAPACITY);
+   }
+   
+   /**
+    * Creates the logger, starting its writer thread.
+    * 
+    * @param capacity
+    *    The number of events the buffer can hold, rounded 
+    *    up to a power of two.
+    */
+   public AsyncWireLogger(int capacity)
+   {
+      this.buffer = new MpmcRingBuffer<>(capacity);
+      this.writer = new Thread(this::drain, "bjad-wire-logger-" + THREAD_COUNT.incrementAndGet());
+      this.writer.setDaemon(true);
+      this.writer.start();
+   }
+   
+   /**
+    * Returns the process wide logger shared by the requests with 
+    * asynchronous wire logging enabled.
+    * 
+    * @return
+    *    The shared logger.
+    */
+   public static AsyncWireLogger getSharedInstance()
+   {
+      if (sharedInstance == null)
+      {
+         synchronized (AsyncWireLogger.class)
+         {
+            if (sharedInstance == null)
+            {
+               sharedInstance = new AsyncWireLogger();
+            }
+         }
+      }
+      return sharedInstance;
+   }
+   
+   /**
+    * Closes the shared logger if it was created, writing its 
+    * accepted events. A new shared logger is created by the next
+    * operation using it.
+    */
+   public static void shutdownSharedInstance()
+   {
+      AsyncWireLogger shared;
+      synchronized (AsyncWireLogger.class)
+      {
+         shared = sharedInstance;
+         sharedInstance = null;
+      }
+      if (shared != null)
+      {
+         shared.close();
+      }
+   }
+   
+   /**
+    * Hands the event to the writer thread, dropping it if the 
+    * buffer is full or the logger is closed.
+    * 
+    * @param event
+    *    The event to write.
+    * @return
+    *    True if the event was accepted, false if dropped.
+    */
+   public boolean log(WireLogEvent event)
+   {
+      if (!closed && buffer.offer(event))
+      {
+         acceptedCount.increment();
+         if (idle)
+         {
+            LockSupport.unpark(writer);
+         }
+         return true;
+      }
+      droppedCount.increment();
+      return false;
+   }
+   
+   /**
+    * Waits for the events accepted before the call to be written.
+    * 
+    * @param timeoutMillis
+    *    The maximum number of milliseconds to wait.
+    * @return
+    *    True if the events were written, false if the 
+    *    timeout passed first.
+    * @throws InterruptedException
+    *    Thrown if interrupted while waiting.
+    */
+   public boolean flush(long timeoutMillis) throws InterruptedException
+   {
+      final long TARGET = acceptedCount.sum();
+      final long END = System.currentTimeMillis() + timeoutMillis;
+      while (writtenCount.sum() < TARGET)
+      {
+         if (System.currentTimeMillis() >= END)
+         {
+            return false;
+         }
+         Thread.sleep(1);
+      }
+      return true;
+   }
+   
+   /**
+    * Stops accepting events and waits for the writer thread to 
+    * write the events already accepted, for up to five seconds.
+    */
+   @Override
+   public void close()
+   {
+      closed = true;
+      LockSupport.unpark(writer);
+      if (Thread.currentThread() == writer)
+      {
+         return;
+      }
+      try
+      {
+         writer.join(CLOSE_TIMEOUT_MILLIS);
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+   
+   /**
+    * @return 
+    *   True if the logger is closed.
+    */
+   public boolean isClosed()
+   {
+      return closed;
+   }
+   
+   /**
+    * @return 
+    *   The number of events dropped as the buffer was full.
+    */
+   public long getDroppedCount()
+   {
+      return droppedCount.sum();
+   }
+   
+   /**
+    * @return 
+    *   The number of events written by the writer thread.
+    */
+   public long getWrittenCount()
+   {
+      return writtenCount.sum();
+   }
+   
+   /**
+    * @return 
+    *   The number of events waiting to be written.
+    */
+   public int getPendingCount()
+   {
+      return buffer.size();
+   }
+   
+   /**
+    * @return 
+    *   The capacity of the buffer.
+    */
+   public int getCapacity()
+   {
+      return buffer.capacity();
+   }
+   
+   /**
+    * Writes the events from the buffer until the logger is closed
+    * and the buffer is empty, parking whenever the buffer is empty
+    * until the next event is logged.
+    */
+   private void drain()
+   {
+      while (true)
+      {
+         WireLogEvent event = buffer.poll();
+         if (event == null)
+         {
+            if (closed)
+            {
+               // Events offered as the logger closed are still written.
+               if (buffer.size() == 0)
+               {
+                  return;
+               }
+               continue;
+            }
+            // Flag the writer as idle before checking the buffer once
+            // more, so an event logged meanwhile either is seen here
+            // or unparks the writer.
+            idle = true;
+            if (buffer.size() == 0 && !closed)
+            {
+               LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            idle = false;
+            continue;
+         }
+         try
+         {
+            event.write();
+         }
+         catch (Exception ex)
+         {
+            LogFactory.getLog(AsyncWireLogger.class).warn("Could not write the wire log event", ex);
+         }
+         finally
+         {
+            writtenCount.increment();
+         }
+      }
+   }
+}
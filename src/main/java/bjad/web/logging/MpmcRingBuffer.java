@@ -0,0 +1,162 @@
+package bjad.web.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free multi-producer multi-consumer queue, based on 
+ * Dmitry Vyukov's bounded MPMC queue. Each slot has a sequence 
+ * number telling the producers and consumers whether the slot is 
+ * free for the position they claimed, so the positions are claimed
+ * with a single compare and set and a full queue is detected 
+ * without blocking.
+ *
+ * @author 
+ *  Ben Dougall
+ *
+ * @param <E>
+ *    The type of element within the queue.
+ */
+final class MpmcRingBuffer<E>
+{
+   /**
+    * The mask turning a position into a slot index.
+    */
+   private final int mask;
+   
+   /**
+    * The elements within the slots.
+    */
+   private final AtomicReferenceArray<E> buffer;
+   
+   /**
+    * The sequence number of each slot.
+    */
+   private final AtomicLongArray sequences;
+   
+   /**
+    * The next position to offer an element to.
+    */
+   private final AtomicLong enqueuePosition = new AtomicLong();
+   
+   /**
+    * The next position to poll an element from.
+    */
+   private final AtomicLong dequeuePosition = new AtomicLong();
+   
+   /**
+    * Creates the queue with at least the capacity passed.
+    * 
+    * @param capacity
+    *    The capacity of the queue, rounded up to a power of two.
+    */
+   MpmcRingBuffer(int capacity)
+   {
+      int size = 2;
+      while (size < capacity && size < (1 << 30))
+      {
+         size <<= 1;
+      }
+      this.mask = size - 1;
+      this.buffer = new AtomicReferenceArray<>(size);
+      this.sequences = new AtomicLongArray(size);
+      for (int i = 0; i < size; i++)
+      {
+         sequences.set(i, i);
+      }
+   }
+   
+   /**
+    * Adds the element to the queue unless the queue is full.
+    * 
+    * @param element
+    *    The element to add.
+    * @return
+    *    True if added, false if the queue is full.
+    */
+   boolean offer(E element)
+   {
+      long position = enqueuePosition.get();
+      while (true)
+      {
+         int index = (int)(position & mask);
+         long difference = sequences.get(index) - position;
+         if (difference == 0)
+         {
+            if (enqueuePosition.compareAndSet(position, position + 1))
+            {
+               buffer.lazySet(index, element);
+               // Publishes the element to the consumers.
+               sequences.set(index, position + 1);
+               return true;
+            }
+            position = enqueuePosition.get();
+         }
+         else if (difference < 0)
+         {
+            return false;
+         }
+         else
+         {
+            position = enqueuePosition.get();
+         }
+      }
+   }
+   
+   /**
+    * Removes the oldest element from the queue.
+    * 
+    * @return
+    *    The element, or null if the queue is empty.
+    */
+   E poll()
+   {
+      long position = dequeuePosition.get();
+      while (true)
+      {
+         int index = (int)(position & mask);
+         long difference = sequences.get(index) - (position + 1);
+         if (difference == 0)
+         {
+            if (dequeuePosition.compareAndSet(position, position + 1))
+            {
+               E element = buffer.get(index);
+               buffer.lazySet(index, null);
+               // Frees the slot for the producers of the next lap.
+               sequences.set(index, position + mask + 1);
+               return element;
+            }
+            position = dequeuePosition.get();
+         }
+         else if (difference < 0)
+         {
+            return null;
+         }
+         else
+         {
+            position = dequeuePosition.get();
+         }
+      }
+   }
+   
+   /**
+    * Returns the approximate number of elements within the queue.
+    * 
+    * @return
+    *    The number of elements.
+    */
+   int size()
+   {
+      return (int)Math.max(0, enqueuePosition.get() - dequeuePosition.get());
+   }
+   
+   /**
+    * @return 
+    *   The capacity of the queue.
+    */
+   int capacity()
+   {
+      return mask + 1;
+   }
+}
@@ -0,0 +1,201 @@
+package bjad.web.logging;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.http.util.TextUtils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+
+/**
+ * A SEND or RECV event of the web component. The event captures 
+ * what it needs from the request when created, and builds the log 
+ * messages when written, so it can be written on another thread.
+ * <p>
+ * The URL, method, headers, and summary of the body are written at
+ * the info level of the metadata logger, and the body at the info 
+ * level of the payload logger, truncated to the maximum body length
+ * (in UTF-8 bytes) of the request.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class WireLogEvent
+{
+   /**
+    * The direction of the event, SEND or RECV.
+    */
+   private final String direction;
+   
+   /**
+    * The URL of the request.
+    */
+   private final String url;
+   
+   /**
+    * The HTTP method of the request.
+    */
+   private final String method;
+   
+   /**
+    * A copy of the request headers, may be null.
+    */
+   private final Map<String, String> headers;
+   
+   /**
+    * The mapper used to write the headers as JSON.
+    */
+   private final ObjectMapper mapper;
+   
+   /**
+    * The summary of the body.
+    */
+   private final String summary;
+   
+   /**
+    * Supplies the body to log, may be null.
+    */
+   private final Supplier<String> payload;
+   
+   /**
+    * The maximum number of UTF-8 bytes of the body logged, 
+    * 0 for no maximum.
+    */
+   private final int maxBodyLength;
+   
+   /**
+    * The logger for the metadata, may be null.
+    */
+   private final Log logger;
+   
+   /**
+    * The logger for the body, may be null.
+    */
+   private final Log payloadLogger;
+   
+   /**
+    * Creates the event.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param direction
+    *    The direction of the event, SEND or RECV.
+    * @param summary
+    *    The summary of the body, such as its size or type.
+    * @param payload
+    *    Supplies the body to log, may be null.
+    * @param logger
+    *    The logger for the metadata, or null to not log it.
+    * @param payloadLogger
+    *    The logger for the body, or null to not log it.
+    */
+   public WireLogEvent(BJADWebRequest request, String direction, String summary, Supplier<String> payload, 
+         Log logger, Log payloadLogger)
+   {
+      this.direction = direction;
+      this.url = request.getUrl();
+      this.method = request.getMethod().name();
+      this.headers = request.getHeaders() == null ? null : new LinkedHashMap<>(request.getHeaders());
+      this.mapper = request.getJsonObjectMapper();
+      this.summary = summary;
+      this.payload = payload;
+      this.maxBodyLength = request.getWireLogMaxBodyLength();
+      this.logger = logger;
+      this.payloadLogger = payload == null ? null : payloadLogger;
+   }
+   
+   /**
+    * Writes the event to the loggers.
+    * 
+    * @throws BJADWebException
+    *    Any exceptions converting the headers will be thrown.
+    */
+   public void write() throws BJADWebException
+   {
+      String prefix = direction + " :: " + url + " (" + method + ")";
+      if (logger != null)
+      {
+         try
+         {
+            logger.info(prefix + " :: " + (headers == null ? "<n/a>" : mapper.writeValueAsString(headers)) + 
+               " :: " + (TextUtils.isBlank(summary) ? "" : summary));
+         }
+         catch (JsonProcessingException ex)
+         {
+            throw new BJADWebException(ex);
+         }
+      }
+      if (payloadLogger != null)
+      {
+         String body = payload.get();
+         if (!TextUtils.isBlank(body))
+         {
+            payloadLogger.info(prefix + " :: " + truncate(body, maxBodyLength));
+         }
+      }
+   }
+   
+   /**
+    * Truncates the body to the maximum number of bytes it takes in
+    * UTF-8, without splitting a character, noting the number of 
+    * bytes removed.
+    * 
+    * @param body
+    *    The body to truncate.
+    * @param maxLength
+    *    The maximum number of bytes, 0 or less for no maximum.
+    * @return
+    *    The body, truncated if longer than the maximum.
+    */
+   static String truncate(String body, int maxLength)
+   {
+      // No character takes more than 3 bytes per char of the string.
+      if (maxLength <= 0 || body.length() <= maxLength / 3)
+      {
+         return body;
+      }
+      int end = 0;
+      int kept = 0;
+      while (end < body.length())
+      {
+         int codePoint = body.codePointAt(end);
+         int size = utf8Length(codePoint);
+         if (kept + size > maxLength)
+         {
+            break;
+         }
+         kept += size;
+         end += Character.charCount(codePoint);
+      }
+      if (end == body.length())
+      {
+         return body;
+      }
+      
+      long removed = 0;
+      for (int i = end; i < body.length(); i += Character.charCount(body.codePointAt(i)))
+      {
+         removed += utf8Length(body.codePointAt(i));
+      }
+      return body.substring(0, end) + "... [" + removed + " more bytes]";
+   }
+   
+   /**
+    * Returns the number of bytes the character takes in UTF-8.
+    * 
+    * @param codePoint
+    *    The code point of the character.
+    * @return
+    *    The number of bytes, from 1 to 4.
+    */
+   private static int utf8Length(int codePoint)
+   {
+      return codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+   }
+}
@@ -0,0 +1,9 @@
+/**
+ * Package containing the wire logging of the SEND and RECV 
+ * events of the web component, either written on the calling
+ * thread or handed to the asynchronous wire logger.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+package bjad.web.logging;
@@ -430,6 +430,49 @@ public class EnhancedPropertyHelper
       return retValue;
    }
    
+   /**
+    * Returns the boolean value of the property name passed, or the 
+    * default value if the property is not found. The values "true", 
+    * "yes", "y", "on", and "1" are treated as true and the values 
+    * "false", "no", "n", "off", and "0" are treated as false, 
+    * ignoring case.
+    * 
+    * @param name
+    *    The property to get.
+    * @param defaultValue
+    *    The default value to return if the property is not found or
+    *    is not a boolean value.
+    * @return
+    *    The boolean value of the property name passed, or the default 
+    *    value if the property is missing or not a boolean value.
+    */
+   public boolean getBooleanValue(String name, boolean defaultValue)
+   {
+      String val = getPropertyValue(name);
+      if (TextUtils.isBlank(val))
+      {
+         return defaultValue;
+      }
+      switch (val.trim().toLowerCase())
+      {
+      case "true":
+      case "yes":
+      case "y":
+      case "on":
+      case "1":
+         return true;
+      case "false":
+      case "no":
+      case "n":
+      case "off":
+      case "0":
+         return false;
+      default:
+         logger.warn(name + "'s property value of \"" + val + "\" could not be made into a boolean");
+         return defaultValue;
+      }
+   }
+   
    /** 
     * Returns the list of property keys within the collection.
     * 
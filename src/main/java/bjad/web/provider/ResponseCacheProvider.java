@@ -0,0 +1,30 @@
+package bjad.web.provider;
+
+import bjad.web.BJADWebException;
+import bjad.web.cache.ResponseCache;
+
+/**
+ * Provider interface for the response cache to 
+ * apply to the BJADWebRequest's in order to cache
+ * the responses of the GET and HEAD operations. As 
+ * a cache is only useful when shared, providers 
+ * should return the same cache for each call.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public interface ResponseCacheProvider
+{
+   /**
+    * Provides the response cache to apply to the 
+    * BJADWebRequest prior to the web operation 
+    * occurring.
+    * 
+    * @return
+    *    The response cache for the BJADWebRequest
+    * @throws BJADWebException
+    *    Any exceptions in creating the cache
+    *    will be thrown.
+    */
+   public ResponseCache getResponseCache() throws BJADWebException;
+}
@@ -9,6 +9,11 @@ import bjad.web.BJADWebException;
  * apply to the WebOperationRequest's in
  * order to set the SSL Context prior
  * to the web call. 
+ * <p>
+ * The pooled HTTP clients are keyed by the identity of the
+ * SSL Context, so providers must create the context once and
+ * return the same instance on every call. A new context per
+ * call creates a new client and connection pool each time.
  *
  * @author 
  *  Ben Dougall
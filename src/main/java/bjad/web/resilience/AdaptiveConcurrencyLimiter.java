@@ -0,0 +1,291 @@
+package bjad.web.resilience;
+
+import java.util.concurrent.TimeUnit;
+
+import bjad.web.BJADWebException;
+
+/**
+ * Limit on the number of calls in flight to a host, adjusting
+ * itself from the round-trip time and the outcome of each call
+ * using additive increase and multiplicative decrease (AIMD).
+ * <p>
+ * A call that succeeds within the latency tolerance of the
+ * baseline round-trip time, while the limit is in use, grows the
+ * limit by one for every limit's worth of calls. A call that
+ * fails, times out, or takes longer than the tolerance allows
+ * shrinks the limit by the backoff ratio, at most once for each
+ * baseline round-trip time so a burst of failures from the same
+ * overload only counts once. The baseline is a slow moving
+ * average of the round-trip times, following lasting changes in
+ * the latency of the host.
+ * <p>
+ * Calls above the limit wait in a bounded queue for a slot, or
+ * are rejected with a {@link ConcurrencyLimitExceededException}
+ * when the queue is full or the wait runs out.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class AdaptiveConcurrencyLimiter
+{
+   /**
+    * The weight of each round-trip time in the baseline average.
+    */
+   static final double BASELINE_WEIGHT = 0.05;
+   
+   /**
+    * The number of round-trip times needed before the latency
+    * is compared to the baseline.
+    */
+   static final int MIN_BASELINE_SAMPLES = 10;
+   
+   /**
+    * The key of the limiter.
+    */
+   private final String key;
+   
+   /**
+    * The settings of the limiter.
+    */
+   private final ConcurrencyLimitPolicy settings;
+   
+   /**
+    * The current limit, kept fractional so the additive
+    * increase can grow it by parts of a slot.
+    */
+   private double limit;
+   
+   /**
+    * The number of calls in flight.
+    */
+   private int inFlight;
+   
+   /**
+    * The number of calls waiting for a slot.
+    */
+   private int queueDepth;
+   
+   /**
+    * The number of calls rejected.
+    */
+   private long rejectedCount;
+   
+   /**
+    * The average round-trip time, in nanoseconds.
+    */
+   private double baselineRtt;
+   
+   /**
+    * The number of round-trip times within the baseline, 
+    * counting only the calls not dropped.
+    */
+   private long samples;
+   
+   /**
+    * The time (from System.nanoTime) of the last decrease.
+    */
+   private long lastDecrease;
+   
+   /**
+    * Flag set once the limit has been decreased.
+    */
+   private boolean decreased;
+   
+   /**
+    * Constructor, setting the key and the settings of the limiter.
+    * 
+    * @param key 
+    *    The key of the limiter.
+    * @param settings 
+    *    The settings of the limiter, copied.
+    */
+   public AdaptiveConcurrencyLimiter(String key, ConcurrencyLimitPolicy settings)
+   {
+      this.key = key;
+      this.settings = new ConcurrencyLimitPolicy(settings);
+      this.limit = clamp(settings.getInitialLimit());
+   }
+   
+   /**
+    * Takes a slot for a call, waiting in the queue if the
+    * limit is reached.
+    * 
+    * @param maxWaitNanos 
+    *    The maximum number of nanoseconds to wait for a slot,
+    *    zero or less rejecting the call right away if the
+    *    limit is reached.
+    * @throws BJADWebException
+    *    A ConcurrencyLimitExceededException if no slot is
+    *    available within the wait or the queue is full, or
+    *    if interrupted while waiting.
+    */
+   public synchronized void acquire(long maxWaitNanos) throws BJADWebException
+   {
+      // Calls arriving while others are queued wait their turn.
+      if (queueDepth == 0 && inFlight < getLimit())
+      {
+         inFlight++;
+         return;
+      }
+      if (maxWaitNanos <= 0 || queueDepth >= settings.getMaxQueueDepth())
+      {
+         throw reject();
+      }
+      
+      final long DEADLINE = System.nanoTime() + maxWaitNanos;
+      queueDepth++;
+      try
+      {
+         while (inFlight >= getLimit())
+         {
+            long remaining = DEADLINE - System.nanoTime();
+            if (remaining <= 0)
+            {
+               throw reject();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+         }
+         inFlight++;
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+         throw new BJADWebException("Interrupted while waiting for the concurrency limit of " + key + ".", ex);
+      }
+      finally
+      {
+         queueDepth--;
+      }
+   }
+   
+   /**
+    * Counts the rejected call and creates its exception.
+    * 
+    * @return 
+    *    The exception to throw.
+    */
+   private ConcurrencyLimitExceededException reject()
+   {
+      rejectedCount++;
+      return new ConcurrencyLimitExceededException(key, getLimit(), queueDepth);
+   }
+   
+   /**
+    * Frees the slot of a call, adjusting the limit from its
+    * round-trip time and outcome.
+    * 
+    * @param rttNanos 
+    *    The round-trip time of the call, in nanoseconds.
+    * @param dropped 
+    *    True if the call failed or timed out in a way that
+    *    signals the host is overloaded.
+    */
+   public synchronized void onResult(long rttNanos, boolean dropped)
+   {
+      boolean inUse = inFlight * 2 >= getLimit();
+      inFlight--;
+      
+      boolean slow = samples >= MIN_BASELINE_SAMPLES &&
+            rttNanos > baselineRtt * settings.getLatencyTolerance();
+      if (!dropped)
+      {
+         // Dropped calls often end on a timeout, which would inflate the baseline.
+         baselineRtt = samples++ == 0 ? rttNanos : baselineRtt + (rttNanos - baselineRtt) * BASELINE_WEIGHT;
+      }
+      
+      long now = System.nanoTime();
+      if (dropped || slow)
+      {
+         if (!decreased || now - lastDecrease >= baselineRtt)
+         {
+            limit = clamp(limit * settings.getBackoffRatio());
+            lastDecrease = now;
+            decreased = true;
+         }
+      }
+      else if (inUse)
+      {
+         limit = clamp(limit + 1.0 / limit);
+      }
+      notifyAll();
+   }
+   
+   /**
+    * Frees the slot of a call without adjusting the limit, used
+    * for calls that did not reach the host.
+    */
+   public synchronized void release()
+   {
+      inFlight--;
+      notifyAll();
+   }
+   
+   /**
+    * Keeps the limit within the minimum and maximum limits.
+    * 
+    * @param value 
+    *    The limit to keep within the bounds.
+    * @return 
+    *    The limit within the bounds.
+    */
+   private double clamp(double value)
+   {
+      double min = Math.max(1, settings.getMinLimit());
+      return Math.max(min, Math.min(Math.max(min, settings.getMaxLimit()), value));
+   }
+   
+   /**
+    * @return 
+    *   The key property within the AdaptiveConcurrencyLimiter instance
+    */
+   public String getKey()
+   {
+      return this.key;
+   }
+   
+   /**
+    * @return 
+    *    The current number of calls allowed in flight.
+    */
+   public synchronized int getLimit()
+   {
+      return (int)limit;
+   }
+   
+   /**
+    * @return 
+    *    The number of calls in flight.
+    */
+   public synchronized int getInFlight()
+   {
+      return this.inFlight;
+   }
+   
+   /**
+    * @return 
+    *    The number of calls waiting for a slot.
+    */
+   public synchronized int getQueueDepth()
+   {
+      return this.queueDepth;
+   }
+   
+   /**
+    * @return 
+    *    The number of calls rejected since the limiter
+    *    was created.
+    */
+   public synchronized long getRejectedCount()
+   {
+      return this.rejectedCount;
+   }
+   
+   /**
+    * @return 
+    *    The baseline round-trip time, in milliseconds.
+    */
+   public synchronized double getBaselineRtt()
+   {
+      return baselineRtt / TimeUnit.MILLISECONDS.toNanos(1);
+   }
+}
@@ -0,0 +1,254 @@
+package bjad.web.resilience;
+
+/**
+ * Circuit breaker for a host or endpoint, recording the outcome 
+ * of the recent calls within a sliding window. The breaker opens
+ * when the failure rate or slow call rate of the window reaches 
+ * its threshold, rejecting the calls until the open duration 
+ * passes. It then allows a limited number of probe calls 
+ * (half-open), closing again if they all succeed, or opening 
+ * again on the first probe that fails.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class CircuitBreaker
+{
+   /**
+    * The states of the circuit breaker.
+    */
+   public enum State
+   {
+      /**
+       * Calls are allowed and recorded.
+       */
+      CLOSED,
+      /**
+       * Calls are rejected.
+       */
+      OPEN,
+      /**
+       * A limited number of probe calls are allowed to test 
+       * for the recovery of the server.
+       */
+      HALF_OPEN
+   }
+   
+   /** Outcome flag for a failed call. */
+   private static final byte FAILED = 1;
+   /** Outcome flag for a slow call. */
+   private static final byte SLOW = 2;
+   
+   /**
+    * The key of the breaker.
+    */
+   private final String key;
+   
+   /**
+    * The settings of the breaker.
+    */
+   private final CircuitBreakerPolicy settings;
+   
+   /**
+    * The outcomes of the recent calls, used as a ring.
+    */
+   private final byte[] window;
+   
+   /**
+    * The number of outcomes within the window.
+    */
+   private int windowCount;
+   
+   /**
+    * The position of the next outcome within the window.
+    */
+   private int windowPosition;
+   
+   /**
+    * The number of failed calls within the window.
+    */
+   private int failedCount;
+   
+   /**
+    * The number of slow calls within the window.
+    */
+   private int slowCount;
+   
+   /**
+    * The current state of the breaker.
+    */
+   private State state = State.CLOSED;
+   
+   /**
+    * The time (in milliseconds) the breaker opened.
+    */
+   private long openedAt;
+   
+   /**
+    * The number of probe calls allowed in the half-open state.
+    */
+   private int probesStarted;
+   
+   /**
+    * The number of probe calls that succeeded in the 
+    * half-open state.
+    */
+   private int probesSucceeded;
+   
+   /**
+    * Constructor, setting the key and the settings of the breaker.
+    * 
+    * @param key
+    *    The key of the breaker.
+    * @param settings
+    *    The settings of the breaker, copied.
+    */
+   public CircuitBreaker(String key, CircuitBreakerPolicy settings)
+   {
+      this.key = key;
+      this.settings = new CircuitBreakerPolicy(settings);
+      this.window = new byte[Math.max(1, settings.getWindowSize())];
+   }
+   
+   /**
+    * Checks if a call is allowed, moving the open breaker to 
+    * half-open once the open duration has passed.
+    * 
+    * @throws CircuitBreakerOpenException
+    *    If the breaker is open, or half-open with no probe 
+    *    calls left.
+    */
+   public synchronized void acquirePermission() throws CircuitBreakerOpenException
+   {
+      if (state == State.OPEN)
+      {
+         long remaining = openedAt + settings.getOpenDuration() - System.currentTimeMillis();
+         if (remaining > 0)
+         {
+            throw new CircuitBreakerOpenException(key, remaining);
+         }
+         state = State.HALF_OPEN;
+         probesStarted = 0;
+         probesSucceeded = 0;
+      }
+      if (state == State.HALF_OPEN)
+      {
+         if (probesStarted >= settings.getHalfOpenCalls())
+         {
+            throw new CircuitBreakerOpenException(key, 0);
+         }
+         probesStarted++;
+      }
+   }
+   
+   /**
+    * Records the outcome of an allowed call.
+    * 
+    * @param failed
+    *    True if the call failed.
+    * @param duration
+    *    The duration of the call, in milliseconds.
+    */
+   public synchronized void onResult(boolean failed, long duration)
+   {
+      boolean slow = settings.getSlowCallDuration() > 0 && duration >= settings.getSlowCallDuration();
+      if (state == State.HALF_OPEN)
+      {
+         if (failed || slow)
+         {
+            open();
+         }
+         else if (++probesSucceeded >= settings.getHalfOpenCalls())
+         {
+            close();
+         }
+         return;
+      }
+      if (state == State.OPEN)
+      {
+         // Result of a call allowed before the breaker opened.
+         return;
+      }
+      
+      byte outcome = (byte)((failed ? FAILED : 0) | (slow ? SLOW : 0));
+      if (windowCount == window.length)
+      {
+         byte removed = window[windowPosition];
+         failedCount -= (removed & FAILED) != 0 ? 1 : 0;
+         slowCount -= (removed & SLOW) != 0 ? 1 : 0;
+      }
+      else
+      {
+         windowCount++;
+      }
+      window[windowPosition] = outcome;
+      windowPosition = (windowPosition + 1) % window.length;
+      failedCount += failed ? 1 : 0;
+      slowCount += slow ? 1 : 0;
+      
+      if (windowCount >= settings.getMinimumCalls() && 
+            (getFailureRate() >= settings.getFailureRateThreshold() || 
+             getSlowCallRate() >= settings.getSlowCallRateThreshold()))
+      {
+         open();
+      }
+   }
+   
+   /**
+    * Opens the breaker.
+    */
+   private void open()
+   {
+      state = State.OPEN;
+      openedAt = System.currentTimeMillis();
+   }
+   
+   /**
+    * Closes the breaker, clearing the window.
+    */
+   private void close()
+   {
+      state = State.CLOSED;
+      windowCount = 0;
+      windowPosition = 0;
+      failedCount = 0;
+      slowCount = 0;
+   }
+   
+   /**
+    * @return 
+    *   The key property within the CircuitBreaker instance
+    */
+   public String getKey()
+   {
+      return this.key;
+   }
+   
+   /**
+    * @return
+    *    The current state of the breaker. An open breaker whose 
+    *    open duration has passed reports open until the next call.
+    */
+   public synchronized State getState()
+   {
+      return this.state;
+   }
+   
+   /**
+    * @return
+    *    The percentage of the calls within the window that failed.
+    */
+   public synchronized double getFailureRate()
+   {
+      return windowCount == 0 ? 0 : failedCount * 100.0 / windowCount;
+   }
+   
+   /**
+    * @return
+    *    The percentage of the calls within the window that were slow.
+    */
+   public synchronized double getSlowCallRate()
+   {
+      return windowCount == 0 ? 0 : slowCount * 100.0 / windowCount;
+   }
+}
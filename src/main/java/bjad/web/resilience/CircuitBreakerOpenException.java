@@ -0,0 +1,64 @@
+package bjad.web.resilience;
+
+import bjad.web.BJADWebException;
+
+/**
+ * Exception thrown, without sending the request, when the 
+ * circuit breaker for the host or endpoint of the operation 
+ * is open or has no half-open probe calls left.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class CircuitBreakerOpenException extends BJADWebException
+{
+   /**
+    * Serial number needed for the serialization warning. 
+    */
+   private static final long serialVersionUID = -3021549868727716043L;
+   
+   /**
+    * The key of the circuit breaker.
+    */
+   private final String key;
+   
+   /**
+    * The number of milliseconds until the breaker allows 
+    * probe calls.
+    */
+   private final long remainingOpenTime;
+   
+   /**
+    * Creates the exception for the breaker passed.
+    * 
+    * @param key
+    *    The key of the circuit breaker.
+    * @param remainingOpenTime
+    *    The number of milliseconds until the breaker allows 
+    *    probe calls.
+    */
+   public CircuitBreakerOpenException(String key, long remainingOpenTime)
+   {
+      super("Circuit breaker for " + key + " is open, the operation was not sent.");
+      this.key = key;
+      this.remainingOpenTime = remainingOpenTime;
+   }
+
+   /**
+    * @return 
+    *   The key property within the CircuitBreakerOpenException instance
+    */
+   public String getKey()
+   {
+      return this.key;
+   }
+
+   /**
+    * @return 
+    *   The remainingOpenTime property within the CircuitBreakerOpenException instance
+    */
+   public long getRemainingOpenTime()
+   {
+      return this.remainingOpenTime;
+   }
+}
@@ -0,0 +1,326 @@
+package bjad.web.resilience;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpEntity;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+import bjad.web.transport.TransportResponse;
+
+/**
+ * Settings bean and executor for the circuit breakers of the 
+ * operations, shared within the process for each host (or each 
+ * endpoint). Calls that throw an exception or return a 5xx 
+ * status code count as failures, and calls taking at least the
+ * slow call duration count as slow. While the breaker is open,
+ * the operations fail right away with a 
+ * {@link CircuitBreakerOpenException} without sending anything.
+ * <p>
+ * The breaker for a key is created with the settings of the 
+ * first policy using the key.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class CircuitBreakerPolicy
+{
+   /**
+    * The scopes the circuit breakers can be keyed by.
+    */
+   public enum Scope
+   {
+      /**
+       * One breaker for the scheme, host, and port of the URL.
+       */
+      HOST,
+      /**
+       * One breaker for the method and URL, without the query.
+       */
+      ENDPOINT
+   }
+   
+   /**
+    * The circuit breakers shared within the process.
+    */
+   private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+   
+   /**
+    * The scope the breakers are keyed by.
+    */
+   protected Scope scope = Scope.HOST;
+   
+   /**
+    * The percentage of failed calls within the window that 
+    * opens the breaker.
+    */
+   protected double failureRateThreshold = 50;
+   
+   /**
+    * The percentage of slow calls within the window that 
+    * opens the breaker.
+    */
+   protected double slowCallRateThreshold = 100;
+   
+   /**
+    * The duration (in milliseconds) at which a call counts 
+    * as slow. Zero or less does not count slow calls.
+    */
+   protected long slowCallDuration = 5000;
+   
+   /**
+    * The number of recent calls within the sliding window.
+    */
+   protected int windowSize = 100;
+   
+   /**
+    * The number of calls needed within the window before 
+    * the rates are checked.
+    */
+   protected int minimumCalls = 10;
+   
+   /**
+    * The duration (in milliseconds) the breaker stays open 
+    * before allowing probe calls.
+    */
+   protected long openDuration = 30000;
+   
+   /**
+    * The number of probe calls allowed while half-open, 
+    * all of which must succeed to close the breaker.
+    */
+   protected int halfOpenCalls = 3;
+   
+   /**
+    * Default constructor, using the default breaker settings.
+    */
+   public CircuitBreakerPolicy()
+   {
+   }
+   
+   /**
+    * Copy constructor, copying the settings from the 
+    * source policy passed.
+    * 
+    * @param source
+    *    The policy to copy.
+    */
+   public CircuitBreakerPolicy(CircuitBreakerPolicy source)
+   {
+      this.scope = source.getScope();
+      this.failureRateThreshold = source.getFailureRateThreshold();
+      this.slowCallRateThreshold = source.getSlowCallRateThreshold();
+      this.slowCallDuration = source.getSlowCallDuration();
+      this.windowSize = source.getWindowSize();
+      this.minimumCalls = source.getMinimumCalls();
+      this.openDuration = source.getOpenDuration();
+      this.halfOpenCalls = source.getHalfOpenCalls();
+   }
+   
+   /**
+    * Returns the circuit breaker shared within the process for 
+    * the host or endpoint of the request, creating it on first use.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @return
+    *    The circuit breaker.
+    */
+   public CircuitBreaker getCircuitBreaker(BJADWebRequest request)
+   {
+      String key = scope == Scope.ENDPOINT ? Hosts.endpointKeyOf(request) : Hosts.keyOf(request.getUrl());
+      return BREAKERS.computeIfAbsent(key, k -> new CircuitBreaker(k, this));
+   }
+   
+   /**
+    * Sends the request through the call passed if the circuit 
+    * breaker allows it, recording the outcome of the call.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param body
+    *    The body to send, or null if the request has no body.
+    * @param call
+    *    The call sending the request.
+    * @return
+    *    The response of the call, which the caller must close.
+    * @throws BJADWebException
+    *    A CircuitBreakerOpenException if the breaker rejected the
+    *    call, or the exception of the call.
+    */
+   public TransportResponse execute(BJADWebRequest request, HttpEntity body, TransportCall call) throws BJADWebException
+   {
+      CircuitBreaker breaker = getCircuitBreaker(request);
+      CircuitBreaker.State before = breaker.getState();
+      breaker.acquirePermission();
+      
+      // Recorded for any outcome, so a half-open probe failing with
+      // an unexpected exception cannot leave the breaker half-open.
+      final long START = System.currentTimeMillis();
+      boolean failed = true;
+      try
+      {
+         TransportResponse response = call.send(request, body);
+         failed = response.getStatusCode() >= 500;
+         return response;
+      }
+      finally
+      {
+         breaker.onResult(failed, System.currentTimeMillis() - START);
+         CircuitBreaker.State after = breaker.getState();
+         Log log = LogFactory.getLog(request.getLoggerName());
+         if (after != before && log.isWarnEnabled())
+         {
+            log.warn(String.format("BREAKER %s changed from %s to %s (failure rate %.1f%%, slow call rate %.1f%%)", 
+                  breaker.getKey(), before, after, breaker.getFailureRate(), breaker.getSlowCallRate()));
+         }
+      }
+   }
+
+   /**
+    * @return 
+    *   The scope property within the CircuitBreakerPolicy instance
+    */
+   public Scope getScope()
+   {
+      return this.scope;
+   }
+
+   /**
+    * @param scope 
+    *   The scope to set within the CircuitBreakerPolicy instance
+    */
+   public void setScope(Scope scope)
+   {
+      this.scope = scope == null ? Scope.HOST : scope;
+   }
+
+   /**
+    * @return 
+    *   The failureRateThreshold property within the CircuitBreakerPolicy instance
+    */
+   public double getFailureRateThreshold()
+   {
+      return this.failureRateThreshold;
+   }
+
+   /**
+    * @param failureRateThreshold 
+    *   The failureRateThreshold to set within the CircuitBreakerPolicy instance
+    */
+   public void setFailureRateThreshold(double failureRateThreshold)
+   {
+      this.failureRateThreshold = failureRateThreshold;
+   }
+
+   /**
+    * @return 
+    *   The slowCallRateThreshold property within the CircuitBreakerPolicy instance
+    */
+   public double getSlowCallRateThreshold()
+   {
+      return this.slowCallRateThreshold;
+   }
+
+   /**
+    * @param slowCallRateThreshold 
+    *   The slowCallRateThreshold to set within the CircuitBreakerPolicy instance
+    */
+   public void setSlowCallRateThreshold(double slowCallRateThreshold)
+   {
+      this.slowCallRateThreshold = slowCallRateThreshold;
+   }
+
+   /**
+    * @return 
+    *   The slowCallDuration property within the CircuitBreakerPolicy instance
+    */
+   public long getSlowCallDuration()
+   {
+      return this.slowCallDuration;
+   }
+
+   /**
+    * @param slowCallDuration 
+    *   The slowCallDuration to set within the CircuitBreakerPolicy instance
+    */
+   public void setSlowCallDuration(long slowCallDuration)
+   {
+      this.slowCallDuration = slowCallDuration;
+   }
+
+   /**
+    * @return 
+    *   The windowSize property within the CircuitBreakerPolicy instance
+    */
+   public int getWindowSize()
+   {
+      return this.windowSize;
+   }
+
+   /**
+    * @param windowSize 
+    *   The windowSize to set within the CircuitBreakerPolicy instance
+    */
+   public void setWindowSize(int windowSize)
+   {
+      this.windowSize = windowSize;
+   }
+
+   /**
+    * @return 
+    *   The minimumCalls property within the CircuitBreakerPolicy instance
+    */
+   public int getMinimumCalls()
+   {
+      return this.minimumCalls;
+   }
+
+   /**
+    * @param minimumCalls 
+    *   The minimumCalls to set within the CircuitBreakerPolicy instance
+    */
+   public void setMinimumCalls(int minimumCalls)
+   {
+      this.minimumCalls = minimumCalls;
+   }
+
+   /**
+    * @return 
+    *   The openDuration property within the CircuitBreakerPolicy instance
+    */
+   public long getOpenDuration()
+   {
+      return this.openDuration;
+   }
+
+   /**
+    * @param openDuration 
+    *   The openDuration to set within the CircuitBreakerPolicy instance
+    */
+   public void setOpenDuration(long openDuration)
+   {
+      this.openDuration = openDuration;
+   }
+
+   /**
+    * @return 
+    *   The halfOpenCalls property within the CircuitBreakerPolicy instance
+    */
+   public int getHalfOpenCalls()
+   {
+      return this.halfOpenCalls;
+   }
+
+   /**
+    * @param halfOpenCalls 
+    *   The halfOpenCalls to set within the CircuitBreakerPolicy instance
+    */
+   public void setHalfOpenCalls(int halfOpenCalls)
+   {
+      this.halfOpenCalls = halfOpenCalls;
+   }
+}
@@ -0,0 +1,81 @@
+package bjad.web.resilience;
+
+import bjad.web.BJADWebException;
+
+/**
+ * Exception thrown, without sending the request, when the
+ * adaptive concurrency limit for the host is reached and the
+ * operation could not get a slot within its queue wait.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class ConcurrencyLimitExceededException extends BJADWebException
+{
+   /**
+    * Serial number needed for the serialization warning.
+    */
+   private static final long serialVersionUID = -3104718520964431186L;
+   
+   /**
+    * The key of the concurrency limiter.
+    */
+   private final String key;
+   
+   /**
+    * The limit when the operation was rejected.
+    */
+   private final int limit;
+   
+   /**
+    * The number of operations queued when the operation
+    * was rejected.
+    */
+   private final int queueDepth;
+   
+   /**
+    * Creates the exception for the limiter passed.
+    * 
+    * @param key 
+    *    The key of the concurrency limiter.
+    * @param limit 
+    *    The limit when the operation was rejected.
+    * @param queueDepth 
+    *    The number of operations queued when the operation
+    *    was rejected.
+    */
+   public ConcurrencyLimitExceededException(String key, int limit, int queueDepth)
+   {
+      super("Concurrency limit of " + limit + " for " + key + " reached with " + queueDepth + " operations queued.");
+      this.key = key;
+      this.limit = limit;
+      this.queueDepth = queueDepth;
+   }
+   
+   /**
+    * @return 
+    *   The key property within the ConcurrencyLimitExceededException instance
+    */
+   public String getKey()
+   {
+      return this.key;
+   }
+   
+   /**
+    * @return 
+    *   The limit property within the ConcurrencyLimitExceededException instance
+    */
+   public int getLimit()
+   {
+      return this.limit;
+   }
+   
+   /**
+    * @return 
+    *   The queueDepth property within the ConcurrencyLimitExceededException instance
+    */
+   public int getQueueDepth()
+   {
+      return this.queueDepth;
+   }
+}
@@ -0,0 +1,321 @@
+package bjad.web.resilience;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpEntity;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+import bjad.web.transport.TransportResponse;
+
+/**
+ * Settings bean and executor for the adaptive concurrency limits
+ * of the operations, shared within the process for each host.
+ * Each call sent, including each retry, takes a slot until its
+ * response arrives, and the round-trip time and outcome of the
+ * call adjust the limit (see {@link AdaptiveConcurrencyLimiter}).
+ * Calls that throw an exception or return a 429, 503, or 504
+ * status code signal the host is overloaded.
+ * <p>
+ * Calls above the limit wait in the queue for up to the maximum
+ * queue wait, or fail with a
+ * {@link ConcurrencyLimitExceededException} without sending
+ * anything. The limiter for a host is created with the settings
+ * of the first policy using it, and the limiters can be read
+ * through {@link #getConcurrencyLimiters()} to report their
+ * limit, calls in flight, and queue depth.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class ConcurrencyLimitPolicy
+{
+   /**
+    * The concurrency limiters shared within the process.
+    */
+   private static final ConcurrentMap<String, AdaptiveConcurrencyLimiter> LIMITERS = new ConcurrentHashMap<>();
+   
+   /**
+    * The limit to start at.
+    */
+   protected int initialLimit = 20;
+   
+   /**
+    * The lowest limit the decreases can reach.
+    */
+   protected int minLimit = 1;
+   
+   /**
+    * The highest limit the increases can reach.
+    */
+   protected int maxLimit = 200;
+   
+   /**
+    * The ratio the limit is multiplied by when the host
+    * is overloaded.
+    */
+   protected double backoffRatio = 0.9;
+   
+   /**
+    * The multiple of the baseline round-trip time above
+    * which a call counts as a sign of overload.
+    */
+   protected double latencyTolerance = 2.0;
+   
+   /**
+    * The maximum number of milliseconds a call waits for a slot.
+    * Zero or less rejects the call right away when the limit
+    * is reached.
+    */
+   protected long maxQueueWait = 0;
+   
+   /**
+    * The maximum number of calls waiting for a slot.
+    */
+   protected int maxQueueDepth = 100;
+   
+   /**
+    * Default constructor, using the default limit settings.
+    */
+   public ConcurrencyLimitPolicy()
+   {
+   }
+   
+   /**
+    * Copy constructor, copying the settings from the
+    * source policy passed.
+    * 
+    * @param source 
+    *    The policy to copy.
+    */
+   public ConcurrencyLimitPolicy(ConcurrencyLimitPolicy source)
+   {
+      this.initialLimit = source.getInitialLimit();
+      this.minLimit = source.getMinLimit();
+      this.maxLimit = source.getMaxLimit();
+      this.backoffRatio = source.getBackoffRatio();
+      this.latencyTolerance = source.getLatencyTolerance();
+      this.maxQueueWait = source.getMaxQueueWait();
+      this.maxQueueDepth = source.getMaxQueueDepth();
+   }
+   
+   /**
+    * Returns the concurrency limiter shared within the process
+    * for the host of the request, creating it on first use.
+    * 
+    * @param request 
+    *    The request for the operation.
+    * @return 
+    *    The concurrency limiter.
+    */
+   public AdaptiveConcurrencyLimiter getConcurrencyLimiter(BJADWebRequest request)
+   {
+      return LIMITERS.computeIfAbsent(Hosts.keyOf(request.getUrl()), k -> new AdaptiveConcurrencyLimiter(k, this));
+   }
+   
+   /**
+    * @return 
+    *    The concurrency limiters created within the process,
+    *    for reporting their current limit, calls in flight,
+    *    and queue depth.
+    */
+   public static Collection<AdaptiveConcurrencyLimiter> getConcurrencyLimiters()
+   {
+      return Collections.unmodifiableCollection(new ArrayList<>(LIMITERS.values()));
+   }
+   
+   /**
+    * Sends the request through the call passed once a slot is
+    * available, adjusting the limit from the outcome of the call.
+    * 
+    * @param request 
+    *    The request for the operation.
+    * @param body 
+    *    The body to send, or null if the request has no body.
+    * @param call 
+    *    The call sending the request.
+    * @return 
+    *    The response of the call, which the caller must close.
+    * @throws BJADWebException
+    *    A ConcurrencyLimitExceededException if no slot was
+    *    available, or the exception of the call.
+    */
+   public TransportResponse execute(BJADWebRequest request, HttpEntity body, TransportCall call) throws BJADWebException
+   {
+      AdaptiveConcurrencyLimiter limiter = getConcurrencyLimiter(request);
+      limiter.acquire(TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxQueueWait)));
+      
+      int before = limiter.getLimit();
+      final long START = System.nanoTime();
+      boolean recorded = false;
+      try
+      {
+         TransportResponse response = call.send(request, body);
+         int status = response.getStatusCode();
+         recorded = true;
+         limiter.onResult(System.nanoTime() - START, status == 429 || status == 503 || status == 504);
+         return response;
+      }
+      catch (CircuitBreakerOpenException ex)
+      {
+         // Rejected before reaching the host, so says nothing of its load.
+         recorded = true;
+         limiter.release();
+         throw ex;
+      }
+      catch (BJADWebException | RuntimeException ex)
+      {
+         recorded = true;
+         limiter.onResult(System.nanoTime() - START, true);
+         throw ex;
+      }
+      finally
+      {
+         if (!recorded)
+         {
+            // An error escaped the call, so free its slot all the same.
+            limiter.release();
+         }
+         int after = limiter.getLimit();
+         Log log = LogFactory.getLog(request.getLoggerName());
+         if (after != before && log.isDebugEnabled())
+         {
+            log.debug(String.format("LIMIT %s changed from %d to %d (in flight %d, queued %d)",
+                  limiter.getKey(), before, after, limiter.getInFlight(), limiter.getQueueDepth()));
+         }
+      }
+   }
+   
+   /**
+    * @return 
+    *   The initialLimit property within the ConcurrencyLimitPolicy instance
+    */
+   public int getInitialLimit()
+   {
+      return this.initialLimit;
+   }
+   
+   /**
+    * @param initialLimit 
+    *   The initialLimit to set within the ConcurrencyLimitPolicy instance
+    */
+   public void setInitialLimit(int initialLimit)
+   {
+      this.initialLimit = initialLimit;
+   }
+   
+   /**
+    * @return 
+    *   The minLimit property within the ConcurrencyLimitPolicy instance
+    */
+   public int getMinLimit()
+   {
+      return this.minLimit;
+   }
+   
+   /**
+    * @param minLimit 
+    *   The minLimit to set within the ConcurrencyLimitPolicy instance
+    */
+   public void setMinLimit(int minLimit)
+   {
+      this.minLimit = minLimit;
+   }
+   
+   /**
+    * @return 
+    *   The maxLimit property within the ConcurrencyLimitPolicy instance
+    */
+   public int getMaxLimit()
+   {
+      return this.maxLimit;
+   }
+   
+   /**
+    * @param maxLimit 
+    *   The maxLimit to set within the ConcurrencyLimitPolicy instance
+    */
+   public void setMaxLimit(int maxLimit)
+   {
+      this.maxLimit = maxLimit;
+   }
+   
+   /**
+    * @return 
+    *   The backoffRatio property within the ConcurrencyLimitPolicy instance
+    */
+   public double getBackoffRatio()
+   {
+      return this.backoffRatio;
+   }
+   
+   /**
+    * @param backoffRatio 
+    *   The backoffRatio to set within the ConcurrencyLimitPolicy instance
+    */
+   public void setBackoffRatio(double backoffRatio)
+   {
+      this.backoffRatio = backoffRatio;
+   }
+   
+   /**
+    * @return 
+    *   The latencyTolerance property within the ConcurrencyLimitPolicy instance
+    */
+   public double getLatencyTolerance()
+   {
+      return this.latencyTolerance;
+   }
+   
+   /**
+    * @param latencyTolerance 
+    *   The latencyTolerance to set within the ConcurrencyLimitPolicy instance
+    */
+   public void setLatencyTolerance(double latencyTolerance)
+   {
+      this.latencyTolerance = latencyTolerance;
+   }
+   
+   /**
+    * @return 
+    *   The maxQueueWait property within the ConcurrencyLimitPolicy instance
+    */
+   public long getMaxQueueWait()
+   {
+      return this.maxQueueWait;
+   }
+   
+   /**
+    * @param maxQueueWait 
+    *   The maxQueueWait to set within the ConcurrencyLimitPolicy instance
+    */
+   public void setMaxQueueWait(long maxQueueWait)
+   {
+      this.maxQueueWait = maxQueueWait;
+   }
+   
+   /**
+    * @return 
+    *   The maxQueueDepth property within the ConcurrencyLimitPolicy instance
+    */
+   public int getMaxQueueDepth()
+   {
+      return this.maxQueueDepth;
+   }
+   
+   /**
+    * @param maxQueueDepth 
+    *   The maxQueueDepth to set within the ConcurrencyLimitPolicy instance
+    */
+   public void setMaxQueueDepth(int maxQueueDepth)
+   {
+      this.maxQueueDepth = maxQueueDepth;
+   }
+}
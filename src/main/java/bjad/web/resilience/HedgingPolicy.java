@@ -0,0 +1,323 @@
+package bjad.web.resilience;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpEntity;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+import bjad.web.BJADWebResponse;
+import bjad.web.HTTPMethodType;
+import bjad.web.transport.TransportResponse;
+
+/**
+ * Settings bean and executor for hedging the GET, HEAD, and 
+ * OPTIONS operations. When the first request has not answered 
+ * within the hedge delay, an identical request is sent, the 
+ * response of whichever request answers first is used, and the
+ * other request is cancelled. The delay is either set, or taken
+ * from the 95th percentile of the recent durations of the 
+ * endpoint, so only the slowest operations are hedged.
+ * <p>
+ * The hedges to each host are limited by a shared 
+ * {@link TokenBudget} to a percentage of the operations sent, 
+ * so a slow server is not sent twice the load, and a hedge is 
+ * only sent when the rate limiter of the request, if any, has a 
+ * permit available right away. The requests are sent through 
+ * the asynchronous send of the transport. The non-blocking Apache
+ * client aborts the cancelled request right away, while the 
+ * transports completed on the shared thread pool abort it once
+ * its status and headers are received, without reading its body.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class HedgingPolicy
+{
+   /**
+    * The default percentage of the operations to a host 
+    * that can be hedged.
+    */
+   public static final double DEFAULT_BUDGET_PERCENT = 10;
+   
+   /**
+    * The number of recent durations kept for each endpoint.
+    */
+   public static final int LATENCY_SAMPLES = 200;
+   
+   /**
+    * The number of durations needed for an endpoint before the 
+    * hedge delay is taken from its percentile.
+    */
+   public static final int MIN_LATENCY_SAMPLES = 20;
+   
+   /**
+    * The recent durations of each endpoint.
+    */
+   private static final ConcurrentMap<String, LatencyTracker> LATENCIES = new ConcurrentHashMap<>();
+   
+   /**
+    * The number of milliseconds to wait for the first request 
+    * before hedging. Zero or less uses the observed percentile 
+    * of the endpoint.
+    */
+   protected long delay = 0;
+   
+   /**
+    * The percentile of the endpoint's durations used as the 
+    * delay when the delay is not set.
+    */
+   protected double percentile = 95;
+   
+   /**
+    * The percentage of the operations to a host that can be hedged.
+    */
+   protected double budgetPercent = DEFAULT_BUDGET_PERCENT;
+   
+   /**
+    * Default constructor, using the observed 95th percentile as 
+    * the delay.
+    */
+   public HedgingPolicy()
+   {
+   }
+   
+   /**
+    * Copy constructor, copying the settings from the 
+    * source policy passed.
+    * 
+    * @param source
+    *    The policy to copy.
+    */
+   public HedgingPolicy(HedgingPolicy source)
+   {
+      this.delay = source.getDelay();
+      this.percentile = source.getPercentile();
+      this.budgetPercent = source.getBudgetPercent();
+   }
+   
+   /**
+    * Returns if the operations of the method can be hedged 
+    * (GET, HEAD, and OPTIONS).
+    * 
+    * @param method
+    *    The method of the operation.
+    * @return
+    *    True if the method can be hedged.
+    */
+   public static boolean isHedgeable(HTTPMethodType method)
+   {
+      return method == null || method == HTTPMethodType.GET || 
+            method == HTTPMethodType.HEAD || method == HTTPMethodType.OPTIONS;
+   }
+   
+   /**
+    * Returns the number of milliseconds to wait for the first 
+    * request before hedging the operation for the request.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @return
+    *    The hedge delay, or -1 if the operation will not be 
+    *    hedged because not enough durations of the endpoint 
+    *    have been observed.
+    */
+   public long getHedgeDelay(BJADWebRequest request)
+   {
+      if (delay > 0)
+      {
+         return delay;
+      }
+      LatencyTracker tracker = LATENCIES.get(Hosts.endpointKeyOf(request));
+      if (tracker == null || tracker.getSampleCount() < MIN_LATENCY_SAMPLES)
+      {
+         return -1;
+      }
+      return Math.max(1, tracker.getPercentile(percentile));
+   }
+   
+   /**
+    * Sends the request, hedging it if the first request does not 
+    * answer within the hedge delay.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param body
+    *    The body to send, null as the hedged methods have no body.
+    * @return
+    *    The response with its full body, flagged with the result of 
+    *    the hedge.
+    * @throws BJADWebException
+    *    The exception of the requests, if both failed.
+    */
+   public TransportResponse execute(BJADWebRequest request, HttpEntity body) throws BJADWebException
+   {
+      final long START = System.currentTimeMillis();
+      final LatencyTracker TRACKER = LATENCIES.computeIfAbsent(Hosts.endpointKeyOf(request), k -> new LatencyTracker(LATENCY_SAMPLES));
+      TokenBudget budget = TokenBudget.getSharedInstance("hedge:" + Hosts.keyOf(request.getUrl()), budgetPercent);
+      budget.deposit();
+      long hedgeDelay = getHedgeDelay(request);
+      
+      CompletableFuture<BJADWebResponse<byte[]>> first = request.getTransport().sendAsync(request, body);
+      CompletableFuture<BJADWebResponse<byte[]>> hedge = null;
+      try
+      {
+         BJADWebResponse<byte[]> response;
+         boolean hedgeWon = false;
+         if (hedgeDelay < 0)
+         {
+            response = first.get();
+         }
+         else
+         {
+            try
+            {
+               response = first.get(hedgeDelay, TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException ex)
+            {
+               RateLimitPolicy rateLimit = request.getRateLimitPolicy();
+               if (!budget.tryWithdraw() || (rateLimit != null && !rateLimit.tryAcquire(request)))
+               {
+                  response = first.get();
+               }
+               else
+               {
+                  Log log = LogFactory.getLog(request.getLoggerName());
+                  if (log.isInfoEnabled())
+                  {
+                     log.info(String.format("HEDGE %s %s no response after %dms, sending hedged request", 
+                           request.getMethod(), request.getUrl(), hedgeDelay));
+                  }
+                  hedge = request.getTransport().sendAsync(request, body);
+                  int winner = firstSuccessful(first, hedge).get();
+                  hedgeWon = winner == 1;
+                  response = (hedgeWon ? hedge : first).get();
+                  (hedgeWon ? first : hedge).cancel(true);
+               }
+            }
+         }
+         
+         long duration = System.currentTimeMillis() - START;
+         TRACKER.record(duration);
+         byte[] data = response.getData() == null ? new byte[0] : response.getData();
+         TransportResponse result = new TransportResponse(response.getStatusCode(), response.getHeaders(), 
+               new ByteArrayInputStream(data), data.length, duration, null);
+         result.setHedged(hedge != null, hedgeWon);
+         return result;
+      }
+      catch (InterruptedException ex)
+      {
+         first.cancel(true);
+         if (hedge != null)
+         {
+            hedge.cancel(true);
+         }
+         Thread.currentThread().interrupt();
+         throw new BJADWebException("Interrupted while waiting for the hedged operation.", ex);
+      }
+      catch (ExecutionException ex)
+      {
+         Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+         throw cause instanceof BJADWebException ? (BJADWebException)cause : new BJADWebException(cause);
+      }
+   }
+   
+   /**
+    * Returns a future completed with the index (0 or 1) of the 
+    * first of the futures to complete successfully, or completed
+    * with the failure of the second if both fail.
+    * 
+    * @param first
+    *    The future of the first request.
+    * @param hedge
+    *    The future of the hedged request.
+    * @return
+    *    The future of the index of the winner.
+    */
+   private static CompletableFuture<Integer> firstSuccessful(CompletableFuture<?> first, CompletableFuture<?> hedge)
+   {
+      final CompletableFuture<Integer> WINNER = new CompletableFuture<>();
+      final AtomicInteger FAILURES = new AtomicInteger();
+      CompletableFuture<?>[] futures = { first, hedge };
+      for (int i = 0; i < futures.length; i++)
+      {
+         final int INDEX = i;
+         futures[i].whenComplete((value, ex) -> 
+         {
+            if (ex == null)
+            {
+               WINNER.complete(INDEX);
+            }
+            else if (FAILURES.incrementAndGet() == futures.length)
+            {
+               WINNER.completeExceptionally(ex);
+            }
+         });
+      }
+      return WINNER;
+   }
+   
+   /**
+    * @return 
+    *   The delay property within the HedgingPolicy instance
+    */
+   public long getDelay()
+   {
+      return this.delay;
+   }
+
+   /**
+    * @param delay 
+    *   The delay to set within the HedgingPolicy instance
+    */
+   public void setDelay(long delay)
+   {
+      this.delay = delay;
+   }
+
+   /**
+    * @return 
+    *   The percentile property within the HedgingPolicy instance
+    */
+   public double getPercentile()
+   {
+      return this.percentile;
+   }
+
+   /**
+    * @param percentile 
+    *   The percentile to set within the HedgingPolicy instance
+    */
+   public void setPercentile(double percentile)
+   {
+      this.percentile = percentile;
+   }
+
+   /**
+    * @return 
+    *   The budgetPercent property within the HedgingPolicy instance
+    */
+   public double getBudgetPercent()
+   {
+      return this.budgetPercent;
+   }
+
+   /**
+    * @param budgetPercent 
+    *   The budgetPercent to set within the HedgingPolicy instance
+    */
+   public void setBudgetPercent(double budgetPercent)
+   {
+      this.budgetPercent = budgetPercent;
+   }
+}
@@ -0,0 +1,73 @@
+package bjad.web.resilience;
+
+import java.net.URI;
+import java.util.Locale;
+
+import bjad.web.BJADWebRequest;
+
+/**
+ * Helper for keying the per host state of the 
+ * resilience policies.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+final class Hosts
+{
+   /**
+    * Hidden constructor to prevent instances from being created.
+    */
+   private Hosts()
+   {
+   }
+   
+   /**
+    * Returns the scheme, host, and port of the URL passed, 
+    * or the URL itself if it cannot be parsed.
+    * 
+    * @param url
+    *    The URL of the operation.
+    * @return
+    *    The key of the host for the URL.
+    */
+   static String keyOf(String url)
+   {
+      try
+      {
+         URI uri = new URI(url);
+         if (uri.getHost() != null)
+         {
+            return (uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort()).toLowerCase(Locale.ROOT);
+         }
+      }
+      catch (Exception ex)
+      {
+         // Fall through to use the URL as the key.
+      }
+      return String.valueOf(url);
+   }
+   
+   /**
+    * Returns the key of the endpoint for the request, its method 
+    * and URL without the query string.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @return
+    *    The key of the endpoint.
+    */
+   static String endpointKeyOf(BJADWebRequest request)
+   {
+      String url = String.valueOf(request.getUrl());
+      try
+      {
+         URI uri = new URI(url);
+         url = new URI(uri.getScheme(), uri.getAuthority(), uri.getPath(), null, null).toString();
+      }
+      catch (Exception ex)
+      {
+         // Use the full URL as the key.
+      }
+      return request.getMethod() + " " + url;
+   }
+}
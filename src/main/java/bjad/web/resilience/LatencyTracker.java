@@ -0,0 +1,79 @@
+package bjad.web.resilience;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent durations of the operations to an 
+ * endpoint in order to report the percentiles of its latency.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+class LatencyTracker
+{
+   /**
+    * The durations (in milliseconds), used as a ring.
+    */
+   private final long[] samples;
+   
+   /**
+    * The number of durations recorded in total.
+    */
+   private long count;
+   
+   /**
+    * Constructor, setting the number of durations kept.
+    * 
+    * @param size
+    *    The number of the most recent durations kept.
+    */
+   LatencyTracker(int size)
+   {
+      this.samples = new long[size];
+   }
+   
+   /**
+    * Records the duration of an operation.
+    * 
+    * @param millis
+    *    The duration of the operation, in milliseconds.
+    */
+   synchronized void record(long millis)
+   {
+      samples[(int)(count++ % samples.length)] = millis;
+   }
+   
+   /**
+    * @return
+    *    The number of durations kept, up to the size of the tracker.
+    */
+   synchronized int getSampleCount()
+   {
+      return (int)Math.min(count, samples.length);
+   }
+   
+   /**
+    * Returns the percentile of the durations kept.
+    * 
+    * @param percentile
+    *    The percentile to return, between 0 and 100.
+    * @return
+    *    The duration at the percentile, or -1 if no 
+    *    durations were recorded.
+    */
+   long getPercentile(double percentile)
+   {
+      long[] sorted;
+      synchronized (this)
+      {
+         sorted = Arrays.copyOf(samples, getSampleCount());
+      }
+      if (sorted.length == 0)
+      {
+         return -1;
+      }
+      Arrays.sort(sorted);
+      int index = (int)Math.ceil(percentile / 100.0 * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+   }
+}
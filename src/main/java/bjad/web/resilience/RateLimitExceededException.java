@@ -0,0 +1,62 @@
+package bjad.web.resilience;
+
+import bjad.web.BJADWebException;
+
+/**
+ * Exception thrown, without sending the request, when the 
+ * rate limiter for the operation has no permit available 
+ * within the time the caller is willing to wait.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class RateLimitExceededException extends BJADWebException
+{
+   /**
+    * Serial number needed for the serialization warning. 
+    */
+   private static final long serialVersionUID = 5190457216843287722L;
+   
+   /**
+    * The key of the rate limiter.
+    */
+   private final String key;
+   
+   /**
+    * The number of milliseconds until a permit is available.
+    */
+   private final long retryAfter;
+   
+   /**
+    * Creates the exception for the limiter passed.
+    * 
+    * @param key
+    *    The key of the rate limiter.
+    * @param retryAfter
+    *    The number of milliseconds until a permit is available.
+    */
+   public RateLimitExceededException(String key, long retryAfter)
+   {
+      super("Rate limit for " + key + " exceeded, the next permit is available in " + retryAfter + "ms.");
+      this.key = key;
+      this.retryAfter = retryAfter;
+   }
+
+   /**
+    * @return 
+    *   The key property within the RateLimitExceededException instance
+    */
+   public String getKey()
+   {
+      return this.key;
+   }
+
+   /**
+    * @return 
+    *   The retryAfter property within the RateLimitExceededException instance
+    */
+   public long getRetryAfter()
+   {
+      return this.retryAfter;
+   }
+}
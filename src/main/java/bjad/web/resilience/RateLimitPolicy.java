@@ -0,0 +1,275 @@
+package bjad.web.resilience;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.http.HttpEntity;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+import bjad.web.transport.TransportResponse;
+
+/**
+ * Settings bean and executor for the rate limiters of the 
+ * operations, shared within the process for each host, or for 
+ * each named limit group when a group is set so several hosts 
+ * (or several partner APIs on one host) can share a limit. 
+ * Each call sent, including each retry and hedge, takes a permit.
+ * <p>
+ * Blocking callers wait for their permit, up to the maximum 
+ * wait, while non-blocking callers only take a permit available
+ * right away. A call that does not get a permit fails with a 
+ * {@link RateLimitExceededException} without sending anything.
+ * The limiter for a key is created with the rate and burst of 
+ * the first policy using the key.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class RateLimitPolicy
+{
+   /**
+    * The rate limiters shared within the process.
+    */
+   private static final ConcurrentMap<String, RateLimiter> LIMITERS = new ConcurrentHashMap<>();
+   
+   /**
+    * The number of permits per second.
+    */
+   protected double permitsPerSecond;
+   
+   /**
+    * The number of permits available at once after a quiet period.
+    */
+   protected int burst = 1;
+   
+   /**
+    * The maximum number of milliseconds a blocking caller waits 
+    * for a permit. Zero or less waits as long as needed.
+    */
+   protected long maxWait = 0;
+   
+   /**
+    * Flag to wait for the permit rather than failing right away 
+    * when none is available.
+    */
+   protected boolean blocking = true;
+   
+   /**
+    * The name of the limit group to share the limiter of, or 
+    * null to use a limiter for the host of the request.
+    */
+   protected String group;
+   
+   /**
+    * Default constructor, the permits per second must be set 
+    * before the policy is used.
+    */
+   public RateLimitPolicy()
+   {
+   }
+   
+   /**
+    * Constructor, setting the number of permits per second.
+    * 
+    * @param permitsPerSecond
+    *    The number of permits per second.
+    */
+   public RateLimitPolicy(double permitsPerSecond)
+   {
+      this.permitsPerSecond = permitsPerSecond;
+   }
+   
+   /**
+    * Copy constructor, copying the settings from the 
+    * source policy passed.
+    * 
+    * @param source
+    *    The policy to copy.
+    */
+   public RateLimitPolicy(RateLimitPolicy source)
+   {
+      this.permitsPerSecond = source.getPermitsPerSecond();
+      this.burst = source.getBurst();
+      this.maxWait = source.getMaxWait();
+      this.blocking = source.isBlocking();
+      this.group = source.getGroup();
+   }
+   
+   /**
+    * Returns the rate limiter shared within the process for the 
+    * group of the policy or the host of the request, creating it 
+    * on first use.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @return
+    *    The rate limiter.
+    */
+   public RateLimiter getRateLimiter(BJADWebRequest request)
+   {
+      String key = group != null && !group.trim().isEmpty() ? "group:" + group.trim() : Hosts.keyOf(request.getUrl());
+      return LIMITERS.computeIfAbsent(key, k -> new RateLimiter(k, permitsPerSecond, burst));
+   }
+   
+   /**
+    * Takes a permit for the request, waiting for it if the 
+    * policy is blocking.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @throws BJADWebException
+    *    A RateLimitExceededException if no permit is available 
+    *    within the wait allowed, or if interrupted while waiting.
+    */
+   public void acquire(BJADWebRequest request) throws BJADWebException
+   {
+      RateLimiter limiter = getRateLimiter(request);
+      long maxWaitNanos = !blocking ? 0 : maxWait > 0 ? TimeUnit.MILLISECONDS.toNanos(maxWait) : -1;
+      long wait = limiter.reserve(maxWaitNanos);
+      if (wait < 0)
+      {
+         throw new RateLimitExceededException(limiter.getKey(), 
+               Math.max(1, TimeUnit.NANOSECONDS.toMillis(-wait)));
+      }
+      
+      final long DEADLINE = System.nanoTime() + wait;
+      for (long remaining = wait; remaining > 0; remaining = DEADLINE - System.nanoTime())
+      {
+         LockSupport.parkNanos(this, remaining);
+         if (Thread.interrupted())
+         {
+            Thread.currentThread().interrupt();
+            throw new BJADWebException("Interrupted while waiting for the rate limit permit.");
+         }
+      }
+   }
+   
+   /**
+    * Takes a permit for an extra call (such as a hedge) only if 
+    * one is available right away.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @return
+    *    True if the permit was taken.
+    */
+   public boolean tryAcquire(BJADWebRequest request)
+   {
+      return getRateLimiter(request).tryAcquire();
+   }
+   
+   /**
+    * Takes a permit for the request and sends it through the 
+    * call passed.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param body
+    *    The body to send, or null if the request has no body.
+    * @param call
+    *    The call sending the request.
+    * @return
+    *    The response of the call, which the caller must close.
+    * @throws BJADWebException
+    *    A RateLimitExceededException if no permit was available,
+    *    or the exception of the call.
+    */
+   public TransportResponse execute(BJADWebRequest request, HttpEntity body, TransportCall call) throws BJADWebException
+   {
+      acquire(request);
+      return call.send(request, body);
+   }
+
+   /**
+    * @return 
+    *   The permitsPerSecond property within the RateLimitPolicy instance
+    */
+   public double getPermitsPerSecond()
+   {
+      return this.permitsPerSecond;
+   }
+
+   /**
+    * @param permitsPerSecond 
+    *   The permitsPerSecond to set within the RateLimitPolicy instance
+    */
+   public void setPermitsPerSecond(double permitsPerSecond)
+   {
+      this.permitsPerSecond = permitsPerSecond;
+   }
+
+   /**
+    * @return 
+    *   The burst property within the RateLimitPolicy instance
+    */
+   public int getBurst()
+   {
+      return this.burst;
+   }
+
+   /**
+    * @param burst 
+    *   The burst to set within the RateLimitPolicy instance
+    */
+   public void setBurst(int burst)
+   {
+      this.burst = burst;
+   }
+
+   /**
+    * @return 
+    *   The maxWait property within the RateLimitPolicy instance
+    */
+   public long getMaxWait()
+   {
+      return this.maxWait;
+   }
+
+   /**
+    * @param maxWait 
+    *   The maxWait to set within the RateLimitPolicy instance
+    */
+   public void setMaxWait(long maxWait)
+   {
+      this.maxWait = maxWait;
+   }
+
+   /**
+    * @return 
+    *   The blocking property within the RateLimitPolicy instance
+    */
+   public boolean isBlocking()
+   {
+      return this.blocking;
+   }
+
+   /**
+    * @param blocking 
+    *   The blocking to set within the RateLimitPolicy instance
+    */
+   public void setBlocking(boolean blocking)
+   {
+      this.blocking = blocking;
+   }
+
+   /**
+    * @return 
+    *   The group property within the RateLimitPolicy instance
+    */
+   public String getGroup()
+   {
+      return this.group;
+   }
+
+   /**
+    * @param group 
+    *   The group to set within the RateLimitPolicy instance
+    */
+   public void setGroup(String group)
+   {
+      this.group = group;
+   }
+}
@@ -0,0 +1,153 @@
+package bjad.web.resilience;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free rate limiter using the generic cell rate algorithm
+ * (GCRA), the token bucket expressed as the theoretical arrival 
+ * time of the next call. Permits are spaced evenly at the rate, 
+ * with up to the burst size available at once after a quiet 
+ * period, so the calls run right up to the rate without going 
+ * over it within any window.
+ * <p>
+ * A permit is reserved with a single compare-and-set, returning 
+ * how long the caller must wait before using it, so waiting 
+ * callers are served in order without holding a lock.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class RateLimiter
+{
+   /**
+    * The key of the limiter.
+    */
+   private final String key;
+   
+   /**
+    * The number of permits per second.
+    */
+   private final double permitsPerSecond;
+   
+   /**
+    * The number of permits available at once.
+    */
+   private final int burst;
+   
+   /**
+    * The nanoseconds between permits.
+    */
+   private final long interval;
+   
+   /**
+    * The nanoseconds a call can arrive ahead of its theoretical 
+    * arrival time, allowing the burst.
+    */
+   private final long tolerance;
+   
+   /**
+    * The theoretical arrival time (System.nanoTime) of the 
+    * next call.
+    */
+   private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE / 2);
+   
+   /**
+    * Constructor, setting the rate and burst of the limiter.
+    * 
+    * @param key
+    *    The key of the limiter.
+    * @param permitsPerSecond
+    *    The number of permits per second.
+    * @param burst
+    *    The number of permits available at once, at least 1.
+    * @throws IllegalArgumentException
+    *    If the rate is not above 0.
+    */
+   public RateLimiter(String key, double permitsPerSecond, int burst) throws IllegalArgumentException
+   {
+      if (permitsPerSecond <= 0)
+      {
+         throw new IllegalArgumentException("Permits per second must be above 0.");
+      }
+      this.key = key;
+      this.permitsPerSecond = permitsPerSecond;
+      this.burst = Math.max(1, burst);
+      this.interval = Math.max(1, (long)(TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+      this.tolerance = interval * (this.burst - 1);
+   }
+   
+   /**
+    * Reserves a permit if it is available within the maximum 
+    * wait passed. The caller must wait the returned number of 
+    * nanoseconds before using the permit.
+    * 
+    * @param maxWaitNanos
+    *    The maximum nanoseconds the caller will wait, 0 to only
+    *    take a permit available now, or below 0 for no limit.
+    * @return
+    *    The nanoseconds to wait before using the permit, or the 
+    *    negated nanoseconds until a permit is available (below 0) 
+    *    if no permit was reserved.
+    */
+   public long reserve(long maxWaitNanos)
+   {
+      while (true)
+      {
+         long now = System.nanoTime();
+         long arrival = theoreticalArrival.get();
+         long start = arrival - now > 0 ? arrival : now;
+         long wait = start - tolerance - now;
+         if (wait < 0)
+         {
+            wait = 0;
+         }
+         if (maxWaitNanos >= 0 && wait > maxWaitNanos)
+         {
+            return -wait;
+         }
+         if (theoreticalArrival.compareAndSet(arrival, start + interval))
+         {
+            return wait;
+         }
+      }
+   }
+   
+   /**
+    * Takes a permit only if it is available now.
+    * 
+    * @return
+    *    True if the permit was taken.
+    */
+   public boolean tryAcquire()
+   {
+      return reserve(0) == 0;
+   }
+   
+   /**
+    * @return 
+    *   The key property within the RateLimiter instance
+    */
+   public String getKey()
+   {
+      return this.key;
+   }
+
+   /**
+    * @return 
+    *   The permitsPerSecond property within the RateLimiter instance
+    */
+   public double getPermitsPerSecond()
+   {
+      return this.permitsPerSecond;
+   }
+
+   /**
+    * @return 
+    *   The burst property within the RateLimiter instance
+    */
+   public int getBurst()
+   {
+      return this.burst;
+   }
+}
@@ -0,0 +1,146 @@
+package bjad.web.resilience;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.http.HttpEntity;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+import bjad.web.BJADWebResponse;
+import bjad.web.transport.TransportResponse;
+import bjad.web.transport.WebTransport;
+
+/**
+ * Sends the requests through the resilience policies set within
+ * the request. The send of the transport is hedged if the request
+ * has a hedging policy, rejected while the circuit breaker of the
+ * request is open, held above the adaptive concurrency limit of
+ * the request, spaced by the rate limiter of the request, and
+ * retried if the request has a retry policy.
+ * <p>
+ * Every operation of the web component goes through the pipeline,
+ * the blocking and asynchronous operations, the cached fetches,
+ * and the downloads. The downloads are not hedged, as the hedged
+ * requests hold their full body in memory.
+ * 
+ * @author 
+ *  Ben Dougall
+ */
+public final class ResiliencePipeline
+{
+   /**
+    * Hidden constructor to prevent instances from being created.
+    */
+   private ResiliencePipeline()
+   {
+   }
+   
+   /**
+    * Sends the request through the policies of the request,
+    * hedging the request if its hedging policy allows it.
+    * 
+    * @param request 
+    *    The request for the operation.
+    * @param entity 
+    *    The body to send, or null if the request has no body.
+    * @return 
+    *    The response from the web server, which the caller
+    *    must close.
+    * @throws BJADWebException 
+    *    Any exceptions sending the request will be thrown.
+    */
+   public static TransportResponse send(BJADWebRequest request, HttpEntity entity) throws BJADWebException
+   {
+      return send(request, entity, true);
+   }
+   
+   /**
+    * Sends the request through the policies of the request.
+    * 
+    * @param request 
+    *    The request for the operation.
+    * @param entity 
+    *    The body to send, or null if the request has no body.
+    * @param hedge 
+    *    False to skip the hedging policy, for the operations
+    *    streaming a body too large to hold in memory.
+    * @return 
+    *    The response from the web server, which the caller
+    *    must close.
+    * @throws BJADWebException 
+    *    Any exceptions sending the request will be thrown.
+    */
+   public static TransportResponse send(BJADWebRequest request, HttpEntity entity, boolean hedge) throws BJADWebException
+   {
+      TransportCall call = (req, body) -> req.getTransport().send(req, body);
+      HedgingPolicy hedgingPolicy = request.getHedgingPolicy();
+      if (hedge && hedgingPolicy != null && entity == null && HedgingPolicy.isHedgeable(request.getMethod()))
+      {
+         call = hedgingPolicy::execute;
+      }
+      CircuitBreakerPolicy circuitBreakerPolicy = request.getCircuitBreakerPolicy();
+      if (circuitBreakerPolicy != null)
+      {
+         TransportCall breakerCall = call;
+         call = (req, body) -> circuitBreakerPolicy.execute(req, body, breakerCall);
+      }
+      ConcurrencyLimitPolicy concurrencyLimitPolicy = request.getConcurrencyLimitPolicy();
+      if (concurrencyLimitPolicy != null)
+      {
+         TransportCall concurrencyCall = call;
+         call = (req, body) -> concurrencyLimitPolicy.execute(req, body, concurrencyCall);
+      }
+      RateLimitPolicy rateLimitPolicy = request.getRateLimitPolicy();
+      if (rateLimitPolicy != null)
+      {
+         TransportCall limitedCall = call;
+         call = (req, body) -> rateLimitPolicy.execute(req, body, limitedCall);
+      }
+      RetryPolicy retryPolicy = request.getRetryPolicy();
+      return retryPolicy == null ? call.send(request, entity) : retryPolicy.execute(request, entity, call);
+   }
+   
+   /**
+    * Sends the request asynchronously through the policies of the
+    * request, completing the future with the response and its full
+    * body. Requests without any policy use the asynchronous send of
+    * their transport. The policies wait for permits, slots, and
+    * retries, so requests with a policy are sent through the
+    * blocking pipeline on the shared thread pool of the transports,
+    * where cancelling the future aborts the response once received,
+    * but does not end the waits and retries before it.
+    * 
+    * @param request 
+    *    The request for the operation.
+    * @param entity 
+    *    The body to send, or null if the request has no body.
+    * @return 
+    *    The future completed with the response, or completed
+    *    exceptionally with a BJADWebException.
+    */
+   public static CompletableFuture<BJADWebResponse<byte[]>> sendAsync(BJADWebRequest request, HttpEntity entity)
+   {
+      if (!hasPolicies(request))
+      {
+         return request.getTransport().sendAsync(request, entity);
+      }
+      WebTransport pipeline = ResiliencePipeline::send;
+      return pipeline.sendAsync(request, entity);
+   }
+   
+   /**
+    * Returns if the request has any of the resilience policies set.
+    * 
+    * @param request 
+    *    The request for the operation.
+    * @return 
+    *    True if the request has a retry, hedging, circuit breaker,
+    *    rate limit, or concurrency limit policy.
+    */
+   public static boolean hasPolicies(BJADWebRequest request)
+   {
+      return request.getRetryPolicy() != null || request.getHedgingPolicy() != null ||
+            request.getCircuitBreakerPolicy() != null || request.getRateLimitPolicy() != null ||
+            request.getConcurrencyLimitPolicy() != null;
+   }
+}
@@ -0,0 +1,455 @@
+package bjad.web.resilience;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpEntity;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.utils.DateUtils;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+import bjad.web.transport.TransportResponse;
+
+/**
+ * Settings bean and executor for retrying the failed 
+ * operations of a request. The operation is retried when the
+ * server returns one of the retryable status codes, or the
+ * send fails with a timeout or one of the retryable exception
+ * classes, waiting a random time between zero and the 
+ * exponential backoff (full jitter) so the callers do not
+ * retry in lockstep. A Retry-After header returned by the 
+ * server is used as the wait instead, when within the 
+ * maximum backoff.
+ * <p>
+ * Only the idempotent methods are retried unless the 
+ * non-idempotent methods are enabled, and the operations 
+ * with a body that cannot be sent again are never retried.
+ * The retries to each host are limited by a shared 
+ * {@link TokenBudget} to a percentage of the operations sent.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class RetryPolicy
+{
+   /**
+    * The default maximum number of attempts, including the 
+    * first attempt.
+    */
+   public static final int DEFAULT_MAX_ATTEMPTS = 3;
+   
+   /**
+    * The default base backoff (in milliseconds).
+    */
+   public static final long DEFAULT_BASE_BACKOFF = 100;
+   
+   /**
+    * The default maximum backoff (in milliseconds).
+    */
+   public static final long DEFAULT_MAX_BACKOFF = 10000;
+   
+   /**
+    * The default percentage of the operations to a host 
+    * that can be retried.
+    */
+   public static final double DEFAULT_BUDGET_PERCENT = 20;
+   
+   /**
+    * The status codes retried by default (429, 502, 503, and 504).
+    */
+   public static final Set<Integer> DEFAULT_STATUS_CODES = 
+         new LinkedHashSet<>(Arrays.asList(429, 502, 503, 504));
+   
+   /**
+    * The maximum number of attempts, including the first attempt.
+    */
+   protected int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+   
+   /**
+    * The backoff (in milliseconds) before the first retry, 
+    * doubled for each retry after.
+    */
+   protected long baseBackoff = DEFAULT_BASE_BACKOFF;
+   
+   /**
+    * The maximum backoff (in milliseconds) between attempts.
+    */
+   protected long maxBackoff = DEFAULT_MAX_BACKOFF;
+   
+   /**
+    * The status codes that are retried.
+    */
+   protected Set<Integer> retryStatusCodes = new LinkedHashSet<>(DEFAULT_STATUS_CODES);
+   
+   /**
+    * The exception classes that are retried when found within 
+    * the causes of the failure. Timeouts are always retried.
+    */
+   protected List<Class<? extends Throwable>> retryExceptions = new ArrayList<>(
+         Arrays.asList(java.net.ConnectException.class, NoHttpResponseException.class));
+   
+   /**
+    * Flag to retry the non-idempotent methods (POST and PATCH).
+    */
+   protected boolean retryNonIdempotent = false;
+   
+   /**
+    * The percentage of the operations to a host that can be retried.
+    */
+   protected double budgetPercent = DEFAULT_BUDGET_PERCENT;
+   
+   /**
+    * Default constructor, using the default retry settings.
+    */
+   public RetryPolicy()
+   {
+   }
+   
+   /**
+    * Copy constructor, copying the settings from the 
+    * source policy passed.
+    * 
+    * @param source
+    *    The policy to copy.
+    */
+   public RetryPolicy(RetryPolicy source)
+   {
+      this.maxAttempts = source.getMaxAttempts();
+      this.baseBackoff = source.getBaseBackoff();
+      this.maxBackoff = source.getMaxBackoff();
+      this.retryStatusCodes = new LinkedHashSet<>(source.getRetryStatusCodes());
+      this.retryExceptions = new ArrayList<>(source.getRetryExceptions());
+      this.retryNonIdempotent = source.isRetryNonIdempotent();
+      this.budgetPercent = source.getBudgetPercent();
+   }
+   
+   /**
+    * Sends the request through the call passed, retrying the 
+    * failed attempts as allowed by the policy.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param body
+    *    The body to send, or null if the request has no body.
+    * @param call
+    *    The call sending a single attempt.
+    * @return
+    *    The response of the last attempt, which the caller must 
+    *    close.
+    * @throws BJADWebException
+    *    The exception of the last attempt, if it failed.
+    */
+   public TransportResponse execute(BJADWebRequest request, HttpEntity body, TransportCall call) throws BJADWebException
+   {
+      TokenBudget budget = TokenBudget.getSharedInstance(Hosts.keyOf(request.getUrl()), budgetPercent);
+      budget.deposit();
+      boolean retryable = (body == null || body.isRepeatable()) && 
+            (retryNonIdempotent || request.getMethod() == null || request.getMethod().isIdempotent());
+      
+      for (int attempt = 1; ; attempt++)
+      {
+         boolean last = !retryable || attempt >= maxAttempts;
+         TransportResponse response;
+         try
+         {
+            response = call.send(request, body);
+         }
+         catch (BJADWebException ex)
+         {
+            if (last || !isRetryableException(ex) || !budget.tryWithdraw())
+            {
+               throw ex;
+            }
+            backoff(request, attempt, getBackoff(attempt), ex.getMessage());
+            continue;
+         }
+         
+         if (last || !retryStatusCodes.contains(response.getStatusCode()))
+         {
+            return response;
+         }
+         long delay = getBackoff(attempt);
+         String retryAfter = response.getHeader("Retry-After");
+         if (retryAfter != null)
+         {
+            delay = getRetryAfter(retryAfter, delay);
+            if (delay > maxBackoff)
+            {
+               return response;
+            }
+         }
+         if (!budget.tryWithdraw())
+         {
+            return response;
+         }
+         closeQuietly(response);
+         backoff(request, attempt, delay, "status " + response.getStatusCode());
+      }
+   }
+   
+   /**
+    * Returns if the exception passed is a timeout or has one 
+    * of the retryable exception classes within its causes. The
+    * calls rejected by an open circuit breaker or a rate limiter 
+    * are not retried.
+    * 
+    * @param ex
+    *    The exception of the failed attempt.
+    * @return
+    *    True if the attempt can be retried.
+    */
+   public boolean isRetryableException(BJADWebException ex)
+   {
+      if (ex instanceof CircuitBreakerOpenException || ex instanceof RateLimitExceededException || 
+            ex instanceof ConcurrencyLimitExceededException)
+      {
+         return false;
+      }
+      if (ex.isTimeoutException())
+      {
+         return true;
+      }
+      for (Throwable cause = ex; cause != null; cause = cause.getCause())
+      {
+         for (Class<? extends Throwable> retryClass : retryExceptions)
+         {
+            if (retryClass.isInstance(cause))
+            {
+               return true;
+            }
+         }
+      }
+      return false;
+   }
+   
+   /**
+    * Returns the random backoff before the retry of the attempt
+    * passed, between zero and the base backoff doubled for each
+    * prior retry, capped at the maximum backoff.
+    * 
+    * @param attempt
+    *    The number of the attempt that failed, starting at 1.
+    * @return
+    *    The number of milliseconds to wait.
+    */
+   public long getBackoff(int attempt)
+   {
+      long ceiling = baseBackoff << Math.min(attempt - 1, 30);
+      if (ceiling <= 0 || ceiling > maxBackoff)
+      {
+         ceiling = maxBackoff;
+      }
+      return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+   }
+   
+   /**
+    * Converts the Retry-After header, in seconds or as a HTTP 
+    * date, to the number of milliseconds to wait.
+    * 
+    * @param value
+    *    The value of the Retry-After header.
+    * @param defaultValue
+    *    The wait to use if the header cannot be parsed.
+    * @return
+    *    The number of milliseconds to wait.
+    */
+   static long getRetryAfter(String value, long defaultValue)
+   {
+      try
+      {
+         return Math.max(0, Long.parseLong(value.trim()) * 1000);
+      }
+      catch (NumberFormatException ex)
+      {
+         Date date = DateUtils.parseDate(value.trim());
+         return date == null ? defaultValue : Math.max(0, date.getTime() - System.currentTimeMillis());
+      }
+   }
+   
+   /**
+    * Waits before the next attempt.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param attempt
+    *    The number of the attempt that failed.
+    * @param delay
+    *    The number of milliseconds to wait.
+    * @param reason
+    *    The reason of the failure, for the log.
+    * @throws BJADWebException
+    *    If the thread is interrupted while waiting.
+    */
+   private void backoff(BJADWebRequest request, int attempt, long delay, String reason) throws BJADWebException
+   {
+      Log log = LogFactory.getLog(request.getLoggerName());
+      if (log.isInfoEnabled())
+      {
+         log.info(String.format("RETRY %s %s attempt %d of %d failed (%s), retrying in %dms", 
+               request.getMethod(), request.getUrl(), attempt, maxAttempts, reason, delay));
+      }
+      try
+      {
+         Thread.sleep(delay);
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+         throw new BJADWebException("Interrupted while waiting to retry the operation.", ex);
+      }
+   }
+   
+   /**
+    * Closes the response of the failed attempt, ignoring 
+    * any exceptions.
+    * 
+    * @param response
+    *    The response to close.
+    */
+   private static void closeQuietly(TransportResponse response)
+   {
+      try
+      {
+         response.close();
+      }
+      catch (IOException ex)
+      {
+         // Nothing to do, the attempt is being retried.
+      }
+   }
+
+   /**
+    * @return 
+    *   The maxAttempts property within the RetryPolicy instance
+    */
+   public int getMaxAttempts()
+   {
+      return this.maxAttempts;
+   }
+
+   /**
+    * @param maxAttempts 
+    *   The maxAttempts to set within the RetryPolicy instance
+    */
+   public void setMaxAttempts(int maxAttempts)
+   {
+      this.maxAttempts = maxAttempts;
+   }
+
+   /**
+    * @return 
+    *   The baseBackoff property within the RetryPolicy instance
+    */
+   public long getBaseBackoff()
+   {
+      return this.baseBackoff;
+   }
+
+   /**
+    * @param baseBackoff 
+    *   The baseBackoff to set within the RetryPolicy instance
+    */
+   public void setBaseBackoff(long baseBackoff)
+   {
+      this.baseBackoff = baseBackoff;
+   }
+
+   /**
+    * @return 
+    *   The maxBackoff property within the RetryPolicy instance
+    */
+   public long getMaxBackoff()
+   {
+      return this.maxBackoff;
+   }
+
+   /**
+    * @param maxBackoff 
+    *   The maxBackoff to set within the RetryPolicy instance
+    */
+   public void setMaxBackoff(long maxBackoff)
+   {
+      this.maxBackoff = maxBackoff;
+   }
+
+   /**
+    * @return 
+    *   The retryStatusCodes property within the RetryPolicy instance
+    */
+   public Set<Integer> getRetryStatusCodes()
+   {
+      return this.retryStatusCodes;
+   }
+
+   /**
+    * @param retryStatusCodes 
+    *   The retryStatusCodes to set within the RetryPolicy instance
+    */
+   public void setRetryStatusCodes(Set<Integer> retryStatusCodes)
+   {
+      this.retryStatusCodes = retryStatusCodes;
+   }
+
+   /**
+    * @return 
+    *   The retryExceptions property within the RetryPolicy instance
+    */
+   public List<Class<? extends Throwable>> getRetryExceptions()
+   {
+      return this.retryExceptions;
+   }
+
+   /**
+    * @param retryExceptions 
+    *   The retryExceptions to set within the RetryPolicy instance
+    */
+   public void setRetryExceptions(List<Class<? extends Throwable>> retryExceptions)
+   {
+      this.retryExceptions = retryExceptions;
+   }
+
+   /**
+    * @return 
+    *   The retryNonIdempotent property within the RetryPolicy instance
+    */
+   public boolean isRetryNonIdempotent()
+   {
+      return this.retryNonIdempotent;
+   }
+
+   /**
+    * @param retryNonIdempotent 
+    *   The retryNonIdempotent to set within the RetryPolicy instance
+    */
+   public void setRetryNonIdempotent(boolean retryNonIdempotent)
+   {
+      this.retryNonIdempotent = retryNonIdempotent;
+   }
+
+   /**
+    * @return 
+    *   The budgetPercent property within the RetryPolicy instance
+    */
+   public double getBudgetPercent()
+   {
+      return this.budgetPercent;
+   }
+
+   /**
+    * @param budgetPercent 
+    *   The budgetPercent to set within the RetryPolicy instance
+    */
+   public void setBudgetPercent(double budgetPercent)
+   {
+      this.budgetPercent = budgetPercent;
+   }
+}
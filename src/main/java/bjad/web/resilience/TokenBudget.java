@@ -0,0 +1,144 @@
+package bjad.web.resilience;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limiting the extra calls (retries or hedges) 
+ * to a percentage of the live calls. Each live call deposits 
+ * the percentage of a token, up to the maximum number of 
+ * tokens, and each extra call withdraws a whole token, so when
+ * the server struggles and every call needs a retry, the 
+ * retries stop at the percentage of the traffic instead of 
+ * multiplying the load.
+ * <p>
+ * The bucket starts full so a quiet client can still retry 
+ * the first failures.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class TokenBudget
+{
+   /**
+    * The default maximum number of tokens held by the budget.
+    */
+   public static final int DEFAULT_MAX_TOKENS = 10;
+   
+   /**
+    * The number of units within a whole token, so the fractions
+    * deposited can be held within a long.
+    */
+   private static final long UNITS_PER_TOKEN = 1000;
+   
+   /**
+    * The budgets shared within the process.
+    */
+   private static final ConcurrentMap<String, TokenBudget> SHARED_BUDGETS = new ConcurrentHashMap<>();
+   
+   /**
+    * The units deposited for each live call.
+    */
+   private final long depositUnits;
+   
+   /**
+    * The maximum number of units held.
+    */
+   private final long maxUnits;
+   
+   /**
+    * The units currently held.
+    */
+   private final AtomicLong units;
+   
+   /**
+    * Constructor, setting the percentage of the live calls 
+    * allowed as extra calls, with the default maximum tokens.
+    * 
+    * @param percent
+    *    The percentage of the live calls allowed as extra calls.
+    */
+   public TokenBudget(double percent)
+   {
+      this(percent, DEFAULT_MAX_TOKENS);
+   }
+   
+   /**
+    * Constructor, setting the percentage of the live calls 
+    * allowed as extra calls and the maximum tokens held.
+    * 
+    * @param percent
+    *    The percentage of the live calls allowed as extra calls.
+    * @param maxTokens
+    *    The maximum number of tokens held, limiting the burst
+    *    of extra calls after a quiet period.
+    * @throws IllegalArgumentException
+    *    If the percentage or maximum tokens are negative.
+    */
+   public TokenBudget(double percent, int maxTokens) throws IllegalArgumentException
+   {
+      if (percent < 0 || maxTokens < 0)
+      {
+         throw new IllegalArgumentException("Percentage and maximum tokens cannot be negative.");
+      }
+      this.depositUnits = Math.round(percent / 100.0 * UNITS_PER_TOKEN);
+      this.maxUnits = maxTokens * UNITS_PER_TOKEN;
+      this.units = new AtomicLong(maxUnits);
+   }
+   
+   /**
+    * Returns the budget shared within the process for the key 
+    * and percentage passed, creating it on first use.
+    * 
+    * @param key
+    *    The key of the budget, such as the host of the calls.
+    * @param percent
+    *    The percentage of the live calls allowed as extra calls.
+    * @return
+    *    The shared budget.
+    */
+   public static TokenBudget getSharedInstance(String key, double percent)
+   {
+      return SHARED_BUDGETS.computeIfAbsent(key + "|" + percent, k -> new TokenBudget(percent));
+   }
+   
+   /**
+    * Records a live call, depositing the percentage of a token.
+    */
+   public void deposit()
+   {
+      units.accumulateAndGet(depositUnits, (current, add) -> Math.min(maxUnits, current + add));
+   }
+   
+   /**
+    * Withdraws a token for an extra call if one is available.
+    * 
+    * @return
+    *    True if the token was withdrawn and the extra call can 
+    *    be made, false if the budget is spent.
+    */
+   public boolean tryWithdraw()
+   {
+      long current;
+      do
+      {
+         current = units.get();
+         if (current < UNITS_PER_TOKEN)
+         {
+            return false;
+         }
+      }
+      while (!units.compareAndSet(current, current - UNITS_PER_TOKEN));
+      return true;
+   }
+   
+   /**
+    * @return
+    *    The number of tokens currently held.
+    */
+   public double getTokens()
+   {
+      return units.get() / (double)UNITS_PER_TOKEN;
+   }
+}
@@ -0,0 +1,33 @@
+package bjad.web.resilience;
+
+import org.apache.http.HttpEntity;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+import bjad.web.transport.TransportResponse;
+
+/**
+ * A single send of the request to the web server, 
+ * wrapped by the resilience policies.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+@FunctionalInterface
+public interface TransportCall
+{
+   /**
+    * Sends the request to the web server.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @param body
+    *    The body to send, or null if the request has no body.
+    * @return
+    *    The response from the web server, which the caller 
+    *    must close.
+    * @throws BJADWebException
+    *    Any exceptions sending the request will be thrown.
+    */
+   public TransportResponse send(BJADWebRequest request, HttpEntity body) throws BJADWebException;
+}
@@ -0,0 +1,14 @@
+/**
+ * Package containing the policies protecting the web 
+ * servers and the callers from failures and slow 
+ * responses, such as the retry and hedging policies, the
+ * circuit breakers, the rate and adaptive concurrency limits, 
+ * and the token budget limiting the load the retries and 
+ * hedges add to a struggling server. The policies of a 
+ * request are applied to its operations by the 
+ * {@link bjad.web.resilience.ResiliencePipeline}.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+package bjad.web.resilience;
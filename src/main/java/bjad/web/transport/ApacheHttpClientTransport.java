@@ -0,0 +1,322 @@
+package bjad.web.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpOptions;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpTrace;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.util.EntityUtils;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+import bjad.web.BJADWebResponse;
+import bjad.web.connection.HttpClientRegistry;
+
+/**
+ * The default transport, completing the exchanges using the 
+ * shared, pooled Apache HTTP clients from the HttpClientRegistry
+ * and the non-blocking Apache asynchronous client for the 
+ * asynchronous operations.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class ApacheHttpClientTransport implements WebTransport
+{
+   /**
+    * Shared instance used when a request has no transport set.
+    */
+   public static final ApacheHttpClientTransport INSTANCE = new ApacheHttpClientTransport();
+   
+   @Override
+   public TransportResponse send(BJADWebRequest request, HttpEntity body) throws BJADWebException
+   {
+      // Get the shared, pooled HTTP client for the request's connection details, 
+      // or a new client for the operation if pooling is turned off.
+      final boolean POOLED = request.getConnectionPoolSettings().isPooled();
+      final CloseableHttpClient HTTPCLIENT = POOLED ? 
+            HttpClientRegistry.getClient(request) : 
+            HttpClientRegistry.createUnpooledClient(request);
+      try
+      {
+         HttpRequestBase httpRequest = buildHttpRequest(request, body);
+         
+         long duration = System.currentTimeMillis();
+         final CloseableHttpResponse RESPONSE = HTTPCLIENT.execute(httpRequest, createContext());
+         duration = System.currentTimeMillis() - duration;
+         
+         // Closing the response after the entity is consumed returns the 
+         // connection to the pool, and closes the client if it is not shared.
+         // Closing it before the entity is consumed aborts the request.
+         HttpEntity entity = RESPONSE.getEntity();
+         InputStream content = entity == null ? null : entity.getContent();
+         return new TransportResponse(RESPONSE.getStatusLine().getStatusCode(), 
+               readHeaders(RESPONSE), content, entity == null ? 0 : entity.getContentLength(), duration, 
+               () -> 
+               {
+                  try
+                  {
+                     RESPONSE.close();
+                  }
+                  finally
+                  {
+                     if (!POOLED)
+                     {
+                        HTTPCLIENT.close();
+                     }
+                  }
+               }, 
+               httpRequest::abort);
+      }
+      catch (Exception ex)
+      {
+         if (!POOLED)
+         {
+            closeQuietly(HTTPCLIENT);
+         }
+         throw new BJADWebException(ex);
+      }
+   }
+   
+   /**
+    * Completes the exchange on the non-blocking I/O threads 
+    * of the shared asynchronous client, so no thread is blocked
+    * while the operation is in flight. Cancelling the returned 
+    * future aborts the HTTP operation.
+    * <p>
+    * Streaming bodies, such as the streaming JSON and multipart 
+    * bodies, are written to the output stream rather than read 
+    * from their content by the non-blocking client, so they are
+    * sent through the blocking exchange on the shared thread pool.
+    * 
+    * @see bjad.web.transport.WebTransport#sendAsync(bjad.web.BJADWebRequest, org.apache.http.HttpEntity)
+    */
+   @Override
+   public CompletableFuture<BJADWebResponse<byte[]>> sendAsync(BJADWebRequest request, HttpEntity body)
+   {
+      if (body != null && body.isStreaming())
+      {
+         return WebTransport.super.sendAsync(request, body);
+      }
+      
+      final CompletableFuture<BJADWebResponse<byte[]>> RESULT = new CompletableFuture<>();
+      try
+      {
+         CloseableHttpAsyncClient client = HttpClientRegistry.getAsyncClient(request);
+         HttpRequestBase httpRequest = buildHttpRequest(request, body);
+         
+         final long START = System.currentTimeMillis();
+         Future<HttpResponse> operation = client.execute(httpRequest, createContext(), new FutureCallback<HttpResponse>()
+         {
+            @Override
+            public void completed(HttpResponse response)
+            {
+               try
+               {
+                  RESULT.complete(readResponse(response, System.currentTimeMillis() - START));
+               }
+               catch (Exception ex)
+               {
+                  RESULT.completeExceptionally(new BJADWebException(ex));
+               }
+            }
+
+            @Override
+            public void failed(Exception ex)
+            {
+               RESULT.completeExceptionally(new BJADWebException(ex));
+            }
+
+            @Override
+            public void cancelled()
+            {
+               RESULT.cancel(false);
+            }
+         });
+         
+         RESULT.whenComplete((response, ex) -> 
+         {
+            if (RESULT.isCancelled())
+            {
+               operation.cancel(true);
+            }
+         });
+      }
+      catch (Exception ex)
+      {
+         RESULT.completeExceptionally(ex instanceof BJADWebException ? ex : new BJADWebException(ex));
+      }
+      return RESULT;
+   }
+   
+   /**
+    * Builds the HTTP request (method, headers, and body) for the 
+    * operation request passed.
+    * 
+    * @param request
+    *    The operation request.
+    * @param body
+    *    The body for the request, or null.
+    * @return
+    *    The HTTP request to execute.
+    */
+   private HttpRequestBase buildHttpRequest(BJADWebRequest request, HttpEntity body)
+   {
+      // Create the request base (GET, POST, etc...)
+      HttpRequestBase httpRequest = getRequestBaseForMethod(request);
+      
+      // Apply the headers to the request.
+      if (request.getHeaders() != null)
+      {
+         for (Entry<String, String> header : request.getHeaders().entrySet())
+         {
+            httpRequest.addHeader(header.getKey(), header.getValue());
+         }
+      }
+      
+      // Apply any body to the request if applicable
+      if (body != null && httpRequest instanceof HttpEntityEnclosingRequest)
+      {
+         ((HttpEntityEnclosingRequest)httpRequest).setEntity(body);
+      }
+      return httpRequest;
+   }
+   
+   private HttpRequestBase getRequestBaseForMethod(BJADWebRequest request)
+   {
+      HttpRequestBase obj = null;
+      switch (request.getMethod())
+      {
+      case DELETE:
+         obj = new HttpDelete(request.getUrl());
+         break;
+      case GET:
+         obj = new HttpGet(request.getUrl());
+         break;
+      case HEAD:
+         obj = new HttpHead(request.getUrl());
+         break;
+      case OPTIONS:
+         obj = new HttpOptions(request.getUrl());
+         break;
+      case PATCH:
+         obj = new HttpPatch(request.getUrl());
+         break;
+      case POST:
+         obj = new HttpPost(request.getUrl());
+         break;
+      case PUT:
+         obj = new HttpPut(request.getUrl());
+         break;
+      default:
+         obj = new HttpTrace(request.getUrl());
+         break;
+      }
+      return obj;
+   }
+   
+   /**
+    * Creates the context for an operation. Each operation gets its 
+    * own context (and cookie store) so state is not shared between 
+    * the operations using the shared clients.
+    * 
+    * @return
+    *    The context for the operation.
+    */
+   private HttpClientContext createContext()
+   {
+      HttpClientContext context = HttpClientContext.create();
+      context.setCookieStore(new BasicCookieStore());
+      return context;
+   }
+   
+   /**
+    * Reads the status, headers, and body from the HTTP response 
+    * into the byte content response object.
+    * 
+    * @param response
+    *    The response from the HTTP server.
+    * @param duration
+    *    The duration of the operation in milliseconds.
+    * @return
+    *    The response object with the byte content.
+    * @throws IOException
+    *    Any exceptions reading the response body will be thrown.
+    */
+   private BJADWebResponse<byte[]> readResponse(HttpResponse response, long duration) throws IOException
+   {
+      HttpEntity entity = response.getEntity();            
+      byte[] returnedData = new byte[0];
+      
+      if (entity != null)
+      {
+         returnedData = EntityUtils.toByteArray(entity);              
+      }
+                  
+      BJADWebResponse<byte[]> fullResponse = new BJADWebResponse<>();
+      fullResponse.setDuration(duration);
+      fullResponse.setData(returnedData);
+      fullResponse.setStatusCode(response.getStatusLine().getStatusCode());
+      fullResponse.setHeaders(readHeaders(response));
+      return fullResponse;
+   }
+   
+   /**
+    * Reads the headers from the HTTP response. 
+    * 
+    * @param response
+    *    The response from the HTTP server.
+    * @return
+    *    The headers, with the last value winning for 
+    *    repeated headers.
+    */
+   private Map<String, String> readHeaders(HttpResponse response)
+   {
+      Map<String, String> headers = new LinkedHashMap<>();
+      for (Header header : response.getAllHeaders())
+      {
+         headers.put(header.getName(), header.getValue());
+      }
+      return headers;
+   }
+   
+   /**
+    * Closes the unpooled client after a failed operation.
+    * 
+    * @param client
+    *    The client to close.
+    */
+   private void closeQuietly(CloseableHttpClient client)
+   {
+      try
+      {
+         client.close();
+      }
+      catch (IOException ex)
+      {
+         // Nothing to do, the operation's failure is reported instead.
+      }
+   }
+}
@@ -0,0 +1,165 @@
+package bjad.web.transport;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebResponse;
+
+/**
+ * Shared thread pool used to complete the asynchronous 
+ * operations of transports that only support blocking 
+ * exchanges.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+final class TransportExecutor
+{
+   /**
+    * Counter used to name the threads within the pool.
+    */
+   private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+   
+   /**
+    * The thread pool, using daemon threads so the pool 
+    * does not prevent the JVM from exiting.
+    */
+   private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> 
+   {
+      Thread t = new Thread(r, "bjad-transport-" + THREAD_COUNT.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+   });
+   
+   /**
+    * Hidden constructor to prevent instances from being created.
+    */
+   private TransportExecutor()
+   {
+   }
+   
+   /**
+    * Blocking operation that can throw a BJADWebException.
+    * 
+    * @param <T>
+    *    The type of object the operation returns.
+    */
+   @FunctionalInterface
+   interface BlockingOperation<T>
+   {
+      /**
+       * Completes the operation.
+       * 
+       * @return
+       *    The result of the operation.
+       * @throws BJADWebException
+       *    Any exceptions completing the operation.
+       */
+      T run() throws BJADWebException;
+   }
+   
+   /**
+    * Completes the blocking operation on the shared thread pool.
+    * 
+    * @param operation
+    *    The operation to complete.
+    * @param <T>
+    *    The type of object the operation returns.
+    * @return
+    *    The future completed with the operation's result, or 
+    *    completed exceptionally with a BJADWebException.
+    */
+   static <T> CompletableFuture<T> supplyAsync(BlockingOperation<T> operation)
+   {
+      CompletableFuture<T> result = new CompletableFuture<>();
+      execute(result, operation);
+      return result;
+   }
+   
+   /**
+    * Completes the blocking exchange on the shared thread pool, 
+    * reading the full body of its response. Cancelling the future 
+    * aborts the connection of the response, ending the read of its 
+    * body. An exchange cancelled before its response is received 
+    * is aborted once the status and headers arrive.
+    * 
+    * @param exchange
+    *    The exchange returning the open response.
+    * @return
+    *    The future completed with the response and its full body, 
+    *    or completed exceptionally with a BJADWebException.
+    */
+   static CompletableFuture<BJADWebResponse<byte[]>> readAsync(BlockingOperation<TransportResponse> exchange)
+   {
+      final CompletableFuture<BJADWebResponse<byte[]>> RESULT = new CompletableFuture<>();
+      final AtomicReference<TransportResponse> OPEN = new AtomicReference<>();
+      RESULT.whenComplete((response, ex) -> 
+      {
+         TransportResponse open = OPEN.get();
+         if (RESULT.isCancelled() && open != null)
+         {
+            try
+            {
+               open.abort();
+            }
+            catch (IOException abortEx)
+            {
+               // The exchange is abandoned, so there is nothing to report.
+            }
+         }
+      });
+      execute(RESULT, () -> 
+      {
+         try (TransportResponse response = exchange.run())
+         {
+            OPEN.set(response);
+            // Closing the unread response of a cancelled exchange aborts it.
+            return RESULT.isCancelled() ? null : response.readFully();
+         }
+         catch (IOException ex)
+         {
+            throw new BJADWebException(ex);
+         }
+      });
+      return RESULT;
+   }
+   
+   /**
+    * Completes the blocking operation on the shared thread pool, 
+    * skipping it if the future is already done.
+    * 
+    * @param result
+    *    The future to complete with the operation's result.
+    * @param operation
+    *    The operation to complete.
+    * @param <T>
+    *    The type of object the operation returns.
+    */
+   private static <T> void execute(CompletableFuture<T> result, BlockingOperation<T> operation)
+   {
+      EXECUTOR.execute(() -> 
+      {
+         if (result.isDone())
+         {
+            return;
+         }
+         try
+         {
+            result.complete(operation.run());
+         }
+         catch (BJADWebException ex)
+         {
+            result.completeExceptionally(ex);
+         }
+         catch (RuntimeException ex)
+         {
+            result.completeExceptionally(new BJADWebException(ex));
+         }
+      });
+   }
+}
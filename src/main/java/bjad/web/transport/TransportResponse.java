@@ -0,0 +1,381 @@
+package bjad.web.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebResponse;
+
+/**
+ * The open response from a transport, containing the status, 
+ * headers, and the stream of the response body. The response 
+ * must be closed once the body has been read in order to 
+ * release (or return to the pool) the connection it uses. 
+ * Closing the response before the body is fully read aborts
+ * the connection rather than reading the rest of the body.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class TransportResponse implements Closeable
+{
+   /**
+    * Empty stream used when the response has no body.
+    */
+   private static final byte[] NO_CONTENT = new byte[0];
+   
+   /**
+    * The status code returned by the HTTP server.
+    */
+   protected final int statusCode;
+   /**
+    * The headers returned by the HTTP server.
+    */
+   protected final Map<String, String> headers;
+   /**
+    * The stream of the response body.
+    */
+   protected final TrackedInputStream content;
+   /**
+    * The length of the response body, or -1 if unknown.
+    */
+   protected final long contentLength;
+   /**
+    * The number of milliseconds until the response 
+    * headers were received.
+    */
+   protected final long duration;
+   /**
+    * The resource to close when the response is closed.
+    */
+   protected final Closeable resource;
+   /**
+    * The action aborting the connection when the response is 
+    * closed before the body is fully read.
+    */
+   protected final Closeable abort;
+   /**
+    * Flag set when a hedged request was sent for the response.
+    */
+   protected boolean hedged;
+   /**
+    * Flag set when the response came from the hedged request.
+    */
+   protected boolean hedgeWon;
+   
+   /**
+    * Creates the response.
+    * 
+    * @param statusCode
+    *    The status code returned by the HTTP server.
+    * @param headers
+    *    The headers returned by the HTTP server.
+    * @param content
+    *    The stream of the response body, or null if there is no body.
+    * @param contentLength
+    *    The length of the response body, or -1 if unknown.
+    * @param duration
+    *    The number of milliseconds until the response headers 
+    *    were received.
+    * @param resource
+    *    The resource to close when the response is closed, or null.
+    */
+   public TransportResponse(int statusCode, Map<String, String> headers, InputStream content, 
+         long contentLength, long duration, Closeable resource)
+   {
+      this(statusCode, headers, content, contentLength, duration, resource, null);
+   }
+   
+   /**
+    * Creates the response with the action aborting the connection
+    * if the response is closed before the body is fully read.
+    * 
+    * @param statusCode
+    *    The status code returned by the HTTP server.
+    * @param headers
+    *    The headers returned by the HTTP server.
+    * @param content
+    *    The stream of the response body, or null if there is no body.
+    * @param contentLength
+    *    The length of the response body, or -1 if unknown.
+    * @param duration
+    *    The number of milliseconds until the response headers 
+    *    were received.
+    * @param resource
+    *    The resource to close when the response is closed, or null.
+    * @param abort
+    *    The action aborting the connection, or null.
+    */
+   public TransportResponse(int statusCode, Map<String, String> headers, InputStream content, 
+         long contentLength, long duration, Closeable resource, Closeable abort)
+   {
+      this.statusCode = statusCode;
+      this.headers = headers == null ? new LinkedHashMap<>() : headers;
+      this.content = new TrackedInputStream(content == null ? new ByteArrayInputStream(NO_CONTENT) : content);
+      this.contentLength = contentLength;
+      this.duration = duration;
+      this.resource = resource;
+      this.abort = abort;
+   }
+
+   /**
+    * @return 
+    *   The statusCode property within the TransportResponse instance
+    */
+   public int getStatusCode()
+   {
+      return this.statusCode;
+   }
+
+   /**
+    * @return 
+    *   The headers property within the TransportResponse instance
+    */
+   public Map<String, String> getHeaders()
+   {
+      return this.headers;
+   }
+
+   /**
+    * @return 
+    *   The content property within the TransportResponse instance
+    */
+   public InputStream getContent()
+   {
+      return this.content;
+   }
+
+   /**
+    * @return 
+    *   The contentLength property within the TransportResponse instance
+    */
+   public long getContentLength()
+   {
+      return this.contentLength;
+   }
+
+   /**
+    * @return 
+    *   The duration property within the TransportResponse instance
+    */
+   public long getDuration()
+   {
+      return this.duration;
+   }
+   
+   /**
+    * Returns the value of the header passed, ignoring the case 
+    * of the header name.
+    * 
+    * @param name
+    *    The header to find.
+    * @return
+    *    The header's value, or null if the header was not returned.
+    */
+   public String getHeader(String name)
+   {
+      for (Map.Entry<String, String> header : headers.entrySet())
+      {
+         if (header.getKey().equalsIgnoreCase(name))
+         {
+            return header.getValue();
+         }
+      }
+      return null;
+   }
+   
+   /**
+    * Flags the response as the result of a hedged operation.
+    * 
+    * @param hedged
+    *    True if a hedged request was sent.
+    * @param hedgeWon
+    *    True if the response came from the hedged request.
+    */
+   public void setHedged(boolean hedged, boolean hedgeWon)
+   {
+      this.hedged = hedged;
+      this.hedgeWon = hedgeWon;
+   }
+   
+   /**
+    * Creates a response object with the status, headers, and 
+    * duration of this response, without the data.
+    * 
+    * @param <T>
+    *    The type of data the response object will contain.
+    * @return
+    *    The response object.
+    */
+   public <T> BJADWebResponse<T> toWebResponse()
+   {
+      BJADWebResponse<T> response = new BJADWebResponse<>();
+      response.setStatusCode(statusCode);
+      response.setDuration(duration);
+      response.setHeaders(headers);
+      response.setHedged(hedged);
+      response.setHedgeWon(hedgeWon);
+      return response;
+   }
+   
+   /**
+    * Reads the full response body into a byte content response 
+    * object. The response still needs to be closed by the caller.
+    * 
+    * @return
+    *    The response object containing the body's bytes.
+    * @throws BJADWebException
+    *    Any exceptions reading the body will be thrown.
+    */
+   public BJADWebResponse<byte[]> readFully() throws BJADWebException
+   {
+      try
+      {
+         ByteArrayOutputStream out = new ByteArrayOutputStream(
+               contentLength > 0 && contentLength < Integer.MAX_VALUE ? (int)contentLength : 4096);
+         byte[] buffer = new byte[8192];
+         int read;
+         while ((read = content.read(buffer)) != -1)
+         {
+            out.write(buffer, 0, read);
+         }
+         BJADWebResponse<byte[]> response = toWebResponse();
+         response.setData(out.toByteArray());
+         return response;
+      }
+      catch (IOException ex)
+      {
+         throw new BJADWebException(ex);
+      }
+   }
+
+   /**
+    * Aborts the connection of the response, ending a read of the 
+    * body in progress on another thread. Responses without an abort
+    * action are left as they are. The response still needs to be 
+    * closed by its reader.
+    * 
+    * @throws IOException
+    *    Any exceptions aborting the connection.
+    */
+   public void abort() throws IOException
+   {
+      if (abort != null)
+      {
+         abort.close();
+      }
+   }
+   
+   /**
+    * Closes the body stream and releases the connection. If the 
+    * body was not fully read (or closed by the reader), the 
+    * connection is aborted before the stream is closed, so the 
+    * rest of the body is not read just to reuse the connection.
+    * 
+    * @see java.io.Closeable#close()
+    */
+   @Override
+   public void close() throws IOException
+   {
+      if (content.isFinished() || contentLength == 0)
+      {
+         try
+         {
+            content.close();
+         }
+         finally
+         {
+            if (resource != null)
+            {
+               resource.close();
+            }
+         }
+         return;
+      }
+      
+      try
+      {
+         if (abort != null)
+         {
+            abort.close();
+         }
+      }
+      finally
+      {
+         try
+         {
+            if (resource != null)
+            {
+               resource.close();
+            }
+         }
+         finally
+         {
+            content.close();
+         }
+      }
+   }
+   
+   /**
+    * Stream over the response body recording if the end of the 
+    * body was reached or the stream was closed by its reader.
+    */
+   protected static class TrackedInputStream extends FilterInputStream
+   {
+      /**
+       * Flag set once the end of the body is reached or 
+       * the stream is closed.
+       */
+      private volatile boolean finished = false;
+      
+      /**
+       * Constructor, wrapping the body stream passed.
+       * 
+       * @param in
+       *    The stream of the response body.
+       */
+      TrackedInputStream(InputStream in)
+      {
+         super(in);
+      }
+      
+      @Override
+      public int read() throws IOException
+      {
+         int value = super.read();
+         finished |= value == -1;
+         return value;
+      }
+      
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException
+      {
+         int read = super.read(b, off, len);
+         finished |= read == -1;
+         return read;
+      }
+      
+      @Override
+      public void close() throws IOException
+      {
+         finished = true;
+         super.close();
+      }
+      
+      /**
+       * @return
+       *    True once the end of the body is reached or 
+       *    the stream is closed.
+       */
+      boolean isFinished()
+      {
+         return finished;
+      }
+   }
+}
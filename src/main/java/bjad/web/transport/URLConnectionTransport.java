@@ -0,0 +1,223 @@
+package bjad.web.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+import bjad.web.HTTPMethodType;
+
+/**
+ * <p>
+ * Transport completing the exchanges using the JDK's 
+ * HttpURLConnection, with no dependency on the Apache 
+ * clients at runtime aside from the body entities. The 
+ * JDK keeps the connections alive and reuses them between
+ * operations on its own (see the http.keepAlive and 
+ * http.maxConnections system properties).
+ * <p>
+ * The PATCH method is not supported by HttpURLConnection, 
+ * so PATCH operations fail with a BJADWebException.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class URLConnectionTransport implements WebTransport
+{
+   /**
+    * The timeout (in milliseconds) used when the request's 
+    * timeout is negative.
+    */
+   private static final int DEFAULT_TIMEOUT = 15000;
+   
+   @Override
+   public TransportResponse send(BJADWebRequest request, HttpEntity body) throws BJADWebException
+   {
+      if (request.getMethod() == HTTPMethodType.PATCH)
+      {
+         throw new BJADWebException("The " + getName() + " does not support " + request.getMethod().name() + " operations.");
+      }
+      
+      HttpURLConnection connection = null;
+      try
+      {
+         connection = openConnection(request);
+         
+         long duration = System.currentTimeMillis();
+         if (body != null)
+         {
+            writeBody(connection, body);
+         }
+         else
+         {
+            connection.connect();
+         }
+         int statusCode = connection.getResponseCode();
+         duration = System.currentTimeMillis() - duration;
+         
+         // The error stream holds the body for the failure status codes.
+         InputStream content = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+         final HttpURLConnection CONNECTION = connection;
+         return new TransportResponse(statusCode, readHeaders(connection), content, 
+               connection.getContentLengthLong(), duration, 
+               () -> 
+               {
+                  // The stream being closed (by the response) returns the 
+                  // connection to the JDK's keep alive cache, so only 
+                  // disconnect if the stream was never opened.
+                  if (content == null)
+                  {
+                     CONNECTION.disconnect();
+                  }
+               }, 
+               CONNECTION::disconnect);
+      }
+      catch (Exception ex)
+      {
+         if (connection != null)
+         {
+            connection.disconnect();
+         }
+         throw new BJADWebException(ex);
+      }
+   }
+   
+   /**
+    * Opens the connection for the request, applying the method,
+    * timeouts, SSL context, and the headers.
+    * 
+    * @param request
+    *    The request for the operation.
+    * @return
+    *    The connection, not yet connected.
+    * @throws IOException
+    *    Any exceptions opening the connection will be thrown.
+    */
+   private HttpURLConnection openConnection(BJADWebRequest request) throws IOException
+   {
+      HttpURLConnection connection = (HttpURLConnection)new URL(request.getUrl()).openConnection();
+      connection.setRequestMethod(request.getMethod().name());
+      connection.setConnectTimeout(effectiveTimeout(request.getConnectionTimeout()));
+      connection.setReadTimeout(effectiveTimeout(request.getReadTimeout()));
+      connection.setInstanceFollowRedirects(true);
+      connection.setUseCaches(false);
+      
+      // Match the Apache transport by not verifying the host name 
+      // when a custom SSL context is supplied.
+      if (connection instanceof HttpsURLConnection && request.getSslContext() != null)
+      {
+         HttpsURLConnection https = (HttpsURLConnection)connection;
+         https.setSSLSocketFactory(request.getSslContext().getSocketFactory());
+         https.setHostnameVerifier((host, session) -> true);
+      }
+      
+      if (request.getHeaders() != null)
+      {
+         for (Entry<String, String> header : request.getHeaders().entrySet())
+         {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+         }
+      }
+      return connection;
+   }
+   
+   /**
+    * Returns the timeout to use, or the default timeout 
+    * if the value passed is negative.
+    * 
+    * @param value
+    *    The timeout from the request.
+    * @return
+    *    The timeout to use for the connection.
+    */
+   private int effectiveTimeout(int value)
+   {
+      return value > -1 ? value : DEFAULT_TIMEOUT;
+   }
+   
+   /**
+    * Writes the body to the connection, streaming with a fixed 
+    * length when the length of the body is known, and chunked 
+    * otherwise so the body is not buffered in memory.
+    * 
+    * @param connection
+    *    The connection to write the body to.
+    * @param body
+    *    The body to write.
+    * @throws IOException
+    *    Any exceptions writing the body will be thrown.
+    */
+   private void writeBody(HttpURLConnection connection, HttpEntity body) throws IOException
+   {
+      connection.setDoOutput(true);
+      setEntityHeader(connection, body.getContentType());
+      setEntityHeader(connection, body.getContentEncoding());
+      
+      long length = body.getContentLength();
+      if (length >= 0)
+      {
+         connection.setFixedLengthStreamingMode(length);
+      }
+      else
+      {
+         connection.setChunkedStreamingMode(0);
+      }
+      
+      try (OutputStream out = connection.getOutputStream())
+      {
+         body.writeTo(out);
+      }
+   }
+   
+   /**
+    * Sets the entity header on the connection if it is not 
+    * already set within the request's headers.
+    * 
+    * @param connection
+    *    The connection to set the header on.
+    * @param header
+    *    The header from the entity, or null.
+    */
+   private void setEntityHeader(HttpURLConnection connection, Header header)
+   {
+      if (header != null && connection.getRequestProperty(header.getName()) == null)
+      {
+         connection.setRequestProperty(header.getName(), header.getValue());
+      }
+   }
+   
+   /**
+    * Reads the headers from the connection, skipping the 
+    * status line the JDK returns with a null header name.
+    * 
+    * @param connection
+    *    The connection to read from.
+    * @return
+    *    The headers, with the last value winning for 
+    *    repeated headers.
+    */
+   private Map<String, String> readHeaders(HttpURLConnection connection)
+   {
+      Map<String, String> headers = new LinkedHashMap<>();
+      for (Entry<String, List<String>> header : connection.getHeaderFields().entrySet())
+      {
+         if (header.getKey() != null && header.getValue() != null && !header.getValue().isEmpty())
+         {
+            headers.put(header.getKey(), header.getValue().get(header.getValue().size() - 1));
+         }
+      }
+      return headers;
+   }
+}
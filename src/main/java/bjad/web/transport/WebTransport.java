@@ -0,0 +1,77 @@
+package bjad.web.transport;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.http.HttpEntity;
+
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+import bjad.web.BJADWebResponse;
+
+/**
+ * <p>
+ * Transport interface used by the web component to complete
+ * the HTTP exchange for a request, allowing the HTTP library 
+ * used to be switched per request (or per endpoint through the
+ * Transport property) without changing the calling code.
+ * <p>
+ * Implementations need a public no argument constructor so they 
+ * can be created from the properties, and must be safe to use 
+ * from multiple threads.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public interface WebTransport
+{
+   /**
+    * Sends the request to the web server, returning the open 
+    * response once the status and headers are received. The 
+    * caller must close the response to release the connection.
+    * 
+    * @param request
+    *    The request containing the URL, method, headers, timeouts,
+    *    and SSL context for the exchange.
+    * @param body
+    *    The body to send, or null if the request has no body.
+    * @return
+    *    The open response from the web server.
+    * @throws BJADWebException
+    *    Any exceptions completing the exchange will be thrown.
+    */
+   public TransportResponse send(BJADWebRequest request, HttpEntity body) throws BJADWebException;
+   
+   /**
+    * Sends the request to the web server asynchronously, completing
+    * the future with the response and its full body. By default, 
+    * the blocking {@link #send(BJADWebRequest, HttpEntity)} method is
+    * completed on a shared thread pool, where cancelling the future
+    * aborts the connection of the response rather than reading the
+    * rest of its body. Implementations with a non-blocking library 
+    * should override this method.
+    * 
+    * @param request
+    *    The request containing the URL, method, headers, timeouts,
+    *    and SSL context for the exchange.
+    * @param body
+    *    The body to send, or null if the request has no body.
+    * @return
+    *    The future completed with the response, or completed 
+    *    exceptionally with a BJADWebException. 
+    */
+   public default CompletableFuture<BJADWebResponse<byte[]>> sendAsync(BJADWebRequest request, HttpEntity body)
+   {
+      return TransportExecutor.readAsync(() -> send(request, body));
+   }
+   
+   /**
+    * Returns the name of the transport for logging.
+    * 
+    * @return
+    *    The name of the transport.
+    */
+   public default String getName()
+   {
+      return this.getClass().getSimpleName();
+   }
+}
@@ -0,0 +1,9 @@
+/**
+ * Package containing the transport interface and its 
+ * implementations, which complete the HTTP exchanges 
+ * on behalf of the web component.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+package bjad.web.transport;
@@ -4,26 +4,51 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import javax.net.ssl.SSLContext;
 
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import bjad.web.body.MultipartFormBody;
 import bjad.web.body.ObjectJSONStringBody;
+import bjad.web.body.StreamingJSONBody;
 import bjad.web.body.StringBody;
+import bjad.web.connection.ConnectionPoolSettings;
+import bjad.web.connection.HttpClientRegistry;
 import bjad.web.fakeserver.FakeHTTPServer;
+import bjad.web.fakeserver.SlowArrayEndpoint;
 import bjad.web.model.Person;
 import bjad.web.model.PersonList;
 import bjad.web.properties.EnhancedPropertyHelper;
+import bjad.web.transport.ApacheHttpClientTransport;
+import bjad.web.transport.TransportResponse;
+import bjad.web.transport.URLConnectionTransport;
+import bjad.web.transport.WebTransport;
 
 /**
  * Unit tests for the BJADWebComponent class. 
@@ -492,6 +517,518 @@ public class BJADWebComponentTests
       assertThat("Response's header mapping is never null", new BJADWebResponse<>().getHeaders(), notNullValue());
    }
    
+   /**
+    * Tests that repeated operations against the same server 
+    * share the same pooled HTTP client.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testPooledClientReuse() throws Exception
+   {
+      BJADWebRequest req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/person");
+      req.setMethod(HTTPMethodType.GET);
+      
+      BJADWebComponent component = new BJADWebComponent(req);
+      assertThat("First call is good", component.performWebCall(String.class).isGoodResponse(), is(true));
+      CloseableHttpClient client = HttpClientRegistry.getClient(req);
+      int clientCount = HttpClientRegistry.size();
+      
+      req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/person/00000000-0000-0000-0000-000000000000");
+      req.setMethod(HTTPMethodType.GET);
+      component.setRequest(req);
+      assertThat("Second call is good", component.performWebCall(Person.class).isGoodResponse(), is(true));
+      
+      assertThat("Same client used for the same server", HttpClientRegistry.getClient(req), sameInstance(client));
+      assertThat("No new clients created for the same server", HttpClientRegistry.size(), is(clientCount));
+      
+      req.setReadTimeout(4321);
+      assertThat("Different timeouts use a different client", HttpClientRegistry.getClient(req), not(sameInstance(client)));
+      
+      req.setReadTimeout(new BJADWebRequest().getReadTimeout());
+      for (int i = 0; i <= HttpClientRegistry.MAX_CLIENTS; i++)
+      {
+         BJADWebRequest sslReq = new BJADWebRequest();
+         sslReq.setUrl("https://localhost:52525/person");
+         SSLContext context = SSLContext.getInstance("TLS");
+         context.init(null, null, null);
+         sslReq.setSslContext(context);
+         HttpClientRegistry.getClient(sslReq);
+         assertThat("Client in use kept", HttpClientRegistry.getClient(req), sameInstance(client));
+      }
+      assertThat("Registry bounded", HttpClientRegistry.size(), lessThanOrEqualTo(HttpClientRegistry.MAX_CLIENTS));
+      assertThat("Kept client still sends", component.performWebCall(Person.class).isGoodResponse(), is(true));
+   }
+   
+   /**
+    * Tests the connection pool properties are applied to the 
+    * request and that both pooled and unpooled operations work.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testConnectionPoolProperties() throws Exception
+   {
+      Properties p = new Properties();
+      p.put(BJADWebConstants.PROPERTY_URL, "http://localhost:52525/person");
+      p.put(BJADWebConstants.PROPERTY_METHOD, "GET");
+      p.put(BJADWebConstants.PROPERTY_POOL_MAX_TOTAL, "10");
+      p.put(BJADWebConstants.PROPERTY_POOL_MAX_PER_ROUTE, "5");
+      p.put(BJADWebConstants.PROPERTY_KEEP_ALIVE_DURATION, "30000");
+      p.put(BJADWebConstants.PROPERTY_VALIDATE_AFTER_INACTIVITY, "500");
+      p.put(BJADWebConstants.PROPERTY_IDLE_CONNECTION_TIMEOUT, "60000");
+      EnhancedPropertyHelper props = new EnhancedPropertyHelper();
+      props.loadProperties(p);
+      
+      BJADWebRequest req = BJADWebRequestFactory.createRequest(props);
+      ConnectionPoolSettings settings = req.getConnectionPoolSettings();
+      assertThat("Pooled by default", settings.isPooled(), is(true));
+      assertThat("Max total set from properties", settings.getMaxTotal(), is(10));
+      assertThat("Max per route set from properties", settings.getMaxPerRoute(), is(5));
+      assertThat("Keep alive set from properties", settings.getKeepAliveDuration(), is(30000L));
+      assertThat("Validate after inactivity set from properties", settings.getValidateAfterInactivity(), is(500));
+      assertThat("Idle timeout set from properties", settings.getIdleConnectionTimeout(), is(60000L));
+      
+      BJADWebComponent component = new BJADWebComponent(req);
+      assertThat("Pooled call is good", component.performWebCall(PersonList.class).isGoodResponse(), is(true));
+      
+      p.put(BJADWebConstants.PROPERTY_POOLED_CONNECTIONS, "false");
+      props = new EnhancedPropertyHelper();
+      props.loadProperties(p);
+      req = BJADWebRequestFactory.createRequest(props);
+      assertThat("Pooling turned off from properties", req.getConnectionPoolSettings().isPooled(), is(false));
+      
+      component = new BJADWebComponent(req);
+      assertThat("Unpooled call is good", component.performWebCall(PersonList.class).isGoodResponse(), is(true));
+   }
+   
+   /**
+    * Tests the asynchronous operations within the component.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testAsyncOperations() throws Exception
+   {
+      BJADWebRequest req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/person");
+      req.setMethod(HTTPMethodType.GET);
+      
+      BJADWebComponent component = new BJADWebComponent(req);
+      List<CompletableFuture<BJADWebResponse<PersonList>>> futures = new ArrayList<>();
+      for (int i = 0; i < 10; i++)
+      {
+         futures.add(component.performWebCallAsync(PersonList.class));
+      }
+      for (CompletableFuture<BJADWebResponse<PersonList>> future : futures)
+      {
+         BJADWebResponse<PersonList> response = future.get(10, TimeUnit.SECONDS);
+         assertThat("Async call is good", response.isGoodResponse(), is(true));
+         assertThat("Async call converted the JSON", response.getData().getPersons().size(), greaterThanOrEqualTo(2));
+      }
+      
+      Person p = new Person("Async", "User");
+      req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/person");
+      req.setMethod(HTTPMethodType.POST);
+      component.setRequest(req);
+      BJADWebResponse<Person> added = component.performWebCallAsync(Person.class, new ObjectJSONStringBody(p)).get(10, TimeUnit.SECONDS);
+      assertThat("Async POST returned the person added", added.getData().getId(), is(p.getId()));
+      
+      req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/person");
+      req.setMethod(HTTPMethodType.PATCH);
+      component.setRequest(req);
+      CompletableFuture<BJADWebResponse<byte[]>> failed = component.performWebCallAsync(byte[].class);
+      ExecutionException ex = Assertions.assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS),
+            "Async PATCH without a body should fail");
+      assertThat("Async failure is a BJADWebException", ex.getCause() instanceof BJADWebException, is(true));
+      
+      final CountDownLatch READING = new CountDownLatch(1);
+      final CountDownLatch ABORTED = new CountDownLatch(1);
+      InputStream endless = new InputStream()
+      {
+         @Override
+         public int read() throws IOException
+         {
+            READING.countDown();
+            try
+            {
+               ABORTED.await();
+            }
+            catch (InterruptedException interruptedEx)
+            {
+               Thread.currentThread().interrupt();
+            }
+            throw new IOException("Connection aborted");
+         }
+      };
+      WebTransport blocking = (request, body) -> new TransportResponse(200, new HashMap<>(), endless, -1, 0, null, ABORTED::countDown);
+      CompletableFuture<BJADWebResponse<byte[]>> reading = blocking.sendAsync(req, null);
+      assertThat("Body being read", READING.await(5, TimeUnit.SECONDS), is(true));
+      reading.cancel(true);
+      assertThat("Cancelling the blocking exchange aborts the read", ABORTED.await(5, TimeUnit.SECONDS), is(true));
+   }
+   
+   /**
+    * Tests the typed operations streaming the JSON from the response
+    * match the typed operations that buffer and log the response.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testStreamedJsonResponses() throws Exception
+   {
+      BJADWebRequest req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/person/00000000-0000-0000-0000-000000000000");
+      req.setMethod(HTTPMethodType.GET);
+      assertThat("Response body is not logged by default", req.isLogResponseBody(), is(false));
+      
+      BJADWebComponent component = new BJADWebComponent(req);
+      Person streamed = component.performWebCall(Person.class).getData();
+      Person streamedAsync = component.performWebCallAsync(Person.class).get(10, TimeUnit.SECONDS).getData();
+      
+      req.setCharacterSetForResponse("UTF-8");
+      Person streamedWithCharset = component.performWebCall(Person.class).getData();
+      
+      Properties p = new Properties();
+      p.put(BJADWebConstants.PROPERTY_URL, "http://localhost:52525/person/00000000-0000-0000-0000-000000000000");
+      p.put(BJADWebConstants.PROPERTY_METHOD, "GET");
+      p.put(BJADWebConstants.PROPERTY_LOG_RESPONSE_BODY, "true");
+      EnhancedPropertyHelper props = new EnhancedPropertyHelper();
+      props.loadProperties(p);
+      req = BJADWebRequestFactory.createRequest(props);
+      assertThat("Response body logging set from properties", req.isLogResponseBody(), is(true));
+      
+      component.setRequest(req);
+      Person logged = component.performWebCall(Person.class).getData();
+      
+      for (Person person : new Person[] { streamed, streamedAsync, streamedWithCharset })
+      {
+         assertThat("Streamed person matches the logged person", person.getId(), is(logged.getId()));
+         assertThat("Streamed person matches the logged person", person.getFirstName(), is(logged.getFirstName()));
+         assertThat("Streamed person matches the logged person", person.getLastName(), is(logged.getLastName()));
+      }
+      
+      req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/person/00000000-0000-0000-0000-000000000000");
+      req.setMethod(HTTPMethodType.GET);
+      req.setCharacterSetForResponse("WAKAWAKA");
+      component.setRequest(req);
+      Assertions.assertThrows(BJADWebException.class, () -> {
+         component.performWebCall(Person.class);
+       }, "Should throw BJADWebException when an unknown encoding type is passed.");
+   }
+   
+   /**
+    * Tests iterating over the JSON array returned by the server.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testJsonArrayIterator() throws Exception
+   {
+      BJADWebRequest req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/person");
+      req.setMethod(HTTPMethodType.GET);
+      
+      BJADWebComponent component = new BJADWebComponent(req);
+      BJADWebResponse<JsonArrayIterator<Person>> response = component.performWebCallForArray(Person.class, "persons");
+      assertThat("Array call is good", response.isGoodResponse(), is(true));
+      int count = 0;
+      try (JsonArrayIterator<Person> people = response.getData())
+      {
+         while (people.hasNext())
+         {
+            Person p = people.next();
+            assertThat("Person bound from the array", p.getId(), notNullValue());
+            count++;
+         }
+      }
+      assertThat("Iterated over all the people", count, greaterThanOrEqualTo(2));
+      
+      try (JsonArrayIterator<Person> people = component.performWebCallForArray(Person.class, "persons").getData())
+      {
+         assertThat("Stream over the people", people.stream().filter(p -> p.getId() != null).count(), is((long)count));
+         Assertions.assertThrows(NoSuchElementException.class, () -> people.next(), "Nothing after the end of the array");
+      }
+      
+      try (JsonArrayIterator<Person> people = component.performWebCallForArray(Person.class, "persons").getData())
+      {
+         assertThat("First person available", people.next(), notNullValue());
+      }
+      
+      Assertions.assertThrows(BJADWebException.class, () -> {
+         component.performWebCallForArray(Person.class);
+       }, "Should throw BJADWebException when the root is not an array.");
+      Assertions.assertThrows(BJADWebException.class, () -> {
+         component.performWebCallForArray(Person.class, "people");
+       }, "Should throw BJADWebException when the array field is not found.");
+      
+      req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/person/missing-person");
+      req.setMethod(HTTPMethodType.GET);
+      component.setRequest(req);
+      response = component.performWebCallForArray(Person.class);
+      assertThat("Missing resource is not a good response", response.isGoodResponse(), is(false));
+      assertThat("No iterator for a bad response", response.getData(), nullValue());
+   }
+   
+   /**
+    * Tests closing the iterator over a large, slowly streamed 
+    * array before its end aborts the connection rather than 
+    * reading the rest of the array, with both transports.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testJsonArrayIteratorClosedEarly() throws Exception
+   {
+      final long FULL_ARRAY_TIME = SlowArrayEndpoint.CHUNKS * SlowArrayEndpoint.CHUNK_DELAY;
+      for (WebTransport transport : new WebTransport[] { ApacheHttpClientTransport.INSTANCE, new URLConnectionTransport() })
+      {
+         BJADWebRequest req = new BJADWebRequest();
+         req.setUrl("http://localhost:52525/slowarray");
+         req.setMethod(HTTPMethodType.GET);
+         req.setTransport(transport);
+         BJADWebComponent component = new BJADWebComponent(req);
+         
+         long start = System.currentTimeMillis();
+         try (JsonArrayIterator<Person> people = component.performWebCallForArray(Person.class).getData())
+         {
+            for (int i = 0; i < 3; i++)
+            {
+               assertThat("Person read before closing", people.next().getId(), is(String.valueOf(i)));
+            }
+         }
+         assertThat("Rest of the array not read (" + transport.getClass().getSimpleName() + ")", 
+               System.currentTimeMillis() - start, lessThan(FULL_ARRAY_TIME / 2));
+         
+         try (JsonArrayIterator<Person> people = component.performWebCallForArray(Person.class).getData())
+         {
+            assertThat("Stream of the full array", people.stream().count(), 
+                  is((long)SlowArrayEndpoint.CHUNKS * SlowArrayEndpoint.CHUNK_SIZE));
+         }
+      }
+   }
+   
+   /**
+    * Tests the operations using the URL connection transport, 
+    * set directly and through the properties.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testURLConnectionTransport() throws Exception
+   {
+      Properties p = new Properties();
+      p.put(BJADWebConstants.PROPERTY_URL, "http://localhost:52525/person");
+      p.put(BJADWebConstants.PROPERTY_METHOD, "GET");
+      p.put(BJADWebConstants.PROPERTY_TRANSPORT, URLConnectionTransport.class.getName());
+      EnhancedPropertyHelper props = new EnhancedPropertyHelper();
+      props.loadProperties(p);
+      
+      BJADWebRequest req = BJADWebRequestFactory.createRequest(props);
+      assertThat("Transport set from properties", req.getTransport() instanceof URLConnectionTransport, is(true));
+      
+      BJADWebComponent component = new BJADWebComponent(req);
+      BJADWebResponse<PersonList> people = component.performWebCall(PersonList.class);
+      assertThat("Get all call is good", people.isGoodResponse(), is(true));
+      assertThat("Get all converted the JSON", people.getData().getPersons().size(), greaterThanOrEqualTo(2));
+      assertThat("Headers returned", people.getHeaders().isEmpty(), is(false));
+      
+      BJADWebResponse<PersonList> asyncPeople = component.performWebCallAsync(PersonList.class).get(10, TimeUnit.SECONDS);
+      assertThat("Async get all call is good", asyncPeople.isGoodResponse(), is(true));
+      
+      Person person = new Person("Transport", "User");
+      req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/person");
+      req.setMethod(HTTPMethodType.POST);
+      req.setTransport(new URLConnectionTransport());
+      component.setRequest(req);
+      BJADWebResponse<Person> added = component.performWebCall(Person.class, new ObjectJSONStringBody(person));
+      assertThat("POST returned the person added", added.getData().getId(), is(person.getId()));
+      
+      req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/person/" + person.getId() + "-missing");
+      req.setMethod(HTTPMethodType.GET);
+      req.setTransport(new URLConnectionTransport());
+      component.setRequest(req);
+      assertThat("Missing person is not a good response", component.performWebCall(String.class).isGoodResponse(), is(false));
+      
+      req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/person");
+      req.setMethod(HTTPMethodType.HEAD);
+      req.setTransport(new URLConnectionTransport());
+      component.setRequest(req);
+      assertThat("HEAD call is good", component.performWebCall(byte[].class).isGoodResponse(), is(true));
+      
+      req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/person/" + person.getId());
+      req.setMethod(HTTPMethodType.PATCH);
+      req.setTransport(new URLConnectionTransport());
+      component.setRequest(req);
+      Assertions.assertThrows(BJADWebException.class, () -> {
+         component.performWebCall(String.class, new ObjectJSONStringBody(person));
+       }, "Should throw BJADWebException as PATCH is not supported by the URL connection transport");
+      
+      assertThat("Default transport is the Apache transport", 
+            new BJADWebRequest().getTransport() instanceof ApacheHttpClientTransport, is(true));
+   }
+   
+   /**
+    * Tests the request bodies are only built for the log when the 
+    * payload logger is enabled.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testPayloadLogging() throws Exception
+   {
+      AtomicInteger logStrings = new AtomicInteger();
+      Person p = new Person("Payload", "Logger");
+      BJADWebRequest req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/person");
+      req.setMethod(HTTPMethodType.POST);
+      StringBody body = new StringBody(req.getJsonObjectMapper().writeValueAsString(p))
+      {
+         @Override
+         public String getLogString()
+         {
+            logStrings.incrementAndGet();
+            return super.getLogString();
+         }
+      };
+      
+      req.setLoggerName("bjad.web.QuietPayloads");
+      BJADWebResponse<Person> added = new BJADWebComponent(req).performWebCall(Person.class, body);
+      assertThat("Call completed with the payload logger off", added.getData().getId(), is(p.getId()));
+      assertThat("Body not built for the log", logStrings.get(), is(0));
+      
+      req.setLoggerName(BJADWebComponent.class.getCanonicalName());
+      new BJADWebComponent(req).performWebCall(Person.class, body);
+      assertThat("Body built for the log", logStrings.get(), is(1));
+   }
+   
+   /**
+    * Tests streaming a large number of objects as a JSON array and
+    * as NDJSON, through both transports, using chunked transfer 
+    * encoding.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   @SuppressWarnings("unchecked")
+   public void testStreamingJSONBody() throws Exception
+   {
+      BJADWebRequest req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/bulk");
+      req.setMethod(HTTPMethodType.POST);
+      BJADWebComponent component = new BJADWebComponent(req);
+      
+      StreamingJSONBody body = new StreamingJSONBody(IntStream.range(0, 10000).mapToObj(i -> new Person("Bulk" + i, "Person")));
+      Map<String, Object> result = component.performWebCall(Map.class, body).getData();
+      assertThat("All objects received in the array", ((Number)result.get("count")).intValue(), is(10000));
+      assertThat("Body sent chunked", result.get("chunked"), is(true));
+      assertThat("All objects written", body.getWrittenCount(), is(10000L));
+      
+      List<Person> people = new ArrayList<>();
+      for (int i = 0; i < 500; i++)
+      {
+         people.add(new Person("Line" + i, "Person"));
+      }
+      body = new StreamingJSONBody(people, StreamingJSONBody.Format.NDJSON);
+      result = component.performWebCall(Map.class, body).getData();
+      assertThat("All objects received as lines", ((Number)result.get("count")).intValue(), is(500));
+      
+      req.setTransport(new URLConnectionTransport());
+      result = component.performWebCall(Map.class, body).getData();
+      assertThat("Iterable body sent again", ((Number)result.get("count")).intValue(), is(500));
+      assertThat("Body sent chunked by the URL connection", result.get("chunked"), is(true));
+      
+      // Sent asynchronously through both transports.
+      req.setTransport(new ApacheHttpClientTransport());
+      body = new StreamingJSONBody(IntStream.range(0, 1000).mapToObj(i -> new Person("Async" + i, "Person")));
+      result = component.performWebCallAsync(Map.class, body).get(10, TimeUnit.SECONDS).getData();
+      assertThat("All objects received asynchronously", ((Number)result.get("count")).intValue(), is(1000));
+      req.setTransport(new URLConnectionTransport());
+      result = component.performWebCallAsync(Map.class, new StreamingJSONBody(people)).get(10, TimeUnit.SECONDS).getData();
+      assertThat("All objects received asynchronously by the URL connection", ((Number)result.get("count")).intValue(), is(500));
+   }
+   
+   /**
+    * Tests uploading text fields and files within a multipart 
+    * body through both transports.
+    * 
+    * @param dir
+    *    The temporary directory for the file parts.
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   @SuppressWarnings("unchecked")
+   public void testMultipartFormBody(@TempDir Path dir) throws Exception
+   {
+      Path large = dir.resolve("large.bin");
+      try (OutputStream out = Files.newOutputStream(large))
+      {
+         byte[] block = new byte[1024 * 1024];
+         for (int i = 0; i < 8; i++)
+         {
+            out.write(block);
+         }
+      }
+      Path small = dir.resolve("notes.txt");
+      Files.write(small, "Some notes".getBytes(StandardCharsets.UTF_8));
+      
+      MultipartFormBody body = new MultipartFormBody()
+            .addField("description", "Upload test")
+            .addFile("large", large.toFile())
+            .addFile("notes", small, new MediaType("text/plain", "UTF-8"));
+      
+      BJADWebRequest req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/upload");
+      req.setMethod(HTTPMethodType.POST);
+      BJADWebComponent component = new BJADWebComponent(req);
+      for (int i = 0; i < 2; i++)
+      {
+         Map<String, Map<String, Object>> parts = component.performWebCall(Map.class, body).getData();
+         assertThat("All parts received", parts.keySet(), containsInAnyOrder("description", "large", "notes"));
+         assertThat("Field received", ((Number)parts.get("description").get("size")).intValue(), is(11));
+         assertThat("Large file received", ((Number)parts.get("large").get("size")).longValue(), is(8L * 1024 * 1024));
+         assertThat("Large file name sent", parts.get("large").get("fileName"), is("large.bin"));
+         assertThat("Small file type sent", parts.get("notes").get("contentType"), is("text/plain; charset=UTF-8"));
+         
+         req.setTransport(new URLConnectionTransport());
+      }
+      
+      // The non-blocking client reads the body from its content.
+      req.setTransport(new ApacheHttpClientTransport());
+      Map<String, Map<String, Object>> parts = component.performWebCallAsync(Map.class, body).get(30, TimeUnit.SECONDS).getData();
+      assertThat("Large file received asynchronously", ((Number)parts.get("large").get("size")).longValue(), is(8L * 1024 * 1024));
+   }
+   
    /**
     * Verifies the get all result from the startup 
     */
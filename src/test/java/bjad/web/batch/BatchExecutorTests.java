@@ -0,0 +1,115 @@
+package bjad.web.batch;
+
+import static org.hamcrest.MatcherAssert.assertThat; 
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import bjad.web.BJADWebRequest;
+import bjad.web.HTTPMethodType;
+import bjad.web.body.ObjectJSONStringBody;
+import bjad.web.fakeserver.FakeHTTPServer;
+import bjad.web.model.Person;
+import bjad.web.model.PersonList;
+
+/**
+ * Unit tests for the BatchExecutor class.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class BatchExecutorTests
+{
+   /**
+    * Starts the fake HTTP server prior to all the test
+    * cases executing.
+    */
+   @BeforeAll
+   public static void testsStarting()
+   {
+      FakeHTTPServer.startServer(52525);
+   }
+   
+   /**
+    * Stops the Fake HTTP server after all the test cases execute.
+    */
+   @AfterAll
+   public static void testsFinished()
+   {
+      FakeHTTPServer.stopServer();
+   }
+   
+   /**
+    * Tests a batch of mixed operations returns the results in 
+    * input order with the success or failure of each item.
+    */
+   @Test
+   public void testBatchResultsInOrder()
+   {
+      List<BatchItem<?>> items = new ArrayList<>();
+      for (int i = 0; i < 12; i++)
+      {
+         BJADWebRequest req = new BJADWebRequest();
+         req.setUrl("http://localhost:52525/person");
+         req.setMethod(HTTPMethodType.GET);
+         items.add(new BatchItem<>(req, PersonList.class));
+      }
+      
+      Person p = new Person("Batch", "User");
+      BJADWebRequest post = new BJADWebRequest();
+      post.setUrl("http://localhost:52525/person");
+      post.setMethod(HTTPMethodType.POST);
+      items.add(new BatchItem<>(post, Person.class, new ObjectJSONStringBody(p)));
+      
+      BJADWebRequest bad = new BJADWebRequest();
+      bad.setUrl("http://localhost:52525/person");
+      bad.setMethod(HTTPMethodType.PATCH);
+      items.add(new BatchItem<>(bad, String.class));
+      
+      BatchResult result = new BatchExecutor(4, 30000).execute(items);
+      assertThat("A result for every item", result.getResults().size(), is(items.size()));
+      assertThat("All but the bad item succeeded", result.getSuccessCount(), is(items.size() - 1));
+      assertThat("Bad item failed", result.getFailureCount(), is(1));
+      
+      for (int i = 0; i < 12; i++)
+      {
+         BatchItemResult<?> itemResult = result.getResults().get(i);
+         assertThat("Result is for the item in the same position", itemResult.getItem(), sameInstance(items.get(i)));
+         assertThat("GET returned the people", ((PersonList)itemResult.getResponse().getData()).getPersons().size(), greaterThanOrEqualTo(2));
+      }
+      assertThat("POST result is in its position", ((Person)result.getResults().get(12).getResponse().getData()).getId(), is(p.getId()));
+      assertThat("Bad item has its exception", result.getResults().get(13).getException(), notNullValue());
+      assertThat("Wall time is recorded", result.getWallTime(), greaterThanOrEqualTo(0L));
+      assertThat("Total duration is recorded", result.getTotalDuration(), greaterThanOrEqualTo(0L));
+   }
+   
+   /**
+    * Tests the operations not started before the deadline are 
+    * failed with a timeout exception.
+    */
+   @Test
+   public void testBatchDeadline()
+   {
+      List<BatchItem<?>> items = new ArrayList<>();
+      for (int i = 0; i < 3; i++)
+      {
+         BJADWebRequest req = new BJADWebRequest();
+         req.setUrl("http://localhost:52525/slow/2000");
+         req.setMethod(HTTPMethodType.GET);
+         items.add(new BatchItem<>(req, String.class));
+      }
+      
+      BatchResult result = new BatchExecutor(1, 300).execute(items);
+      assertThat("All items failed", result.getFailureCount(), is(3));
+      for (BatchItemResult<?> itemResult : result.getResults())
+      {
+         assertThat("Failure is a timeout", itemResult.getException().isTimeoutException(), is(true));
+      }
+      assertThat("Batch ended near its deadline", result.getWallTime(), lessThan(2000L));
+   }
+}
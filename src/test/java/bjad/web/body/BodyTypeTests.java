@@ -3,21 +3,29 @@ package bjad.web.body;
 import static org.hamcrest.MatcherAssert.assertThat; 
 import static org.hamcrest.Matchers.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.FileEntity;
 import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import bjad.web.BJADWebException;
 import bjad.web.BJADWebRequest;
@@ -83,6 +91,41 @@ public class BodyTypeTests
       assertThat("Use Converter from request should be false", sb.useConverterFromRequest(), is(false));
    }
    
+   /**
+    * Tests the object to json string body serializes the object 
+    * once, reusing the bytes for the entity and the log string 
+    * until a setter is called.
+    * 
+    * @throws Exception
+    *    Any exception will be thrown, failing the test case.
+    */
+   @Test
+   public void testObjectJSONBodySerializedOnce() throws Exception
+   {
+      CountingBean bean = new CountingBean("caf\u00e9");
+      ObjectJSONStringBody sb = new ObjectJSONStringBody(bean, new BJADWebRequest().getJsonObjectMapper());
+      HttpEntity entity = sb.getEntity();
+      assertThat("Entity can be sent more than once", entity.isRepeatable(), is(true));
+      assertThat("Entity holds the UTF-8 JSON", EntityUtils.toString(entity), is("{\"name\":\"caf\u00e9\"}"));
+      assertThat("Log string built from the same bytes", sb.getLogString(), endsWith(": {\"name\":\"caf\u00e9\"}"));
+      assertThat("Object serialized once for the entity and log string", bean.reads, is(1));
+      
+      bean.setName("changed");
+      assertThat("Changed object sent", EntityUtils.toString(sb.getEntity()), is("{\"name\":\"changed\"}"));
+      assertThat("Each entity serializes the object", bean.reads, is(2));
+      assertThat("Log string of the changed object", sb.getLogString(), endsWith(": {\"name\":\"changed\"}"));
+      sb.getLogString();
+      assertThat("Log string without an entity serializes the object", bean.reads, is(3));
+      
+      bean.setName("caf\u00e9");
+      sb.setCharacterSet("ISO-8859-1");
+      assertThat("Character set used to serialize", sb.getSerializedBody().length, is(15));
+      assertThat("Entity uses the character set", EntityUtils.toString(sb.getEntity()), is("{\"name\":\"caf\u00e9\"}"));
+      
+      sb.setCharacterSet("not-a-charset");
+      Assertions.assertThrows(BJADWebException.class, () -> sb.getEntity(), "Unknown character set fails the entity");
+   }
+   
    /**
     * Tests the form encoded body class.
     * @throws Exception
@@ -178,5 +221,86 @@ public class BodyTypeTests
          new FileUploadBody<Integer>(100).getEntity();
        }, "Should throw IllegalArgumentException with int body type");
    }
+   
+   /**
+    * Tests the multipart body computes its length and logs only 
+    * the details of its parts.
+    * 
+    * @param dir
+    *    The temporary directory for the file part.
+    * @throws Exception
+    *    Any unhandled exceptions will be thrown, causing the test to fail
+    */
+   @Test
+   public void testMultipartFormBody(@TempDir Path dir) throws Exception
+   {
+      Path file = dir.resolve("report.pdf");
+      Files.write(file, new byte[100000]);
+      
+      MultipartFormBody body = new MultipartFormBody("TestBoundary")
+            .addField("title", "Secret \"value\"")
+            .addFile("report", file, MediaType.PDF)
+            .addBytes("thumb", "thumb.png", MediaType.imageType("PNG"), new byte[] {1,2,3});
+      
+      HttpEntity entity = body.getEntity();
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      entity.writeTo(out);
+      String text = new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+      assertThat("Content length matches the bytes written", entity.getContentLength(), is((long)out.size()));
+      assertThat("Content type has the boundary", entity.getContentType().getValue(), is("multipart/form-data; boundary=TestBoundary"));
+      assertThat("Entity can be sent again", entity.isRepeatable(), is(true));
+      assertThat("File part header written", text, containsString("Content-Disposition: form-data; name=\"report\"; filename=\"report.pdf\"\r\nContent-Type: application/pdf\r\n\r\n"));
+      assertThat("Body closed with the final boundary", text, endsWith("\r\n--TestBoundary--\r\n"));
+      assertThat("Content read matches the bytes written", EntityUtils.toByteArray(entity), is(out.toByteArray()));
+      
+      String log = body.getLogString();
+      assertThat("Log string has the part details", log, is("Multipart form with 3 part(s), "
+            + "\"title\" (14 bytes, text/plain; charset=UTF-8), "
+            + "\"report\" (file \"report.pdf\", 100000 bytes, application/pdf), "
+            + "\"thumb\" (file \"thumb.png\", 3 bytes, image/png)"));
+      assertThat("Log string has no content", log, not(containsString("Secret")));
+      
+      Files.write(file, new byte[10]);
+      Assertions.assertThrows(IOException.class, () -> entity.writeTo(new ByteArrayOutputStream()), 
+            "File changing size after the entity is created fails the write");
+      Assertions.assertThrows(IOException.class, () -> EntityUtils.toByteArray(entity), 
+            "File changing size after the entity is created fails the read");
+   }
+   
+   /**
+    * Bean counting the reads of its property by the JSON converter.
+    */
+   public static class CountingBean
+   {
+      private String name;
+      private int reads;
+      
+      /**
+       * @param name
+       *    The name property of the bean.
+       */
+      public CountingBean(String name)
+      {
+         this.name = name;
+      }
+      
+      /**
+       * @return
+       *    The name property, counting the read.
+       */
+      public String getName()
+      {
+         reads++;
+         return name;
+      }
+      
+      /**
+       * @param name
+       *    The name property of the bean.
+       */
+      public void setName(String name)
+      {
+         this.name = name;
+      }
+   }
 }
-
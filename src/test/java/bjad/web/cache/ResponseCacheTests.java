@@ -0,0 +1,695 @@
+package bjad.web.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat; 
+import static org.hamcrest.Matchers.*;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.utils.DateUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import bjad.web.BJADWebComponent;
+import bjad.web.BJADWebConstants;
+import bjad.web.BJADWebRequest;
+import bjad.web.BJADWebRequestFactory;
+import bjad.web.BJADWebResponse;
+import bjad.web.HTTPMethodType;
+import bjad.web.body.StringBody;
+import bjad.web.fakeserver.CacheableEndpoint;
+import bjad.web.fakeserver.FakeHTTPServer;
+import bjad.web.fakeserver.SlowEndpoint;
+import bjad.web.properties.EnhancedPropertyHelper;
+
+/**
+ * Unit tests for the response cache classes.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class ResponseCacheTests
+{
+   @TempDir
+   Path tempDir;
+   
+   /**
+    * Starts the fake HTTP server prior to all the test
+    * cases executing.
+    */
+   @BeforeAll
+   public static void testsStarting()
+   {
+      FakeHTTPServer.startServer(52525);
+   }
+   
+   /**
+    * Stops the Fake HTTP server after all the test cases execute.
+    */
+   @AfterAll
+   public static void testsFinished()
+   {
+      FakeHTTPServer.stopServer();
+   }
+   
+   /**
+    * Creates a GET request for the cacheable resource.
+    * 
+    * @param path
+    *    The path (and query) of the resource.
+    * @param cache
+    *    The cache for the request.
+    * @return
+    *    The request.
+    */
+   static BJADWebRequest cachedRequest(String path, ResponseCache cache)
+   {
+      BJADWebRequest req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/cached/" + path);
+      req.setMethod(HTTPMethodType.GET);
+      req.setResponseCache(cache);
+      return req;
+   }
+   
+   /**
+    * Tests fresh responses are served from the cache and 
+    * successful unsafe operations invalidate them.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testFreshResponsesServedFromCache() throws Exception
+   {
+      ResponseCache cache = new InMemoryResponseCache();
+      BJADWebComponent component = new BJADWebComponent(cachedRequest("fresh", cache));
+      
+      BJADWebResponse<String> first = component.performWebCall(String.class);
+      assertThat("First call is not a cache hit", first.isCacheHit(), is(false));
+      BJADWebResponse<String> second = component.performWebCall(String.class);
+      assertThat("Second call is a cache hit", second.isCacheHit(), is(true));
+      assertThat("Cached status kept", second.getStatusCode(), is(200));
+      assertThat("Cached headers kept", CachePolicy.getHeader(second.getHeaders(), "ETag"), is("\"fresh-0\""));
+      assertThat("Cached body matches", second.getData(), is(first.getData()));
+      BJADWebResponse<byte[]> bytes = component.performWebCall(byte[].class);
+      assertThat("Byte content served from cache", bytes.isCacheHit(), is(true));
+      assertThat("Server only called once", CacheableEndpoint.counter(CacheableEndpoint.FULL_RESPONSES, "fresh").get(), is(1));
+      
+      BJADWebRequest update = cachedRequest("fresh", cache);
+      update.setMethod(HTTPMethodType.POST);
+      component.setRequest(update);
+      component.performWebCall(String.class, new StringBody("update"));
+      
+      component.setRequest(cachedRequest("fresh", cache));
+      BJADWebResponse<String> updated = component.performWebCall(String.class);
+      assertThat("Call after the update is not a cache hit", updated.isCacheHit(), is(false));
+      assertThat("Updated resource returned", updated.getData(), containsString("fresh-1"));
+   }
+   
+   /**
+    * Tests responses to requests with an Authorization header are 
+    * not served to requests with other (or no) credentials, unless
+    * the response is marked public.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testAuthorizedResponsesNotShared() throws Exception
+   {
+      ResponseCache cache = new InMemoryResponseCache();
+      BJADWebRequest tenantA = cachedRequest("authorized", cache);
+      tenantA.setHeaders(new LinkedHashMap<>());
+      tenantA.getHeaders().put("Authorization", "Bearer tenant-a");
+      BJADWebRequest tenantB = cachedRequest("authorized", cache);
+      tenantB.setHeaders(new LinkedHashMap<>());
+      tenantB.getHeaders().put("Authorization", "Bearer tenant-b");
+      
+      BJADWebResponse<String> first = new BJADWebComponent(tenantA).performWebCall(String.class);
+      assertThat("First tenant's response", first.getData(), endsWith("tenant-a"));
+      BJADWebResponse<String> second = new BJADWebComponent(tenantB).performWebCall(String.class);
+      assertThat("Second tenant not served the first tenant's response", second.isCacheHit(), is(false));
+      assertThat("Second tenant's response", second.getData(), endsWith("tenant-b"));
+      BJADWebResponse<String> anonymous = new BJADWebComponent(cachedRequest("authorized", cache)).performWebCall(String.class);
+      assertThat("Request without credentials not served a tenant's response", anonymous.isCacheHit(), is(false));
+      assertThat("Response without credentials", anonymous.getData(), not(containsString("tenant")));
+      assertThat("Server called for every request", 
+            CacheableEndpoint.counter(CacheableEndpoint.FULL_RESPONSES, "authorized").get(), is(3));
+      
+      tenantA.setUrl(tenantA.getUrl() + "?public=true");
+      tenantB.setUrl(tenantB.getUrl() + "?public=true");
+      new BJADWebComponent(tenantA).performWebCall(String.class);
+      assertThat("Public response shared", new BJADWebComponent(tenantB).performWebCall(String.class).isCacheHit(), is(true));
+   }
+   
+   /**
+    * Tests responses marked private are not stored within the 
+    * caches, as they are shared by every caller within the process.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testPrivateResponsesNotCached() throws Exception
+   {
+      ResponseCache cache = new InMemoryResponseCache();
+      BJADWebComponent component = new BJADWebComponent(cachedRequest("private?private=true", cache));
+      assertThat("First call is good", component.performWebCall(String.class).isGoodResponse(), is(true));
+      assertThat("Private response not served from the cache", component.performWebCall(String.class).isCacheHit(), is(false));
+      assertThat("Server called for every request", 
+            CacheableEndpoint.counter(CacheableEndpoint.FULL_RESPONSES, "private").get(), is(2));
+   }
+   
+   /**
+    * Tests stale responses are revalidated, with a 304 
+    * response treated as a cache hit.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testStaleResponsesRevalidated() throws Exception
+   {
+      ResponseCache cache = new InMemoryResponseCache();
+      BJADWebComponent component = new BJADWebComponent(cachedRequest("stale?maxAge=0", cache));
+      
+      BJADWebResponse<String> first = component.performWebCall(String.class);
+      BJADWebResponse<String> second = component.performWebCall(String.class);
+      assertThat("Revalidated call is a cache hit", second.isCacheHit(), is(true));
+      assertThat("Revalidated status is the cached status", second.getStatusCode(), is(200));
+      assertThat("Revalidated body matches", second.getData(), is(first.getData()));
+      assertThat("Server returned one full response", CacheableEndpoint.counter(CacheableEndpoint.FULL_RESPONSES, "stale").get(), is(1));
+      assertThat("Server returned a not modified response", CacheableEndpoint.counter(CacheableEndpoint.NOT_MODIFIED_RESPONSES, "stale").get(), is(1));
+   }
+   
+   /**
+    * Tests responses varying on request headers are cached 
+    * for each value of the request headers.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testVaryingResponses() throws Exception
+   {
+      Properties p = new Properties();
+      p.put(BJADWebConstants.PROPERTY_URL, "http://localhost:52525/cached/vary?vary=Accept-Language");
+      p.put(BJADWebConstants.PROPERTY_METHOD, "GET");
+      p.put(BJADWebConstants.PROPERTY_RESPONSE_CACHE, "memory");
+      p.put(BJADWebConstants.PROPERTY_HEADER_PREFIX + "Accept-Language", "en");
+      EnhancedPropertyHelper props = new EnhancedPropertyHelper();
+      props.loadProperties(p);
+      BJADWebRequest english = BJADWebRequestFactory.createRequest(props);
+      assertThat("Shared cache set from properties", english.getResponseCache(), sameInstance(WTinyLfuResponseCache.getSharedInstance()));
+      
+      BJADWebRequest french = english.copy();
+      french.getHeaders().put("Accept-Language", "fr");
+      
+      BJADWebComponent component = new BJADWebComponent(english);
+      assertThat("English response", component.performWebCall(String.class).getData(), endsWith("en"));
+      component.setRequest(french);
+      assertThat("French response", component.performWebCall(String.class).getData(), endsWith("fr"));
+      
+      component.setRequest(english);
+      BJADWebResponse<String> cached = component.performWebCall(String.class);
+      assertThat("English response cached", cached.isCacheHit(), is(true));
+      assertThat("English response cached", cached.getData(), endsWith("en"));
+      component.setRequest(french);
+      cached = component.performWebCall(String.class);
+      assertThat("French response cached", cached.isCacheHit(), is(true));
+      assertThat("French response cached", cached.getData(), endsWith("fr"));
+      assertThat("Server called once per language", CacheableEndpoint.counter(CacheableEndpoint.FULL_RESPONSES, "vary").get(), is(2));
+   }
+   
+   /**
+    * Tests the W-TinyLFU cache stays within its maximum weight 
+    * and keeps the frequently used response during a scan of 
+    * responses used once.
+    */
+   @Test
+   public void testWTinyLfuEviction()
+   {
+      WTinyLfuResponseCache cache = new WTinyLfuResponseCache(20000, 1);
+      cache.put("GET hot", binaryResponse(1000));
+      for (int i = 0; i < 5; i++)
+      {
+         assertThat("Hot response found", cache.get("GET hot"), notNullValue());
+      }
+      for (int i = 0; i < 100; i++)
+      {
+         cache.put("GET scan" + i, binaryResponse(1000));
+         assertThat("Cache within its maximum weight", cache.getWeightedSize(), lessThanOrEqualTo(20000L));
+      }
+      assertThat("Hot response kept during the scan", cache.get("GET hot"), notNullValue());
+      assertThat("Scanned responses evicted", cache.getEvictionCount(), greaterThan(0L));
+      assertThat("Cache near its maximum weight", cache.size(), greaterThan(10));
+      assertThat("Missing response is a miss", cache.get("GET missing"), nullValue());
+      assertThat("Hits counted", cache.getHitCount(), is(6L));
+      assertThat("Misses counted", cache.getMissCount(), is(1L));
+      
+      cache.put("GET huge", binaryResponse(30000));
+      assertThat("Response larger than the cache not stored", cache.get("GET huge"), nullValue());
+      cache.remove("GET hot");
+      assertThat("Removed response not found", cache.get("GET hot"), nullValue());
+      cache.clear();
+      assertThat("Cleared cache is empty", cache.size(), is(0));
+      assertThat("Cleared cache has no weight", cache.getWeightedSize(), is(0L));
+   }
+   
+   /**
+    * Tests the disk cache serves the responses cached before it 
+    * was closed and reopened, and discards corrupt records.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testDiskCacheSurvivesRestart() throws Exception
+   {
+      Properties p = new Properties();
+      p.put(BJADWebConstants.PROPERTY_URL, "http://localhost:52525/cached/disk");
+      p.put(BJADWebConstants.PROPERTY_METHOD, "GET");
+      p.put(BJADWebConstants.PROPERTY_RESPONSE_CACHE, "disk");
+      p.put(BJADWebConstants.PROPERTY_DISK_CACHE_DIRECTORY, tempDir.toString());
+      EnhancedPropertyHelper props = new EnhancedPropertyHelper();
+      props.loadProperties(p);
+      BJADWebRequest req = BJADWebRequestFactory.createRequest(props);
+      assertThat("Disk cache set from properties", req.getResponseCache(), instanceOf(DiskResponseCache.class));
+      DiskResponseCache cache = (DiskResponseCache)req.getResponseCache();
+      assertThat("Shared cache for the directory", cache, sameInstance(DiskResponseCache.getSharedInstance(tempDir, 1)));
+      
+      BJADWebResponse<String> first = new BJADWebComponent(req).performWebCall(String.class);
+      cache.put("GET corrupt", binaryResponse(100));
+      cache.close();
+      
+      cache = new DiskResponseCache(tempDir);
+      req.setResponseCache(cache);
+      BJADWebResponse<String> restarted = new BJADWebComponent(req).performWebCall(String.class);
+      assertThat("Response served after the restart", restarted.isCacheHit(), is(true));
+      assertThat("Cached body matches", restarted.getData(), is(first.getData()));
+      assertThat("Server only called once", CacheableEndpoint.counter(CacheableEndpoint.FULL_RESPONSES, "disk").get(), is(1));
+      cache.close();
+      
+      // Corrupt the last byte of the body of the last record.
+      Path segment = Files.list(tempDir).filter(f -> f.getFileName().toString().startsWith("segment-")).sorted()
+            .reduce((a, b) -> b).get();
+      try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE))
+      {
+         channel.write(ByteBuffer.wrap(new byte[] { 99 }), channel.size() - 5);
+      }
+      cache = new DiskResponseCache(tempDir);
+      assertThat("Corrupt record is a miss", cache.get("GET corrupt"), nullValue());
+      assertThat("Corrupt record removed", cache.size(), is(1));
+      cache.close();
+   }
+   
+   /**
+    * Tests the disk cache removes the least recently used responses
+    * to stay within its maximum size and compacts its segments.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testDiskCacheEviction() throws Exception
+   {
+      try (DiskResponseCache cache = new DiskResponseCache(tempDir, 50000))
+      {
+         cache.put("GET first", binaryResponse(1000));
+         for (int i = 0; i < 500; i++)
+         {
+            cache.put("GET entry" + i, binaryResponse(1000));
+            assertThat("First response kept while used", cache.get("GET first"), notNullValue());
+            assertThat("Cache within its maximum size", cache.getSize(), lessThanOrEqualTo(50000L));
+         }
+         assertThat("Oldest responses evicted", cache.get("GET entry0"), nullValue());
+         assertThat("Newest response kept", cache.get("GET entry499").getBody().length, is(1000));
+         
+         long diskSize = 0;
+         for (Path file : (Iterable<Path>)Files.list(tempDir)::iterator)
+         {
+            if (file.getFileName().toString().startsWith("segment-"))
+            {
+               diskSize += Files.size(file);
+            }
+         }
+         assertThat("Segments compacted", diskSize, lessThanOrEqualTo(3 * 50000L));
+         
+         cache.remove("GET first");
+         assertThat("Removed response not found", cache.get("GET first"), nullValue());
+         cache.clear();
+         assertThat("Cleared cache is empty", cache.size(), is(0));
+      }
+   }
+   
+   /**
+    * Tests the result cache returns expired results within the 
+    * grace period while refreshing them in the background, and 
+    * refreshes hot results ahead of their expiry.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testResultCacheStaleWhileRevalidate() throws Exception
+   {
+      ResultCache cache = new ResultCache();
+      AtomicInteger loads = new AtomicInteger();
+      ResultCache.Loader loader = r -> 
+      {
+         BJADWebResponse<byte[]> response = new BJADWebResponse<>();
+         response.setStatusCode(200);
+         response.setData(String.valueOf(loads.incrementAndGet()).getBytes());
+         return response;
+      };
+      BJADWebRequest req = cachedRequest("result", null);
+      req.setResultCacheTtl(1000);
+      req.setResultCacheGracePeriod(5000);
+      
+      assertThat("First call loads", cache.fetch(req, loader).isCacheHit(), is(false));
+      BJADWebResponse<byte[]> hit = cache.fetch(req, loader);
+      assertThat("Second call is a cache hit", hit.isCacheHit(), is(true));
+      assertThat("Cached result returned", new String(hit.getData()), is("1"));
+      
+      // Used twice, so the result is hot and refreshed once within 
+      // the last 20% of its TTL.
+      Thread.sleep(850);
+      assertThat("Hot result returned before expiry", new String(cache.fetch(req, loader).getData()), is("1"));
+      waitForLoads(loads, 2);
+      assertThat("Refreshed result returned", new String(cache.fetch(req, loader).getData()), is("2"));
+      
+      // Expired but within the grace period.
+      Thread.sleep(1100);
+      BJADWebResponse<byte[]> stale = cache.fetch(req, loader);
+      assertThat("Stale result returned straight away", new String(stale.getData()), is("2"));
+      assertThat("Stale result is a cache hit", stale.isCacheHit(), is(true));
+      cache.fetch(req, loader);
+      waitForLoads(loads, 3);
+      Thread.sleep(100);
+      assertThat("One refresh for the stale result", loads.get(), is(3));
+      
+      // Expired past the grace period.
+      req.setResultCacheGracePeriod(0);
+      Thread.sleep(1100);
+      BJADWebResponse<byte[]> expired = cache.fetch(req, loader);
+      assertThat("Expired result is loaded by the caller", expired.isCacheHit(), is(false));
+      assertThat("Expired result is loaded by the caller", new String(expired.getData()), is("4"));
+   }
+   
+   /**
+    * Tests the results past their grace period are removed from 
+    * the result cache every purge interval rather than held until
+    * evicted.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testResultCachePurgesExpired() throws Exception
+   {
+      ResultCache cache = new ResultCache();
+      ResultCache.Loader loader = r -> 
+      {
+         BJADWebResponse<byte[]> response = new BJADWebResponse<>();
+         response.setStatusCode(200);
+         response.setData(r.getUrl().getBytes());
+         return response;
+      };
+      for (int i = 0; i < 5; i++)
+      {
+         BJADWebRequest req = cachedRequest("result?n=" + i, null);
+         req.setResultCacheTtl(100);
+         cache.fetch(req, loader);
+      }
+      assertThat("Results stored", cache.size(), is(5));
+      
+      Thread.sleep(150);
+      final int FRESH = ResultCache.PURGE_INTERVAL - 5;
+      for (int i = 0; i < FRESH; i++)
+      {
+         if (i == FRESH - 1)
+         {
+            assertThat("Expired results kept until the purge", cache.size(), is(FRESH + 4));
+         }
+         BJADWebRequest req = cachedRequest("fresh?n=" + i, null);
+         req.setResultCacheTtl(60000);
+         cache.fetch(req, loader);
+      }
+      assertThat("Expired results removed every purge interval", cache.size(), is(FRESH));
+   }
+   
+   /**
+    * Tests the result cache TTL is set from the properties and 
+    * used by the component.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testResultCacheFromProperties() throws Exception
+   {
+      Properties p = new Properties();
+      p.put(BJADWebConstants.PROPERTY_URL, "http://localhost:52525/cached/result?maxAge=0");
+      p.put(BJADWebConstants.PROPERTY_METHOD, "GET");
+      p.put(BJADWebConstants.PROPERTY_RESULT_CACHE_TTL, "60000");
+      p.put(BJADWebConstants.PROPERTY_RESULT_CACHE_GRACE_PERIOD, "1000");
+      EnhancedPropertyHelper props = new EnhancedPropertyHelper();
+      props.loadProperties(p);
+      BJADWebRequest req = BJADWebRequestFactory.createRequest(props);
+      assertThat("TTL set from properties", req.getResultCacheTtl(), is(60000L));
+      assertThat("Grace period set from properties", req.getResultCacheGracePeriod(), is(1000L));
+      
+      BJADWebComponent component = new BJADWebComponent(req);
+      BJADWebResponse<String> first = component.performWebCall(String.class);
+      BJADWebResponse<String> second = component.performWebCall(String.class);
+      assertThat("Result cached despite the max-age", second.isCacheHit(), is(true));
+      assertThat("Cached body matches", second.getData(), is(first.getData()));
+      assertThat("Server only called once", CacheableEndpoint.counter(CacheableEndpoint.FULL_RESPONSES, "result").get(), is(1));
+      
+      BJADWebRequest update = req.copy();
+      update.setMethod(HTTPMethodType.POST);
+      component.setRequest(update);
+      component.performWebCall(String.class, new StringBody("update"));
+      component.setRequest(req);
+      assertThat("Update removes the cached result", component.performWebCall(String.class).isCacheHit(), is(false));
+   }
+   
+   /**
+    * Tests identical concurrent GET operations are coalesced into 
+    * a single call to the server, each caller getting its own copy 
+    * of the response.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testCoalescedRequests() throws Exception
+   {
+      Properties p = new Properties();
+      p.put(BJADWebConstants.PROPERTY_URL, "http://localhost:52525/slow/700");
+      p.put(BJADWebConstants.PROPERTY_METHOD, "GET");
+      p.put(BJADWebConstants.PROPERTY_COALESCE_REQUESTS, "true");
+      EnhancedPropertyHelper props = new EnhancedPropertyHelper();
+      props.loadProperties(p);
+      BJADWebRequest req = BJADWebRequestFactory.createRequest(props);
+      assertThat("Coalescing set from properties", req.isCoalesceRequests(), is(true));
+      
+      final int CALLERS = 20;
+      CountDownLatch start = new CountDownLatch(1);
+      ExecutorService pool = Executors.newFixedThreadPool(CALLERS);
+      try
+      {
+         List<Future<BJADWebResponse<byte[]>>> results = new ArrayList<>();
+         for (int i = 0; i < CALLERS; i++)
+         {
+            results.add(pool.submit(() -> 
+            {
+               start.await();
+               return new BJADWebComponent(req.copy()).performWebCall(byte[].class);
+            }));
+         }
+         start.countDown();
+         
+         int coalesced = 0;
+         List<byte[]> bodies = new ArrayList<>();
+         for (Future<BJADWebResponse<byte[]>> result : results)
+         {
+            BJADWebResponse<byte[]> response = result.get();
+            assertThat("Response is good", response.isGoodResponse(), is(true));
+            assertThat("Response body returned", new String(response.getData()), is("slow"));
+            coalesced += response.isCoalesced() ? 1 : 0;
+            for (byte[] body : bodies)
+            {
+               assertThat("Each caller has its own body", body, not(sameInstance(response.getData())));
+            }
+            bodies.add(response.getData());
+         }
+         assertThat("Server called once", SlowEndpoint.counter("700").get(), is(1));
+         assertThat("Other callers shared the response", coalesced, is(CALLERS - 1));
+         assertThat("No operations left in flight", RequestCoalescer.getSharedInstance().getInFlightCount(), is(0));
+      }
+      finally
+      {
+         pool.shutdownNow();
+      }
+   }
+   
+   /**
+    * Tests the callers waiting for a coalesced operation are 
+    * released when the operation fails with an error.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testCoalescedRequestError() throws Exception
+   {
+      RequestCoalescer coalescer = new RequestCoalescer();
+      BJADWebRequest req = cachedRequest("coalesced", null);
+      CountDownLatch loading = new CountDownLatch(1);
+      CountDownLatch fail = new CountDownLatch(1);
+      ExecutorService pool = Executors.newFixedThreadPool(2);
+      try
+      {
+         Future<BJADWebResponse<byte[]>> leader = pool.submit(() -> coalescer.execute(req, r -> 
+         {
+            loading.countDown();
+            try
+            {
+               fail.await();
+            }
+            catch (InterruptedException ex)
+            {
+               Thread.currentThread().interrupt();
+            }
+            throw new Error("load failed");
+         }));
+         loading.await();
+         Future<BJADWebResponse<byte[]>> waiter = pool.submit(() -> coalescer.execute(req, r -> 
+         {
+            throw new IllegalStateException("Waiter should not load");
+         }));
+         Thread.sleep(200);
+         fail.countDown();
+         
+         ExecutionException leaderEx = Assertions.assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+         assertThat("Leader gets the error", leaderEx.getCause().getMessage(), is("load failed"));
+         ExecutionException waiterEx = Assertions.assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS));
+         assertThat("Waiter gets the error", waiterEx.getCause().getMessage(), is("load failed"));
+         assertThat("No operations left in flight", coalescer.getInFlightCount(), is(0));
+      }
+      finally
+      {
+         pool.shutdownNow();
+      }
+   }
+   
+   /**
+    * Tests the freshness and cacheability rules.
+    */
+   @Test
+   public void testCachePolicy()
+   {
+      long now = System.currentTimeMillis();
+      Map<String, String> headers = new LinkedHashMap<>();
+      headers.put("Date", DateUtils.formatDate(new Date(now)));
+      headers.put("Expires", DateUtils.formatDate(new Date(now + 120000)));
+      CachedResponse response = new CachedResponse(200, headers, new byte[0], now, now);
+      assertThat("Freshness from Expires", CachePolicy.getFreshnessLifetime(response), is(120000L));
+      assertThat("Cacheable with Expires", CachePolicy.isCacheableResponse(200, headers), is(true));
+      assertThat("Not cacheable with a 500 status", CachePolicy.isCacheableResponse(500, headers), is(false));
+      
+      headers.put("Cache-Control", "public, max-age=30");
+      response = new CachedResponse(200, headers, new byte[0], now, now);
+      assertThat("max-age wins over Expires", CachePolicy.getFreshnessLifetime(response), is(30000L));
+      
+      headers.put("Age", "40");
+      response = new CachedResponse(200, headers, new byte[0], now, now);
+      BJADWebRequest request = new BJADWebRequest();
+      request.setMethod(HTTPMethodType.GET);
+      assertThat("Age past max-age is stale", CachePolicy.isFresh(request, response, now), is(false));
+      
+      headers.put("Cache-Control", "max-age=30, s-maxage=90");
+      response = new CachedResponse(200, headers, new byte[0], now, now);
+      assertThat("s-maxage wins over max-age", CachePolicy.getFreshnessLifetime(response), is(90000L));
+      
+      headers.put("Cache-Control", "no-store");
+      assertThat("Not cacheable with no-store", CachePolicy.isCacheableResponse(200, headers), is(false));
+      headers.put("Cache-Control", "private, max-age=30");
+      assertThat("Not cacheable with private", CachePolicy.isCacheableResponse(200, headers), is(false));
+      
+      headers.clear();
+      headers.put("Date", DateUtils.formatDate(new Date(now)));
+      headers.put("Last-Modified", DateUtils.formatDate(new Date(now - 1000000)));
+      response = new CachedResponse(200, headers, new byte[0], now, now);
+      assertThat("Heuristic freshness from Last-Modified", CachePolicy.getFreshnessLifetime(response), is(100000L));
+      
+      request.setMethod(HTTPMethodType.POST);
+      assertThat("POST is not cacheable", CachePolicy.isCacheableRequest(request), is(false));
+   }
+   
+   /**
+    * Creates a cached response with a body of the size passed.
+    * 
+    * @param size
+    *    The size of the body.
+    * @return
+    *    The cached response.
+    */
+   private static CachedResponse binaryResponse(int size)
+   {
+      long now = System.currentTimeMillis();
+      return new CachedResponse(200, new LinkedHashMap<String, String>(), new byte[size], now, now);
+   }
+   
+   /**
+    * Waits up to 2 seconds for the number of loads to be reached.
+    * 
+    * @param loads
+    *    The number of loads.
+    * @param expected
+    *    The number of loads to wait for.
+    * @throws InterruptedException
+    *    Thrown if interrupted while waiting.
+    */
+   private static void waitForLoads(AtomicInteger loads, int expected) throws InterruptedException
+   {
+      long end = System.currentTimeMillis() + 2000;
+      while (loads.get() < expected && System.currentTimeMillis() < end)
+      {
+         Thread.sleep(10);
+      }
+      assertThat("Result refreshed in the background", loads.get(), is(expected));
+   }
+}
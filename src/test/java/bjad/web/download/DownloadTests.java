@@ -0,0 +1,260 @@
+package bjad.web.download;
+
+import static org.hamcrest.MatcherAssert.assertThat; 
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import bjad.web.BJADWebComponent;
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+import bjad.web.HTTPMethodType;
+import bjad.web.fakeserver.BinaryEndpoint;
+import bjad.web.fakeserver.FakeHTTPServer;
+import bjad.web.transport.URLConnectionTransport;
+
+/**
+ * Unit tests for the download classes.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class DownloadTests
+{
+   /**
+    * Temporary directory for the downloaded files.
+    */
+   @TempDir
+   Path tempDir;
+   
+   /**
+    * Starts the fake HTTP server prior to all the test
+    * cases executing.
+    */
+   @BeforeAll
+   public static void testsStarting()
+   {
+      FakeHTTPServer.startServer(52525);
+   }
+   
+   /**
+    * Stops the Fake HTTP server after all the test cases execute.
+    */
+   @AfterAll
+   public static void testsFinished()
+   {
+      FakeHTTPServer.stopServer();
+   }
+   
+   /**
+    * Creates a GET request for the binary content of the size passed.
+    * 
+    * @param size
+    *    The size of the content.
+    * @return
+    *    The request.
+    */
+   static BJADWebRequest binaryRequest(long size)
+   {
+      BJADWebRequest req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/binary/" + size);
+      req.setMethod(HTTPMethodType.GET);
+      return req;
+   }
+   
+   /**
+    * Asserts the file contains the generated binary content.
+    * 
+    * @param file
+    *    The file to check.
+    * @param size
+    *    The expected size of the content.
+    * @throws IOException
+    *    Any exceptions reading the file.
+    */
+   static void assertBinaryContent(Path file, long size) throws IOException
+   {
+      assertThat("File size matches", Files.size(file), is(size));
+      try (InputStream in = Files.newInputStream(file))
+      {
+         byte[] buffer = new byte[8192];
+         long pos = 0;
+         int read;
+         while ((read = in.read(buffer)) != -1)
+         {
+            for (int i = 0; i < read; i++, pos++)
+            {
+               if (buffer[i] != BinaryEndpoint.byteAt(pos))
+               {
+                  assertThat("Byte at " + pos + " matches", buffer[i], is(BinaryEndpoint.byteAt(pos)));
+               }
+            }
+         }
+      }
+   }
+   
+   /**
+    * Tests downloading content straight into a file.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testDownloadToFile() throws Exception
+   {
+      final long SIZE = 1024 * 1024 + 17;
+      Path target = tempDir.resolve("download.bin");
+      
+      BJADDownloadResponse response = new BJADWebComponent(binaryRequest(SIZE)).performDownload(target);
+      assertThat("Download is good", response.isGoodResponse(), is(true));
+      assertThat("Path returned", response.getData(), is(target));
+      assertThat("Bytes written", response.getBytesWritten(), is(SIZE));
+      assertThat("Throughput calculated", response.getThroughput(), greaterThan(0.0));
+      assertBinaryContent(target, SIZE);
+      
+      BJADWebRequest req = binaryRequest(1000);
+      req.setTransport(new URLConnectionTransport());
+      response = new FileDownloader(req).download(target);
+      assertThat("Existing file replaced", response.getBytesWritten(), is(1000L));
+      assertBinaryContent(target, 1000);
+      
+      req = binaryRequest(1000);
+      req.setUrl("http://localhost:52525/person/missing-person");
+      Path missing = tempDir.resolve("missing.bin");
+      response = new FileDownloader(req).download(missing);
+      assertThat("Missing resource is not a good response", response.isGoodResponse(), is(false));
+      assertThat("No path for a bad response", response.getData(), nullValue());
+      assertThat("No file for a bad response", Files.exists(missing), is(false));
+   }
+   
+   /**
+    * Tests downloading content in concurrent segments, and 
+    * falling back to a single stream.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testSegmentedDownload() throws Exception
+   {
+      final long SIZE = 4 * 1024 * 1024 + 3;
+      Path target = tempDir.resolve("segmented.bin");
+      
+      BJADDownloadResponse response = new BJADWebComponent(binaryRequest(SIZE)).performSegmentedDownload(target, 4);
+      assertThat("Segmented download is good", response.isGoodResponse(), is(true));
+      assertThat("Bytes written", response.getBytesWritten(), is(SIZE));
+      assertBinaryContent(target, SIZE);
+      
+      BJADWebRequest req = binaryRequest(300000);
+      req.setTransport(new URLConnectionTransport());
+      SegmentedDownloader downloader = new SegmentedDownloader(req, 3);
+      downloader.setMinSegmentSize(50000);
+      response = downloader.download(target);
+      assertThat("Segmented download replaced the file", response.getBytesWritten(), is(300000L));
+      assertBinaryContent(target, 300000);
+      
+      req = binaryRequest(300000);
+      req.setUrl(req.getUrl() + "?ranges=false");
+      downloader = new SegmentedDownloader(req, 3);
+      downloader.setMinSegmentSize(50000);
+      response = downloader.download(target);
+      assertThat("Single stream fallback is good", response.isGoodResponse(), is(true));
+      assertBinaryContent(target, 300000);
+      
+      response = new SegmentedDownloader(binaryRequest(1000)).download(target);
+      assertThat("Small content downloaded as a single stream", response.getBytesWritten(), is(1000L));
+      assertBinaryContent(target, 1000);
+   }
+   
+   /**
+    * Tests the range requests carry the ETag of the HEAD response
+    * within the If-Range header, and a server ignoring the ranges 
+    * is not downloaded in full for each segment before falling 
+    * back to a single stream.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testSegmentedDownloadFallback() throws Exception
+   {
+      final long SIZE = 8 * 1024 * 1024;
+      Path target = tempDir.resolve("fallback.bin");
+      
+      BinaryEndpoint.lastIfRange = null;
+      new BJADWebComponent(binaryRequest(SIZE)).performSegmentedDownload(target, 4);
+      assertThat("Range requests validated by the ETag", BinaryEndpoint.lastIfRange, is(BinaryEndpoint.etag(SIZE)));
+      
+      BJADWebRequest req = binaryRequest(SIZE);
+      req.setUrl(req.getUrl() + "?ignoreRange=true");
+      long sentBefore = BinaryEndpoint.BYTES_SENT.get();
+      BJADDownloadResponse response = new SegmentedDownloader(req, 4).download(target);
+      assertThat("Single stream fallback is good", response.getStatusCode(), is(200));
+      assertThat("Bytes written", response.getBytesWritten(), is(SIZE));
+      assertBinaryContent(target, SIZE);
+      assertThat("Full content not sent for each segment", BinaryEndpoint.BYTES_SENT.get() - sentBefore, lessThan(2 * SIZE));
+   }
+   
+   /**
+    * Tests resuming downloads from their checkpoint after the 
+    * transfer times out, and restarting them when the resource
+    * changed since the checkpoint.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testResumableDownload() throws Exception
+   {
+      final long SIZE = 200000;
+      Path target = tempDir.resolve("resumable.bin");
+      
+      BJADWebRequest req = binaryRequest(SIZE);
+      req.setUrl(req.getUrl() + "?stallAt=120000");
+      req.setReadTimeout(300);
+      BJADDownloadResponse response = new BJADWebComponent(req).performResumableDownload(target);
+      assertThat("Resumed download is good", response.isGoodResponse(), is(true));
+      assertThat("Resumed download only fetched the missing tail", response.getBytesWritten(), is(SIZE));
+      assertThat("Checkpoint removed", Files.exists(DownloadCheckpoint.pathFor(target)), is(false));
+      assertBinaryContent(target, SIZE);
+      
+      Path second = tempDir.resolve("resumable2.bin");
+      BJADWebException ex = Assertions.assertThrows(BJADWebException.class, () -> {
+         new ResumableDownloader(req, 1).download(second);
+       }, "Should throw BJADWebException when out of attempts.");
+      assertThat("Timeout reported", ex.isTimeoutException(), is(true));
+      DownloadCheckpoint checkpoint = DownloadCheckpoint.load(second);
+      assertThat("Checkpoint kept for the next call", checkpoint, notNullValue());
+      assertThat("Checkpoint at the stall", checkpoint.offset, is(120000L));
+      assertThat("Checkpoint has the ETag", checkpoint.etag, is(BinaryEndpoint.etag(SIZE)));
+      
+      response = new ResumableDownloader(req, 1).download(second);
+      assertThat("Next call resumed the download", response.getBytesWritten(), is(SIZE - 120000));
+      assertBinaryContent(second, SIZE);
+      
+      Path changed = tempDir.resolve("changed.bin");
+      Files.write(changed, new byte[5000]);
+      checkpoint = new DownloadCheckpoint();
+      checkpoint.url = binaryRequest(SIZE).getUrl();
+      checkpoint.offset = 5000;
+      checkpoint.etag = "\"changed\"";
+      checkpoint.save(changed);
+      response = new ResumableDownloader(binaryRequest(SIZE)).download(changed);
+      assertThat("Changed resource downloaded in full", response.getStatusCode(), is(200));
+      assertThat("Changed resource downloaded in full", response.getBytesWritten(), is(SIZE));
+      assertBinaryContent(changed, SIZE);
+   }
+}
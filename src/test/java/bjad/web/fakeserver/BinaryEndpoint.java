@@ -0,0 +1,167 @@
+package bjad.web.fakeserver;
+
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import bjad.web.HTTPMethodType;
+import spark.Request;
+import spark.Response;
+
+/**
+ * Endpoint returning the number of generated bytes within 
+ * its path, supporting single byte range requests and the 
+ * If-Range header (unless ranges=false is passed in the query), 
+ * used to test the downloads. Passing stallAt=position in the query 
+ * stalls the transfer at that position within the content, and 
+ * passing ignoreRange=true advertises byte ranges but returns the 
+ * full content for the range requests.
+ *
+ * @author 
+ *  Ben Dougall
+ *
+ */
+public class BinaryEndpoint extends FakeHTTPServerEndpoint
+{
+   /**
+    * The number of content bytes written, across all the calls.
+    */
+   public static final AtomicLong BYTES_SENT = new AtomicLong();
+   
+   /**
+    * The If-Range header of the last range request.
+    */
+   public static volatile String lastIfRange;
+   
+   /**
+    * Returns the byte at the position passed within 
+    * the generated content.
+    * 
+    * @param position
+    *    The position within the content.
+    * @return
+    *    The byte at that position.
+    */
+   public static byte byteAt(long position)
+   {
+      return (byte)(position % 251);
+   }
+   
+   /**
+    * Returns the ETag of the generated content.
+    * 
+    * @param size
+    *    The size of the content.
+    * @return
+    *    The ETag of the content.
+    */
+   public static String etag(long size)
+   {
+      return "\"binary-" + size + "\"";
+   }
+
+   /**
+    * @see spark.Route#handle(spark.Request, spark.Response)
+    */
+   @Override
+   public Object handle(Request request, Response response) throws Exception
+   {
+      long size = Long.parseLong(request.params("size"));
+      long start = 0;
+      long end = size - 1;
+      
+      // Servers without range support are simulated with ranges=false
+      boolean rangesSupported = !"false".equals(request.queryParams("ranges"));
+      String range = rangesSupported ? request.headers("Range") : null;
+      String ifRange = request.headers("If-Range");
+      if (range != null)
+      {
+         lastIfRange = ifRange;
+      }
+      if ("true".equals(request.queryParams("ignoreRange")))
+      {
+         range = null;
+      }
+      boolean partial = range != null && range.startsWith("bytes=") && 
+            (ifRange == null || ifRange.equals(etag(size)));
+      if (partial)
+      {
+         String[] bounds = range.substring("bytes=".length()).split("-", -1);
+         start = Long.parseLong(bounds[0]);
+         if (!bounds[1].isEmpty())
+         {
+            end = Math.min(end, Long.parseLong(bounds[1]));
+         }
+         if (start > end)
+         {
+            response.status(416);
+            response.header("Content-Range", "bytes */" + size);
+            return "";
+         }
+         response.status(206);
+         response.header("Content-Range", "bytes " + start + "-" + end + "/" + size);
+      }
+      else
+      {
+         response.status(200);
+      }
+      
+      response.type("application/octet-stream");
+      if (rangesSupported)
+      {
+         response.header("Accept-Ranges", "bytes");
+      }
+      response.header("ETag", etag(size));
+      response.raw().setContentLengthLong(end - start + 1);
+      if (getHttpMethod() == HTTPMethodType.HEAD)
+      {
+         return "";
+      }
+      
+      // Transfers that stall part way through are simulated with stallAt=position
+      long stallAt = Long.parseLong(request.queryParamOrDefault("stallAt", "-1"));
+      
+      byte[] chunk = new byte[8192];
+      OutputStream out = response.raw().getOutputStream();
+      for (long pos = start; pos <= end;)
+      {
+         if (pos == stallAt && start < stallAt)
+         {
+            out.flush();
+            Thread.sleep(1500);
+            return "";
+         }
+         int len = (int)Math.min(chunk.length, end - pos + 1);
+         if (pos < stallAt)
+         {
+            len = (int)Math.min(len, stallAt - pos);
+         }
+         for (int i = 0; i < len; i++)
+         {
+            chunk[i] = byteAt(pos + i);
+         }
+         out.write(chunk, 0, len);
+         BYTES_SENT.addAndGet(len);
+         pos += len;
+      }
+      out.flush();
+      return "";
+   }
+
+   /**
+    * @see bjad.web.fakeserver.FakeHTTPServerEndpoint#getEndpointName()
+    */
+   @Override
+   public String getEndpointName()
+   {
+      return "/binary/:size";
+   }
+
+   /**
+    * @see bjad.web.fakeserver.FakeHTTPServerEndpoint#getHttpMethod()
+    */
+   @Override
+   public HTTPMethodType getHttpMethod()
+   {
+      return HTTPMethodType.GET;
+   }
+}
@@ -0,0 +1,23 @@
+package bjad.web.fakeserver;
+
+import bjad.web.HTTPMethodType;
+
+/**
+ * HEAD endpoint for the generated binary content, returning 
+ * the headers of the BinaryEndpoint without the content.
+ *
+ * @author 
+ *  Ben Dougall
+ *
+ */
+public class BinaryHeadEndpoint extends BinaryEndpoint
+{
+   /**
+    * @see bjad.web.fakeserver.FakeHTTPServerEndpoint#getHttpMethod()
+    */
+   @Override
+   public HTTPMethodType getHttpMethod()
+   {
+      return HTTPMethodType.HEAD;
+   }
+}
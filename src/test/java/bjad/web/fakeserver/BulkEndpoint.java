@@ -0,0 +1,89 @@
+package bjad.web.fakeserver;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import bjad.web.HTTPMethodType;
+import spark.Request;
+import spark.Response;
+
+/**
+ * POST endpoint counting the objects sent as a JSON 
+ * array or as NDJSON, without holding the full body, 
+ * and reporting if the body was sent chunked. 
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class BulkEndpoint extends FakeHTTPServerEndpoint
+{
+   /**
+    * @see spark.Route#handle(spark.Request, spark.Response)
+    */
+   @Override
+   public Object handle(Request request, Response response) throws Exception
+   {
+      long count = 0;
+      String contentType = request.contentType();
+      if (contentType != null && contentType.startsWith("application/x-ndjson"))
+      {
+         try (BufferedReader reader = new BufferedReader(new InputStreamReader(request.raw().getInputStream(), StandardCharsets.UTF_8)))
+         {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+               if (!line.trim().isEmpty())
+               {
+                  GSON.readTree(line);
+                  count++;
+               }
+            }
+         }
+      }
+      else
+      {
+         try (JsonParser parser = GSON.getFactory().createParser(request.raw().getInputStream()))
+         {
+            if (parser.nextToken() != JsonToken.START_ARRAY)
+            {
+               response.status(400);
+               return "";
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT)
+            {
+               parser.skipChildren();
+               count++;
+            }
+         }
+      }
+      
+      Map<String, Object> result = new LinkedHashMap<>();
+      result.put("count", count);
+      result.put("chunked", "chunked".equalsIgnoreCase(request.headers("Transfer-Encoding")));
+      return GSON.writeValueAsString(result);
+   }
+
+   /**
+    * @see bjad.web.fakeserver.FakeHTTPServerEndpoint#getEndpointName()
+    */
+   @Override
+   public String getEndpointName()
+   {
+      return "/bulk";
+   }
+
+   /**
+    * @see bjad.web.fakeserver.FakeHTTPServerEndpoint#getHttpMethod()
+    */
+   @Override
+   public HTTPMethodType getHttpMethod()
+   {
+      return HTTPMethodType.POST;
+   }
+}
@@ -0,0 +1,108 @@
+package bjad.web.fakeserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bjad.web.HTTPMethodType;
+import spark.Request;
+import spark.Response;
+
+/**
+ * Endpoint returning a cacheable resource with the ETag of the 
+ * resource's version and a Cache-Control max-age (from the maxAge
+ * query parameter, default 60 seconds), answering If-None-Match 
+ * requests for the current version with a 304. Passing vary=[header]
+ * in the query makes the response vary on that request header, and 
+ * passing public=true or private=true adds the public or private 
+ * directive. The Authorization 
+ * header of the request is echoed within the body. The number of 
+ * full and not modified responses are counted per resource.
+ *
+ * @author 
+ *  Ben Dougall
+ *
+ */
+public class CacheableEndpoint extends FakeHTTPServerEndpoint
+{
+   /**
+    * The version of each resource, changed by the update endpoint.
+    */
+   static final Map<String, AtomicInteger> VERSIONS = new ConcurrentHashMap<>();
+   /**
+    * The number of full responses returned for each resource.
+    */
+   public static final Map<String, AtomicInteger> FULL_RESPONSES = new ConcurrentHashMap<>();
+   /**
+    * The number of not modified responses returned for each resource.
+    */
+   public static final Map<String, AtomicInteger> NOT_MODIFIED_RESPONSES = new ConcurrentHashMap<>();
+   
+   /**
+    * Returns the counter for the resource within the mapping.
+    * 
+    * @param counters
+    *    The counters mapping.
+    * @param name
+    *    The name of the resource.
+    * @return
+    *    The counter.
+    */
+   public static AtomicInteger counter(Map<String, AtomicInteger> counters, String name)
+   {
+      return counters.computeIfAbsent(name, n -> new AtomicInteger());
+   }
+
+   /**
+    * @see spark.Route#handle(spark.Request, spark.Response)
+    */
+   @Override
+   public Object handle(Request request, Response response) throws Exception
+   {
+      String name = request.params("name");
+      String etag = "\"" + name + "-" + counter(VERSIONS, name).get() + "\"";
+      response.header("ETag", etag);
+      response.header("Cache-Control", ("true".equals(request.queryParams("public")) ? "public, " : "") + 
+            ("true".equals(request.queryParams("private")) ? "private, " : "") + 
+            "max-age=" + request.queryParamOrDefault("maxAge", "60"));
+      
+      String vary = request.queryParams("vary");
+      String variant = "";
+      if (vary != null)
+      {
+         response.header("Vary", vary);
+         variant = request.headers(vary) == null ? "" : request.headers(vary);
+      }
+      
+      if (vary == null && etag.equals(request.headers("If-None-Match")))
+      {
+         counter(NOT_MODIFIED_RESPONSES, name).incrementAndGet();
+         response.status(304);
+         return "";
+      }
+      
+      counter(FULL_RESPONSES, name).incrementAndGet();
+      response.status(200);
+      response.type("text/plain");
+      String authorization = request.headers("Authorization");
+      return name + " " + etag + " " + variant + (authorization == null ? "" : " " + authorization);
+   }
+
+   /**
+    * @see bjad.web.fakeserver.FakeHTTPServerEndpoint#getEndpointName()
+    */
+   @Override
+   public String getEndpointName()
+   {
+      return "/cached/:name";
+   }
+
+   /**
+    * @see bjad.web.fakeserver.FakeHTTPServerEndpoint#getHttpMethod()
+    */
+   @Override
+   public HTTPMethodType getHttpMethod()
+   {
+      return HTTPMethodType.GET;
+   }
+}
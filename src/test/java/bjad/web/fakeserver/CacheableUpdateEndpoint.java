@@ -0,0 +1,45 @@
+package bjad.web.fakeserver;
+
+import bjad.web.HTTPMethodType;
+import spark.Request;
+import spark.Response;
+
+/**
+ * Endpoint changing the version of a resource returned 
+ * by the CacheableEndpoint.
+ *
+ * @author 
+ *  Ben Dougall
+ *
+ */
+public class CacheableUpdateEndpoint extends FakeHTTPServerEndpoint
+{
+   /**
+    * @see spark.Route#handle(spark.Request, spark.Response)
+    */
+   @Override
+   public Object handle(Request request, Response response) throws Exception
+   {
+      int version = CacheableEndpoint.counter(CacheableEndpoint.VERSIONS, request.params("name")).incrementAndGet();
+      response.status(200);
+      return Integer.toString(version);
+   }
+
+   /**
+    * @see bjad.web.fakeserver.FakeHTTPServerEndpoint#getEndpointName()
+    */
+   @Override
+   public String getEndpointName()
+   {
+      return "/cached/:name";
+   }
+
+   /**
+    * @see bjad.web.fakeserver.FakeHTTPServerEndpoint#getHttpMethod()
+    */
+   @Override
+   public HTTPMethodType getHttpMethod()
+   {
+      return HTTPMethodType.POST;
+   }
+}
@@ -28,6 +28,16 @@ public class FakeHTTPServer
          new TraceEndpoint(),
          new HeadEndpoint(),
          new DeleteEndpoint(),
+         new SlowEndpoint(),
+         new BinaryEndpoint(),
+         new BinaryHeadEndpoint(),
+         new CacheableEndpoint(),
+         new CacheableUpdateEndpoint(),
+         new BulkEndpoint(),
+         new UploadEndpoint(),
+         new FlakyEndpoint(HTTPMethodType.GET),
+         new FlakyEndpoint(HTTPMethodType.POST),
+         new SlowArrayEndpoint(),
    };
    
    /**
@@ -158,6 +168,10 @@ public class FakeHTTPServer
          res.header("Allow", sb.toString().substring(2));
          return "";
       });
+      
+      // Wait for the server to be ready so the first requests of the 
+      // test class are not refused during a restart.
+      Spark.awaitInitialization();
    }
    
    /** 
@@ -0,0 +1,102 @@
+package bjad.web.fakeserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bjad.web.HTTPMethodType;
+import spark.Request;
+import spark.Response;
+
+/**
+ * Endpoint failing the first calls for the key within its 
+ * path, used to test the retries. The number of failures is 
+ * set by the fail query parameter, the status code of the 
+ * failures by the status parameter (default 503), and the 
+ * Retry-After header of the failures by the retryAfter parameter.
+ * The failures wait the number of milliseconds within the slow 
+ * parameter before responding.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class FlakyEndpoint extends FakeHTTPServerEndpoint
+{
+   /**
+    * The number of calls for each key.
+    */
+   private static final Map<String, AtomicInteger> CALLS = new ConcurrentHashMap<>();
+   
+   /**
+    * The method of the endpoint.
+    */
+   private final HTTPMethodType method;
+   
+   /**
+    * Constructor, setting the method of the endpoint.
+    * 
+    * @param method
+    *    The method of the endpoint.
+    */
+   public FlakyEndpoint(HTTPMethodType method)
+   {
+      this.method = method;
+   }
+   
+   /**
+    * Returns the number of calls made for the key.
+    * 
+    * @param key
+    *    The key within the path.
+    * @return
+    *    The counter of calls.
+    */
+   public static AtomicInteger counter(String key)
+   {
+      return CALLS.computeIfAbsent(key, k -> new AtomicInteger());
+   }
+
+   /**
+    * @see spark.Route#handle(spark.Request, spark.Response)
+    */
+   @Override
+   public Object handle(Request request, Response response) throws Exception
+   {
+      int call = counter(request.params("key")).incrementAndGet();
+      int fail = request.queryParams("fail") == null ? 0 : Integer.parseInt(request.queryParams("fail"));
+      if (call <= fail)
+      {
+         if (request.queryParams("slow") != null)
+         {
+            Thread.sleep(Long.parseLong(request.queryParams("slow")));
+         }
+         String status = request.queryParams("status");
+         response.status(status == null ? 503 : Integer.parseInt(status));
+         if (request.queryParams("retryAfter") != null)
+         {
+            response.header("Retry-After", request.queryParams("retryAfter"));
+         }
+         return "failed " + call;
+      }
+      response.status(200);
+      return "succeeded " + call;
+   }
+
+   /**
+    * @see bjad.web.fakeserver.FakeHTTPServerEndpoint#getEndpointName()
+    */
+   @Override
+   public String getEndpointName()
+   {
+      return "/flaky/:key";
+   }
+
+   /**
+    * @see bjad.web.fakeserver.FakeHTTPServerEndpoint#getHttpMethod()
+    */
+   @Override
+   public HTTPMethodType getHttpMethod()
+   {
+      return method;
+   }
+}
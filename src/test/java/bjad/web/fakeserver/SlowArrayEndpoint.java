@@ -0,0 +1,94 @@
+package bjad.web.fakeserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bjad.web.HTTPMethodType;
+import spark.Request;
+import spark.Response;
+
+/**
+ * Endpoint streaming a large JSON array of people slowly, 
+ * a chunk at a time, used to test that closing a streamed 
+ * array early does not read the rest of the array.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class SlowArrayEndpoint extends FakeHTTPServerEndpoint
+{
+   /**
+    * The number of chunks within the array.
+    */
+   public static final int CHUNKS = 40;
+   
+   /**
+    * The number of people within each chunk.
+    */
+   public static final int CHUNK_SIZE = 100;
+   
+   /**
+    * The number of milliseconds to wait between the chunks.
+    */
+   public static final long CHUNK_DELAY = 100;
+   
+   /**
+    * The number of chunks written, across all the calls.
+    */
+   public static final AtomicInteger CHUNKS_WRITTEN = new AtomicInteger();
+
+   /**
+    * @see spark.Route#handle(spark.Request, spark.Response)
+    */
+   @Override
+   public Object handle(Request request, Response response) throws Exception
+   {
+      response.status(200);
+      response.type("application/json");
+      OutputStream out = response.raw().getOutputStream();
+      try
+      {
+         out.write('[');
+         for (int chunk = 0; chunk < CHUNKS; chunk++)
+         {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < CHUNK_SIZE; i++)
+            {
+               int id = chunk * CHUNK_SIZE + i;
+               sb.append(id == 0 ? "" : ",").append("{\"id\":\"").append(id).append("\",\"firstName\":\"Slow\"}");
+            }
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            CHUNKS_WRITTEN.incrementAndGet();
+            Thread.sleep(CHUNK_DELAY);
+         }
+         out.write(']');
+         out.flush();
+      }
+      catch (IOException ex)
+      {
+         // The client stopped reading the array.
+      }
+      return "";
+   }
+
+   /**
+    * @see bjad.web.fakeserver.FakeHTTPServerEndpoint#getEndpointName()
+    */
+   @Override
+   public String getEndpointName()
+   {
+      return "/slowarray";
+   }
+
+   /**
+    * @see bjad.web.fakeserver.FakeHTTPServerEndpoint#getHttpMethod()
+    */
+   @Override
+   public HTTPMethodType getHttpMethod()
+   {
+      return HTTPMethodType.GET;
+   }
+}
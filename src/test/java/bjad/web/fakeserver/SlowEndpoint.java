@@ -0,0 +1,69 @@
+package bjad.web.fakeserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bjad.web.HTTPMethodType;
+import spark.Request;
+import spark.Response;
+
+/**
+ * Endpoint that waits the number of milliseconds 
+ * within its path before responding, used to test
+ * deadlines and timeouts.
+ *
+ * @author 
+ *  Ben Dougall
+ *
+ */
+public class SlowEndpoint extends FakeHTTPServerEndpoint
+{
+   /**
+    * The number of calls for each number of milliseconds.
+    */
+   private static final Map<String, AtomicInteger> CALLS = new ConcurrentHashMap<>();
+   
+   /**
+    * Returns the number of calls made for the number of milliseconds.
+    * 
+    * @param millis
+    *    The number of milliseconds within the path.
+    * @return
+    *    The counter of calls.
+    */
+   public static AtomicInteger counter(String millis)
+   {
+      return CALLS.computeIfAbsent(millis, m -> new AtomicInteger());
+   }
+
+   /**
+    * @see spark.Route#handle(spark.Request, spark.Response)
+    */
+   @Override
+   public Object handle(Request request, Response response) throws Exception
+   {
+      counter(request.params("millis")).incrementAndGet();
+      Thread.sleep(Long.parseLong(request.params("millis")));
+      response.status(200);
+      return "slow";
+   }
+
+   /**
+    * @see bjad.web.fakeserver.FakeHTTPServerEndpoint#getEndpointName()
+    */
+   @Override
+   public String getEndpointName()
+   {
+      return "/slow/:millis";
+   }
+
+   /**
+    * @see bjad.web.fakeserver.FakeHTTPServerEndpoint#getHttpMethod()
+    */
+   @Override
+   public HTTPMethodType getHttpMethod()
+   {
+      return HTTPMethodType.GET;
+   }
+}
@@ -0,0 +1,73 @@
+package bjad.web.fakeserver;
+
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.MultipartConfigElement;
+import javax.servlet.http.Part;
+
+import bjad.web.HTTPMethodType;
+import spark.Request;
+import spark.Response;
+
+/**
+ * POST endpoint for multipart/form-data uploads, returning
+ * the size, file name, and content type of each part received.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class UploadEndpoint extends FakeHTTPServerEndpoint
+{
+   /**
+    * @see spark.Route#handle(spark.Request, spark.Response)
+    */
+   @Override
+   public Object handle(Request request, Response response) throws Exception
+   {
+      request.attribute("org.eclipse.jetty.multipartConfig", 
+            new MultipartConfigElement(System.getProperty("java.io.tmpdir")));
+      
+      Map<String, Object> result = new LinkedHashMap<>();
+      for (Part part : request.raw().getParts())
+      {
+         long size = 0;
+         try (InputStream in = part.getInputStream())
+         {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+               size += read;
+            }
+         }
+         
+         Map<String, Object> details = new LinkedHashMap<>();
+         details.put("size", size);
+         details.put("fileName", part.getSubmittedFileName());
+         details.put("contentType", part.getContentType());
+         result.put(part.getName(), details);
+         part.delete();
+      }
+      return GSON.writeValueAsString(result);
+   }
+
+   /**
+    * @see bjad.web.fakeserver.FakeHTTPServerEndpoint#getEndpointName()
+    */
+   @Override
+   public String getEndpointName()
+   {
+      return "/upload";
+   }
+
+   /**
+    * @see bjad.web.fakeserver.FakeHTTPServerEndpoint#getHttpMethod()
+    */
+   @Override
+   public HTTPMethodType getHttpMethod()
+   {
+      return HTTPMethodType.POST;
+   }
+}
@@ -0,0 +1,242 @@
+package bjad.web.logging;
+
+import static org.hamcrest.MatcherAssert.assertThat; 
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import bjad.web.BJADWebComponent;
+import bjad.web.BJADWebRequest;
+import bjad.web.HTTPMethodType;
+import bjad.web.fakeserver.FakeHTTPServer;
+
+/**
+ * Unit tests for the wire logging classes.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class WireLoggerTests
+{
+   /**
+    * The logger for the events written by the tests.
+    */
+   private static final Log LOG = LogFactory.getLog(WireLoggerTests.class);
+   
+   /**
+    * Starts the fake HTTP server prior to all the test
+    * cases executing.
+    */
+   @BeforeAll
+   public static void testsStarting()
+   {
+      FakeHTTPServer.startServer(52525);
+   }
+   
+   /**
+    * Stops the Fake HTTP server after all the test cases execute.
+    */
+   @AfterAll
+   public static void testsFinished()
+   {
+      FakeHTTPServer.stopServer();
+   }
+   
+   /**
+    * Tests the ring buffer is first in first out, refuses elements
+    * once full, and loses no elements with concurrent producers and
+    * consumers.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testRingBuffer() throws Exception
+   {
+      MpmcRingBuffer<Integer> buffer = new MpmcRingBuffer<>(3);
+      assertThat("Capacity rounded up to a power of two", buffer.capacity(), is(4));
+      for (int i = 0; i < 4; i++)
+      {
+         assertThat("Element added", buffer.offer(i), is(true));
+      }
+      assertThat("Full buffer refuses the element", buffer.offer(4), is(false));
+      assertThat("Oldest element first", buffer.poll(), is(0));
+      assertThat("Element added after a poll", buffer.offer(4), is(true));
+      for (int i = 1; i < 5; i++)
+      {
+         assertThat("Elements in order", buffer.poll(), is(i));
+      }
+      assertThat("Empty buffer returns null", buffer.poll(), nullValue());
+      
+      final int PER_PRODUCER = 20000;
+      MpmcRingBuffer<Integer> shared = new MpmcRingBuffer<>(64);
+      AtomicLong sum = new AtomicLong();
+      AtomicLong count = new AtomicLong();
+      List<Thread> threads = new ArrayList<>();
+      for (int p = 0; p < 4; p++)
+      {
+         threads.add(new Thread(() -> 
+         {
+            for (int i = 1; i <= PER_PRODUCER; i++)
+            {
+               while (!shared.offer(i))
+               {
+                  Thread.yield();
+               }
+            }
+         }));
+      }
+      for (int c = 0; c < 2; c++)
+      {
+         threads.add(new Thread(() -> 
+         {
+            while (count.get() < 4L * PER_PRODUCER)
+            {
+               Integer value = shared.poll();
+               if (value != null)
+               {
+                  sum.addAndGet(value);
+                  count.incrementAndGet();
+               }
+            }
+         }));
+      }
+      for (Thread t : threads)
+      {
+         t.start();
+      }
+      for (Thread t : threads)
+      {
+         t.join(30000);
+      }
+      assertThat("Every element consumed once", count.get(), is(4L * PER_PRODUCER));
+      assertThat("Every element consumed once", sum.get(), is(4L * PER_PRODUCER * (PER_PRODUCER + 1) / 2));
+   }
+   
+   /**
+    * Tests the asynchronous logger drops and counts the events once
+    * its buffer is full, and writes the events it accepted.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testAsyncWireLoggerDropsWhenFull() throws Exception
+   {
+      BJADWebRequest req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/person");
+      req.setMethod(HTTPMethodType.GET);
+      
+      AsyncWireLogger wireLogger = new AsyncWireLogger(2);
+      // Keep the writer busy so the buffer fills up.
+      assertThat("Slow event accepted", wireLogger.log(new WireLogEvent(req, "RECV", "slow", () -> 
+      {
+         try
+         {
+            Thread.sleep(500);
+         }
+         catch (InterruptedException ex)
+         {
+            Thread.currentThread().interrupt();
+         }
+         return "slow body";
+      }, LOG, LOG)), is(true));
+      Thread.sleep(50);
+      
+      int accepted = 1;
+      for (int i = 0; i < 10; i++)
+      {
+         accepted += wireLogger.log(new WireLogEvent(req, "SEND", "event " + i, null, LOG, LOG)) ? 1 : 0;
+      }
+      assertThat("Events past the capacity dropped", wireLogger.getDroppedCount(), is(11L - accepted));
+      assertThat("Buffer filled", accepted, is(1 + wireLogger.getCapacity()));
+      assertThat("Accepted events written", wireLogger.flush(5000), is(true));
+      assertThat("Accepted events written", wireLogger.getWrittenCount(), is((long)accepted));
+   }
+   
+   /**
+    * Tests the asynchronous logger wakes its idle writer for new 
+    * events, and writes the accepted events when closed.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testAsyncWireLoggerClose() throws Exception
+   {
+      BJADWebRequest req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/person");
+      req.setMethod(HTTPMethodType.GET);
+      
+      AsyncWireLogger wireLogger = new AsyncWireLogger(64);
+      // Let the writer go idle, then check it is woken by the event.
+      Thread.sleep(100);
+      assertThat("Event accepted", wireLogger.log(new WireLogEvent(req, "SEND", "event", null, LOG, LOG)), is(true));
+      assertThat("Idle writer woken", wireLogger.flush(500), is(true));
+      
+      for (int i = 0; i < 20; i++)
+      {
+         wireLogger.log(new WireLogEvent(req, "SEND", "event " + i, null, LOG, LOG));
+      }
+      wireLogger.close();
+      assertThat("Logger closed", wireLogger.isClosed(), is(true));
+      assertThat("Accepted events written on close", wireLogger.getWrittenCount(), is(21L));
+      assertThat("Events dropped once closed", wireLogger.log(new WireLogEvent(req, "SEND", "late", null, LOG, LOG)), is(false));
+   }
+   
+   /**
+    * Tests the bodies are truncated to the maximum length.
+    */
+   @Test
+   public void testBodyTruncation()
+   {
+      assertThat("Short body kept", WireLogEvent.truncate("body", 10), is("body"));
+      assertThat("No maximum keeps the body", WireLogEvent.truncate("body", 0), is("body"));
+      assertThat("Long body truncated", WireLogEvent.truncate("0123456789", 4), is("0123... [6 more bytes]"));
+      assertThat("Truncated on the UTF-8 bytes", WireLogEvent.truncate("caf\u00e9s", 4), is("caf... [3 more bytes]"));
+      assertThat("Body within the bytes kept", WireLogEvent.truncate("caf\u00e9", 5), is("caf\u00e9"));
+      assertThat("Surrogate pair not split", WireLogEvent.truncate("a\ud83d\ude00b", 3), is("a... [5 more bytes]"));
+   }
+   
+   /**
+    * Tests the component hands its events to the shared 
+    * asynchronous logger, skipping the operations not sampled.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testComponentAsyncWireLog() throws Exception
+   {
+      BJADWebRequest req = new BJADWebRequest();
+      req.setLoggerName(BJADWebComponent.class.getCanonicalName());
+      req.setUrl("http://localhost:52525/person");
+      req.setMethod(HTTPMethodType.GET);
+      req.setAsyncWireLog(true);
+      req.setWireLogMaxBodyLength(64);
+      
+      AsyncWireLogger shared = AsyncWireLogger.getSharedInstance();
+      BJADWebComponent component = new BJADWebComponent(req);
+      assertThat("Call is good", component.performWebCall(String.class).isGoodResponse(), is(true));
+      assertThat("Events written", shared.flush(5000), is(true));
+      long written = shared.getWrittenCount();
+      assertThat("SEND and RECV events written", written, greaterThanOrEqualTo(2L));
+      
+      req.setWireLogSampleRate(0);
+      assertThat("Call is good", component.performWebCall(String.class).isGoodResponse(), is(true));
+      assertThat("Events written", shared.flush(5000), is(true));
+      assertThat("Operation not sampled", shared.getWrittenCount(), is(written));
+   }
+}
@@ -253,4 +253,30 @@ public class EnhancedPropertyHelperTests
          
       }
    }
+   
+   /**
+    * Tests the boolean value retrieval from the properties.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and fail the unit test.
+    */
+   @Test
+   public void testBooleanValues() throws Exception
+   {
+      Properties p = new Properties();
+      p.put("TrueProp", "true");
+      p.put("YesProp", " Yes ");
+      p.put("OffProp", "off");
+      p.put("ZeroProp", "0");
+      p.put("BadProp", "maybe");
+      EnhancedPropertyHelper helper = new EnhancedPropertyHelper(this.getClass());
+      helper.loadProperties(p);
+      
+      assertThat("\"true\" is true", helper.getBooleanValue("TrueProp", false), is(true));
+      assertThat("\" Yes \" is true", helper.getBooleanValue("YesProp", false), is(true));
+      assertThat("\"off\" is false", helper.getBooleanValue("OffProp", true), is(false));
+      assertThat("\"0\" is false", helper.getBooleanValue("ZeroProp", true), is(false));
+      assertThat("Bad value results in the default value", helper.getBooleanValue("BadProp", true), is(true));
+      assertThat("Missing value results in the default value", helper.getBooleanValue("MissingProp", false), is(false));
+   }
 }
@@ -0,0 +1,685 @@
+package bjad.web.resilience;
+
+import static org.hamcrest.MatcherAssert.assertThat; 
+import static org.hamcrest.Matchers.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import bjad.web.BJADWebComponent;
+import bjad.web.BJADWebConstants;
+import bjad.web.BJADWebException;
+import bjad.web.BJADWebRequest;
+import bjad.web.BJADWebRequestFactory;
+import bjad.web.BJADWebResponse;
+import bjad.web.HTTPMethodType;
+import bjad.web.body.StringBody;
+import bjad.web.fakeserver.FakeHTTPServer;
+import bjad.web.fakeserver.FlakyEndpoint;
+import bjad.web.fakeserver.SlowEndpoint;
+import bjad.web.properties.EnhancedPropertyHelper;
+
+/**
+ * Unit tests for the resilience policies.
+ *
+ * @author 
+ *  Ben Dougall
+ */
+public class ResilienceTests
+{
+   /**
+    * Starts the fake HTTP server prior to all the test
+    * cases executing.
+    */
+   @BeforeAll
+   public static void testsStarting()
+   {
+      FakeHTTPServer.startServer(52525);
+   }
+   
+   /**
+    * Stops the Fake HTTP server after all the test cases execute.
+    */
+   @AfterAll
+   public static void testsFinished()
+   {
+      FakeHTTPServer.stopServer();
+   }
+   
+   /**
+    * Creates a request with a fast retry policy.
+    * 
+    * @param url
+    *    The URL of the request.
+    * @param method
+    *    The method of the request.
+    * @return
+    *    The request.
+    */
+   private static BJADWebRequest retryRequest(String url, HTTPMethodType method)
+   {
+      BJADWebRequest req = new BJADWebRequest();
+      req.setUrl(url);
+      req.setMethod(method);
+      RetryPolicy policy = new RetryPolicy();
+      policy.setBaseBackoff(10);
+      policy.setMaxBackoff(50);
+      policy.setBudgetPercent(100);
+      req.setRetryPolicy(policy);
+      return req;
+   }
+   
+   /**
+    * Tests the retryable status codes are retried up to the 
+    * maximum attempts, and the non-idempotent methods are only
+    * retried when enabled.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testRetryStatusCodes() throws Exception
+   {
+      BJADWebRequest req = retryRequest("http://localhost:52525/flaky/twice?fail=2", HTTPMethodType.GET);
+      BJADWebResponse<String> response = new BJADWebComponent(req).performWebCall(String.class);
+      assertThat("Succeeded on the third attempt", response.getData(), is("succeeded 3"));
+      
+      req = retryRequest("http://localhost:52525/flaky/always?fail=100", HTTPMethodType.GET);
+      response = new BJADWebComponent(req).performWebCall(String.class);
+      assertThat("Last failure returned", response.getStatusCode(), is(503));
+      assertThat("Stopped at the maximum attempts", FlakyEndpoint.counter("always").get(), is(3));
+      
+      req = retryRequest("http://localhost:52525/flaky/notfound?fail=2&status=404", HTTPMethodType.GET);
+      response = new BJADWebComponent(req).performWebCall(String.class);
+      assertThat("Non retryable status returned", response.getStatusCode(), is(404));
+      assertThat("Non retryable status not retried", FlakyEndpoint.counter("notfound").get(), is(1));
+      
+      req = retryRequest("http://localhost:52525/flaky/post?fail=1", HTTPMethodType.POST);
+      response = new BJADWebComponent(req).performWebCall(String.class, new StringBody("data"));
+      assertThat("POST not retried", response.getStatusCode(), is(503));
+      
+      req.getRetryPolicy().setRetryNonIdempotent(true);
+      req.setUrl("http://localhost:52525/flaky/post2?fail=1");
+      response = new BJADWebComponent(req).performWebCall(String.class, new StringBody("data"));
+      assertThat("POST retried when enabled", response.getData(), is("succeeded 2"));
+   }
+   
+   /**
+    * Tests the asynchronous operations and the downloads are sent
+    * through the resilience policies of the request.
+    * 
+    * @param dir
+    *    The temporary directory for the downloaded files.
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testPoliciesForAsyncAndDownloads(@TempDir Path dir) throws Exception
+   {
+      BJADWebRequest req = retryRequest("http://localhost:52525/flaky/async?fail=2", HTTPMethodType.GET);
+      BJADWebResponse<String> response = new BJADWebComponent(req).performWebCallAsync(String.class).get(10, TimeUnit.SECONDS);
+      assertThat("Asynchronous call retried", response.getData(), is("succeeded 3"));
+      
+      req = retryRequest("http://localhost:52525/flaky/download?fail=2", HTTPMethodType.GET);
+      Path target = dir.resolve("download.txt");
+      assertThat("Download retried", new BJADWebComponent(req).performDownload(target).isGoodResponse(), is(true));
+      assertThat("Download written", new String(Files.readAllBytes(target), StandardCharsets.UTF_8), is("succeeded 3"));
+      
+      req = retryRequest("http://localhost:52525/flaky/resumable?fail=2", HTTPMethodType.GET);
+      target = dir.resolve("resumable.txt");
+      assertThat("Resumable download retried", new BJADWebComponent(req).performResumableDownload(target).isGoodResponse(), is(true));
+      assertThat("Resumable download written", new String(Files.readAllBytes(target), StandardCharsets.UTF_8), is("succeeded 3"));
+   }
+   
+   /**
+    * Tests the Retry-After header sets the wait between the 
+    * attempts, and is not waited for when over the maximum 
+    * backoff.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testRetryAfter() throws Exception
+   {
+      BJADWebRequest req = retryRequest("http://localhost:52525/flaky/after?fail=1&retryAfter=1", HTTPMethodType.GET);
+      req.getRetryPolicy().setMaxBackoff(2000);
+      long start = System.currentTimeMillis();
+      BJADWebResponse<String> response = new BJADWebComponent(req).performWebCall(String.class);
+      assertThat("Succeeded after the wait", response.getData(), is("succeeded 2"));
+      assertThat("Waited for the Retry-After", System.currentTimeMillis() - start, greaterThanOrEqualTo(1000L));
+      
+      req = retryRequest("http://localhost:52525/flaky/toolong?fail=1&retryAfter=60", HTTPMethodType.GET);
+      response = new BJADWebComponent(req).performWebCall(String.class);
+      assertThat("Retry-After over the maximum backoff returned", response.getStatusCode(), is(503));
+      assertThat("Not retried", FlakyEndpoint.counter("toolong").get(), is(1));
+   }
+   
+   /**
+    * Tests the timeouts are retried.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testRetryTimeout() throws Exception
+   {
+      int before = SlowEndpoint.counter("700").get();
+      BJADWebRequest req = retryRequest("http://localhost:52525/slow/700", HTTPMethodType.GET);
+      req.setReadTimeout(200);
+      req.getRetryPolicy().setMaxAttempts(2);
+      BJADWebException ex = Assertions.assertThrows(BJADWebException.class, 
+            () -> new BJADWebComponent(req).performWebCall(String.class));
+      assertThat("Timeout thrown", ex.isTimeoutException(), is(true));
+      assertThat("Timeout retried", SlowEndpoint.counter("700").get() - before, is(2));
+   }
+   
+   /**
+    * Tests the retry budget limits the retries to the percentage
+    * of the calls.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testRetryBudget() throws Exception
+   {
+      TokenBudget budget = new TokenBudget(10, 1);
+      assertThat("Budget starts full", budget.tryWithdraw(), is(true));
+      assertThat("Budget spent", budget.tryWithdraw(), is(false));
+      for (int i = 0; i < 9; i++)
+      {
+         budget.deposit();
+      }
+      assertThat("Not enough calls for a retry", budget.tryWithdraw(), is(false));
+      budget.deposit();
+      assertThat("Ten calls earn a retry", budget.tryWithdraw(), is(true));
+      
+      // Spend the shared budget of the host, then each call 
+      // only earns part of a retry.
+      BJADWebRequest req = retryRequest("http://127.0.0.1:52525/flaky/budget?fail=1000", HTTPMethodType.GET);
+      req.getRetryPolicy().setBudgetPercent(50);
+      req.getRetryPolicy().setMaxAttempts(10);
+      BJADWebComponent component = new BJADWebComponent(req);
+      for (int i = 0; i < 10; i++)
+      {
+         component.performWebCall(String.class);
+      }
+      int calls = FlakyEndpoint.counter("budget").get();
+      assertThat("Retries limited by the budget", calls, lessThanOrEqualTo(10 + TokenBudget.DEFAULT_MAX_TOKENS + 5));
+   }
+   
+   /**
+    * Tests a slow first request is hedged, using the response of
+    * the hedged request, and the delay is taken from the observed 
+    * durations of the endpoint when not set.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testHedgedRequests() throws Exception
+   {
+      BJADWebRequest req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/flaky/hedge?fail=1&slow=3000&status=200");
+      req.setMethod(HTTPMethodType.GET);
+      HedgingPolicy hedging = new HedgingPolicy();
+      hedging.setDelay(100);
+      req.setHedgingPolicy(hedging);
+      BJADWebComponent component = new BJADWebComponent(req);
+      
+      long start = System.currentTimeMillis();
+      BJADWebResponse<String> response = component.performWebCall(String.class);
+      assertThat("Hedged request answered", response.getData(), is("succeeded 2"));
+      assertThat("Response flagged as hedged", response.isHedged(), is(true));
+      assertThat("Hedge won", response.isHedgeWon(), is(true));
+      assertThat("Slow request not waited for", System.currentTimeMillis() - start, lessThan(2000L));
+      
+      response = component.performWebCall(String.class);
+      assertThat("Fast request answered", response.getData(), is("succeeded 3"));
+      assertThat("Fast request not hedged", response.isHedged(), is(false));
+      
+      // Without a set delay, the endpoint is only hedged once 
+      // enough of its durations are observed.
+      req.setUrl("http://localhost:52525/flaky/p95");
+      hedging.setDelay(0);
+      assertThat("No delay without durations", hedging.getHedgeDelay(req), is(-1L));
+      for (int i = 0; i < HedgingPolicy.MIN_LATENCY_SAMPLES; i++)
+      {
+         assertThat("Fast request not hedged", component.performWebCall(String.class).isHedged(), is(false));
+      }
+      long delay = hedging.getHedgeDelay(req);
+      assertThat("Delay taken from the durations", delay, allOf(greaterThan(0L), lessThan(1000L)));
+      
+      req.setUrl("http://localhost:52525/flaky/p95?fail=" + (HedgingPolicy.MIN_LATENCY_SAMPLES + 1) + "&slow=3000&status=200");
+      response = component.performWebCall(String.class);
+      assertThat("Slow request hedged after the observed delay", response.isHedgeWon(), is(true));
+      
+      req.setMethod(HTTPMethodType.POST);
+      assertThat("POST is not hedged", HedgingPolicy.isHedgeable(req.getMethod()), is(false));
+      
+      Properties p = new Properties();
+      p.put(BJADWebConstants.PROPERTY_HEDGE_REQUESTS, "true");
+      p.put(BJADWebConstants.PROPERTY_HEDGE_DELAY, "250");
+      p.put(BJADWebConstants.PROPERTY_HEDGE_BUDGET_PERCENT, "5");
+      EnhancedPropertyHelper props = new EnhancedPropertyHelper();
+      props.loadProperties(p);
+      HedgingPolicy fromProps = BJADWebRequestFactory.createRequest(props).getHedgingPolicy();
+      assertThat("Delay set from the properties", fromProps.getDelay(), is(250L));
+      assertThat("Budget set from the properties", fromProps.getBudgetPercent(), is(5.0));
+   }
+   
+   /**
+    * Tests the circuit breaker opens on the failure rate and the 
+    * slow call rate, rejects the calls without sending them while
+    * open, and closes after the half-open probes succeed.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testCircuitBreaker() throws Exception
+   {
+      BJADWebRequest req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/flaky/breaker?fail=4&status=500");
+      req.setMethod(HTTPMethodType.GET);
+      CircuitBreakerPolicy policy = new CircuitBreakerPolicy();
+      policy.setScope(CircuitBreakerPolicy.Scope.ENDPOINT);
+      policy.setMinimumCalls(4);
+      policy.setWindowSize(10);
+      policy.setOpenDuration(300);
+      policy.setHalfOpenCalls(2);
+      req.setCircuitBreakerPolicy(policy);
+      req.setRetryPolicy(new RetryPolicy());
+      req.getRetryPolicy().setRetryStatusCodes(new LinkedHashSet<>());
+      BJADWebComponent component = new BJADWebComponent(req);
+      
+      for (int i = 0; i < 4; i++)
+      {
+         assertThat("Failure returned", component.performWebCall(String.class).getStatusCode(), is(500));
+      }
+      CircuitBreaker breaker = policy.getCircuitBreaker(req);
+      assertThat("Breaker opened", breaker.getState(), is(CircuitBreaker.State.OPEN));
+      assertThat("Failure rate recorded", breaker.getFailureRate(), is(100.0));
+      
+      CircuitBreakerOpenException ex = Assertions.assertThrows(CircuitBreakerOpenException.class, 
+            () -> component.performWebCall(String.class));
+      assertThat("Rejected call not sent", FlakyEndpoint.counter("breaker").get(), is(4));
+      assertThat("Rejection is not a timeout", ex.isTimeoutException(), is(false));
+      assertThat("Rejection states the time left open", ex.getRemainingOpenTime(), allOf(greaterThan(0L), lessThanOrEqualTo(300L)));
+      
+      Thread.sleep(350);
+      assertThat("First probe succeeded", component.performWebCall(String.class).getData(), is("succeeded 5"));
+      assertThat("Breaker half-open", breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+      component.performWebCall(String.class);
+      assertThat("Breaker closed by the probes", breaker.getState(), is(CircuitBreaker.State.CLOSED));
+      
+      req.setUrl("http://localhost:52525/slow/150");
+      policy = new CircuitBreakerPolicy();
+      policy.setScope(CircuitBreakerPolicy.Scope.ENDPOINT);
+      policy.setMinimumCalls(2);
+      policy.setSlowCallDuration(100);
+      policy.setSlowCallRateThreshold(50);
+      req.setCircuitBreakerPolicy(policy);
+      req.setRetryPolicy(null);
+      component.performWebCall(String.class);
+      component.performWebCall(String.class);
+      assertThat("Breaker opened by the slow calls", policy.getCircuitBreaker(req).getState(), is(CircuitBreaker.State.OPEN));
+      assertThat("Slow call rate recorded", policy.getCircuitBreaker(req).getSlowCallRate(), is(100.0));
+      
+      Properties p = new Properties();
+      p.put(BJADWebConstants.PROPERTY_CIRCUIT_BREAKER, "endpoint");
+      p.put(BJADWebConstants.PROPERTY_CIRCUIT_BREAKER_FAILURE_RATE, "25");
+      p.put(BJADWebConstants.PROPERTY_CIRCUIT_BREAKER_SLOW_CALL_RATE, "75");
+      p.put(BJADWebConstants.PROPERTY_CIRCUIT_BREAKER_SLOW_CALL_DURATION, "2000");
+      p.put(BJADWebConstants.PROPERTY_CIRCUIT_BREAKER_WINDOW_SIZE, "50");
+      p.put(BJADWebConstants.PROPERTY_CIRCUIT_BREAKER_MINIMUM_CALLS, "5");
+      p.put(BJADWebConstants.PROPERTY_CIRCUIT_BREAKER_OPEN_DURATION, "1000");
+      p.put(BJADWebConstants.PROPERTY_CIRCUIT_BREAKER_HALF_OPEN_CALLS, "1");
+      EnhancedPropertyHelper props = new EnhancedPropertyHelper();
+      props.loadProperties(p);
+      CircuitBreakerPolicy fromProps = BJADWebRequestFactory.createRequest(props).getCircuitBreakerPolicy();
+      assertThat("Scope set", fromProps.getScope(), is(CircuitBreakerPolicy.Scope.ENDPOINT));
+      assertThat("Failure rate set", fromProps.getFailureRateThreshold(), is(25.0));
+      assertThat("Slow call rate set", fromProps.getSlowCallRateThreshold(), is(75.0));
+      assertThat("Slow call duration set", fromProps.getSlowCallDuration(), is(2000L));
+      assertThat("Window size set", fromProps.getWindowSize(), is(50));
+      assertThat("Minimum calls set", fromProps.getMinimumCalls(), is(5));
+      assertThat("Open duration set", fromProps.getOpenDuration(), is(1000L));
+      assertThat("Half-open calls set", fromProps.getHalfOpenCalls(), is(1));
+   }
+   
+   /**
+    * Tests a half-open probe failing with an unexpected runtime 
+    * exception is recorded, opening the breaker again rather 
+    * than leaving it half-open.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testCircuitBreakerRuntimeException() throws Exception
+   {
+      BJADWebRequest req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/flaky/breakerRuntime");
+      req.setMethod(HTTPMethodType.GET);
+      CircuitBreakerPolicy policy = new CircuitBreakerPolicy();
+      policy.setScope(CircuitBreakerPolicy.Scope.ENDPOINT);
+      policy.setMinimumCalls(2);
+      policy.setOpenDuration(100);
+      policy.setHalfOpenCalls(1);
+      
+      for (int i = 0; i < 2; i++)
+      {
+         Assertions.assertThrows(BJADWebException.class, () -> policy.execute(req, null, (r, b) -> 
+         {
+            throw new BJADWebException("Call failed");
+         }));
+      }
+      CircuitBreaker breaker = policy.getCircuitBreaker(req);
+      assertThat("Breaker opened", breaker.getState(), is(CircuitBreaker.State.OPEN));
+      
+      Thread.sleep(150);
+      Assertions.assertThrows(IllegalStateException.class, () -> policy.execute(req, null, (r, b) -> 
+      {
+         throw new IllegalStateException("Unexpected failure");
+      }));
+      assertThat("Failed probe opens the breaker again", breaker.getState(), is(CircuitBreaker.State.OPEN));
+   }
+   
+   /**
+    * Tests the rate limiter spaces the calls at the rate after 
+    * the burst, and fails the calls right away when not blocking.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testRateLimiter() throws Exception
+   {
+      RateLimiter limiter = new RateLimiter("test", 10, 3);
+      for (int i = 0; i < 3; i++)
+      {
+         assertThat("Burst available at once", limiter.tryAcquire(), is(true));
+      }
+      assertThat("Burst spent", limiter.tryAcquire(), is(false));
+      long wait = limiter.reserve(-1);
+      assertThat("Next permit a tenth of a second away", wait, allOf(greaterThan(50_000_000L), lessThanOrEqualTo(100_000_000L)));
+      assertThat("Permit after it reserved in order", limiter.reserve(-1), greaterThan(wait));
+      
+      BJADWebRequest req = new BJADWebRequest();
+      req.setUrl("http://localhost:52525/flaky/limited");
+      req.setMethod(HTTPMethodType.GET);
+      RateLimitPolicy policy = new RateLimitPolicy(20);
+      policy.setBurst(2);
+      policy.setGroup("partner");
+      req.setRateLimitPolicy(policy);
+      BJADWebComponent component = new BJADWebComponent(req);
+      
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < 12; i++)
+      {
+         component.performWebCall(String.class);
+      }
+      long elapsed = System.currentTimeMillis() - start;
+      assertThat("Calls after the burst spaced at the rate", elapsed, greaterThanOrEqualTo(450L));
+      assertThat("All calls sent", FlakyEndpoint.counter("limited").get(), is(12));
+      
+      policy.setBlocking(false);
+      RateLimitExceededException ex = Assertions.assertThrows(RateLimitExceededException.class, 
+            () -> component.performWebCall(String.class));
+      assertThat("Rejection names the group", ex.getKey(), is("group:partner"));
+      assertThat("Rejection states the wait", ex.getRetryAfter(), allOf(greaterThan(0L), lessThanOrEqualTo(50L)));
+      assertThat("Rejected call not sent", FlakyEndpoint.counter("limited").get(), is(12));
+      
+      policy.setBlocking(true);
+      policy.setMaxWait(200);
+      component.performWebCall(String.class);
+      assertThat("Blocking call waited for its permit", FlakyEndpoint.counter("limited").get(), is(13));
+      
+      Properties p = new Properties();
+      p.put(BJADWebConstants.PROPERTY_RATE_LIMIT_PER_SECOND, "50.5");
+      p.put(BJADWebConstants.PROPERTY_RATE_LIMIT_BURST, "5");
+      p.put(BJADWebConstants.PROPERTY_RATE_LIMIT_MAX_WAIT, "250");
+      p.put(BJADWebConstants.PROPERTY_RATE_LIMIT_BLOCKING, "false");
+      p.put(BJADWebConstants.PROPERTY_RATE_LIMIT_GROUP, "search");
+      EnhancedPropertyHelper props = new EnhancedPropertyHelper();
+      props.loadProperties(p);
+      RateLimitPolicy fromProps = BJADWebRequestFactory.createRequest(props).getRateLimitPolicy();
+      assertThat("Rate set", fromProps.getPermitsPerSecond(), is(50.5));
+      assertThat("Burst set", fromProps.getBurst(), is(5));
+      assertThat("Max wait set", fromProps.getMaxWait(), is(250L));
+      assertThat("Blocking set", fromProps.isBlocking(), is(false));
+      assertThat("Group set", fromProps.getGroup(), is("search"));
+   }
+   
+   /**
+    * Tests the adaptive concurrency limiter grows while the calls 
+    * are fast and succeed, shrinks on failures and slow calls, 
+    * queues the calls above the limit for a bounded time, and 
+    * rejects the calls right away when not queueing.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testConcurrencyLimiter() throws Exception
+   {
+      ConcurrencyLimitPolicy settings = new ConcurrencyLimitPolicy();
+      settings.setInitialLimit(4);
+      settings.setMinLimit(2);
+      settings.setMaxLimit(6);
+      AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", settings);
+      for (int i = 0; i < 4; i++)
+      {
+         limiter.acquire(0);
+      }
+      Assertions.assertThrows(ConcurrencyLimitExceededException.class, () -> limiter.acquire(0));
+      assertThat("Rejection counted", limiter.getRejectedCount(), is(1L));
+      
+      final long RTT = TimeUnit.MILLISECONDS.toNanos(1);
+      for (int i = 0; i < 30; i++)
+      {
+         limiter.onResult(RTT, false);
+         limiter.acquire(0);
+      }
+      assertThat("Limit grown to the maximum", limiter.getLimit(), is(6));
+      assertThat("Calls in flight", limiter.getInFlight(), is(4));
+      
+      limiter.onResult(RTT, true);
+      assertThat("Limit shrunk on failure", limiter.getLimit(), is(5));
+      Thread.sleep(5);
+      limiter.onResult(TimeUnit.MILLISECONDS.toNanos(50), false);
+      assertThat("Limit shrunk on slow call", limiter.getLimit(), is(4));
+      for (int i = 0; i < 10; i++)
+      {
+         Thread.sleep(5);
+         limiter.onResult(RTT, true);
+         limiter.acquire(0);
+      }
+      assertThat("Limit kept at the minimum", limiter.getLimit(), is(2));
+      double baseline = limiter.getBaselineRtt();
+      limiter.onResult(TimeUnit.SECONDS.toNanos(5), true);
+      assertThat("Dropped call kept out of the baseline", limiter.getBaselineRtt(), is(baseline));
+      
+      settings.setInitialLimit(1);
+      settings.setMinLimit(1);
+      settings.setMaxQueueDepth(1);
+      AdaptiveConcurrencyLimiter queued = new AdaptiveConcurrencyLimiter("queued", settings);
+      queued.acquire(0);
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      try
+      {
+         Future<?> waiting = executor.submit(() -> { queued.acquire(TimeUnit.SECONDS.toNanos(5)); return null; });
+         for (int i = 0; i < 100 && queued.getQueueDepth() == 0; i++)
+         {
+            Thread.sleep(10);
+         }
+         assertThat("Call queued", queued.getQueueDepth(), is(1));
+         ConcurrencyLimitExceededException ex = Assertions.assertThrows(ConcurrencyLimitExceededException.class, 
+               () -> queued.acquire(TimeUnit.SECONDS.toNanos(5)));
+         assertThat("Rejected when the queue is full", ex.getQueueDepth(), is(1));
+         queued.release();
+         waiting.get(5, TimeUnit.SECONDS);
+         assertThat("Queued call took the slot", queued.getInFlight(), is(1));
+         assertThat("Queue drained", queued.getQueueDepth(), is(0));
+         Assertions.assertThrows(ConcurrencyLimitExceededException.class, 
+               () -> queued.acquire(TimeUnit.MILLISECONDS.toNanos(50)));
+         
+         BJADWebRequest req = new BJADWebRequest();
+         req.setUrl("http://127.0.0.1:52525/flaky/concurrency?fail=4&slow=400&status=200");
+         req.setMethod(HTTPMethodType.GET);
+         ConcurrencyLimitPolicy policy = new ConcurrencyLimitPolicy();
+         policy.setInitialLimit(2);
+         req.setConcurrencyLimitPolicy(policy);
+         BJADWebComponent component = new BJADWebComponent(req);
+         
+         int rejected = 0;
+         for (Future<?> call : submitCalls(executor, component, 4))
+         {
+            try
+            {
+               call.get();
+            }
+            catch (ExecutionException callEx)
+            {
+               assertThat("Rejected by the limit", callEx.getCause(), instanceOf(ConcurrencyLimitExceededException.class));
+               rejected++;
+            }
+         }
+         assertThat("Calls above the limit rejected", rejected, is(2));
+         assertThat("Rejected calls not sent", FlakyEndpoint.counter("concurrency").get(), is(2));
+         
+         policy.setMaxQueueWait(5000);
+         for (Future<?> call : submitCalls(executor, component, 4))
+         {
+            call.get();
+         }
+         assertThat("Queued calls sent", FlakyEndpoint.counter("concurrency").get(), is(6));
+         AdaptiveConcurrencyLimiter hostLimiter = policy.getConcurrencyLimiter(req);
+         assertThat("Limiter reported", ConcurrencyLimitPolicy.getConcurrencyLimiters(), hasItem(hostLimiter));
+         assertThat("Limiter for the host", hostLimiter.getKey(), is("http://127.0.0.1:52525"));
+         assertThat("Slots freed", hostLimiter.getInFlight(), is(0));
+         assertThat("Round-trip time observed", hostLimiter.getBaselineRtt(), greaterThan(0.0));
+         Assertions.assertThrows(AssertionError.class, 
+               () -> policy.execute(req, null, (r, b) -> { throw new AssertionError("call failed"); }));
+         assertThat("Slot freed on an error", hostLimiter.getInFlight(), is(0));
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+      
+      Properties p = new Properties();
+      p.put(BJADWebConstants.PROPERTY_CONCURRENCY_LIMIT, "10");
+      p.put(BJADWebConstants.PROPERTY_CONCURRENCY_LIMIT_MIN, "2");
+      p.put(BJADWebConstants.PROPERTY_CONCURRENCY_LIMIT_MAX, "50");
+      p.put(BJADWebConstants.PROPERTY_CONCURRENCY_LIMIT_BACKOFF_RATIO, "0.75");
+      p.put(BJADWebConstants.PROPERTY_CONCURRENCY_LIMIT_LATENCY_TOLERANCE, "3");
+      p.put(BJADWebConstants.PROPERTY_CONCURRENCY_LIMIT_QUEUE_WAIT, "250");
+      p.put(BJADWebConstants.PROPERTY_CONCURRENCY_LIMIT_QUEUE_DEPTH, "20");
+      EnhancedPropertyHelper props = new EnhancedPropertyHelper();
+      props.loadProperties(p);
+      ConcurrencyLimitPolicy fromProps = BJADWebRequestFactory.createRequest(props).getConcurrencyLimitPolicy();
+      assertThat("Initial limit set", fromProps.getInitialLimit(), is(10));
+      assertThat("Minimum limit set", fromProps.getMinLimit(), is(2));
+      assertThat("Maximum limit set", fromProps.getMaxLimit(), is(50));
+      assertThat("Backoff ratio set", fromProps.getBackoffRatio(), is(0.75));
+      assertThat("Latency tolerance set", fromProps.getLatencyTolerance(), is(3.0));
+      assertThat("Queue wait set", fromProps.getMaxQueueWait(), is(250L));
+      assertThat("Queue depth set", fromProps.getMaxQueueDepth(), is(20));
+   }
+   
+   /**
+    * Submits calls of the component passed to the executor.
+    * 
+    * @param executor
+    *    The executor to run the calls.
+    * @param component
+    *    The component to call.
+    * @param count
+    *    The number of calls to submit.
+    * @return
+    *    The futures of the calls.
+    */
+   private static List<Future<?>> submitCalls(ExecutorService executor, BJADWebComponent component, int count)
+   {
+      List<Future<?>> calls = new ArrayList<>();
+      for (int i = 0; i < count; i++)
+      {
+         calls.add(executor.submit(() -> component.performWebCall(String.class)));
+      }
+      return calls;
+   }
+   
+   /**
+    * Tests the retry policy is built from the properties.
+    * 
+    * @throws Exception
+    *    Any exceptions will be thrown and cause the test
+    *    to fail
+    */
+   @Test
+   public void testRetryPolicyFromProperties() throws Exception
+   {
+      Properties p = new Properties();
+      p.put(BJADWebConstants.PROPERTY_URL, "http://localhost:52525/flaky/props?fail=1&status=500");
+      p.put(BJADWebConstants.PROPERTY_METHOD, "GET");
+      p.put(BJADWebConstants.PROPERTY_RETRY_MAX_ATTEMPTS, "4");
+      p.put(BJADWebConstants.PROPERTY_RETRY_BASE_BACKOFF, "5");
+      p.put(BJADWebConstants.PROPERTY_RETRY_MAX_BACKOFF, "20");
+      p.put(BJADWebConstants.PROPERTY_RETRY_STATUS_CODES, "500, 503");
+      p.put(BJADWebConstants.PROPERTY_RETRY_EXCEPTIONS, "java.io.IOException,not.a.Class");
+      p.put(BJADWebConstants.PROPERTY_RETRY_NON_IDEMPOTENT, "true");
+      p.put(BJADWebConstants.PROPERTY_RETRY_BUDGET_PERCENT, "50");
+      EnhancedPropertyHelper props = new EnhancedPropertyHelper();
+      props.loadProperties(p);
+      
+      BJADWebRequest req = BJADWebRequestFactory.createRequest(props);
+      RetryPolicy policy = req.getRetryPolicy();
+      assertThat("Max attempts set", policy.getMaxAttempts(), is(4));
+      assertThat("Base backoff set", policy.getBaseBackoff(), is(5L));
+      assertThat("Max backoff set", policy.getMaxBackoff(), is(20L));
+      assertThat("Status codes set", policy.getRetryStatusCodes(), is(new LinkedHashSet<>(Arrays.asList(500, 503))));
+      assertThat("Unknown exception class skipped", policy.getRetryExceptions(), contains(java.io.IOException.class));
+      assertThat("Non-idempotent retries set", policy.isRetryNonIdempotent(), is(true));
+      assertThat("Budget set", policy.getBudgetPercent(), is(50.0));
+      assertThat("Copied policy is its own instance", req.copy().getRetryPolicy(), not(sameInstance(policy)));
+      
+      BJADWebResponse<String> response = new BJADWebComponent(req).performWebCall(String.class);
+      assertThat("Configured status code retried", response.getData(), is("succeeded 2"));
+      
+      p.put(BJADWebConstants.PROPERTY_RETRY_MAX_ATTEMPTS, "1");
+      props = new EnhancedPropertyHelper();
+      props.loadProperties(p);
+      assertThat("Single attempt leaves retries off", BJADWebRequestFactory.createRequest(props).getRetryPolicy(), nullValue());
+      assertThat("Idempotent methods", HTTPMethodType.PUT.isIdempotent() && !HTTPMethodType.POST.isIdempotent(), is(true));
+   }
+}